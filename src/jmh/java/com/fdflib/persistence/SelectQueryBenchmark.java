@@ -0,0 +1,94 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.service.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the SQL of a typical SqlStatement (select, where on id / cf / tid, order by) and running
+ * selectQuery, which reads and hydrates every state of the tenant, against the in-memory HSQL BenchmarkDatabase for
+ * a narrow (11 field) and a wide (20 field) entity with 1, 10 or 50 closed states each.
+ *
+ * Run with: gradle jmh -Pjmh.args="SelectQueryBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SelectQueryBenchmark {
+
+    private static final int ENTITIES = 100;
+
+    @Param({"NARROW", "WIDE"})
+    public BenchmarkDatabase.Width width;
+
+    @Param({"1", "10", "50"})
+    public int historyDepth;
+
+    private Class<? extends CommonState> stateClass;
+    private long tenantId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkDatabase.start();
+        stateClass = width.stateClass;
+        tenantId = BenchmarkDatabase.newTenant();
+        BenchmarkDatabase.seed(stateClass, ENTITIES, historyDepth, tenantId);
+    }
+
+    private WhereClause tenantClause() {
+        WhereClause tenant = new WhereClause();
+        tenant.name = "tid";
+        tenant.value = Long.toString(tenantId);
+        tenant.valueDataType = Long.class;
+        return tenant;
+    }
+
+    @Benchmark
+    public void sqlGeneration(Blackhole bh) {
+        WhereClause id = new WhereClause();
+        id.name = "id";
+        id.value = "42";
+        id.valueDataType = Long.class;
+
+        WhereClause current = new WhereClause();
+        current.name = "cf";
+        current.value = "true";
+        current.valueDataType = Boolean.class;
+
+        SqlStatement statement = SqlStatement.build().where(id).where(current).where(tenantClause()).orderBy("id");
+        bh.consume(statement.getSelect());
+        bh.consume(statement.getWhere());
+        bh.consume(statement.getParameters());
+        bh.consume(statement.getOrderBy());
+    }
+
+    @Benchmark
+    public List<CommonState> selectQuery() {
+        return FdfPersistence.getInstance().selectQuery(stateClass, SqlStatement.build().where(tenantClause()));
+    }
+}
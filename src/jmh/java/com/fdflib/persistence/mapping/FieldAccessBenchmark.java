@@ -0,0 +1,191 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing every persisted field of a 20 field entity through java.lang.reflect.Field (the way
+ * statements used to be bound and rows hydrated) with the MethodHandle accessors of FieldMapping.
+ *
+ * Run with: gradle jmh -Pjmh.args="FieldAccessBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldAccessBenchmark {
+
+    /**
+     * 20 persisted fields: the 9 of CommonState and 11 of its own.
+     */
+    public static class BenchmarkState extends CommonState {
+        private static final long serialVersionUID = 1L;
+
+        public String name;
+        public String description;
+        public int quantity;
+        public int priority;
+        public long ownerId;
+        public double price;
+        public double weight;
+        public float ratio;
+        public boolean active;
+        public BigDecimal total;
+        public Date due;
+    }
+
+    private Field[] reflectedFields;
+    private FieldMapping[] mappedFields;
+    private Object[] values;
+    private BenchmarkState state;
+
+    @Setup
+    public void setup() {
+        List<Field> reflected = new ArrayList<>();
+        for (Field field : BenchmarkState.class.getFields()) {
+            if (!field.isAnnotationPresent(FdfIgnore.class)) {
+                reflected.add(field);
+            }
+        }
+        reflectedFields = reflected.toArray(new Field[0]);
+        mappedFields = ClassMapping.forClass(BenchmarkState.class).getFields().toArray(new FieldMapping[0]);
+
+        state = new BenchmarkState();
+        state.rid = 1;
+        state.id = 2;
+        state.cf = true;
+        state.arsd = new Date();
+        state.euid = 3;
+        state.esid = 4;
+        state.tid = 1;
+        state.name = "name";
+        state.description = "description";
+        state.quantity = 5;
+        state.priority = 6;
+        state.ownerId = 7;
+        state.price = 8.5;
+        state.weight = 9.5;
+        state.ratio = 0.5f;
+        state.active = true;
+        state.total = new BigDecimal("10.25");
+        state.due = new Date();
+
+        values = new Object[reflectedFields.length];
+        for (int i = 0; i < reflectedFields.length; i++) {
+            try {
+                values[i] = reflectedFields[i].get(state);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public void reflectionRead(Blackhole bh) throws IllegalAccessException {
+        for (Field field : reflectedFields) {
+            Class<?> type = field.getType();
+            if (type == long.class) {
+                bh.consume((long) field.get(state));
+            } else if (type == int.class) {
+                bh.consume((int) field.get(state));
+            } else if (type == double.class) {
+                bh.consume((double) field.get(state));
+            } else if (type == float.class) {
+                bh.consume((float) field.get(state));
+            } else if (type == boolean.class) {
+                bh.consume((boolean) field.get(state));
+            } else {
+                bh.consume(field.get(state));
+            }
+        }
+    }
+
+    @Benchmark
+    public void handleRead(Blackhole bh) {
+        for (FieldMapping field : mappedFields) {
+            switch (field.getType()) {
+                case LONG:
+                    bh.consume(field.isPrimitive() ? field.getLong(state) : field.get(state));
+                    break;
+                case INTEGER:
+                    bh.consume(field.isPrimitive() ? field.getInt(state) : field.get(state));
+                    break;
+                case DOUBLE:
+                    bh.consume(field.isPrimitive() ? field.getDouble(state) : field.get(state));
+                    break;
+                case FLOAT:
+                    bh.consume(field.isPrimitive() ? field.getFloat(state) : field.get(state));
+                    break;
+                case BOOLEAN:
+                    bh.consume(field.isPrimitive() ? field.getBoolean(state) : field.get(state));
+                    break;
+                default:
+                    bh.consume(field.get(state));
+            }
+        }
+    }
+
+    @Benchmark
+    public BenchmarkState reflectionHydrate() throws ReflectiveOperationException {
+        BenchmarkState hydrated = BenchmarkState.class.newInstance();
+        for (int i = 0; i < reflectedFields.length; i++) {
+            reflectedFields[i].setAccessible(true);
+            reflectedFields[i].set(hydrated, values[i]);
+        }
+        return hydrated;
+    }
+
+    @Benchmark
+    public BenchmarkState handleHydrate() {
+        BenchmarkState hydrated = ClassMapping.forClass(BenchmarkState.class).newInstance();
+        for (int i = 0; i < mappedFields.length; i++) {
+            FieldMapping field = mappedFields[i];
+            Object value = values[i];
+            switch (field.getType()) {
+                case LONG:
+                    field.setLong(hydrated, (Long) value);
+                    break;
+                case INTEGER:
+                    field.setInt(hydrated, (Integer) value);
+                    break;
+                case DOUBLE:
+                    field.setDouble(hydrated, (Double) value);
+                    break;
+                case FLOAT:
+                    field.setFloat(hydrated, (Float) value);
+                    break;
+                case BOOLEAN:
+                    field.setBoolean(hydrated, (Boolean) value);
+                    break;
+                default:
+                    field.set(hydrated, value);
+            }
+        }
+        return hydrated;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.service;
+
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * In-memory HSQL database shared by the benchmarks, with a narrow and a wide model class.  Each benchmark trial seeds
+ * its entities under a tenant of its own, so trials that share a JVM do not see each other's rows.
+ */
+public final class BenchmarkDatabase {
+
+    /**
+     * 11 persisted fields: the 9 of CommonState and 2 of its own.
+     */
+    public static class NarrowState extends CommonState {
+        private static final long serialVersionUID = 1L;
+
+        public String name;
+        public int quantity;
+    }
+
+    /**
+     * 20 persisted fields: the 9 of CommonState and 11 of its own.
+     */
+    public static class WideState extends CommonState {
+        private static final long serialVersionUID = 1L;
+
+        public String name;
+        public String description;
+        public int quantity;
+        public int priority;
+        public long ownerId;
+        public double price;
+        public double weight;
+        public float ratio;
+        public boolean active;
+        public BigDecimal total;
+        public Date due;
+    }
+
+    /**
+     * Width of the benchmarked entity, used as a JMH @Param.
+     */
+    public enum Width {
+        NARROW(NarrowState.class), WIDE(WideState.class);
+
+        public final Class<? extends CommonState> stateClass;
+
+        Width(Class<? extends CommonState> stateClass) {
+            this.stateClass = stateClass;
+        }
+    }
+
+    private static boolean started = false;
+    private static long lastTenant = 100;
+
+    private BenchmarkDatabase() {}
+
+    /**
+     * Initializes the in-memory database with the benchmark model, only the first call does anything.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        FdfSettings.PERSISTENCE = DatabaseUtil.DatabaseType.HSQL;
+        FdfSettings.DB_PROTOCOL = DatabaseUtil.DatabaseProtocol.JDBC_HSQL;
+        FdfSettings.HSQL_DB_FILE = false;
+        FdfSettings.DB_NAME = "fdfbenchmark";
+        FdfServices.initializeFdfDataModel(new ArrayList<>(Arrays.asList(NarrowState.class, WideState.class)));
+        started = true;
+    }
+
+    /**
+     * @return a tenant id no other trial of this JVM has used
+     */
+    public static synchronized long newTenant() {
+        return ++lastTenant;
+    }
+
+    /**
+     * Saves entities that each have historyDepth closed states besides their current state.
+     *
+     * @param c model class
+     * @param entities number of entities to save
+     * @param historyDepth number of times each entity is updated after it is created
+     * @param tenantId tenant to save the entities under
+     * @param <S> type of the entities
+     * @return the current states of the saved entities
+     */
+    public static <S extends CommonState> List<S> seed(Class<S> c, int entities, int historyDepth, long tenantId) {
+        List<S> current = new ArrayList<>(entities);
+        for (int i = 0; i < entities; i++) {
+            S state = newState(c, i);
+            for (int update = 0; update <= historyDepth; update++) {
+                FdfEntity<S> saved = FdfCommonServices.save(c, state, 1, 1, tenantId);
+                state = saved.current;
+                change(state, update);
+            }
+            current.add(state);
+        }
+        return current;
+    }
+
+    /**
+     * Creates a new state of the model class with every field filled.
+     *
+     * @param c model class
+     * @param seed value the fields are derived from
+     * @param <S> type of the state
+     * @return the new state
+     */
+    public static <S extends CommonState> S newState(Class<S> c, int seed) {
+        try {
+            S state = c.newInstance();
+            if (state instanceof NarrowState) {
+                NarrowState narrow = (NarrowState) state;
+                narrow.name = "narrow " + seed;
+                narrow.quantity = seed;
+            } else if (state instanceof WideState) {
+                WideState wide = (WideState) state;
+                wide.name = "wide " + seed;
+                wide.description = "benchmark entity number " + seed + " with all of its fields set";
+                wide.quantity = seed;
+                wide.priority = seed % 5;
+                wide.ownerId = seed * 31L;
+                wide.price = seed * 1.25;
+                wide.weight = seed * 0.5;
+                wide.ratio = seed / 100f;
+                wide.active = seed % 2 == 0;
+                wide.total = new BigDecimal(seed).movePointLeft(2);
+                wide.due = new Date();
+            }
+            return state;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create " + c.getName(), e);
+        }
+    }
+
+    /**
+     * Changes a field of the state so saving it creates a new state.
+     *
+     * @param state state to change
+     * @param value new value
+     */
+    public static void change(CommonState state, int value) {
+        if (state instanceof NarrowState) {
+            ((NarrowState) state).quantity = value;
+        } else if (state instanceof WideState) {
+            ((WideState) state).quantity = value;
+        }
+    }
+}
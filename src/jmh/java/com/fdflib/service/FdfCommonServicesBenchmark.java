@@ -0,0 +1,109 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.service;
+
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.service.impl.FdfCommonServices;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the FdfCommonServices calls applications make most against the in-memory HSQL BenchmarkDatabase, for a
+ * narrow (11 field) and a wide (20 field) entity with 1, 10 or 50 closed states each.
+ *
+ * save creates a new entity on every call, saveUpdate updates the seeded entities in turn (which adds to their
+ * history as the benchmark runs).  manageReturnedEntities groups rows already read, without touching the database.
+ *
+ * Run with: gradle jmh -Pjmh.args="FdfCommonServicesBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FdfCommonServicesBenchmark {
+
+    private static final int ENTITIES = 100;
+
+    @Param({"NARROW", "WIDE"})
+    public BenchmarkDatabase.Width width;
+
+    @Param({"1", "10", "50"})
+    public int historyDepth;
+
+    private Class<CommonState> stateClass;
+    private long tenantId;
+    private List<CommonState> seeded;
+    private List<CommonState> rawStates;
+    private int next = 0;
+    private int created = 0;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        BenchmarkDatabase.start();
+        stateClass = (Class<CommonState>) width.stateClass;
+        tenantId = BenchmarkDatabase.newTenant();
+        seeded = BenchmarkDatabase.seed(stateClass, ENTITIES, historyDepth, tenantId);
+
+        WhereClause tenant = new WhereClause();
+        tenant.name = "tid";
+        tenant.value = Long.toString(tenantId);
+        tenant.valueDataType = Long.class;
+        rawStates = SqlStatement.build().where(tenant).run(stateClass);
+    }
+
+    private CommonState nextSeeded() {
+        next = (next + 1) % seeded.size();
+        return seeded.get(next);
+    }
+
+    @Benchmark
+    public FdfEntity<CommonState> save() {
+        return FdfCommonServices.save(stateClass, BenchmarkDatabase.newState(stateClass, created++), 1, 1, tenantId);
+    }
+
+    @Benchmark
+    public FdfEntity<CommonState> saveUpdate() {
+        CommonState state = nextSeeded();
+        BenchmarkDatabase.change(state, ++created);
+        FdfEntity<CommonState> saved = FdfCommonServices.save(stateClass, state, 1, 1, tenantId);
+        seeded.set(next, saved.current);
+        return saved;
+    }
+
+    @Benchmark
+    public CommonState getEntityCurrentById() {
+        return FdfCommonServices.getEntityCurrentById(stateClass, nextSeeded().id, tenantId);
+    }
+
+    @Benchmark
+    public List<FdfEntity<CommonState>> getAllHistory() {
+        return FdfCommonServices.getAllHistory(stateClass, tenantId);
+    }
+
+    @Benchmark
+    public List<FdfEntity<CommonState>> manageReturnedEntities() {
+        return FdfCommonServices.manageReturnedEntities(rawStates);
+    }
+}
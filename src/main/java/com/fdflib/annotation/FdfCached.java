@@ -0,0 +1,38 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps the current states of a model class read by id (FdfCommonServices.getEntityCurrentById and getEntityById) in
+ * the CurrentStateCache of this JVM.  Cached states are dropped when the entity is saved, deleted or undeleted through
+ * FdfCommonServices in the same JVM, changes made by other processes are seen once ttlSeconds() have passed.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FdfCached {
+
+    /**
+     * @return number of seconds a state read from the database is served from the cache
+     */
+    int ttlSeconds() default 60;
+}
@@ -0,0 +1,45 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.annotation;
+
+import com.fdflib.persistence.codec.BinaryCodec;
+import com.fdflib.persistence.codec.FieldCodec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Chooses how a model field without a column type of its own (value objects, maps, sets...) is stored in its binary
+ * column.  Fields without the annotation use FdfSettings.FIELD_CODEC, uncompressed.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface FdfCodec {
+
+    /**
+     * @return codec that encodes the value of the field
+     */
+    Class<? extends FieldCodec> value() default BinaryCodec.class;
+
+    /**
+     * @return true to deflate the encoded value when that makes it smaller, for large text heavy values
+     */
+    boolean compress() default false;
+}
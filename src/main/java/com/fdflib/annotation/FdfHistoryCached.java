@@ -0,0 +1,36 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps the closed states of a model class read by id (FdfCommonServices.auditEntityById, getEntityHistoryById,
+ * getAtDateById and getEntityBetweenDatesById) in the HistoryCache of this JVM, so that only states saved since are
+ * read again.  The cache trusts that closed states are not changed and that rids are committed in order, which only
+ * holds when the states of the class are saved by this JVM: delete flags set and states saved concurrently by other
+ * processes can be missed until HistoryCache.invalidate is called.  Classes without it are filtered by the database.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FdfHistoryCached {
+}
@@ -0,0 +1,42 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Partitions the states of a model class by arsd on PostgreSQL (11 or later), one range partition per months() months.
+ * The history table is partitioned for classes annotated with @FdfSplitHistory, the class table otherwise.  Queries
+ * over a time window only read the partitions of that window and old partitions can be detached from the table
+ * (CorePostgreSqlQueries.detachPartitionsBefore) instead of deleting their rows.
+ *
+ * Only tables created after the annotation is added are partitioned.  PostgreSQL 10 and older and the other databases
+ * ignore it and create a plain table.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FdfPartitioned {
+
+    /**
+     * @return number of months held by each partition
+     */
+    int months() default 1;
+}
@@ -0,0 +1,356 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.cache;
+
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.util.FdfSettings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read through cache of the current states (and entities) of classes annotated with @FdfCached, keyed by class, tenant
+ * and id.  Holds at most FdfSettings.CACHE_SIZE entries, evicting the least recently used, and each entry is served
+ * for the ttl of its class.  FdfCommonServices reads through the cache in getEntityCurrentById, getEntityById and
+ * their multi id versions getEntitiesCurrentByIds and getEntitiesByIds, and invalidates the entity whenever it saves a
+ * new state for it (save, saveAll, setDeleteFlag, removeDeleteFlag).
+ *
+ * States are copied into and out of the cache so callers may change the states they are given.  A read that
+ * overlaps an invalidation does not store its result, it may have read the state from before the change.
+ */
+public class CurrentStateCache {
+
+    private static final CurrentStateCache INSTANCE = new CurrentStateCache();
+
+    // guarded by this, in access order
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long invalidations = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private CurrentStateCache() {}
+
+    public static CurrentStateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current state of the entity, from the cache if it holds it and the class is cached, otherwise from
+     * the loader.  Only states that exist are cached.
+     *
+     * @param c class of the state
+     * @param id id of the entity
+     * @param tenantId tenant of the entity
+     * @param loader reads the current state from the database
+     * @param <S> type of the state
+     * @return copy of the current state, or null if the loader found none
+     */
+    public <S extends CommonState> S getCurrent(Class<S> c, long id, long tenantId, Supplier<S> loader) {
+        ClassMapping<S> mapping = ClassMapping.forClass(c);
+        if (mapping.getCacheTtl() <= 0) {
+            return loader.get();
+        }
+        Key key = new Key(c, tenantId, id, false);
+        Object cached = lookup(key);
+        if (cached != null) {
+            return mapping.copy(c.cast(cached));
+        }
+
+        long version = version();
+        S state = loader.get();
+        if (state != null) {
+            store(key, mapping.copy(state), mapping.getCacheTtl(), version);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the entity (current state and history), from the cache if it holds it and the class is cached, otherwise
+     * from the loader.  Only entities with at least one state are cached.
+     *
+     * @param c class of the states
+     * @param id id of the entity
+     * @param tenantId tenant of the entity
+     * @param loader reads the entity from the database
+     * @param <S> type of the states
+     * @return copy of the entity
+     */
+    @SuppressWarnings("unchecked")
+    public <S extends CommonState> FdfEntity<S> getEntity(Class<S> c, long id, long tenantId,
+                                                          Supplier<FdfEntity<S>> loader) {
+        ClassMapping<S> mapping = ClassMapping.forClass(c);
+        if (mapping.getCacheTtl() <= 0) {
+            return loader.get();
+        }
+        Key key = new Key(c, tenantId, id, true);
+        Object cached = lookup(key);
+        if (cached != null) {
+            return copy(mapping, (FdfEntity<S>) cached);
+        }
+
+        long version = version();
+        FdfEntity<S> entity = loader.get();
+        if (entity != null && (entity.current != null || !entity.history.isEmpty())) {
+            store(key, copy(mapping, entity), mapping.getCacheTtl(), version);
+        }
+        return entity;
+    }
+
+    /**
+     * Multi id version of getCurrent: the current states the cache holds are served from it and the loader reads the
+     * rest in one call.  Only states that exist are cached.
+     *
+     * @param c class of the states
+     * @param ids ids of the entities, nulls and duplicates are skipped
+     * @param tenantId tenant of the entities
+     * @param loader reads the current states of the ids it is passed from the database, by id
+     * @param <S> type of the states
+     * @return copies of the current states by id, ids without a current state are left out
+     */
+    public <S extends CommonState> Map<Long, S> getCurrents(Class<S> c, Collection<Long> ids, long tenantId,
+                                                           Function<List<Long>, Map<Long, S>> loader) {
+        ClassMapping<S> mapping = ClassMapping.forClass(c);
+        if (mapping.getCacheTtl() <= 0) {
+            return loader.apply(new ArrayList<>(ids));
+        }
+        Map<Long, S> states = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            Object cached = id != null ? lookup(new Key(c, tenantId, id, false)) : null;
+            if (cached != null) {
+                states.put(id, mapping.copy(c.cast(cached)));
+            }
+            else if (id != null) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return states;
+        }
+
+        long version = version();
+        for (Map.Entry<Long, S> loaded : loader.apply(missing).entrySet()) {
+            store(new Key(c, tenantId, loaded.getKey(), false), mapping.copy(loaded.getValue()),
+                    mapping.getCacheTtl(), version);
+            states.put(loaded.getKey(), loaded.getValue());
+        }
+        return states;
+    }
+
+    /**
+     * Multi id version of getEntity: the entities the cache holds are served from it and the loader reads the rest in
+     * one call.  Only entities with at least one state are cached.
+     *
+     * @param c class of the states
+     * @param ids ids of the entities, nulls and duplicates are skipped
+     * @param tenantId tenant of the entities
+     * @param loader reads the entities of the ids it is passed from the database, by id
+     * @param <S> type of the states
+     * @return copies of the entities by id, ids without any state are left out
+     */
+    @SuppressWarnings("unchecked")
+    public <S extends CommonState> Map<Long, FdfEntity<S>> getEntities(
+            Class<S> c, Collection<Long> ids, long tenantId, Function<List<Long>, Map<Long, FdfEntity<S>>> loader) {
+        ClassMapping<S> mapping = ClassMapping.forClass(c);
+        if (mapping.getCacheTtl() <= 0) {
+            return loader.apply(new ArrayList<>(ids));
+        }
+        Map<Long, FdfEntity<S>> entities = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            Object cached = id != null ? lookup(new Key(c, tenantId, id, true)) : null;
+            if (cached != null) {
+                entities.put(id, copy(mapping, (FdfEntity<S>) cached));
+            }
+            else if (id != null) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return entities;
+        }
+
+        long version = version();
+        for (Map.Entry<Long, FdfEntity<S>> loaded : loader.apply(missing).entrySet()) {
+            FdfEntity<S> entity = loaded.getValue();
+            if (entity.current != null || !entity.history.isEmpty()) {
+                store(new Key(c, tenantId, loaded.getKey(), true), copy(mapping, entity), mapping.getCacheTtl(),
+                        version);
+            }
+            entities.put(loaded.getKey(), entity);
+        }
+        return entities;
+    }
+
+    /**
+     * Drops the cached current state and entity of the id, called when a new state of the entity is saved.
+     *
+     * @param c class of the states
+     * @param id id of the entity
+     * @param tenantId tenant of the entity
+     */
+    public void invalidate(Class<?> c, long id, long tenantId) {
+        if (ClassMapping.forClass(c).getCacheTtl() <= 0) {
+            return;
+        }
+        synchronized (this) {
+            invalidations++;
+            entries.remove(new Key(c, tenantId, id, false));
+            entries.remove(new Key(c, tenantId, id, true));
+        }
+    }
+
+    /**
+     * Drops every cached state of the class, for changes made without going through FdfCommonServices.
+     *
+     * @param c class of the states
+     */
+    public synchronized void invalidate(Class<?> c) {
+        invalidations++;
+        entries.keySet().removeIf(key -> key.type == c);
+    }
+
+    /**
+     * Drops every cached state.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    /**
+     * @return number of lookups of cached classes served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups of cached classes that were read from the database
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries evicted to keep the cache within FdfSettings.CACHE_SIZE
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of entries held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized Object lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires - System.currentTimeMillis() > 0) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private synchronized long version() {
+        return invalidations;
+    }
+
+    private synchronized void store(Key key, Object value, long ttl, long version) {
+        // an invalidation since the read started may have been for this entity, the value could be stale
+        if (version != invalidations || FdfSettings.CACHE_SIZE <= 0) {
+            return;
+        }
+        entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > FdfSettings.CACHE_SIZE && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static <S extends CommonState> FdfEntity<S> copy(ClassMapping<S> mapping, FdfEntity<S> entity) {
+        FdfEntity<S> copy = new FdfEntity<>();
+        copy.entityId = entity.entityId;
+        copy.current = mapping.copy(entity.current);
+        for (S state : entity.history) {
+            copy.history.add(mapping.copy(state));
+        }
+        return copy;
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final long tenantId;
+        private final long id;
+        private final boolean entity;
+
+        Key(Class<?> type, long tenantId, long id, boolean entity) {
+            this.type = type;
+            this.tenantId = tenantId;
+            this.id = id;
+            this.entity = entity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && tenantId == other.tenantId && id == other.id && entity == other.entity;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, tenantId, id, entity);
+        }
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expires;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
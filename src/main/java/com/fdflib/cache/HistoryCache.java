@@ -0,0 +1,300 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.cache;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.util.FdfSettings;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Cache of the closed states of entities, keyed by class, tenant and id.  A state that has been closed (cf false and
+ * ared set) is never changed again by 4DFLib, so once the closed states of an entity have been read only the states
+ * newer than the watermark of the entity (its current state and anything saved since) have to be read again.  The
+ * watermark is the highest rid below which every state of the entity is closed and cached.
+ *
+ * Only classes annotated with @FdfHistoryCached are cached, FdfCommonServices reads them through the cache in
+ * auditEntityById, getEntityHistoryById, getAtDateById and getEntityBetweenDatesById.  The cache is local to the JVM:
+ * states saved by other processes are only seen if their rids are above the watermark when they commit, and delete
+ * flags they set on closed states are not seen until the entity is invalidated.  The cache holds at most
+ * FdfSettings.HISTORY_CACHE_SIZE states, evicting the least recently used entities.  States are copied on the way out
+ * so callers may change the states they are given.
+ * Closed states changed through FdfPersistence.update drop their entity from the cache, closed states changed
+ * outside of 4DFLib are not seen until invalidate or clear is called.
+ */
+public class HistoryCache {
+
+    private static final HistoryCache INSTANCE = new HistoryCache();
+
+    // guarded by this, in access order.  Entries are never changed, a refreshed entity gets a new entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedStates = 0;
+    private long invalidations = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong statesServed = new AtomicLong();
+
+    private HistoryCache() {}
+
+    public static HistoryCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns every state of the entity ordered by rid, the closed states known to the cache along with the states
+     * read by the loader.
+     *
+     * @param c class of the states
+     * @param id id of the entity
+     * @param tenantId tenant of the entity
+     * @param newerThan reads the states of the entity with a rid greater than the passed watermark, all states of the
+     *                  entity when it is passed -1
+     * @param <S> type of the states
+     * @return the states of the entity ordered by rid
+     */
+    @SuppressWarnings("unchecked")
+    public <S extends CommonState> List<S> getStates(Class<S> c, long id, long tenantId,
+                                                     LongFunction<List<S>> newerThan) {
+        ClassMapping<S> mapping = ClassMapping.forClass(c);
+        if (FdfSettings.HISTORY_CACHE_SIZE <= 0 || !mapping.isHistoryCached()) {
+            return newerThan.apply(-1);
+        }
+        Key key = new Key(c, tenantId, id);
+
+        Entry cached;
+        long version;
+        synchronized (this) {
+            cached = entries.get(key);
+            version = invalidations;
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        List<S> read = newerThan.apply(cached != null ? cached.watermark : -1);
+
+        // merge by rid, a closed state above the watermark may be both cached and read
+        TreeMap<Long, S> states = new TreeMap<>();
+        TreeMap<Long, CommonState> closed = new TreeMap<>();
+        if (cached != null) {
+            for (CommonState state : cached.closed) {
+                states.put(state.rid, mapping.copy((S) state));
+                closed.put(state.rid, state);
+            }
+            statesServed.addAndGet(cached.closed.length);
+        }
+        for (S state : read) {
+            states.put(state.rid, state);
+            if (!isClosed(state)) {
+                closed.remove(state.rid);
+            } else if (!closed.containsKey(state.rid)) {
+                closed.put(state.rid, mapping.copy(state));
+            }
+        }
+
+        // the watermark stays below the states that can still change
+        long watermark = closed.isEmpty() ? -1 : closed.lastKey();
+        for (S state : states.values()) {
+            if (!closed.containsKey(state.rid)) {
+                watermark = Math.min(watermark, state.rid - 1);
+                break;
+            }
+        }
+        if (cached == null || closed.size() != cached.closed.length || watermark != cached.watermark) {
+            store(key, new Entry(closed.values().toArray(new CommonState[0]), watermark), version);
+        }
+        return new ArrayList<>(states.values());
+    }
+
+    /**
+     * Drops the entity of the state from the cache if the state is one of its cached closed states, called when a
+     * state is updated in place.
+     *
+     * @param c class of the state
+     * @param state the updated state
+     */
+    public void updated(Class<?> c, Object state) {
+        if (!(state instanceof CommonState)) {
+            return;
+        }
+        CommonState commonState = (CommonState) state;
+        synchronized (this) {
+            Key key = new Key(c, commonState.tid, commonState.id);
+            Entry entry = entries.get(key);
+            if (entry != null && entry.contains(commonState.rid)) {
+                invalidations++;
+                cachedStates -= entries.remove(key).closed.length;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached states of the entity.
+     *
+     * @param c class of the states
+     * @param id id of the entity
+     * @param tenantId tenant of the entity
+     */
+    public synchronized void invalidate(Class<?> c, long id, long tenantId) {
+        invalidations++;
+        Entry removed = entries.remove(new Key(c, tenantId, id));
+        if (removed != null) {
+            cachedStates -= removed.closed.length;
+        }
+    }
+
+    /**
+     * Drops every cached state of the class, for closed states changed outside of 4DFLib.
+     *
+     * @param c class of the states
+     */
+    public synchronized void invalidate(Class<?> c) {
+        invalidations++;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().type == c) {
+                cachedStates -= entry.getValue().closed.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every cached state.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+        cachedStates = 0;
+    }
+
+    /**
+     * @return number of reads of entities that had cached states
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of reads of entities that had no cached states
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of states served from the cache instead of being read from the database
+     */
+    public long getStatesServedCount() {
+        return statesServed.get();
+    }
+
+    /**
+     * @return number of closed states held
+     */
+    public synchronized long size() {
+        return cachedStates;
+    }
+
+    /**
+     * @param state state to check
+     * @return true if the state is closed and will not change again
+     */
+    public static boolean isClosed(CommonState state) {
+        return !state.cf && state.ared != null;
+    }
+
+    private synchronized void store(Key key, Entry entry, long version) {
+        // an invalidation since the read started may have been for this entity, the states could be stale
+        if (version != invalidations || entry.closed.length == 0
+                || entry.closed.length > FdfSettings.HISTORY_CACHE_SIZE) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        cachedStates += entry.closed.length - (previous != null ? previous.closed.length : 0);
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (cachedStates > FdfSettings.HISTORY_CACHE_SIZE && eldest.hasNext()) {
+            cachedStates -= eldest.next().closed.length;
+            eldest.remove();
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final long tenantId;
+        private final long id;
+
+        Key(Class<?> type, long tenantId, long id) {
+            this.type = type;
+            this.tenantId = tenantId;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && tenantId == other.tenantId && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, tenantId, id);
+        }
+    }
+
+    private static final class Entry {
+        // closed states ordered by rid, never handed out without being copied
+        private final CommonState[] closed;
+        private final long watermark;
+
+        Entry(CommonState[] closed, long watermark) {
+            this.closed = closed;
+            this.watermark = watermark;
+        }
+
+        int indexOf(long rid) {
+            int low = 0;
+            int high = closed.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (closed[middle].rid < rid) {
+                    low = middle + 1;
+                } else if (closed[middle].rid > rid) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        boolean contains(long rid) {
+            return indexOf(rid) >= 0;
+        }
+    }
+}
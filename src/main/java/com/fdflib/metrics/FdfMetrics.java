@@ -0,0 +1,112 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.metrics;
+
+/**
+ * Receives the measurements 4DFLib takes of its own work: how long each insert, update, select and save took per
+ * model class, how many rows were hydrated and how many bytes of codec encoded fields were decoded, how long
+ * connections took to acquire and how full the connection pools are.  The implementation in use is
+ * FdfSettings.METRICS:
+ *
+ *   NoOpMetrics     - discards everything, the default
+ *   InMemoryMetrics - keeps counts, totals and maximums in memory, for reports and tests
+ *
+ * Implementations are called on the threads doing the work and must be thread safe and quick, adapters to a metrics
+ * library should only update its meters here.
+ */
+public interface FdfMetrics {
+
+    /**
+     * Timed operations.
+     */
+    enum Operation {
+        /** insert, insertCurrent and insertBatch of FdfPersistence */
+        INSERT,
+        /** update and updateBatch of FdfPersistence */
+        UPDATE,
+        /** selectQuery of FdfPersistence, streamQuery until its cursor is open */
+        SELECT,
+        /** a save or saveAll through FdfCommonServices, including allocating ids and closing the previous states */
+        SAVE
+    }
+
+    /**
+     * Gauges of a connection pool, read whenever the metrics are reported.
+     */
+    interface PoolStats {
+        int getTotalConnections();
+        int getIdleConnections();
+        int getActiveConnections();
+        int getPendingThreads();
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param c model class the operation was run for
+     * @param operation the operation
+     * @param nanos duration in nanoseconds
+     */
+    void recordOperation(Class<?> c, Operation operation, long nanos);
+
+    /**
+     * Records rows read from the database into states.
+     *
+     * @param c model class of the states
+     * @param rows number of rows
+     */
+    void recordRowsHydrated(Class<?> c, long rows);
+
+    /**
+     * Records the stored size of a codec encoded field that was read.
+     *
+     * @param c class declaring the field
+     * @param bytes number of bytes decoded
+     */
+    void recordBytesDecoded(Class<?> c, long bytes);
+
+    /**
+     * Records the time a connection took to be handed out by the pool.
+     *
+     * @param pool name of the pool
+     * @param nanos time waited in nanoseconds
+     */
+    void recordConnectionAcquired(String pool, long nanos);
+
+    /**
+     * Records how long a connection was used before it was handed back to the pool.
+     *
+     * @param pool name of the pool
+     * @param millis time used in milliseconds
+     */
+    void recordConnectionUsage(String pool, long millis);
+
+    /**
+     * Records a request for a connection that timed out.
+     *
+     * @param pool name of the pool
+     */
+    void recordConnectionTimeout(String pool);
+
+    /**
+     * Registers the gauges of a connection pool when it is started.
+     *
+     * @param pool name of the pool
+     * @param stats gauges of the pool
+     */
+    void registerPool(String pool, PoolStats stats);
+}
@@ -0,0 +1,72 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.metrics;
+
+import com.fdflib.util.FdfSettings;
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Passes the measurements of the HikariCP pools 4DFLib creates (connection acquire and usage times, timeouts and the
+ * pool gauges) on to FdfSettings.METRICS.  The gauges are registered when the pool starts, so METRICS should be set
+ * before initializeFdfDataModel.
+ */
+public class HikariMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    @Override
+    public MetricsTracker create(String poolName, PoolStats poolStats) {
+        FdfSettings.METRICS.registerPool(poolName, new FdfMetrics.PoolStats() {
+            @Override
+            public int getTotalConnections() {
+                return poolStats.getTotalConnections();
+            }
+
+            @Override
+            public int getIdleConnections() {
+                return poolStats.getIdleConnections();
+            }
+
+            @Override
+            public int getActiveConnections() {
+                return poolStats.getActiveConnections();
+            }
+
+            @Override
+            public int getPendingThreads() {
+                return poolStats.getPendingThreads();
+            }
+        });
+
+        return new MetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                FdfSettings.METRICS.recordConnectionAcquired(poolName, elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                FdfSettings.METRICS.recordConnectionUsage(poolName, elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                FdfSettings.METRICS.recordConnectionTimeout(poolName);
+            }
+        };
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FdfMetrics that keeps the count, total and maximum of every timer and the totals of every counter in memory, per
+ * model class and per pool.  Meant for finding the hot tables of an application (report() lists the model classes by
+ * the time spent on them) and for tests, long running applications will usually adapt FdfMetrics to their metrics
+ * library instead.
+ */
+public class InMemoryMetrics implements FdfMetrics {
+
+    /**
+     * Count, total and maximum of the recorded durations.
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long duration) {
+            count.increment();
+            total.add(duration);
+            max.accumulateAndGet(duration, Math::max);
+        }
+
+        /**
+         * @return number of durations recorded
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return sum of the durations recorded
+         */
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * @return longest duration recorded
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return mean of the durations recorded, 0 if none were
+         */
+        public double getMean() {
+            long count = getCount();
+            return count > 0 ? (double) getTotal() / count : 0;
+        }
+    }
+
+    /**
+     * Measurements of one connection pool.
+     */
+    public static class Pool {
+        private final Timer acquired = new Timer();
+        private final Timer usage = new Timer();
+        private final LongAdder timeouts = new LongAdder();
+        private volatile PoolStats stats;
+
+        /**
+         * @return time connections took to be handed out, in nanoseconds
+         */
+        public Timer getAcquired() {
+            return acquired;
+        }
+
+        /**
+         * @return time connections were used for, in milliseconds
+         */
+        public Timer getUsage() {
+            return usage;
+        }
+
+        /**
+         * @return number of connection requests that timed out
+         */
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return gauges of the pool, null until the pool has registered them
+         */
+        public PoolStats getStats() {
+            return stats;
+        }
+    }
+
+    private final Map<Class<?>, Timer[]> operations = new ConcurrentHashMap<>();
+    private final Map<Class<?>, LongAdder> rowsHydrated = new ConcurrentHashMap<>();
+    private final Map<Class<?>, LongAdder> bytesDecoded = new ConcurrentHashMap<>();
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordOperation(Class<?> c, Operation operation, long nanos) {
+        operations.computeIfAbsent(c, k -> newTimers())[operation.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordRowsHydrated(Class<?> c, long rows) {
+        rowsHydrated.computeIfAbsent(c, k -> new LongAdder()).add(rows);
+    }
+
+    @Override
+    public void recordBytesDecoded(Class<?> c, long bytes) {
+        bytesDecoded.computeIfAbsent(c, k -> new LongAdder()).add(bytes);
+    }
+
+    @Override
+    public void recordConnectionAcquired(String pool, long nanos) {
+        pool(pool).acquired.record(nanos);
+    }
+
+    @Override
+    public void recordConnectionUsage(String pool, long millis) {
+        pool(pool).usage.record(millis);
+    }
+
+    @Override
+    public void recordConnectionTimeout(String pool) {
+        pool(pool).timeouts.increment();
+    }
+
+    @Override
+    public void registerPool(String pool, PoolStats stats) {
+        pool(pool).stats = stats;
+    }
+
+    /**
+     * @param c model class
+     * @param operation operation
+     * @return durations of the operation on the class in nanoseconds, empty if none were recorded
+     */
+    public Timer getTimer(Class<?> c, Operation operation) {
+        Timer[] timers = operations.get(c);
+        return timers != null ? timers[operation.ordinal()] : new Timer();
+    }
+
+    /**
+     * @param c model class
+     * @return number of rows of the class hydrated
+     */
+    public long getRowsHydrated(Class<?> c) {
+        LongAdder rows = rowsHydrated.get(c);
+        return rows != null ? rows.sum() : 0;
+    }
+
+    /**
+     * @param c class declaring codec encoded fields
+     * @return number of bytes of its codec encoded fields decoded
+     */
+    public long getBytesDecoded(Class<?> c) {
+        LongAdder bytes = bytesDecoded.get(c);
+        return bytes != null ? bytes.sum() : 0;
+    }
+
+    /**
+     * @return the model classes an operation has been recorded for
+     */
+    public Set<Class<?>> getModelClasses() {
+        return Collections.unmodifiableSet(operations.keySet());
+    }
+
+    /**
+     * @param pool name of the pool
+     * @return measurements of the pool, null if nothing was recorded for it
+     */
+    public Pool getPool(String pool) {
+        return pools.get(pool);
+    }
+
+    /**
+     * @return the names of the pools something was recorded for
+     */
+    public Set<String> getPools() {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    /**
+     * Drops everything recorded, registered pool gauges are kept.
+     */
+    public void reset() {
+        operations.clear();
+        rowsHydrated.clear();
+        bytesDecoded.clear();
+        for (Map.Entry<String, Pool> entry : pools.entrySet()) {
+            Pool pool = new Pool();
+            pool.stats = entry.getValue().stats;
+            entry.setValue(pool);
+        }
+    }
+
+    /**
+     * Lists the model classes by the total time spent on their operations, the hottest first, followed by the pools.
+     *
+     * @return one line per model class and pool
+     */
+    public String report() {
+        List<Class<?>> classes = new ArrayList<>(operations.keySet());
+        classes.sort(Comparator.comparingLong(this::totalNanos).reversed());
+
+        StringBuilder report = new StringBuilder();
+        for (Class<?> c : classes) {
+            report.append(c.getSimpleName()).append(": total ").append(totalNanos(c) / 1000000).append(" ms");
+            for (Operation operation : Operation.values()) {
+                Timer timer = getTimer(c, operation);
+                if (timer.getCount() > 0) {
+                    report.append(", ").append(operation.name().toLowerCase()).append(" ").append(timer.getCount())
+                            .append(" x ").append(String.format("%.3f", timer.getMean() / 1000000)).append(" ms (max ")
+                            .append(String.format("%.3f", timer.getMax() / 1000000.0)).append(")");
+                }
+            }
+            report.append(", rows ").append(getRowsHydrated(c));
+            long bytes = getBytesDecoded(c);
+            if (bytes > 0) {
+                report.append(", decoded ").append(bytes).append(" bytes");
+            }
+            report.append("\n");
+        }
+        for (Map.Entry<String, Pool> entry : new TreeMap<>(pools).entrySet()) {
+            Pool pool = entry.getValue();
+            report.append("pool ").append(entry.getKey()).append(": acquired ").append(pool.acquired.getCount())
+                    .append(" x ").append(String.format("%.3f", pool.acquired.getMean() / 1000000)).append(" ms (max ")
+                    .append(String.format("%.3f", pool.acquired.getMax() / 1000000.0)).append("), timeouts ")
+                    .append(pool.getTimeouts());
+            PoolStats stats = pool.stats;
+            if (stats != null) {
+                report.append(", connections ").append(stats.getActiveConnections()).append(" active / ")
+                        .append(stats.getIdleConnections()).append(" idle / ").append(stats.getTotalConnections())
+                        .append(" total, ").append(stats.getPendingThreads()).append(" waiting");
+            }
+            report.append("\n");
+        }
+        return report.toString();
+    }
+
+    private long totalNanos(Class<?> c) {
+        long total = 0;
+        for (Timer timer : operations.get(c)) {
+            total += timer.getTotal();
+        }
+        return total;
+    }
+
+    private Pool pool(String name) {
+        return pools.computeIfAbsent(name, k -> new Pool());
+    }
+
+    private static Timer[] newTimers() {
+        Timer[] timers = new Timer[Operation.values().length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+        return timers;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.metrics;
+
+/**
+ * FdfMetrics that discards every measurement, the default FdfSettings.METRICS.
+ */
+public class NoOpMetrics implements FdfMetrics {
+
+    @Override
+    public void recordOperation(Class<?> c, Operation operation, long nanos) {}
+
+    @Override
+    public void recordRowsHydrated(Class<?> c, long rows) {}
+
+    @Override
+    public void recordBytesDecoded(Class<?> c, long bytes) {}
+
+    @Override
+    public void recordConnectionAcquired(String pool, long nanos) {}
+
+    @Override
+    public void recordConnectionUsage(String pool, long millis) {}
+
+    @Override
+    public void recordConnectionTimeout(String pool) {}
+
+    @Override
+    public void registerPool(String pool, PoolStats stats) {}
+}
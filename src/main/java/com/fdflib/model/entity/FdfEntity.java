@@ -17,12 +17,24 @@
 package com.fdflib.model.entity;
 
 import com.fdflib.model.state.CommonState;
+import com.fdflib.util.LongIntMap;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
+ * Lookups into the history (by date, by rid and for the most recent state) go through an index that is built from the
+ * history the first time it is needed: the states sorted by arsd for binary searching as of a date, the most recent
+ * state and, once getStateByRid is used, the position of each rid.  The index is rebuilt when the history list is
+ * changed or replaced, a null ared is treated as open ended.  Only a HistoryList reports its changes, so the history
+ * passed to the constructor is copied into one and a list of another type assigned to history is scanned instead.
+ *
  * Created by brian.gormanly on 6/12/15.
  */
 public class FdfEntity<S extends CommonState> {
@@ -30,15 +42,17 @@ public class FdfEntity<S extends CommonState> {
     public List<S> history;
     public long entityId = -1;
 
+    private transient volatile HistoryIndex<S> index;
+
     public FdfEntity() {
         current = null;
-        history = new ArrayList<>();
+        history = new HistoryList<>();
     }
 
     public FdfEntity(S currentState, List<S> historyStates) {
         entityId = currentState.id;
         current = currentState;
-        history = historyStates;
+        history = historyStates != null ? new HistoryList<>(historyStates) : null;
     }
 
     public S getStateByRid(long rid) {
@@ -50,10 +64,12 @@ public class FdfEntity<S extends CommonState> {
             }
         }
         if(this.history != null && this.history.size() > 0) {
-            for(S historyState : this.history) {
-                if (historyState.rid == rid) {
-                    thisState = historyState;
-                }
+            // the last history state with the rid
+            HistoryIndex<S> historyIndex = getIndex();
+            int position = historyIndex != null ? historyIndex.positionOfRid(rid)
+                    : HistoryIndex.scanForRid(this.history, rid);
+            if(position >= 0) {
+                thisState = this.history.get(position);
             }
         }
 
@@ -74,22 +90,9 @@ public class FdfEntity<S extends CommonState> {
         else {
             // there was no current state, see if we can get a state from history
             if(this.history != null && this.history.size() > 0) {
-                // find the historical entry with the most recent endDate
-                S lastState = null;
-                for(S historicalState: this.history) {
-                    if(lastState == null) {
-                        lastState = historicalState;
-                    }
-                    else {
-                        // if the state ared we are looking at is greater then then the last one make it the last
-                        if(historicalState.ared.getTime() > lastState.ared.getTime()) {
-                            // the state being looked at is more recent
-                            lastState = historicalState;
-
-                        }
-                    }
-                }
-                return lastState;
+                // the historical entry with the most recent endDate
+                HistoryIndex<S> historyIndex = getIndex();
+                return historyIndex != null ? historyIndex.mostRecent : HistoryIndex.scanForMostRecent(this.history);
             }
         }
         return null;
@@ -99,18 +102,248 @@ public class FdfEntity<S extends CommonState> {
         S thisState = null;
 
         if(this.current != null) {
-            if (this.current.arsd.before(date) && this.current.ared.after(date)) {
+            if (isActiveAt(this.current, date)) {
                 thisState = this.current;
             }
         }
         if(this.history != null && this.history.size() > 0) {
-            for(S historyState : this.history) {
-                if (historyState.arsd.before(date) && historyState.ared.after(date)) {
-                    thisState = historyState;
-                }
+            // a matching history state takes precedence, the last one in the history when intervals overlap
+            HistoryIndex<S> historyIndex = getIndex();
+            S historyState = historyIndex != null ? historyIndex.stateAt(date)
+                    : HistoryIndex.scanForStateAt(this.history, date);
+            if(historyState != null) {
+                thisState = historyState;
             }
         }
 
         return thisState;
     }
+
+    private static boolean isActiveAt(CommonState state, Date date) {
+        return state.arsd != null && state.arsd.before(date) && (state.ared == null || state.ared.after(date));
+    }
+
+    /**
+     * @return the index of the history, null if the history is not a HistoryList and has to be scanned
+     */
+    private HistoryIndex<S> getIndex() {
+        if(!(history instanceof HistoryList)) {
+            return null;
+        }
+        HistoryIndex<S> current = index;
+        if(current == null || !current.isValidFor(history)) {
+            current = new HistoryIndex<>(history);
+            index = current;
+        }
+        return current;
+    }
+
+    /**
+     * ArrayList that exposes a version so the index can tell when the history has changed.  ArrayList only counts
+     * structural changes in modCount, so the changes that replace states (set, replaceAll, sort and the same through a
+     * sub list) are counted here as well.
+     */
+    static class HistoryList<S> extends ArrayList<S> {
+        private static final long serialVersionUID = 1L;
+
+        private int replacements;
+
+        HistoryList() {
+        }
+
+        HistoryList(Collection<? extends S> states) {
+            super(states);
+        }
+
+        @Override
+        public S set(int index, S element) {
+            replacements++;
+            return super.set(index, element);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<S> operator) {
+            replacements++;
+            super.replaceAll(operator);
+        }
+
+        @Override
+        public void sort(Comparator<? super S> c) {
+            replacements++;
+            super.sort(c);
+        }
+
+        @Override
+        public List<S> subList(int fromIndex, int toIndex) {
+            return new HistorySubList(super.subList(fromIndex, toIndex));
+        }
+
+        int getVersion() {
+            return modCount + replacements;
+        }
+
+        /**
+         * Sub list view that counts the states replaced through it, other changes go to the ArrayList view.
+         */
+        private class HistorySubList extends AbstractList<S> {
+            private final List<S> view;
+
+            HistorySubList(List<S> view) {
+                this.view = view;
+            }
+
+            @Override
+            public S get(int index) {
+                return view.get(index);
+            }
+
+            @Override
+            public int size() {
+                return view.size();
+            }
+
+            @Override
+            public S set(int index, S element) {
+                replacements++;
+                return view.set(index, element);
+            }
+
+            @Override
+            public void add(int index, S element) {
+                view.add(index, element);
+            }
+
+            @Override
+            public S remove(int index) {
+                return view.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a history list sorted by arsd.  Positions are positions in the history list, when intervals overlap
+     * the state found is the one the old linear scans returned: the last matching one in the list.
+     */
+    private static class HistoryIndex<S extends CommonState> {
+        private final List<S> history;
+        private final int size;
+        private final int version;
+
+        // positions of the states with an arsd, sorted by arsd
+        private final int[] sorted;
+        private final long[] arsd;
+        // highest ared of sorted[0..i], Long.MAX_VALUE for open ended states
+        private final long[] maxAred;
+
+        private final S mostRecent;
+        private LongIntMap rids;
+
+        HistoryIndex(List<S> history) {
+            this.history = history;
+            this.size = history.size();
+            this.version = ((HistoryList<?>) history).getVersion();
+
+            List<S> states = history;
+            Integer[] order = new Integer[size];
+            int withArsd = 0;
+            for(int i = 0; i < size; i++) {
+                if(states.get(i).arsd != null) {
+                    order[withArsd++] = i;
+                }
+            }
+            order = Arrays.copyOf(order, withArsd);
+            Arrays.sort(order, Comparator.comparingLong(i -> states.get(i).arsd.getTime()));
+
+            sorted = new int[withArsd];
+            arsd = new long[withArsd];
+            maxAred = new long[withArsd];
+            long highest = Long.MIN_VALUE;
+            for(int i = 0; i < withArsd; i++) {
+                S state = states.get(order[i]);
+                sorted[i] = order[i];
+                arsd[i] = state.arsd.getTime();
+                highest = Math.max(highest, aredOf(state));
+                maxAred[i] = highest;
+            }
+
+            // the first state with the highest ared
+            mostRecent = scanForMostRecent(states);
+        }
+
+        boolean isValidFor(List<S> list) {
+            return list == history && list.size() == size && ((HistoryList<?>) list).getVersion() == version;
+        }
+
+        S stateAt(Date date) {
+            long time = date.getTime();
+
+            // states starting before the date are sorted[0..end)
+            int low = 0;
+            int high = arsd.length;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(arsd[mid] < time) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+
+            // walk back while an earlier state could still end after the date
+            int found = -1;
+            for(int i = low - 1; i >= 0 && maxAred[i] > time; i--) {
+                S state = history.get(sorted[i]);
+                if(aredOf(state) > time && sorted[i] > found) {
+                    found = sorted[i];
+                }
+            }
+            return found >= 0 ? history.get(found) : null;
+        }
+
+        int positionOfRid(long rid) {
+            if(rids == null) {
+                LongIntMap map = new LongIntMap(size);
+                for(int i = 0; i < size; i++) {
+                    map.put(history.get(i).rid, i);
+                }
+                rids = map;
+            }
+            return rids.get(rid);
+        }
+
+        private static long aredOf(CommonState state) {
+            return state.ared != null ? state.ared.getTime() : Long.MAX_VALUE;
+        }
+
+        static int scanForRid(List<? extends CommonState> history, long rid) {
+            int position = -1;
+            for(int i = 0; i < history.size(); i++) {
+                if(history.get(i).rid == rid) {
+                    position = i;
+                }
+            }
+            return position;
+        }
+
+        static <S extends CommonState> S scanForMostRecent(List<S> history) {
+            S last = null;
+            for(S state : history) {
+                if(last == null || aredOf(state) > aredOf(last)) {
+                    last = state;
+                }
+            }
+            return last;
+        }
+
+        static <S extends CommonState> S scanForStateAt(List<S> history, Date date) {
+            S found = null;
+            for(S state : history) {
+                if(isActiveAt(state, date)) {
+                    found = state;
+                }
+            }
+            return found;
+        }
+    }
 }
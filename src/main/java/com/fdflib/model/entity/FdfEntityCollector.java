@@ -0,0 +1,163 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.entity;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.util.LongIntMap;
+import com.fdflib.util.LongSet;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Groups raw states returned by a query into entities in a single pass.  Entities are found by id through a primitive
+ * long map and history states already added are recognised by rid through a primitive set, so each state costs a
+ * constant amount of work no matter how many entities or history states have been collected.
+ *
+ * The rules are those of FdfCommonServices.addStateToEntity: the state with cf set becomes the current state of its
+ * entity, every other state is added to the history unless a state with the same rid is already there.  Entities are
+ * returned in the order their first state was seen.
+ */
+public class FdfEntityCollector<S extends CommonState> {
+
+    private final List<FdfEntity<S>> entities;
+    private final LongIntMap entityIndex;
+    private final LongSet historyRids;
+
+    public FdfEntityCollector() {
+        this(16);
+    }
+
+    /**
+     * @param expectedStates number of states that will be added, used to size the indexes
+     */
+    public FdfEntityCollector(int expectedStates) {
+        entities = new ArrayList<>();
+        entityIndex = new LongIntMap(expectedStates);
+        historyRids = new LongSet(expectedStates);
+    }
+
+    /**
+     * Adds the state to the entity with its id, creating the entity if this is the first state seen for the id.
+     *
+     * @param state state to add
+     */
+    public void add(S state) {
+        int index = entityIndex.get(state.id);
+        FdfEntity<S> entity;
+        if (index < 0) {
+            entity = new FdfEntity<>();
+            entity.entityId = state.id;
+            entityIndex.put(state.id, entities.size());
+            entities.add(entity);
+        } else {
+            entity = entities.get(index);
+        }
+        addToEntity(state, entity, historyRids);
+    }
+
+    /**
+     * Adds all of the passed states.
+     *
+     * @param states states to add
+     */
+    public void addAll(Collection<S> states) {
+        for (S state : states) {
+            add(state);
+        }
+    }
+
+    /**
+     * @return the entities collected so far, in the order their first state was seen
+     */
+    public List<FdfEntity<S>> getEntities() {
+        return entities;
+    }
+
+    /**
+     * Groups the passed states into entities.
+     *
+     * @param states raw states returned by a query
+     * @param <S> type of the states
+     * @return the entities, in the order their first state was seen
+     */
+    public static <S extends CommonState> List<FdfEntity<S>> collect(List<S> states) {
+        FdfEntityCollector<S> collector = new FdfEntityCollector<>(states.size());
+        collector.addAll(states);
+        return collector.getEntities();
+    }
+
+    /**
+     * Groups a stream of states that is ordered by id into a stream of entities.  Each entity is complete and passed
+     * on as soon as the first state of the next id is read, so only one entity is held in memory at a time.  States of
+     * an id that are not next to each other end up in separate entities, the query must be ordered by id.
+     *
+     * Closing the returned stream closes the stream of states.
+     *
+     * @param states states ordered by id
+     * @param <S> type of the states
+     * @return stream of the entities
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> groupOrdered(Stream<S> states) {
+        Iterator<S> rows = states.iterator();
+
+        Iterator<FdfEntity<S>> grouped = new Iterator<FdfEntity<S>>() {
+            private S pending = null;
+
+            @Override
+            public boolean hasNext() {
+                return pending != null || rows.hasNext();
+            }
+
+            @Override
+            public FdfEntity<S> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                S state = pending != null ? pending : rows.next();
+                pending = null;
+
+                FdfEntity<S> entity = new FdfEntity<>();
+                entity.entityId = state.id;
+                LongSet rids = new LongSet();
+                addToEntity(state, entity, rids);
+
+                while (rows.hasNext()) {
+                    state = rows.next();
+                    if (state.id != entity.entityId) {
+                        pending = state;
+                        break;
+                    }
+                    addToEntity(state, entity, rids);
+                }
+                return entity;
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(grouped,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(states::close);
+    }
+
+    private static <S extends CommonState> void addToEntity(S state, FdfEntity<S> entity, LongSet historyRids) {
+        if (state.cf) {
+            entity.current = state;
+        } else if (historyRids.add(state.rid)) {
+            entity.history.add(state);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a keyset paginated query (see SqlStatement.after).  nextCursor is passed to the query for the following
+ * page and is null once the last page has been returned.
+ */
+public class FdfPage<T> {
+    public List<T> results;
+    public String nextCursor;
+
+    public FdfPage() {
+        results = new ArrayList<>();
+    }
+
+    public FdfPage(List<T> results, String nextCursor) {
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return true if there may be more results after this page
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
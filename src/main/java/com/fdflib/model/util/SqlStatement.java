@@ -4,10 +4,18 @@ import com.fdflib.model.state.CommonState;
 import com.fdflib.persistence.FdfPersistence;
 import com.fdflib.service.impl.FdfCommonServices;
 
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Created by Corley.Herman1 on 8/16/2016.
@@ -18,6 +26,15 @@ public class SqlStatement {
     private List<String> groupBy;
     private List<String> orderBy;
     private int limit, offset;
+    // keyset position, rows after (afterId, afterRid) in (id, rid) order, unset when afterId is -1
+    private long afterId = -1, afterRid = -1;
+
+    /**
+     * The states a where clause can match, see getStateScope()
+     */
+    public enum StateScope {
+        CURRENT, CLOSED, ALL
+    }
 
     private SqlStatement() {
         select = new ArrayList<>();
@@ -34,6 +51,8 @@ public class SqlStatement {
         orderBy.addAll(split.orderBy);
         limit = split.limit;
         offset = split.offset;
+        afterId = split.afterId;
+        afterRid = split.afterRid;
     }
 
     public static SqlStatement build() {
@@ -94,10 +113,75 @@ public class SqlStatement {
         return this;
     }
 
+    /**
+     * Keyset (seek) pagination: orders the rows by (id, rid) and only returns the rows that come after the passed
+     * position, so the database seeks to the page through the (tid, id, ...) indexes instead of reading and skipping
+     * every row before it as an OFFSET does.  Use with limit(resultsPerPage, 1), the position of the next page is the
+     * id and rid of the last row returned (see cursorOf).  Replaces any order by of the statement.
+     *
+     * @param id id of the last row of the previous page
+     * @param rid rid of the last row of the previous page
+     * @return this statement
+     */
+    public SqlStatement after(long id, long rid) {
+        afterId = Math.max(0, id);
+        afterRid = rid;
+        orderBy.clear();
+        orderBy.add("id");
+        orderBy.add("rid");
+        return this;
+    }
+
+    /**
+     * Keyset pagination from a cursor returned by cursorOf, a null or empty cursor starts at the first row.
+     *
+     * @param cursor position of the last row of the previous page
+     * @return this statement
+     * @throws IllegalArgumentException if the cursor was not returned by cursorOf
+     */
+    public SqlStatement after(String cursor) {
+        if(cursor == null || cursor.isEmpty()) {
+            return after(0, 0);
+        }
+        int separator = cursor.indexOf('.');
+        try {
+            return after(Long.parseLong(cursor.substring(0, separator)), Long.parseLong(cursor.substring(separator + 1)));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * @param state last row of a page
+     * @return cursor to pass to after(String) for the page following the state, null for a null state
+     */
+    public static String cursorOf(CommonState state) {
+        return state != null ? state.id + "." + state.rid : null;
+    }
+
     public <S extends CommonState> List<S> run(Class<S> entityState) {
         return FdfCommonServices.sqlStatementSelect(entityState, this);
     }
 
+    /**
+     * Runs the statement and returns its rows as a stream read from an open cursor, rows are fetched
+     * FdfSettings.FETCH_SIZE at a time and hydrated as they are consumed.  The stream holds a database connection
+     * until it has been read to the end or closed, use try with resources when it may not be read to the end.
+     */
+    public <S extends CommonState> Stream<S> stream(Class<S> entityState) {
+        return FdfCommonServices.sqlStatementStream(entityState, this);
+    }
+
+    /**
+     * Runs the statement and passes each row to the consumer as it is read from the cursor, the connection is released
+     * when the last row has been passed or the consumer throws.
+     */
+    public <S extends CommonState> void forEach(Class<S> entityState, Consumer<? super S> consumer) {
+        try(Stream<S> rows = stream(entityState)) {
+            rows.forEach(consumer);
+        }
+    }
+
     public String getSelect() {
         StringBuilder sql = new StringBuilder("SELECT ");
         if(!select.isEmpty()) {
@@ -112,7 +196,110 @@ public class SqlStatement {
         }
         return sql.toString();
     }
+    /**
+     * Returns the where clause with a ? placeholder for every bound value, the values themselves are returned in the
+     * same order by getParameters() and bound by bindParameters().  Because the SQL text no longer changes with the
+     * values the database can reuse the plan and the driver its prepared statement for every query of the same shape.
+     *
+     * NULL and the IS / IS NOT operators are still written into the text, as are values without a declared data type
+     * and values that can not be converted to it.
+     */
     public String getWhere() {
+        return buildWhere(new ArrayList<>());
+    }
+
+    /**
+     * @return the values of the where clause placeholders, in order
+     */
+    public List<Object> getParameters() {
+        List<Object> parameters = new ArrayList<>();
+        buildWhere(parameters);
+        return parameters;
+    }
+
+    /**
+     * Tells whether the where clause can only match current states (cf = true), only closed states (cf = false) or
+     * both.  Only a cf clause that is ANDed with the rest of the clause narrows the scope, any OR, NOT or grouping
+     * leaves it at ALL.  Used to pick the table of classes that keep their closed states in a history table.
+     *
+     * @return the states the where clause can match
+     */
+    public StateScope getStateScope() {
+        StateScope scope = StateScope.ALL;
+        for(WhereClause clause : where) {
+            if((where.indexOf(clause) != 0 && clause.conditional != WhereClause.CONDITIONALS.AND)
+                    || !clause.groupings.isEmpty()) {
+                return StateScope.ALL;
+            }
+            if("cf".equalsIgnoreCase(clause.name) && clause.value != null
+                    && (clause.value.trim().equalsIgnoreCase("true") || clause.value.trim().equalsIgnoreCase("false"))
+                    && (clause.operator == WhereClause.Operators.EQUAL
+                    || clause.operator == WhereClause.Operators.NOT_EQUAL)) {
+                boolean current = Boolean.parseBoolean(clause.value.trim())
+                        == (clause.operator == WhereClause.Operators.EQUAL);
+                scope = current ? StateScope.CURRENT : StateScope.CLOSED;
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Binds the values of the where clause placeholders to the statement.
+     *
+     * @param ps statement prepared from SQL containing getWhere()
+     * @param firstParameter index of the first where clause placeholder in the statement
+     * @return the next free parameter index
+     * @throws SQLException if a value can not be bound
+     */
+    public int bindParameters(PreparedStatement ps, int firstParameter) throws SQLException {
+        int index = firstParameter;
+        for(Object parameter : getParameters()) {
+            if(parameter instanceof Long) {
+                ps.setLong(index, (Long) parameter);
+            }
+            else if(parameter instanceof Integer) {
+                ps.setInt(index, (Integer) parameter);
+            }
+            else if(parameter instanceof Short) {
+                ps.setShort(index, (Short) parameter);
+            }
+            else if(parameter instanceof Double) {
+                ps.setDouble(index, (Double) parameter);
+            }
+            else if(parameter instanceof Float) {
+                ps.setFloat(index, (Float) parameter);
+            }
+            else if(parameter instanceof BigDecimal) {
+                ps.setBigDecimal(index, (BigDecimal) parameter);
+            }
+            else if(parameter instanceof Boolean) {
+                ps.setBoolean(index, (Boolean) parameter);
+            }
+            else if(parameter instanceof Timestamp) {
+                ps.setTimestamp(index, (Timestamp) parameter);
+            }
+            else {
+                ps.setString(index, parameter.toString());
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private String buildWhere(List<Object> parameters) {
+        String where = buildClauses(parameters);
+        if(afterId < 0) {
+            return where;
+        }
+        // (id, rid) > (afterId, afterRid), written out so every database can seek the id index
+        parameters.add(afterId);
+        parameters.add(afterId);
+        parameters.add(afterRid);
+        String keyset = "id >= ? AND (id > ? OR rid > ?)";
+        return where.isEmpty() ? " WHERE " + keyset : " WHERE (" + where.substring(" WHERE ".length()) + ") AND " + keyset;
+    }
+
+    private String buildClauses(List<Object> parameters) {
         StringBuilder sql = new StringBuilder();
         for(WhereClause clause : where) {
             sql.append(" ");
@@ -127,21 +314,167 @@ public class SqlStatement {
             //Format clause by datatype
             if(clause.operator != WhereClause.Operators.UNARY) {
                 sql.append(clause.name).append(" ").append(clause.getOperatorString()).append(" ");
-                if(clause.value.equals(WhereClause.NULL) || Number.class.isAssignableFrom(clause.valueDataType)) {
-                    sql.append(clause.value);
-                }
-                else if(clause.valueDataType == Boolean.class) {
-                    sql.append(clause.value.toLowerCase());
-                }
-                else { //Includes String, Date, and UUID
-                    sql.append("'").append(clause.value.replaceAll("'", "''")).append("'");
-                }
+                appendValue(sql, parameters, clause);
             }
             //Check to see if there are any closing parenthesis to apply
             clause.groupings.stream().filter(grouping -> grouping.equals(WhereClause.GROUPINGS.CLOSE_PARENTHESIS)).forEach(closeParen -> sql.append(")"));
         }
         return sql.toString();
     }
+
+    private static void appendValue(StringBuilder sql, List<Object> parameters, WhereClause clause) {
+        Class<?> type = boxed(clause.valueDataType);
+
+        // IS / IS NOT only take literals
+        if(clause.value.equals(WhereClause.NULL) || clause.operator == WhereClause.Operators.IS
+                || clause.operator == WhereClause.Operators.IS_NOT) {
+            appendLiteral(sql, type, clause.value);
+            return;
+        }
+
+        // without a declared type the column type is unknown, leave the value to the database as a literal
+        if(clause.valueDataType == null) {
+            if(clause.operator == WhereClause.Operators.IN) {
+                sql.append(clause.value);
+                return;
+            }
+            appendLiteral(sql, type, clause.value);
+            if(clause.operator == WhereClause.Operators.BETWEEN && clause.value2 != null) {
+                sql.append(" AND ");
+                appendLiteral(sql, type, clause.value2);
+            }
+            return;
+        }
+
+        // id sets are passed as (1,2,3), bind each member
+        if(clause.operator == WhereClause.Operators.IN) {
+            List<Object> members = toParameters(type, clause.value);
+            if(members == null) {
+                appendLiteral(sql, type, clause.value);
+                return;
+            }
+            sql.append("(");
+            for(int m=0; m<members.size(); m++) {
+                sql.append(m > 0 ? ", ?" : "?");
+            }
+            sql.append(")");
+            parameters.addAll(members);
+            return;
+        }
+
+        Object parameter = toParameter(type, clause.value);
+        if(parameter == null) {
+            appendLiteral(sql, type, clause.value);
+        }
+        else {
+            sql.append("?");
+            parameters.add(parameter);
+        }
+
+        if(clause.operator == WhereClause.Operators.BETWEEN && clause.value2 != null) {
+            Object parameter2 = toParameter(type, clause.value2);
+            sql.append(" AND ");
+            if(parameter2 == null) {
+                appendLiteral(sql, type, clause.value2);
+            }
+            else {
+                sql.append("?");
+                parameters.add(parameter2);
+            }
+        }
+    }
+
+    private static void appendLiteral(StringBuilder sql, Class<?> type, String value) {
+        if(value.equals(WhereClause.NULL) || Number.class.isAssignableFrom(type)) {
+            sql.append(value);
+        }
+        else if(type == Boolean.class) {
+            sql.append(value.toLowerCase());
+        }
+        else { //Includes String, Date, and UUID
+            sql.append("'").append(value.replaceAll("'", "''")).append("'");
+        }
+    }
+
+    /**
+     * Converts the members of an IN set such as (1,2,3) to parameters, null if the value is not a set of numbers.
+     */
+    private static List<Object> toParameters(Class<?> type, String value) {
+        String set = value.trim();
+        if(!Number.class.isAssignableFrom(type) || !set.startsWith("(") || !set.endsWith(")")
+                || set.length() < 3) {
+            return null;
+        }
+        List<Object> members = new ArrayList<>();
+        for(String member : set.substring(1, set.length() - 1).split(",")) {
+            Object parameter = toParameter(type, member.trim());
+            if(parameter == null) {
+                return null;
+            }
+            members.add(parameter);
+        }
+        return members;
+    }
+
+    /**
+     * Converts the string value of a clause to the declared data type, null if it does not convert so that the value is
+     * written as a literal instead.
+     */
+    private static Object toParameter(Class<?> type, String value) {
+        try {
+            if(type == Long.class) {
+                return Long.valueOf(value);
+            }
+            if(type == Integer.class) {
+                return Integer.valueOf(value);
+            }
+            if(type == Short.class) {
+                return Short.valueOf(value);
+            }
+            if(type == Double.class) {
+                return Double.valueOf(value);
+            }
+            if(type == Float.class) {
+                return Float.valueOf(value);
+            }
+            if(Number.class.isAssignableFrom(type)) {
+                return new BigDecimal(value);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if(type == Boolean.class) {
+            return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")
+                    ? Boolean.valueOf(value) : null;
+        }
+        if(Date.class.isAssignableFrom(type)) {
+            // dates are passed formatted with GeneralConstants.DB_DATE_FORMAT
+            try {
+                return Timestamp.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if(type == null) {
+            return String.class;
+        }
+        if(!type.isPrimitive()) {
+            return type;
+        }
+        if(type == long.class) return Long.class;
+        if(type == int.class) return Integer.class;
+        if(type == short.class) return Short.class;
+        if(type == double.class) return Double.class;
+        if(type == float.class) return Float.class;
+        if(type == boolean.class) return Boolean.class;
+        if(type == byte.class) return Byte.class;
+        return Character.class;
+    }
+
     public String getGroupBy() {
         StringBuilder sql = new StringBuilder();
         groupBy.forEach(group -> {
@@ -178,6 +511,49 @@ public class SqlStatement {
         }
         return sql.toString();
     }
+
+    /*
+     * The parts of the statement as they were added, for persistence implementations that evaluate the statement
+     * themselves instead of running its SQL (CoreMemoryQueries).
+     */
+
+    public List<String> getSelectItems() {
+        return Collections.unmodifiableList(select);
+    }
+    public List<WhereClause> getWhereClauses() {
+        return Collections.unmodifiableList(where);
+    }
+    public List<String> getGroupByItems() {
+        return Collections.unmodifiableList(groupBy);
+    }
+    public List<String> getOrderByItems() {
+        return Collections.unmodifiableList(orderBy);
+    }
+    /**
+     * @return rows per page, 0 for no limit
+     */
+    public int getLimitRows() {
+        return limit;
+    }
+    /**
+     * @return rows skipped before the page
+     */
+    public int getOffsetRows() {
+        return offset;
+    }
+    /**
+     * @return id of the keyset position set by after(), -1 if there is none
+     */
+    public long getAfterId() {
+        return afterId;
+    }
+    /**
+     * @return rid of the keyset position set by after()
+     */
+    public long getAfterRid() {
+        return afterRid;
+    }
+
     public int[] setForManualLimit() {
         int[] manual = {offset, limit};
         limit = offset = 0;
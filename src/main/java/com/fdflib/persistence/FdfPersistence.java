@@ -16,15 +16,22 @@
 
 package com.fdflib.persistence;
 
+import com.fdflib.cache.HistoryCache;
+import com.fdflib.metrics.FdfMetrics.Operation;
 import com.fdflib.model.state.CommonState;
 import com.fdflib.model.util.SqlStatement;
 import com.fdflib.persistence.connection.DbConnectionManager;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
+import com.fdflib.util.FdfSettings;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
+ * Runs the persistence calls on the database in use, timing the inserts, updates and selects of each model class into
+ * FdfSettings.METRICS.
+ *
  * Created by brian.gormanly on 6/10/15.
  */
 public class FdfPersistence extends DbConnectionManager implements CorePersistenceImpl {
@@ -52,6 +59,11 @@ public class FdfPersistence extends DbConnectionManager implements CorePersisten
         persistence.checkFields();
     }
 
+    @Override
+    public void checkIndexes() throws SQLException {
+        persistence.checkIndexes();
+    }
+
     @Override
     public void checkDefaultEntries() throws SQLException {
         persistence.checkDefaultEntries();
@@ -59,17 +71,77 @@ public class FdfPersistence extends DbConnectionManager implements CorePersisten
 
     @Override
     public <S> void update(Class<S> entityState, S state) {
-
+        long start = System.nanoTime();
         persistence.update(entityState, state);
+        record(entityState, Operation.UPDATE, start);
+        HistoryCache.getInstance().updated(entityState, state);
+    }
+
+    @Override
+    public <S> void updateBatch(Class<S> entityState, List<S> states) {
+        long start = System.nanoTime();
+        persistence.updateBatch(entityState, states);
+        record(entityState, Operation.UPDATE, start);
+        for (S state : states) {
+            HistoryCache.getInstance().updated(entityState, state);
+        }
+    }
+
+    @Override
+    public List<Long> nextEntityIds(Class<? extends CommonState> entityState, int count) {
+        return persistence.nextEntityIds(entityState, count);
     }
 
     @Override
     public <S> Long insert(Class<S> entityState, S state) {
-        return persistence.insert(entityState, state);
+        long start = System.nanoTime();
+        Long rid = persistence.insert(entityState, state);
+        record(entityState, Operation.INSERT, start);
+        return rid;
+    }
+
+    @Override
+    public <S extends CommonState> Long insertCurrent(Class<S> entityState, S state) {
+        long start = System.nanoTime();
+        Long rid = persistence.insertCurrent(entityState, state);
+        record(entityState, Operation.INSERT, start);
+        return rid;
+    }
+
+    @Override
+    public <S> List<Long> insertBatch(Class<S> entityState, List<S> states) {
+        long start = System.nanoTime();
+        List<Long> rids = persistence.insertBatch(entityState, states);
+        record(entityState, Operation.INSERT, start);
+        return rids;
+    }
+
+    @Override
+    public <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> entityState, List<S> states) {
+        long start = System.nanoTime();
+        List<Long> rids = persistence.closeAndInsertBatch(entityState, states);
+        record(entityState, Operation.INSERT, start);
+        return rids;
     }
 
     @Override
     public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {
-        return persistence.selectQuery(c, sqlStatement);
+        long start = System.nanoTime();
+        List<S> states = persistence.selectQuery(c, sqlStatement);
+        record(c, Operation.SELECT, start);
+        FdfSettings.METRICS.recordRowsHydrated(c, states.size());
+        return states;
+    }
+
+    @Override
+    public <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement) {
+        long start = System.nanoTime();
+        Stream<S> states = persistence.streamQuery(c, sqlStatement);
+        record(c, Operation.SELECT, start);
+        return states;
+    }
+
+    private static void record(Class<?> c, Operation operation, long start) {
+        FdfSettings.METRICS.recordOperation(c, operation, System.nanoTime() - start);
     }
 }
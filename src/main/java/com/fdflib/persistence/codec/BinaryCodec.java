@@ -0,0 +1,569 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.codec;
+
+import com.fdflib.util.FdfSettings;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary codec, the default FieldCodec.  Each value is written as a one byte tag followed by its content:
+ * numbers as variable length (zig zag) integers or raw IEEE bits, strings as UTF-8, dates as epoch milliseconds,
+ * collections and maps element by element and other objects field by field (every non static, non transient field
+ * up the class hierarchy, by name so fields can be added or removed later).  Class names are only written when the
+ * class of a value differs from the declared type of its field or element.
+ *
+ * Objects are rebuilt through their no argument constructor (which may be private) and their fields are set
+ * directly, no code of the stored classes runs besides that constructor.  Class names read back are only loaded
+ * when the class fits the declared type, is a JDK class, is in the package of a registered model class or is listed in
+ * FdfSettings.CODEC_ALLOWED_CLASSES.  JDK classes other than the ones above and classes without a no argument
+ * constructor can only be written with java serialization, which FdfSettings.ALLOW_JAVA_SERIALIZATION has to allow.
+ */
+public class BinaryCodec implements FieldCodec {
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int TRUE = 6;
+    private static final int FALSE = 7;
+    private static final int BIG_DECIMAL = 8;
+    private static final int BIG_INTEGER = 9;
+    private static final int DATE = 10;
+    private static final int UUID = 11;
+    private static final int ENUM = 12;
+    private static final int CHAR = 13;
+    private static final int SHORT = 14;
+    private static final int BYTE = 15;
+    private static final int BYTES = 16;
+    private static final int ARRAY = 17;
+    private static final int LIST = 18;
+    private static final int SET = 19;
+    private static final int MAP = 20;
+    private static final int OBJECT = 21;
+    private static final int SERIALIZED = 22;
+
+    // nesting deeper than this is taken for a reference cycle
+    private static final int MAX_DEPTH = 64;
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+    static {
+        for (Class<?> primitive : new Class<?>[] {boolean.class, byte.class, char.class, short.class, int.class,
+                long.class, float.class, double.class}) {
+            PRIMITIVES.put(primitive.getName(), primitive);
+        }
+    }
+
+    private final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value, Type type) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        write(new DataOutputStream(bytes), value, type, 0);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data, Type type) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        return read(in, type, 0);
+    }
+
+    /* ---- Writing ---- */
+
+    private void write(DataOutputStream out, Object value, Type declared, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Value nested more than " + MAX_DEPTH + " levels deep, is there a reference cycle?");
+        }
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            writeVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeVarLong(out, ((BigDecimal) value).scale());
+            writeBytes(out, ((BigDecimal) value).unscaledValue().toByteArray());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(out, ((BigInteger) value).toByteArray());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            writeVarLong(out, ((Date) value).getTime());
+        } else if (value instanceof java.util.UUID) {
+            out.writeByte(UUID);
+            out.writeLong(((java.util.UUID) value).getMostSignificantBits());
+            out.writeLong(((java.util.UUID) value).getLeastSignificantBits());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeClass(out, ((Enum<?>) value).getDeclaringClass(), declared);
+            writeString(out, ((Enum<?>) value).name());
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            writeVarLong(out, (Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value.getClass().isArray()) {
+            Class<?> component = value.getClass().getComponentType();
+            out.writeByte(ARRAY);
+            writeClass(out, value.getClass(), declared);
+            int length = Array.getLength(value);
+            writeVarLong(out, length);
+            for (int i = 0; i < length; i++) {
+                write(out, Array.get(value, i), component, depth + 1);
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            Type element = typeArgument(declared, 0);
+            out.writeByte(value instanceof Set ? SET : LIST);
+            writeVarLong(out, collection.size());
+            for (Object member : collection) {
+                write(out, member, element, depth + 1);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Type keyType = typeArgument(declared, 0);
+            Type valueType = typeArgument(declared, 1);
+            out.writeByte(MAP);
+            writeVarLong(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey(), keyType, depth + 1);
+                write(out, entry.getValue(), valueType, depth + 1);
+            }
+        } else {
+            Layout layout = layout(value.getClass());
+            if (layout == null) {
+                if (!(value instanceof Serializable) || !FdfSettings.ALLOW_JAVA_SERIALIZATION) {
+                    throw new IOException("Unable to encode " + value.getClass().getName()
+                            + ", it has no no argument constructor and java serialization is not available for it");
+                }
+                out.writeByte(SERIALIZED);
+                writeBytes(out, new JavaSerializationCodec().encode(value, declared));
+                return;
+            }
+            out.writeByte(OBJECT);
+            writeClass(out, value.getClass(), declared);
+            writeVarLong(out, layout.fields.length);
+
+            // each field is length prefixed so fields that were removed from the class can be skipped
+            ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+            DataOutputStream fieldOut = new DataOutputStream(fieldBytes);
+            for (Field field : layout.fields) {
+                Object fieldValue;
+                try {
+                    fieldValue = field.get(value);
+                } catch (IllegalAccessException e) {
+                    throw new IOException("Unable to read field " + field.getName(), e);
+                }
+                fieldBytes.reset();
+                write(fieldOut, fieldValue, field.getGenericType(), depth + 1);
+                writeString(out, field.getName());
+                writeVarLong(out, fieldBytes.size());
+                fieldBytes.writeTo(out);
+            }
+        }
+    }
+
+    private static void writeClass(DataOutputStream out, Class<?> c, Type declared) throws IOException {
+        if (c == rawClass(declared)) {
+            writeVarLong(out, 0);
+        } else {
+            byte[] name = c.getName().getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, name.length + 1);
+            out.write(name);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        writeVarLong(out, value.length);
+        out.write(value);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    /* ---- Reading ---- */
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object read(DataInputStream in, Type declared, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Value nested more than " + MAX_DEPTH + " levels deep");
+        }
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return (int) readVarLong(in);
+            case LONG:
+                return readVarLong(in);
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case BIG_DECIMAL: {
+                int scale = (int) readVarLong(in);
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            }
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case DATE: {
+                long time = readVarLong(in);
+                Class<?> raw = rawClass(declared);
+                if (raw == java.sql.Timestamp.class) {
+                    return new java.sql.Timestamp(time);
+                }
+                if (raw == java.sql.Date.class) {
+                    return new java.sql.Date(time);
+                }
+                return new Date(time);
+            }
+            case UUID:
+                return new java.util.UUID(in.readLong(), in.readLong());
+            case ENUM: {
+                Class<?> enumClass = readClass(in, declared);
+                if (!enumClass.isEnum()) {
+                    throw new IOException(enumClass.getName() + " is not an enum");
+                }
+                return Enum.valueOf((Class<Enum>) enumClass, readString(in));
+            }
+            case CHAR:
+                return in.readChar();
+            case SHORT:
+                return (short) readVarLong(in);
+            case BYTE:
+                return in.readByte();
+            case BYTES:
+                return readBytes(in);
+            case ARRAY: {
+                Class<?> arrayClass = readClass(in, declared);
+                if (!arrayClass.isArray()) {
+                    throw new IOException(arrayClass.getName() + " is not an array class");
+                }
+                Class<?> component = arrayClass.getComponentType();
+                int length = readLength(in);
+                Object array = Array.newInstance(component, length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, coerce(read(in, component, depth + 1), component));
+                }
+                return array;
+            }
+            case LIST:
+            case SET: {
+                int size = readLength(in);
+                Type element = typeArgument(declared, 0);
+                Collection<Object> collection = newCollection(rawClass(declared), tag == SET, size);
+                for (int i = 0; i < size; i++) {
+                    collection.add(read(in, element, depth + 1));
+                }
+                return collection;
+            }
+            case MAP: {
+                int size = readLength(in);
+                Type keyType = typeArgument(declared, 0);
+                Type valueType = typeArgument(declared, 1);
+                Map<Object, Object> map = newMap(rawClass(declared), size);
+                for (int i = 0; i < size; i++) {
+                    map.put(read(in, keyType, depth + 1), read(in, valueType, depth + 1));
+                }
+                return map;
+            }
+            case OBJECT:
+                return readObject(in, readClass(in, declared), depth);
+            case SERIALIZED:
+                return new JavaSerializationCodec().decode(readBytes(in), declared);
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private Object readObject(DataInputStream in, Class<?> c, int depth) throws IOException {
+        Layout layout = layout(c);
+        if (layout == null) {
+            throw new IOException("Unable to create " + c.getName() + ", it has no no argument constructor");
+        }
+        Object value;
+        try {
+            value = layout.constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unable to create " + c.getName(), e);
+        }
+
+        int fieldCount = readLength(in);
+        for (int i = 0; i < fieldCount; i++) {
+            Field field = layout.byName.get(readString(in));
+            int length = readLength(in);
+            if (field == null) {
+                // the field has been removed from the class since the value was written
+                in.skipBytes(length);
+                continue;
+            }
+            Object fieldValue = coerce(read(in, field.getGenericType(), depth + 1), field.getType());
+            if (fieldValue == null && field.getType().isPrimitive()) {
+                continue;
+            }
+            try {
+                field.set(value, fieldValue);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw new IOException("Unable to set field " + field.getName() + " of " + c.getName(), e);
+            }
+        }
+        return value;
+    }
+
+    private static Class<?> readClass(DataInputStream in, Type declared) throws IOException {
+        int length = readLength(in);
+        if (length == 0) {
+            Class<?> raw = rawClass(declared);
+            if (raw == Object.class) {
+                throw new IOException("Value written without its class can not be read as Object");
+            }
+            return raw;
+        }
+        byte[] name = new byte[length - 1];
+        in.readFully(name);
+        Class<?> c = classForName(new String(name, StandardCharsets.UTF_8));
+        if (!CodecClasses.isAllowed(c, rawClass(declared))) {
+            throw new IOException("Stored class " + c.getName() + " is not allowed for " + declared.getTypeName()
+                    + ", add it to FdfSettings.CODEC_ALLOWED_CLASSES to read it");
+        }
+        return c;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] value = new byte[readLength(in)];
+        in.readFully(value);
+        return value;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("Invalid variable length number");
+    }
+
+    /* ---- Types ---- */
+
+    /**
+     * Field layout of a class written field by field, null if the class can not be rebuilt that way.
+     */
+    private Layout layout(Class<?> c) {
+        Layout layout = layouts.get(c);
+        if (layout == null && !layouts.containsKey(c)) {
+            layout = Layout.of(c);
+            if (layout != null) {
+                layouts.put(c, layout);
+            }
+        }
+        return layout;
+    }
+
+    private static final class Layout {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final Map<String, Field> byName = new HashMap<>();
+
+        private Layout(Constructor<?> constructor, Field[] fields) {
+            this.constructor = constructor;
+            this.fields = fields;
+            for (Field field : fields) {
+                byName.putIfAbsent(field.getName(), field);
+            }
+        }
+
+        static Layout of(Class<?> c) {
+            // JDK internals can not be opened up on newer runtimes, leave them to serialization
+            if (c.getName().startsWith("java.") || c.getName().startsWith("javax.") || c.isInterface()
+                    || Modifier.isAbstract(c.getModifiers()) || c.isAnonymousClass()) {
+                return null;
+            }
+            try {
+                Constructor<?> constructor = c.getDeclaredConstructor();
+                constructor.setAccessible(true);
+
+                List<Field> fields = new ArrayList<>();
+                for (Class<?> type = c; type != null && type != Object.class; type = type.getSuperclass()) {
+                    for (Field field : type.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                            field.setAccessible(true);
+                            fields.add(field);
+                        }
+                    }
+                }
+                return new Layout(constructor, fields.toArray(new Field[0]));
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Class<?> classForName(String name) throws IOException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        if (primitive != null) {
+            return primitive;
+        }
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            return Class.forName(name, false, loader != null ? loader : BinaryCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class " + name, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Class<?> declared, boolean set, int size) {
+        if (Collection.class.isAssignableFrom(declared) && !declared.isInterface()
+                && !Modifier.isAbstract(declared.getModifiers())) {
+            try {
+                return (Collection<Object>) declared.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall back to the default collections
+            }
+        }
+        if (SortedSet.class.isAssignableFrom(declared)) {
+            return new TreeSet<>();
+        }
+        return set || Set.class.isAssignableFrom(declared) ? new LinkedHashSet<>(size * 2) : new ArrayList<>(size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> newMap(Class<?> declared, int size) {
+        if (Map.class.isAssignableFrom(declared) && !declared.isInterface()
+                && !Modifier.isAbstract(declared.getModifiers())) {
+            try {
+                return (Map<Object, Object>) declared.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall back to the default map
+            }
+        }
+        return SortedMap.class.isAssignableFrom(declared) ? new TreeMap<>() : new LinkedHashMap<>(size * 2);
+    }
+
+    /**
+     * Converts numbers read back to the type of the field, for fields whose type was widened or narrowed since the
+     * value was written.
+     */
+    private static Object coerce(Object value, Class<?> type) {
+        if (!(value instanceof Number) || type.isInstance(value)) {
+            return value;
+        }
+        Number number = (Number) value;
+        if (type == long.class || type == Long.class) {
+            return number.longValue();
+        } else if (type == int.class || type == Integer.class) {
+            return number.intValue();
+        } else if (type == double.class || type == Double.class) {
+            return number.doubleValue();
+        } else if (type == float.class || type == Float.class) {
+            return number.floatValue();
+        } else if (type == short.class || type == Short.class) {
+            return number.shortValue();
+        } else if (type == byte.class || type == Byte.class) {
+            return number.byteValue();
+        } else if (type == BigDecimal.class) {
+            return new BigDecimal(number.toString());
+        }
+        return value;
+    }
+}
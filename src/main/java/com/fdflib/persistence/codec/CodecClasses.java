@@ -0,0 +1,74 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.codec;
+
+import com.fdflib.util.FdfSettings;
+
+import java.io.Serializable;
+
+/**
+ * Decides which classes named in stored values may be loaded when reading them back.  A class is allowed when it is
+ * assignable to the declared type of its field or element (Object and Serializable do not count), when it is a JDK
+ * class, when it is in the package of a registered model class or when it is listed in
+ * FdfSettings.CODEC_ALLOWED_CLASSES.  Arrays are allowed when their component class is.
+ */
+final class CodecClasses {
+
+    private CodecClasses() {
+    }
+
+    static boolean isAllowed(Class<?> c, Class<?> declared) {
+        while (c.isArray()) {
+            c = c.getComponentType();
+            declared = declared.isArray() ? declared.getComponentType() : Object.class;
+        }
+        if (c.isPrimitive()) {
+            return true;
+        }
+        if (declared != Object.class && declared != Serializable.class && declared.isAssignableFrom(c)) {
+            return true;
+        }
+        return isAllowed(c.getName());
+    }
+
+    static boolean isAllowed(String className) {
+        // array class names look like [I or [[Lcom.example.Value;
+        if (className.startsWith("[")) {
+            String component = className.replaceFirst("^\\[+", "");
+            if (component.length() == 1) {
+                return true;
+            }
+            className = component.substring(1, component.length() - 1);
+        }
+        if (className.startsWith("java.")) {
+            return true;
+        }
+        for (String allowed : FdfSettings.CODEC_ALLOWED_CLASSES) {
+            if (allowed.endsWith(".") ? className.startsWith(allowed) : className.equals(allowed)) {
+                return true;
+            }
+        }
+        for (Class<?> model : FdfSettings.getInstance().modelClasses) {
+            String modelPackage = model.getName().substring(0, model.getName().lastIndexOf('.') + 1);
+            if (!modelPackage.isEmpty() && className.startsWith(modelPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
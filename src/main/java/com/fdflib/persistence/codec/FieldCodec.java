@@ -0,0 +1,54 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Turns the values of model fields 4DFLib has no column type for (value objects, maps, sets...) into the bytes stored
+ * in their binary column and back.  The codec of a field is chosen with @FdfCodec, fields without it use
+ * FdfSettings.FIELD_CODEC:
+ *
+ *   BinaryCodec            - compact tagged binary format written field by field, the default
+ *   JavaSerializationCodec - java.io serialization, for types BinaryCodec can not rebuild
+ *
+ * Implementations must be thread safe and have a public no argument constructor.  Compression and the detection of
+ * values written before codecs existed are handled by FieldCodecs around the codec.
+ */
+public interface FieldCodec {
+
+    /**
+     * Encodes a non null value.
+     *
+     * @param value value of the field
+     * @param type declared (generic) type of the field
+     * @return the encoded value
+     * @throws IOException if the value can not be encoded
+     */
+    byte[] encode(Object value, Type type) throws IOException;
+
+    /**
+     * Decodes a value written by encode.
+     *
+     * @param data the encoded value
+     * @param type declared (generic) type of the field
+     * @return the value
+     * @throws IOException if the data can not be decoded
+     */
+    Object decode(byte[] data, Type type) throws IOException;
+}
@@ -0,0 +1,167 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes and reads the stored form of codec encoded fields: a marker byte, a flags byte (compressed, java serialized)
+ * and the encoded value.  Values stored before codecs existed (java serialized, or Base64 text of it) have no marker
+ * and are only read, through JavaSerializationCodec, when FdfSettings.ALLOW_JAVA_SERIALIZATION is turned on.
+ */
+public final class FieldCodecs {
+
+    private static final byte MARKER = (byte) 0xFD;
+    private static final int COMPRESSED = 1;
+    private static final int JAVA_SERIALIZED = 2;
+
+    // values shorter than this are not worth compressing
+    private static final int COMPRESS_MIN_LENGTH = 64;
+
+    private static final Map<Class<?>, FieldCodec> codecs = new ConcurrentHashMap<>();
+    private static final JavaSerializationCodec JAVA = new JavaSerializationCodec();
+
+    private FieldCodecs() {}
+
+    /**
+     * @param codecClass codec class
+     * @return the shared instance of the codec class
+     * @throws IllegalArgumentException if the codec has no public no argument constructor
+     */
+    public static FieldCodec forClass(Class<? extends FieldCodec> codecClass) {
+        return codecs.computeIfAbsent(codecClass, c -> {
+            try {
+                return codecClass.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Unable to create field codec " + c.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Encodes the value with the codec and wraps it in the stored form.
+     *
+     * @param codec codec of the field
+     * @param compress true to deflate the encoded value when that makes it smaller
+     * @param value non null value of the field
+     * @param type declared (generic) type of the field
+     * @return bytes to store
+     * @throws IOException if the value can not be encoded
+     */
+    public static byte[] write(FieldCodec codec, boolean compress, Object value, Type type) throws IOException {
+        byte[] encoded = codec.encode(value, type);
+        int flags = codec instanceof JavaSerializationCodec ? JAVA_SERIALIZED : 0;
+
+        if (compress && encoded.length >= COMPRESS_MIN_LENGTH) {
+            byte[] deflated = deflate(encoded);
+            if (deflated.length < encoded.length) {
+                encoded = deflated;
+                flags |= COMPRESSED;
+            }
+        }
+
+        byte[] stored = new byte[encoded.length + 2];
+        stored[0] = MARKER;
+        stored[1] = (byte) flags;
+        System.arraycopy(encoded, 0, stored, 2, encoded.length);
+        return stored;
+    }
+
+    /**
+     * Reads a stored value, written by write or before codecs existed.
+     *
+     * @param codec codec of the field
+     * @param stored stored bytes
+     * @param type declared (generic) type of the field
+     * @return the value
+     * @throws IOException if the value can not be decoded
+     */
+    public static Object read(FieldCodec codec, byte[] stored, Type type) throws IOException {
+        if (stored.length >= 2 && stored[0] == MARKER) {
+            byte[] encoded = new byte[stored.length - 2];
+            System.arraycopy(stored, 2, encoded, 0, encoded.length);
+            if ((stored[1] & COMPRESSED) != 0) {
+                encoded = inflate(encoded);
+            }
+            return ((stored[1] & JAVA_SERIALIZED) != 0 ? JAVA : codec).decode(encoded, type);
+        }
+
+        // written before codecs, java serialized either as is or as Base64 text
+        if (isJavaSerialized(stored)) {
+            return JAVA.decode(stored, type);
+        }
+        try {
+            byte[] decoded = Base64.getDecoder().decode(new String(stored, StandardCharsets.US_ASCII).trim());
+            if (isJavaSerialized(decoded)) {
+                return JAVA.decode(decoded, type);
+            }
+        } catch (IllegalArgumentException e) {
+            // not Base64 either
+        }
+        throw new IOException("Unrecognized stored value of " + stored.length + " bytes");
+    }
+
+    private static boolean isJavaSerialized(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0xAC && data[1] == (byte) 0xED;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed value");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed value: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.codec;
+
+import com.fdflib.util.FdfSettings;
+
+import java.io.*;
+import java.lang.reflect.Type;
+
+/**
+ * Stores values with java.io serialization, the way OBJECT fields were stored before codecs (without the Base64 text
+ * encoding).  Values must be Serializable.  Reading serialized data can run code of the classes it names, so both
+ * encoding and decoding are refused unless FdfSettings.ALLOW_JAVA_SERIALIZATION is set, and decoding only resolves
+ * classes that fit the declared type, JDK classes, classes in the packages of registered model classes and classes
+ * listed in FdfSettings.CODEC_ALLOWED_CLASSES.
+ */
+public class JavaSerializationCodec implements FieldCodec {
+
+    @Override
+    public byte[] encode(Object value, Type type) throws IOException {
+        if (!FdfSettings.ALLOW_JAVA_SERIALIZATION) {
+            throw new IOException("Java serialized value not written, FdfSettings.ALLOW_JAVA_SERIALIZATION is off");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(value);
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data, Type type) throws IOException {
+        if (!FdfSettings.ALLOW_JAVA_SERIALIZATION) {
+            throw new IOException("Java serialized value not read, FdfSettings.ALLOW_JAVA_SERIALIZATION is off");
+        }
+        Class<?> declared = BinaryCodec.rawClass(type);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                Class<?> c = super.resolveClass(desc);
+                if (!CodecClasses.isAllowed(c, declared)) {
+                    throw new InvalidClassException(c.getName(), "not allowed for " + declared.getName()
+                            + ", add it to FdfSettings.CODEC_ALLOWED_CLASSES to read it");
+                }
+                return c;
+            }
+
+            @Override
+            protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+                throw new InvalidClassException("Proxy", "proxy classes are not read");
+            }
+        }) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to deserialize value: " + e.getMessage(), e);
+        }
+    }
+}
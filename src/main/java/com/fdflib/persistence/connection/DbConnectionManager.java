@@ -20,6 +20,7 @@ import com.fdflib.persistence.database.DatabaseUtil;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
 import com.fdflib.persistence.queries.CoreHSqlQueries;
 import com.fdflib.persistence.queries.CoreMariaDbQueries;
+import com.fdflib.persistence.queries.CoreMemoryQueries;
 import com.fdflib.persistence.queries.CoreMySqlQueries;
 import com.fdflib.persistence.queries.CorePostgreSqlQueries;
 import com.fdflib.util.FdfSettings;
@@ -52,5 +53,10 @@ public abstract class DbConnectionManager implements CorePersistenceImpl {
             persistence = CoreHSqlQueries.getInstance();
 
         }
+
+        if(FdfSettings.getInstance().PERSISTENCE == DatabaseUtil.DatabaseType.MEMORY) {
+            persistence = CoreMemoryQueries.getInstance();
+
+        }
     }
 }
\ No newline at end of file
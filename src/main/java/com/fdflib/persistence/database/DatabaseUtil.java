@@ -27,8 +27,12 @@ public class DatabaseUtil {
 
     private static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(JdbcConnection.class);
 
+    /**
+     * MEMORY keeps the data in the heap of the application (CoreMemoryQueries), no database or connection settings
+     * are needed and nothing is kept once the process ends.
+     */
     public enum DatabaseType {
-        MYSQL, MARIADB, POSTGRES, MSSQL, HSQL
+        MYSQL, MARIADB, POSTGRES, MSSQL, HSQL, MEMORY
     }
 
     public enum DatabaseProtocol {
@@ -65,11 +69,23 @@ public class DatabaseUtil {
             }
 
             connection = protocolString + FdfSettings.DB_HOST + "/" + FdfSettings.DB_NAME + encodingString;
+
+            // cache server side prepared statements per connection
+            if(FdfSettings.STATEMENT_CACHE_SIZE > 0) {
+                connection += "&cachePrepStmts=true&useServerPrepStmts=true&prepStmtCacheSize="
+                        + FdfSettings.STATEMENT_CACHE_SIZE + "&prepStmtCacheSqlLimit=2048";
+            }
         }
 
         if(FdfSettings.DB_PROTOCOL == DatabaseUtil.DatabaseProtocol.JDBC_MARIADB) {
             protocolString = "jdbc:mariadb://";
             connection = protocolString + FdfSettings.DB_HOST + "/" + FdfSettings.DB_NAME;
+
+            // cache server side prepared statements per connection
+            if(FdfSettings.STATEMENT_CACHE_SIZE > 0) {
+                connection += "?cachePrepStmts=true&useServerPrepStmts=true&prepStmtCacheSize="
+                        + FdfSettings.STATEMENT_CACHE_SIZE;
+            }
         }
 
         if(FdfSettings.DB_PROTOCOL == DatabaseUtil.DatabaseProtocol.JDBC_POSTGRES) {
@@ -81,6 +97,15 @@ public class DatabaseUtil {
 
             connection = protocolString + FdfSettings.DB_HOST + "/" + FdfSettings.DB_NAME.toLowerCase()
                     + encodingString;
+
+            // String parameters are typed by the server like quoted literals, so they still compare with numeric,
+            // date and uuid columns
+            connection += (encodingString.isEmpty() ? "?" : "&") + "stringtype=unspecified";
+
+            // keep the server side prepared statements of the connection across PreparedStatement instances
+            if(FdfSettings.STATEMENT_CACHE_SIZE > 0) {
+                connection += "&preparedStatementCacheQueries=" + FdfSettings.STATEMENT_CACHE_SIZE;
+            }
         }
 
         if(FdfSettings.DB_PROTOCOL == DatabaseUtil.DatabaseProtocol.JDBC_HSQL) {
@@ -1,6 +1,8 @@
 package com.fdflib.persistence.database;
 
 import com.fdflib.util.FdfSettings;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.hsqldb.Server;
 import org.hsqldb.persist.HsqlProperties;
 import org.hsqldb.server.ServerAcl;
@@ -11,7 +13,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.sql.Statement;
 
 /**
  * 4DFLib
@@ -28,12 +30,22 @@ import java.util.Arrays;
  * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
  * details.
  */
+/**
+ * Embedded HSQL database.  The database is opened in process (jdbc:hsqldb:mem or jdbc:hsqldb:file, no network server
+ * needed) once, by FdfServices.initializeFdfDataModel or the first session requested, and sessions are handed out from
+ * a pool of FdfSettings.HSQL_POOL_SIZE connections.  When FdfSettings.HSQL_SERVER is set the same database is also
+ * served on FdfSettings.DB_PORT for other processes.  shutdown() closes the pool, shuts the database down (writing
+ * file databases out) and stops the server, it is also run when the JVM exits.
+ */
 public class HSqlConnection {
 
     private static final HSqlConnection INSTANCE = new HSqlConnection();
     private static Logger fdfLog = LoggerFactory.getLogger(HSqlConnection.class);
 
     private Server server;
+    // set under the lock of start and shutdown, volatile so getSession can read it without taking the lock
+    private volatile HikariDataSource pool;
+    private Thread shutdownHook;
 
     private HSqlConnection() {}
 
@@ -41,8 +53,14 @@ public class HSqlConnection {
         return INSTANCE;
     }
 
-    public Connection getSession() throws SQLException {
-        fdfLog.debug("Establishing hsql connection with regular credentials");
+    /**
+     * Opens the database, its connection pool and, if configured, the network server.  Does nothing if they are
+     * already running.
+     */
+    public synchronized void start() {
+        if(pool != null) {
+            return;
+        }
 
         try {
             Class.forName("org.hsqldb.jdbc.JDBCDriver");
@@ -51,68 +69,95 @@ public class HSqlConnection {
             e.printStackTrace();
         }
 
-        HsqlProperties p = new HsqlProperties();
-        if(FdfSettings.HSQL_DB_FILE) {
-            p.setProperty("server.database.0", "file:" + FdfSettings.HQSL_DB_FILE_LOCATION + ";");
+        if(FdfSettings.HSQL_SERVER) {
+            startServer();
         }
-        else {
-            p.setProperty("server.database.0", "mem:" + FdfSettings.DB_NAME + ";");
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(DatabaseUtil.returnDBConnectionString());
+        config.setUsername(FdfSettings.DB_USER);
+        config.setPassword(FdfSettings.DB_PASSWORD);
+        config.setMaximumPoolSize(FdfSettings.HSQL_POOL_SIZE);
+        config.setMinimumIdle(1);
+        config.setPoolName("4dflib-hsql");
+        if(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY != null) {
+            config.setMetricsTrackerFactory(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY);
         }
-        p.setProperty("server.dbname.0", FdfSettings.DB_NAME);
-        p.setProperty("server.port", FdfSettings.DB_PORT);
-        server = new Server();
+        pool = new HikariDataSource(config);
 
-        try {
-            server.setProperties(p);
-            server.setLogWriter(null); // can use custom writer
-            server.setErrWriter(null); // can use custom writer
-            server.start();
-        } catch (IOException | ServerAcl.AclFormatException e) {
-            e.printStackTrace();
+        if(shutdownHook == null) {
+            shutdownHook = new Thread(this::shutdown, "4dflib-hsql-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
         }
+        fdfLog.debug("hsql database started: {}", DatabaseUtil.returnDBConnectionString());
+    }
 
-        if(server.getState() > 0) {
-
-            try {
-                return DriverManager.getConnection(DatabaseUtil.returnDBConnectionString(),
-                        FdfSettings.DB_USER, FdfSettings.DB_PASSWORD);
-            }
-            catch (SQLException e) {
-                fdfLog.warn("SQL Error: {}\nDescription: ", e.getErrorCode(), e.getMessage());
-
-                // - Unknown database 'testing_db'
-                if (e.getErrorCode() == 1049) {
-                    fdfLog.error("Database did not exist: {}", e.getMessage());
-                } else {
-                    fdfLog.error(Arrays.toString(e.getStackTrace()));
-                }
-            }
+    /**
+     * Closes the connection pool, shuts the database down and stops the network server.  The database is opened again
+     * by the next session requested (an in memory database starts out empty).
+     */
+    public synchronized void shutdown() {
+        if(pool == null) {
+            return;
         }
-        else {
-            fdfLog.error("hsql server not running!");
+        pool.close();
+        pool = null;
+
+        try (Connection connection = DriverManager.getConnection(DatabaseUtil.returnDBConnectionString(),
+                FdfSettings.DB_USER, FdfSettings.DB_PASSWORD);
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        } catch (SQLException e) {
+            fdfLog.warn("Unable to shut the hsql database down: {}", e.getMessage());
+        }
+
+        if(server != null) {
+            server.stop();
+            server = null;
         }
+        fdfLog.debug("hsql database shut down");
+    }
 
-        return null;
+    public Connection getSession() throws SQLException {
+        fdfLog.debug("Establishing hsql connection with regular credentials");
+        HikariDataSource pool = this.pool;
+        if(pool == null) {
+            start();
+            pool = this.pool;
+        }
+        return pool.getConnection();
     }
 
     public Connection getNoDBSession() throws SQLException  {
         fdfLog.debug("Establishing hsql connection with root credentials");
-        try {
-            Class.forName("org.hsqldb.jdbc.JDBCDriver");
-        } catch (ClassNotFoundException e) {
-            System.err.println("ERROR: failed to load HSQLDB JDBC driver.");
-            e.printStackTrace();
+        start();
+        return DriverManager.getConnection(DatabaseUtil.returnDBConnectionStringWithoutDatabase(),
+                FdfSettings.DB_ROOT_USER, FdfSettings.DB_ROOT_PASSWORD);
+    }
+
+    /**
+     * Hands the session back, pooled sessions return to the pool.  The database keeps running.
+     */
+    public void close(Connection connection) throws SQLException {
+        fdfLog.debug("Closing hsql database connection.");
+        if (connection != null && !connection.isClosed()) {
+            connection.close();
         }
+    }
 
+    private void startServer() {
         HsqlProperties p = new HsqlProperties();
+        // serve the database the in process connections use
         if(FdfSettings.HSQL_DB_FILE) {
-            p.setProperty("server.database.0", "file:" + FdfSettings.HQSL_DB_FILE_LOCATION + ";");
+            p.setProperty("server.database.0", "file:" + FdfSettings.HQSL_DB_FILE_LOCATION + FdfSettings.DB_NAME
+                    + ";sql.syntax_mys=true");
         }
         else {
-            p.setProperty("server.database.0", "mem:" + FdfSettings.DB_NAME + ";");
+            p.setProperty("server.database.0", "mem:" + FdfSettings.DB_NAME + ";sql.syntax_mys=true");
         }
         p.setProperty("server.dbname.0", FdfSettings.DB_NAME);
         p.setProperty("server.port", FdfSettings.DB_PORT);
+        p.setProperty("server.no_system_exit", true);
         server = new Server();
 
         try {
@@ -120,41 +165,12 @@ public class HSqlConnection {
             server.setLogWriter(null); // can use custom writer
             server.setErrWriter(null); // can use custom writer
             server.start();
-        }
-        catch (IOException | ServerAcl.AclFormatException e) {
+        } catch (IOException | ServerAcl.AclFormatException e) {
             e.printStackTrace();
         }
 
-        if(server.getState() > 0) {
-
-            try {
-                return DriverManager.getConnection(
-                        DatabaseUtil.returnDBConnectionStringWithoutDatabase(),
-                        FdfSettings.DB_ROOT_USER, FdfSettings.DB_ROOT_PASSWORD);
-            }
-            catch (SQLException e) {
-                fdfLog.warn("SQL Error: {}\nDescription: ", e.getErrorCode(), e.getMessage());
-
-                // - Unknown database 'testing_db'
-                if (e.getErrorCode() == 1049) {
-                    fdfLog.error("Database did not exist: {}", e.getMessage());
-                } else {
-                    fdfLog.error(Arrays.toString(e.getStackTrace()));
-                }
-            }
-        }
-        else {
+        if(server.getState() <= 0) {
             fdfLog.error("hsql server not running!");
         }
-        return null;
     }
-
-    public void close(Connection connection) throws SQLException {
-        fdfLog.debug("Closing hsql database connection.");
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-        }
-        server.shutdown();
-    }
-
 }
@@ -107,11 +107,9 @@ public class PostgreSqlConnection extends JdbcConnection {
         config.setConnectionTestQuery(FdfSettings.HIKARICP_CONNECTION_TEST_QUERY);
         config.setMaximumPoolSize(FdfSettings.HIKARICP_MAX_POOL_SIZE);
         config.setMinimumIdle(FdfSettings.HIKARICP_MIN_IDLE_MS);
-        /* TODO: Caused by: java.lang.ClassNotFoundException: com.codahale.metrics.MetricRegistry
-        if(FdfSettings.HIKARICP_METRIC_REG != null) {
-            config.setMetricRegistry(FdfSettings.HIKARICP_METRIC_REG);
+        if(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY != null) {
+            config.setMetricsTrackerFactory(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY);
         }
-        */
         /* TODO: Caused by: java.lang.ClassNotFoundException: com.codahale.metrics.MetricRegistry
         config.setHealthCheckRegistry(FdfSettings.HIKARICP_HEALTH_CHECK_REG);
         */
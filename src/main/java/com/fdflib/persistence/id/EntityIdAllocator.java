@@ -0,0 +1,62 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.persistence.id;
+
+import com.fdflib.model.state.CommonState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out the ids of new entities.  The allocator used by the save methods is set with
+ * FdfSettings.ENTITY_ID_ALLOCATOR:
+ *
+ *   SequenceIdAllocator - one database round trip per id from a sequence per model table (Postgres, HSQL) or a
+ *                         counter table (MySQL, MariaDB), the default
+ *   HiLoIdAllocator     - takes blocks of ids from the same sequence and hands them out from memory
+ *   MaxIdAllocator      - the original max(id) + 1 per tenant, not safe with concurrent saves
+ */
+public interface EntityIdAllocator {
+
+    /**
+     * Returns a new, unused entity id.
+     *
+     * @param entityState model class of the entity
+     * @param tenantId tenant the entity belongs to
+     * @return the new id, or -1 if no id could be allocated
+     */
+    long nextId(Class<? extends CommonState> entityState, long tenantId);
+
+    /**
+     * Returns count new, unused entity ids.
+     *
+     * @param entityState model class of the entities
+     * @param tenantId tenant the entities belong to
+     * @param count number of ids needed
+     * @return the new ids, fewer then count (possibly none) if they could not be allocated
+     */
+    default List<Long> nextIds(Class<? extends CommonState> entityState, long tenantId, int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = nextId(entityState, tenantId);
+            if (id < 0) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.persistence.id;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.FdfPersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Allocates entity ids from memory, taking them from the id sequence of the model table (see SequenceIdAllocator) a
+ * block at a time.  Only one round trip is made per blockSize new entities, and as every block comes from the shared
+ * sequence several applications can allocate ids for the same table at once.  Ids left in a block when the
+ * application stops are never used.
+ */
+public class HiLoIdAllocator implements EntityIdAllocator {
+
+    private final int blockSize;
+    private final Map<Class<?>, Block> blocks = new ConcurrentHashMap<>();
+
+    public HiLoIdAllocator() {
+        this(100);
+    }
+
+    /**
+     * @param blockSize number of ids taken from the sequence at a time
+     */
+    public HiLoIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long nextId(Class<? extends CommonState> entityState, long tenantId) {
+        List<Long> ids = nextIds(entityState, tenantId, 1);
+        return ids.isEmpty() ? -1 : ids.get(0);
+    }
+
+    @Override
+    public List<Long> nextIds(Class<? extends CommonState> entityState, long tenantId, int count) {
+        Block block = blocks.computeIfAbsent(entityState, c -> new Block());
+        List<Long> ids = new ArrayList<>(count);
+
+        synchronized (block) {
+            while (ids.size() < count) {
+                if (block.position == block.ids.size()) {
+                    // take enough for the rest of the request, at least a full block
+                    block.ids = FdfPersistence.getInstance().nextEntityIds(entityState,
+                            Math.max(blockSize, count - ids.size()));
+                    block.position = 0;
+                    if (block.ids.isEmpty()) {
+                        break;
+                    }
+                }
+                ids.add(block.ids.get(block.position++));
+            }
+        }
+        return ids;
+    }
+
+    private static class Block {
+        private List<Long> ids = new ArrayList<>();
+        private int position = 0;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.persistence.id;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.service.impl.FdfCommonServices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates the id after the highest id of the tenant's current states, the way 4DFLib always has.  Needs a max(id)
+ * query per save and two concurrent saves can be given the same id, kept for databases where the id sequence can not
+ * be created.
+ */
+public class MaxIdAllocator implements EntityIdAllocator {
+
+    @Override
+    public long nextId(Class<? extends CommonState> entityState, long tenantId) {
+        return FdfCommonServices.getMaxEntityId(entityState, tenantId) + 1;
+    }
+
+    @Override
+    public List<Long> nextIds(Class<? extends CommonState> entityState, long tenantId, int count) {
+        // one query, the rest follow on
+        List<Long> ids = new ArrayList<>(count);
+        long nextId = nextId(entityState, tenantId);
+        for (int i = 0; i < count; i++) {
+            ids.add(nextId++);
+        }
+        return ids;
+    }
+}
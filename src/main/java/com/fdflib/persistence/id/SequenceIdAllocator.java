@@ -0,0 +1,40 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.persistence.id;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.FdfPersistence;
+
+import java.util.List;
+
+/**
+ * Allocates entity ids from the id sequence of the model table: a database sequence on Postgres and HSQL, a row of
+ * the fdfidcounter table on MySQL and MariaDB.  The sequence is created the first time ids are needed for a class,
+ * starting after the highest id already in the table.  Ids are unique across tenants.
+ */
+public class SequenceIdAllocator implements EntityIdAllocator {
+
+    @Override
+    public long nextId(Class<? extends CommonState> entityState, long tenantId) {
+        List<Long> ids = FdfPersistence.getInstance().nextEntityIds(entityState, 1);
+        return ids.isEmpty() ? -1 : ids.get(0);
+    }
+
+    @Override
+    public List<Long> nextIds(Class<? extends CommonState> entityState, long tenantId, int count) {
+        return FdfPersistence.getInstance().nextEntityIds(entityState, count);
+    }
+}
@@ -21,6 +21,7 @@ import com.fdflib.model.util.SqlStatement;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Created by brian.gormanly on 5/29/15.
@@ -31,9 +32,16 @@ public interface CorePersistenceImpl {
     void checkDatabase() throws SQLException;
     void checkTables() throws SQLException;
     void checkFields() throws SQLException;
+    void checkIndexes() throws SQLException;
     void checkDefaultEntries() throws SQLException;
 
     <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement);
+    <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement);
     <S> Long insert(Class<S> entityState, S state);
+    <S extends CommonState> Long insertCurrent(Class<S> entityState, S state);
+    <S> List<Long> insertBatch(Class<S> entityState, List<S> states);
+    <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> entityState, List<S> states);
     <S> void update(Class<S> c, S state);
+    <S> void updateBatch(Class<S> c, List<S> states);
+    List<Long> nextEntityIds(Class<? extends CommonState> c, int count);
 }
@@ -0,0 +1,356 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.annotation.FdfCached;
+import com.fdflib.annotation.FdfHistoryCached;
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.annotation.FdfIndex;
+import com.fdflib.annotation.FdfPartitioned;
+import com.fdflib.annotation.FdfSplitHistory;
+import com.fdflib.persistence.codec.FieldCodecs;
+import com.fdflib.util.IntList;
+import com.fdflib.util.LongList;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapping of a model class to its table, built once per class and shared by all persistence implementations.  It
+ * holds the persisted (non @FdfIgnore) fields in column order along with their binders and readers so that no
+ * reflection or type inspection is needed when statements are built, bound or read.
+ *
+ * Mappings are registered for the data model by FdfServices.initializeFdfDataModel, classes that were not
+ * registered are mapped on first use.
+ */
+public class ClassMapping<S> {
+
+    private static final Map<Class<?>, ClassMapping<?>> mappings = new ConcurrentHashMap<>();
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(ClassMapping.class);
+
+    private final Class<S> type;
+    private final boolean ignored;
+    private final boolean splitHistory;
+    private final int partitionMonths;
+    private final long cacheTtl;
+    private final boolean historyCached;
+    private final List<FieldMapping> fields;
+    private final List<FieldMapping> insertFields;
+    private final Map<String, FieldMapping> fieldsByName;
+    private final FieldMapping rid;
+    private final List<IndexMapping> indexes;
+
+    // ()Object view of the public no argument constructor, null if the class has none
+    private final MethodHandle constructor;
+
+    private ClassMapping(Class<S> type) {
+        this.type = type;
+        this.ignored = type.isAnnotationPresent(FdfIgnore.class);
+        this.splitHistory = type.isAnnotationPresent(FdfSplitHistory.class);
+
+        List<FieldMapping> fields = new ArrayList<>();
+        List<FieldMapping> insertFields = new ArrayList<>();
+        Map<String, FieldMapping> fieldsByName = new HashMap<>();
+        FieldMapping rid = null;
+
+        for (Field field : type.getFields()) {
+
+            // check to see if the field has an @fdfIgonre
+            if (!field.isAnnotationPresent(FdfIgnore.class)) {
+                FieldMapping fieldMapping = new FieldMapping(field);
+                fields.add(fieldMapping);
+                fieldsByName.put(fieldMapping.getName().toLowerCase(), fieldMapping);
+
+                if (fieldMapping.getName().equals("rid")) {
+                    rid = fieldMapping;
+                } else {
+                    insertFields.add(fieldMapping);
+                }
+            }
+        }
+
+        this.fields = Collections.unmodifiableList(fields);
+        this.insertFields = Collections.unmodifiableList(insertFields);
+        this.fieldsByName = Collections.unmodifiableMap(fieldsByName);
+        this.rid = rid;
+        this.indexes = Collections.unmodifiableList(buildIndexes());
+
+        FdfPartitioned partitioned = type.getAnnotation(FdfPartitioned.class);
+        this.partitionMonths = partitioned != null && fieldsByName.containsKey("arsd")
+                ? Math.max(1, partitioned.months()) : 0;
+
+        FdfCached cached = type.getAnnotation(FdfCached.class);
+        this.cacheTtl = cached != null && !ignored ? Math.max(0, cached.ttlSeconds()) * 1000L : 0;
+        this.historyCached = type.isAnnotationPresent(FdfHistoryCached.class) && !ignored;
+
+        MethodHandle constructor = null;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            fdfLog.debug("No public no argument constructor for {}", type.getName());
+        }
+        this.constructor = constructor;
+    }
+
+    private List<IndexMapping> buildIndexes() {
+        List<IndexMapping> indexes = new ArrayList<>();
+        if (ignored) {
+            return indexes;
+        }
+        indexes.add(IndexMapping.of(this, "current", true, "tid", "id", "cf"));
+        indexes.add(IndexMapping.of(this, "temporal", false, "tid", "id", "arsd", "ared"));
+        for (FieldMapping field : fields) {
+            if (field.getField().isAnnotationPresent(FdfIndex.class)) {
+                indexes.add(getField("tid") != null
+                        ? IndexMapping.of(this, field.getName(), false, "tid", field.getName())
+                        : IndexMapping.of(this, field.getName(), false, field.getName()));
+            }
+        }
+        // classes that do not extend CommonState lack the temporal columns
+        indexes.removeIf(Objects::isNull);
+        return indexes;
+    }
+
+    /**
+     * Builds and registers the mappings of the passed model classes.
+     *
+     * @param classes model classes to map
+     */
+    @SuppressWarnings("rawtypes")
+    public static void register(Collection<Class> classes) {
+        for (Class c : classes) {
+            forClass((Class<?>) c);
+        }
+    }
+
+    /**
+     * Returns the mapping of the passed class, building it if the class has not been mapped yet.
+     *
+     * @param c model class
+     * @param <S> type of the model class
+     * @return mapping of the class
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> ClassMapping<S> forClass(Class<S> c) {
+        return (ClassMapping<S>) mappings.computeIfAbsent(c, ClassMapping::new);
+    }
+
+    /**
+     * @return the mapped class
+     */
+    public Class<S> getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the class is annotated with @FdfIgnore and has no table
+     */
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    /**
+     * @return true if the class is annotated with @FdfSplitHistory and keeps its closed states in a history table
+     */
+    public boolean isSplitHistory() {
+        return splitHistory;
+    }
+
+    /**
+     * @return months per arsd partition if the class is annotated with @FdfPartitioned, 0 if it is not partitioned
+     */
+    public int getPartitionMonths() {
+        return partitionMonths;
+    }
+
+    /**
+     * @return milliseconds current states are cached if the class is annotated with @FdfCached, 0 if it is not cached
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * @return true if the closed states of the class are kept in the HistoryCache, annotated with @FdfHistoryCached
+     */
+    public boolean isHistoryCached() {
+        return historyCached;
+    }
+
+    /**
+     * @return all persisted fields in column order
+     */
+    public List<FieldMapping> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return persisted fields in column order without rid, which is generated by the database
+     */
+    public List<FieldMapping> getInsertFields() {
+        return insertFields;
+    }
+
+    /**
+     * Returns the mapping of the named field (case insensitive), or null if the class has no such persisted field.
+     *
+     * @param name name of the field / column
+     * @return mapping of the field
+     */
+    public FieldMapping getField(String name) {
+        return name != null ? fieldsByName.get(name.toLowerCase()) : null;
+    }
+
+    /**
+     * @return the indexes maintained on the table of the class, see IndexMapping
+     */
+    public List<IndexMapping> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @return a new, empty instance of the mapped class
+     */
+    public S newInstance() {
+        if (constructor == null) {
+            throw new IllegalStateException("Unable to instantiate " + type.getName()
+                    + ", no public no argument constructor");
+        }
+        try {
+            return type.cast((Object) constructor.invokeExact());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to instantiate " + type.getName(), t);
+        }
+    }
+
+    /**
+     * Copies the persisted fields of the state into a new instance, deep enough that changes to either state do not
+     * show in the other: dates, lists and arrays are copied and codec encoded fields are copied through their codec.
+     *
+     * @param state state to copy
+     * @return the copy, null if the state is null
+     */
+    public S copy(S state) {
+        if (state == null) {
+            return null;
+        }
+        S copy = newInstance();
+        for (FieldMapping field : fields) {
+            field.set(copy, copyValue(field, field.get(state)));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the value of a codec encoded field by encoding and decoding it, other values with copyValue.  Values the
+     * codec can not copy are shared.
+     */
+    private static Object copyValue(FieldMapping field, Object value) {
+        if (value == null || field.getType() != FieldType.OBJECT) {
+            return copyValue(value);
+        }
+        Type type = field.getField().getGenericType();
+        try {
+            return FieldCodecs.read(field.getCodec(), FieldCodecs.write(field.getCodec(), false, value, type), type);
+        } catch (IOException | RuntimeException e) {
+            fdfLog.warn("Unable to copy field {}, the copy shares its value: {}", field.getName(), e.getMessage());
+            return copyValue(value);
+        }
+    }
+
+    /**
+     * Copies a column value the way copy does: dates, lists and arrays are copied, other values are returned as they
+     * are.
+     *
+     * @param value value to copy
+     * @return the copy
+     */
+    public static Object copyValue(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        } else if (value instanceof LongList) {
+            return new LongList(((LongList) value).toLongArray());
+        } else if (value instanceof IntList) {
+            return new IntList(((IntList) value).toIntArray());
+        } else if (value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        } else if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Binds the insert fields of the state starting at the passed parameter index.
+     *
+     * @param ps statement to bind to
+     * @param state state to bind
+     * @param firstParameter index of the first parameter
+     * @return the next free parameter index
+     * @throws SQLException if a value can not be bound
+     */
+    public int bindInsert(PreparedStatement ps, S state, int firstParameter) throws SQLException {
+        int index = firstParameter;
+        for (FieldMapping field : insertFields) {
+            field.bind(ps, index++, state);
+        }
+        return index;
+    }
+
+    /**
+     * Binds the insert fields of the state followed by its rid, matching the column order of an update by rid.
+     *
+     * @param ps statement to bind to
+     * @param state state to bind
+     * @throws SQLException if a value can not be bound
+     */
+    public void bindUpdate(PreparedStatement ps, S state) throws SQLException {
+        int index = bindInsert(ps, state, 1);
+        if (rid != null) {
+            rid.bind(ps, index, state);
+        }
+    }
+
+    /**
+     * Builds the plan for reading the rows of a result set of this class, call once per query (after executing it)
+     * and use the plan for every row.
+     *
+     * @param metaData meta data of the result set
+     * @return plan pairing the selected columns with their fields
+     * @throws SQLException if the meta data can not be read
+     */
+    public RowPlan<S> planFor(ResultSetMetaData metaData) throws SQLException {
+        return new RowPlan<>(this, metaData);
+    }
+}
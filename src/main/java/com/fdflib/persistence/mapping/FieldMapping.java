@@ -0,0 +1,371 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.annotation.FdfCodec;
+import com.fdflib.persistence.codec.FieldCodec;
+import com.fdflib.persistence.codec.FieldCodecs;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Mapping of a single persisted model field to its database column.  Holds everything that used to be worked out
+ * from the Field on every row: the column name, the kind of value (and with it the JDBC type code, binder and
+ * reader), the element type and array type of List fields and the codec of OBJECT fields.
+ *
+ * Field values are read and written through MethodHandles created once when the mapping is built.  Primitive fields
+ * get an additional handle typed to the primitive so that binders and readers can move long, int, double, float and
+ * boolean values without boxing them.
+ */
+public class FieldMapping {
+
+    private final Field field;
+    private final String name;
+    private final FieldType type;
+    private final Class<?> elementType;
+
+    // Postgres array element type of LIST fields stored in native array columns, null otherwise, and while their
+    // column is still a text column
+    private final String nativeArrayType;
+    private volatile String arrayType;
+    private final boolean primitive;
+
+    // codec of OBJECT fields, null for every other kind of field (and for OBJECT fields using FdfSettings.FIELD_CODEC)
+    private final FieldCodec codec;
+    private final boolean compress;
+
+    // (Object)Object and (Object,Object)void views of the field, values of primitive fields are boxed
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    // (Object)p and (Object,p)void views typed to the primitive, null for non primitive fields
+    private final MethodHandle primitiveGetter;
+    private final MethodHandle primitiveSetter;
+
+    FieldMapping(Field field) {
+        this.field = field;
+        this.field.setAccessible(true);
+        this.name = field.getName();
+        this.type = FieldType.of(field);
+        this.elementType = type == FieldType.LIST ? FieldType.listElementType(field) : null;
+        this.nativeArrayType = type == FieldType.LIST && FdfSettings.POSTGRES_NATIVE_ARRAYS
+                && FdfSettings.PERSISTENCE == DatabaseUtil.DatabaseType.POSTGRES
+                ? FieldType.arrayElementType(elementType) : null;
+        this.arrayType = nativeArrayType;
+        this.primitive = field.getType().isPrimitive();
+
+        FdfCodec codecAnnotation = type == FieldType.OBJECT ? field.getAnnotation(FdfCodec.class) : null;
+        this.codec = codecAnnotation != null ? FieldCodecs.forClass(codecAnnotation.value()) : null;
+        this.compress = codecAnnotation != null && codecAnnotation.compress();
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle get = lookup.unreflectGetter(field);
+            MethodHandle set = lookup.unreflectSetter(field);
+
+            this.getter = get.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = set.asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+            if (primitive) {
+                this.primitiveGetter = get.asType(MethodType.methodType(field.getType(), Object.class));
+                this.primitiveSetter = set.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+            } else {
+                this.primitiveGetter = null;
+                this.primitiveSetter = null;
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access field " + name, e);
+        }
+    }
+
+    /**
+     * @return the name of the field, which is also the name of the column
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the kind of value stored in the field
+     */
+    public FieldType getType() {
+        return type;
+    }
+
+    /**
+     * @return the java.sql.Types code of the column
+     */
+    public int getSqlType() {
+        return arrayType != null ? Types.ARRAY : type.getSqlType();
+    }
+
+    /**
+     * @return the declared java type of the field
+     */
+    public Class<?> getJavaType() {
+        return field.getType();
+    }
+
+    /**
+     * @return the element type for LIST fields, null for every other kind of field
+     */
+    public Class<?> getElementType() {
+        return elementType;
+    }
+
+    /**
+     * @return the Postgres array element type (int8, text...) of LIST fields stored in native array columns, null for
+     * every other field
+     */
+    public String getArrayType() {
+        return arrayType;
+    }
+
+    /**
+     * @return the Postgres array element type of LIST fields when FdfSettings.POSTGRES_NATIVE_ARRAYS is on, also while
+     * the column is still a text column
+     */
+    public String getNativeArrayType() {
+        return nativeArrayType;
+    }
+
+    /**
+     * Binds and reads a LIST field as text while its column has not been converted to a native array column.
+     *
+     * @param textColumn true while the column of the field is a text column
+     */
+    public void setTextColumn(boolean textColumn) {
+        this.arrayType = textColumn ? null : nativeArrayType;
+    }
+
+    /**
+     * @return the codec that stores the value of an OBJECT field, from @FdfCodec or FdfSettings.FIELD_CODEC
+     */
+    public FieldCodec getCodec() {
+        return codec != null ? codec : FdfSettings.FIELD_CODEC;
+    }
+
+    /**
+     * @return true if the encoded value of an OBJECT field is compressed
+     */
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * @return true if the field is of a primitive type
+     */
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    /**
+     * @return the reflected field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Returns the value of this field on the passed state.
+     *
+     * @param state state to read the field from
+     * @return value of the field
+     */
+    public Object get(Object state) {
+        try {
+            return (Object) getter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    /**
+     * Sets the value of this field on the passed state, null values are skipped for primitive fields so they keep
+     * their default.
+     *
+     * @param state state to set the field on
+     * @param value value to set
+     */
+    public void set(Object state, Object value) {
+        if (value == null && primitive) {
+            return;
+        }
+        try {
+            setter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    /*
+     * Unboxed accessors, only valid for fields of the matching primitive type.
+     */
+
+    long getLong(Object state) {
+        try {
+            return (long) primitiveGetter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    void setLong(Object state, long value) {
+        try {
+            primitiveSetter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    int getInt(Object state) {
+        try {
+            return (int) primitiveGetter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    void setInt(Object state, int value) {
+        try {
+            primitiveSetter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    double getDouble(Object state) {
+        try {
+            return (double) primitiveGetter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    void setDouble(Object state, double value) {
+        try {
+            primitiveSetter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    float getFloat(Object state) {
+        try {
+            return (float) primitiveGetter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    void setFloat(Object state, float value) {
+        try {
+            primitiveSetter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    boolean getBoolean(Object state) {
+        try {
+            return (boolean) primitiveGetter.invokeExact(state);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    void setBoolean(Object state, boolean value) {
+        try {
+            primitiveSetter.invokeExact(state, value);
+        } catch (Throwable t) {
+            throw accessFailed(t);
+        }
+    }
+
+    private RuntimeException accessFailed(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException("Unable to access field " + name, t);
+    }
+
+    /**
+     * Binds the value of this field on the passed state to the statement parameter, nulls are bound with the JDBC
+     * type of the column.
+     *
+     * @param ps statement to bind to
+     * @param index parameter index
+     * @param state state to read the value from
+     * @throws SQLException if the value can not be bound
+     */
+    public void bind(PreparedStatement ps, int index, Object state) throws SQLException {
+        type.bind(ps, index, state, this);
+    }
+
+    /**
+     * Binds the passed value (which must be of this field's type) to the statement parameter.
+     *
+     * @param ps statement to bind to
+     * @param index parameter index
+     * @param value value to bind, may be null
+     * @throws SQLException if the value can not be bound
+     */
+    public void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, getSqlType());
+        } else {
+            type.bindValue(ps, index, value, this);
+        }
+    }
+
+    /**
+     * Reads the value of the passed column of the current row, null if the column was SQL NULL.
+     *
+     * @param rs result set positioned on a row
+     * @param column index of the column holding this field
+     * @return value of the column
+     * @throws SQLException if the column can not be read
+     */
+    public Object read(ResultSet rs, int column) throws SQLException {
+        return type.readValue(rs, column, this);
+    }
+
+    /**
+     * Reads the passed column of the current row into this field of the passed state.  SQL NULL leaves the field
+     * unchanged.
+     *
+     * @param rs result set positioned on a row
+     * @param column index of the column holding this field
+     * @param state state to set the field on
+     * @throws SQLException if the column can not be read
+     */
+    public void readInto(ResultSet rs, int column, Object state) throws SQLException {
+        type.read(rs, column, state, this);
+    }
+}
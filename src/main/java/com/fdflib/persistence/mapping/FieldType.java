@@ -0,0 +1,473 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.persistence.codec.FieldCodecs;
+import com.fdflib.util.FdfSettings;
+import com.fdflib.util.FdfUtil;
+import com.fdflib.util.IntList;
+import com.fdflib.util.LongList;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.sql.Array;
+import java.util.*;
+import java.util.Date;
+
+/**
+ * The kinds of model fields 4DFLib knows how to persist.  Each kind knows its JDBC type code, how to bind a non null
+ * value to a PreparedStatement and how to read a value back from a ResultSet.  The kind of a field is determined once
+ * when its FieldMapping is built.
+ */
+public enum FieldType {
+
+    STRING(Types.VARCHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setString(index, value.toString());
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            return rs.getString(column);
+        }
+    },
+    INTEGER(Types.INTEGER) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setInt(index, (Integer) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            int value = rs.getInt(column);
+            return rs.wasNull() ? null : value;
+        }
+        void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                ps.setInt(index, field.getInt(state));
+            } else {
+                super.bind(ps, index, state, field);
+            }
+        }
+        void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                int value = rs.getInt(column);
+                if (!rs.wasNull()) {
+                    field.setInt(state, value);
+                }
+            } else {
+                super.read(rs, column, state, field);
+            }
+        }
+    },
+    LONG(Types.BIGINT) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setLong(index, (Long) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            long value = rs.getLong(column);
+            return rs.wasNull() ? null : value;
+        }
+        void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                ps.setLong(index, field.getLong(state));
+            } else {
+                super.bind(ps, index, state, field);
+            }
+        }
+        void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                long value = rs.getLong(column);
+                if (!rs.wasNull()) {
+                    field.setLong(state, value);
+                }
+            } else {
+                super.read(rs, column, state, field);
+            }
+        }
+    },
+    DOUBLE(Types.DOUBLE) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setDouble(index, (Double) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            double value = rs.getDouble(column);
+            return rs.wasNull() ? null : value;
+        }
+        void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                ps.setDouble(index, field.getDouble(state));
+            } else {
+                super.bind(ps, index, state, field);
+            }
+        }
+        void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                double value = rs.getDouble(column);
+                if (!rs.wasNull()) {
+                    field.setDouble(state, value);
+                }
+            } else {
+                super.read(rs, column, state, field);
+            }
+        }
+    },
+    FLOAT(Types.FLOAT) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setFloat(index, (Float) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            float value = rs.getFloat(column);
+            return rs.wasNull() ? null : value;
+        }
+        void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                ps.setFloat(index, field.getFloat(state));
+            } else {
+                super.bind(ps, index, state, field);
+            }
+        }
+        void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                float value = rs.getFloat(column);
+                if (!rs.wasNull()) {
+                    field.setFloat(state, value);
+                }
+            } else {
+                super.read(rs, column, state, field);
+            }
+        }
+    },
+    BIG_DECIMAL(Types.NUMERIC) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setBigDecimal(index, (BigDecimal) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            return rs.getBigDecimal(column);
+        }
+    },
+    BOOLEAN(Types.BOOLEAN) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setBoolean(index, (Boolean) value);
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            boolean value = rs.getBoolean(column);
+            return rs.wasNull() ? null : value;
+        }
+        void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                ps.setBoolean(index, field.getBoolean(state));
+            } else {
+                super.bind(ps, index, state, field);
+            }
+        }
+        void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+            if (field.isPrimitive()) {
+                boolean value = rs.getBoolean(column);
+                if (!rs.wasNull()) {
+                    field.setBoolean(state, value);
+                }
+            } else {
+                super.read(rs, column, state, field);
+            }
+        }
+    },
+    CHARACTER(Types.CHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            // the null character (default value of a char) can not be stored in every database, store it as null
+            if ((Character) value == '\u0000') {
+                ps.setNull(index, getSqlType());
+            } else {
+                ps.setString(index, value.toString());
+            }
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            String value = rs.getString(column);
+            return value != null && value.length() > 0 ? value.charAt(0) : null;
+        }
+    },
+    DATE(Types.TIMESTAMP) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            return rs.getTimestamp(column);
+        }
+    },
+    UUID(Types.VARCHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setString(index, value.toString());
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            String value = rs.getString(column);
+            return value != null ? java.util.UUID.fromString(value) : null;
+        }
+    },
+    ENUM(Types.VARCHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setString(index, value.toString());
+        }
+        @SuppressWarnings("unchecked")
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            String value = rs.getString(column);
+            return value != null ? Enum.valueOf((Class<Enum>) field.getJavaType(), value) : null;
+        }
+    },
+    CLASS(Types.VARCHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            ps.setString(index, FdfUtil.getClassName(value.toString()));
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            String value = rs.getString(column);
+            return value != null ? FdfUtil.getClassByFullyQualifiedName(value) : null;
+        }
+    },
+    /**
+     * List of Long, Integer, Double, Float, Boolean or String, stored as its toString() representation, or as a
+     * native array when the field has an array type (Postgres).
+     */
+    LIST(Types.VARCHAR) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            if (field.getArrayType() != null) {
+                ps.setArray(index, ps.getConnection().createArrayOf(field.getArrayType(), ((List<?>) value).toArray()));
+            } else {
+                ps.setString(index, value.toString());
+            }
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            if (field.getArrayType() != null) {
+                Array array = rs.getArray(column);
+                if (array == null) {
+                    return null;
+                }
+                try {
+                    return toList((Object[]) array.getArray(), field);
+                } finally {
+                    array.free();
+                }
+            }
+            String value = rs.getString(column);
+            return value != null ? parseList(value, field.getElementType()) : null;
+        }
+    },
+    /**
+     * Any other type, encoded by the codec of the field (see FieldCodec) into a binary column.  Bound as
+     * LONGVARBINARY, which every driver maps onto its binary column type (a BLOB null would be an oid on Postgres).
+     */
+    OBJECT(Types.LONGVARBINARY) {
+        void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException {
+            try {
+                ps.setBytes(index, FieldCodecs.write(field.getCodec(), field.isCompressed(), value,
+                        field.getField().getGenericType()));
+            } catch (IOException | RuntimeException e) {
+                fdfLog.warn("Unable to encode field {}: {}", field.getName(), e.getMessage());
+                ps.setNull(index, getSqlType());
+            }
+        }
+        Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException {
+            byte[] value = rs.getBytes(column);
+            if (value == null) {
+                return null;
+            }
+            FdfSettings.METRICS.recordBytesDecoded(field.getField().getDeclaringClass(), value.length);
+            try {
+                return FieldCodecs.read(field.getCodec(), value, field.getField().getGenericType());
+            } catch (IOException | RuntimeException e) {
+                fdfLog.warn("Unable to decode field {}: {}", field.getName(), e.getMessage());
+                return null;
+            }
+        }
+    };
+
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(FieldType.class);
+
+    /**
+     * Element types supported by LIST fields.
+     */
+    static final List<Class<?>> LIST_ELEMENT_TYPES = Arrays.asList(Long.class, Integer.class, Double.class,
+            Float.class, Boolean.class, String.class);
+
+    /**
+     * Postgres array element types of the LIST_ELEMENT_TYPES, usable both in column definitions (int8[]) and with
+     * Connection.createArrayOf.
+     */
+    private static final Map<Class<?>, String> ARRAY_ELEMENT_TYPES = new HashMap<>();
+    static {
+        ARRAY_ELEMENT_TYPES.put(Long.class, "int8");
+        ARRAY_ELEMENT_TYPES.put(Integer.class, "int4");
+        ARRAY_ELEMENT_TYPES.put(Double.class, "float8");
+        ARRAY_ELEMENT_TYPES.put(Float.class, "float4");
+        ARRAY_ELEMENT_TYPES.put(Boolean.class, "bool");
+        ARRAY_ELEMENT_TYPES.put(String.class, "text");
+    }
+
+    private final int sqlType;
+
+    FieldType(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * @return the java.sql.Types code used for this kind of field (and to bind nulls)
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * Binds the value of the field on the passed state, primitive kinds override this to bind without boxing.
+     */
+    void bind(PreparedStatement ps, int index, Object state, FieldMapping field) throws SQLException {
+        field.bindValue(ps, index, field.get(state));
+    }
+
+    /**
+     * Reads the column into the field of the passed state, SQL NULL leaves the field unchanged.  Primitive kinds
+     * override this to read without boxing.
+     */
+    void read(ResultSet rs, int column, Object state, FieldMapping field) throws SQLException {
+        Object value = readValue(rs, column, field);
+        if (value != null) {
+            field.set(state, value);
+        }
+    }
+
+    /**
+     * Binds a non null value.
+     */
+    abstract void bindValue(PreparedStatement ps, int index, Object value, FieldMapping field) throws SQLException;
+
+    /**
+     * Reads the value of the column, returns null if the column was SQL NULL.
+     */
+    abstract Object readValue(ResultSet rs, int column, FieldMapping field) throws SQLException;
+
+    /**
+     * Determines the kind of the passed model field.
+     *
+     * @param field field to check
+     * @return kind of the field
+     */
+    public static FieldType of(Field field) {
+        Class<?> type = field.getType();
+
+        if (type == String.class) {
+            return STRING;
+        } else if (type == int.class || type == Integer.class) {
+            return INTEGER;
+        } else if (type == long.class || type == Long.class) {
+            return LONG;
+        } else if (type == double.class || type == Double.class) {
+            return DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return FLOAT;
+        } else if (type == BigDecimal.class) {
+            return BIG_DECIMAL;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == char.class || type == Character.class) {
+            return CHARACTER;
+        } else if (type == Date.class) {
+            return DATE;
+        } else if (type == java.util.UUID.class) {
+            return UUID;
+        } else if (type.isEnum()) {
+            return ENUM;
+        } else if (Class.class.isAssignableFrom(type)) {
+            return CLASS;
+        } else if (listElementType(field) != null) {
+            return LIST;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * Returns the element type of a List field if it is one of the supported LIST_ELEMENT_TYPES, otherwise null.
+     */
+    static Class<?> listElementType(Field field) {
+        if (field.getType().isAssignableFrom(ArrayList.class) && field.getGenericType() instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+            if (arguments.length == 1 && LIST_ELEMENT_TYPES.contains(arguments[0])) {
+                return (Class<?>) arguments[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the toString() representation of a list ("[a, b, c]") back into a list of the element type.
+     */
+    static List<Object> parseList(String value, Class<?> elementType) {
+        List<Object> list = new ArrayList<>();
+        String content = value.length() >= 2 ? value.substring(1, value.length() - 1) : "";
+        if (content.trim().isEmpty()) {
+            return list;
+        }
+        for (String str : content.split(",")) {
+            String element = str.trim();
+            if (elementType == Long.class) {
+                list.add(Long.parseLong(element));
+            } else if (elementType == Integer.class) {
+                list.add(Integer.parseInt(element));
+            } else if (elementType == Double.class) {
+                list.add(Double.parseDouble(element));
+            } else if (elementType == Float.class) {
+                list.add(Float.parseFloat(element));
+            } else if (elementType == Boolean.class) {
+                list.add(Boolean.parseBoolean(element));
+            } else {
+                list.add(element);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the Postgres array element type of a LIST element type.
+     */
+    static String arrayElementType(Class<?> elementType) {
+        return ARRAY_ELEMENT_TYPES.get(elementType);
+    }
+
+    /**
+     * Builds the value of a LIST field from the elements of a native array.  Long and Integer elements land in a
+     * LongList / IntList when the field is declared as a List (or Collection) and the array holds no nulls.
+     */
+    static List<?> toList(Object[] elements, FieldMapping field) {
+        Class<?> elementType = field.getElementType();
+        boolean primitive = (elementType == Long.class && field.getJavaType().isAssignableFrom(LongList.class))
+                || (elementType == Integer.class && field.getJavaType().isAssignableFrom(IntList.class));
+        for (int i = 0; primitive && i < elements.length; i++) {
+            primitive = elements[i] != null;
+        }
+
+        if (primitive && elementType == Long.class) {
+            LongList list = new LongList(elements.length);
+            for (Object element : elements) {
+                list.addLong(((Number) element).longValue());
+            }
+            return list;
+        } else if (primitive) {
+            IntList list = new IntList(elements.length);
+            for (Object element : elements) {
+                list.addInt(((Number) element).intValue());
+            }
+            return list;
+        }
+        return new ArrayList<>(Arrays.asList(elements));
+    }
+}
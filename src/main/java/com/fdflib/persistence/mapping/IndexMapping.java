@@ -0,0 +1,120 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An index 4DFLib maintains on the table of a model class.  Every table gets
+ *
+ * current:  (tid, id, cf), used by every current state lookup (cf = true, df = false)
+ * temporal: (tid, id, arsd, ared), used by history, audit and point in time lookups
+ *
+ * plus an index on (tid, field) for each field annotated with @FdfIndex.  Indexes that are current only are created
+ * as partial indexes (WHERE cf = true) by the databases that support them, so they hold one entry per entity rather
+ * than one per state.  Classes annotated with @FdfSplitHistory get the indexes that are not current only on their
+ * history table as well.
+ */
+public class IndexMapping {
+
+    // longest identifier accepted by all supported databases (Postgres 63, MySQL / MariaDB 64)
+    private static final int MAX_NAME_LENGTH = 63;
+
+    private final String name;
+    private final String historyName;
+    private final List<FieldMapping> fields;
+    private final boolean currentOnly;
+
+    IndexMapping(String name, String historyName, List<FieldMapping> fields, boolean currentOnly) {
+        this.name = name;
+        this.historyName = historyName;
+        this.fields = Collections.unmodifiableList(fields);
+        this.currentOnly = currentOnly;
+    }
+
+    /**
+     * Builds the index over the named columns of the class, or returns null if the class does not persist all of them.
+     *
+     * @param mapping mapping of the class
+     * @param suffix identifies the index within the table
+     * @param currentOnly true if only current states (cf = true) need to be indexed
+     * @param columns names of the indexed columns, in order
+     * @return the index, null if a column is missing
+     */
+    static IndexMapping of(ClassMapping<?> mapping, String suffix, boolean currentOnly, String... columns) {
+        List<FieldMapping> fields = new ArrayList<>();
+        for (String column : columns) {
+            FieldMapping field = mapping.getField(column);
+            if (field == null) {
+                return null;
+            }
+            if (!fields.contains(field)) {
+                fields.add(field);
+            }
+        }
+        String table = mapping.getType().getSimpleName().toLowerCase();
+        return new IndexMapping(indexName(table, suffix), indexName(table + "_history", suffix), fields, currentOnly);
+    }
+
+    /**
+     * @return name of the index, unique within the database
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return name of the index on the history table of a class annotated with @FdfSplitHistory
+     */
+    public String getHistoryName() {
+        return historyName;
+    }
+
+    /**
+     * @return the indexed fields, in order
+     */
+    public List<FieldMapping> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return comma separated names of the indexed columns
+     */
+    public String getColumnList() {
+        return fields.stream().map(FieldMapping::getName).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * @return true if only current states need to be in the index
+     */
+    public boolean isCurrentOnly() {
+        return currentOnly;
+    }
+
+    private static String indexName(String table, String suffix) {
+        String name = table + "_" + suffix.toLowerCase() + "_idx";
+        if (name.length() > MAX_NAME_LENGTH) {
+            // keep the name unique when the table or field name has to be shortened
+            String hash = Integer.toHexString(name.hashCode());
+            name = name.substring(0, MAX_NAME_LENGTH - hash.length() - 5) + "_" + hash + "_idx";
+        }
+        return name;
+    }
+}
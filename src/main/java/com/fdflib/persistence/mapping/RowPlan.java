@@ -0,0 +1,88 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.mapping;
+
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column plan for reading the rows of one result set into instances of a mapped class.  The plan is built once per
+ * query from the ResultSetMetaData: every selected column that matches a persisted field is paired with that field
+ * by column index, columns that do not belong to the class are skipped and fields the projection did not select are
+ * never touched.  Each row is then read column by column, exactly once, by index.
+ */
+public class RowPlan<S> {
+
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(RowPlan.class);
+
+    private final ClassMapping<S> mapping;
+    private final int[] columns;
+    private final FieldMapping[] fields;
+
+    RowPlan(ClassMapping<S> mapping, ResultSetMetaData metaData) throws SQLException {
+        this.mapping = mapping;
+
+        List<FieldMapping> planned = new ArrayList<>();
+        int[] columns = new int[metaData.getColumnCount()];
+        int count = 0;
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            FieldMapping field = mapping.getField(metaData.getColumnLabel(column));
+
+            // skip columns that are not fields of the class, or a field selected more then once
+            if (field != null && !planned.contains(field)) {
+                planned.add(field);
+                columns[count++] = column;
+            }
+        }
+
+        this.fields = planned.toArray(new FieldMapping[count]);
+        this.columns = new int[count];
+        System.arraycopy(columns, 0, this.columns, 0, count);
+    }
+
+    /**
+     * @return number of fields read from each row
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * Builds a new instance of the mapped class from the current row of the result set.  Only selected fields that
+     * are not null are set, the rest keep their defaults.
+     *
+     * @param rs result set positioned on a row, the one the plan was built for
+     * @return the hydrated instance
+     */
+    public S read(ResultSet rs) {
+        S state = mapping.newInstance();
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                fields[i].readInto(rs, columns[i], state);
+            } catch (SQLException | RuntimeException e) {
+                fdfLog.warn("Unable to read column {} of {}: {}", fields[i].getName(),
+                        mapping.getType().getSimpleName(), e.getMessage());
+            }
+        }
+        return state;
+    }
+}
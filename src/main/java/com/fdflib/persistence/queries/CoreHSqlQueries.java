@@ -1 +1,1177 @@
-/** * 4DFLib * Copyright (c) 2015-2016 Brian Gormanly * 4dflib.com * * 4DFLib is free software; you can redistribute it and/or modify it under * the terms of the GNU Lesser General Public License as published by the Free * Software Foundation; either version 3 of the License, or (at your option) * any later version. * * This library is distributed in the hope that it will be useful, but WITHOUT * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more * details. */package com.fdflib.persistence.queries;import com.fdflib.annotation.FdfIgnore;import com.fdflib.model.state.CommonState;import com.fdflib.model.state.FdfSystem;import com.fdflib.model.state.FdfTenant;import com.fdflib.model.util.SqlStatement;import com.fdflib.model.util.WhereClause;import com.fdflib.persistence.database.HSqlConnection;import com.fdflib.persistence.impl.CorePersistenceImpl;import com.fdflib.service.FdfSystemServices;import com.fdflib.service.FdfTenantServices;import com.fdflib.service.impl.FdfCommonServices;import com.fdflib.util.FdfSettings;import com.fdflib.util.FdfUtil;import org.slf4j.LoggerFactory;import java.io.*;import java.lang.reflect.Field;import java.lang.reflect.ParameterizedType;import java.math.BigDecimal;import java.sql.*;import java.util.*;import java.util.Date;/** * Created by brian.gormanly on 5/19/15. */public class CoreHSqlQueries implements CorePersistenceImpl {    private static final CoreHSqlQueries INSTANCE = new CoreHSqlQueries();    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreHSqlQueries.class);    private CoreHSqlQueries() {}    public static CoreHSqlQueries getInstance() {        return INSTANCE;    }    public void checkDatabase() throws SQLException {        // create database    }    public void checkTables() throws SQLException {        // get the 4df data model        List<Class> classList = FdfSettings.getInstance().modelClasses;        // create the tables for the model objects        for(Class c: classList) {            // check to see if the class has an @fdfIgonre            if(!c.isAnnotationPresent(FdfIgnore.class)) {                // determine the number of fields                int numberOfFields = 0;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if (!field.isAnnotationPresent(FdfIgnore.class)) {                        numberOfFields++;                    }                }                // check to see if the table already exists                String tableTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_TABLES "                        + "Where TABLE_NAME = '" + c.getSimpleName() + "';";                Connection conn = null;                Statement stmt = null;                ResultSet rs = null;                try {                    conn = HSqlConnection.getInstance().getSession();                    stmt = conn.createStatement();                    if (stmt != null) {                        fdfLog.debug("Executing SQL: {}", tableTest);                        rs = stmt.executeQuery(tableTest);                    }                    if (rs != null) {                            // Table does not exist, create                            fdfLog.info("creating table: {}", c.getSimpleName());                            // check there there is at lease one field                            if (c.getFields().length > 0) {                                String sql = "CREATE TABLE IF NOT EXISTS " + c.getSimpleName() + " ( ";                                int fieldCounter = 0;                                for (Field field : c.getFields()) {                                    // check to see if the class has an @fdfIgonre                                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                                        sql += getFieldNameAndDataType(field);                                        fieldCounter++;                                        if (numberOfFields > fieldCounter) sql += ", ";                                    }                                }                                sql += ");";                                fdfLog.debug("Table sql {} : {}", c.getSimpleName(), sql);                                if (stmt != null) {                                    stmt.executeUpdate(sql);                                }                            } else {                                fdfLog.info("No table created for model object {} class had no valid data members", c.getSimpleName());                            }                    }                } catch (SQLException sqlException) {                    // some other error                    fdfLog.warn("Error occurred checking or creating a table:::");                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),                            sqlException.getMessage());                } catch (Exception ex) {                    ex.printStackTrace();                } finally {                    if (rs != null) {                        rs.close();                    }                    if (stmt != null) {                        stmt.close();                    }                    if (conn != null) {                        HSqlConnection.getInstance().close(conn);                    }                }            }        }    }    public void checkFields() throws SQLException {        // get the 4df data model        List<Class> classList = FdfSettings.getInstance().modelClasses;        // create the tables for the model objects        for(Class c : classList) {            // determine the number of fields            int numberOfFields = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if (!field.isAnnotationPresent(FdfIgnore.class)) {                    numberOfFields++;                }            }            if(numberOfFields > 0) {                // check to see if the class has an @fdfIgonre                if(!c.isAnnotationPresent(FdfIgnore.class)) {                    Connection conn = null;                    Statement stmt = null;                    ResultSet rs = null;                    try {                        conn = HSqlConnection.getInstance().getSession();                        stmt = conn.createStatement();                        for (Field field : c.getFields()) {                            // check to see if the class has an @fdfIgonre                            if(!field.isAnnotationPresent(FdfIgnore.class)) {                                // query for the field in the database                                // check to see if the table already exists                                String fieldTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_COLUMNS"                                        + " Where TABLE_NAME = '" + c.getSimpleName() + "' and COLUMN_NAME = '"                                        + field.getName() + "';";                                if(stmt != null) {                                    rs = stmt.executeQuery(fieldTest);                                    if (rs != null && !rs.next()) {                                        // the field did not exist,                                        fdfLog.info("creating field: {} in table: {}", field.getName(), c.getSimpleName());                                        String alterSql = "alter table " + c.getSimpleName() + " add column "                                                + getFieldNameAndDataType(field) + ";";                                        fdfLog.debug("Add field sql {} : {}", c.getSimpleName(), alterSql);                                        stmt.executeUpdate(alterSql);                                    }                                }                            }                        }                    } catch (SQLException sqlException) {                        // some other error                        fdfLog.warn("Error occurred checking or creating a field:::");                        fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +                                        ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),                                sqlException.getMessage());                    } catch (Exception ex) {                        ex.printStackTrace();                    } finally {                        if (rs != null) {                            rs.close();                        }                        if (stmt != null) {                            stmt.close();                        }                        if (conn != null) {                            HSqlConnection.getInstance().close(conn);                        }                    }                }            }        }    }    public void checkDefaultEntries() throws SQLException {        // check to see if the default entry exists for FdfSystem        FdfSystemServices ss = new FdfSystemServices();        FdfSystem defaultSystem = ss.getDefaultSystem();        if(defaultSystem == null) {            // create the default FdfSystem entry            FdfSystem newDefaultSystem = new FdfSystem();            newDefaultSystem.name = FdfSettings.DEFAULT_SYSTEM_NAME;            newDefaultSystem.description = FdfSettings.DEFAULT_SYSTEM_DESCRIPTION;            newDefaultSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.DEFAULT_SYSTEM_PASSWORD);            newDefaultSystem.euid = 0;            newDefaultSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newDefaultSystem);            fdfLog.info("Created default system.");        }        // check to see if the test system entry exists        FdfSystem testSystem = ss.getTestSystem();        if(testSystem == null) {            // create the default FdfSystem entry            FdfSystem newTestSystem = new FdfSystem();            newTestSystem.name = FdfSettings.TEST_SYSTEM_NAME;            newTestSystem.description = FdfSettings.TEST_SYSTEM_DESCRIPTION;            newTestSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.TEST_SYSTEM_PASSWORD);            newTestSystem.euid = 0;            newTestSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newTestSystem);            fdfLog.info("Created test system.");        }        // check to see if the default Tenant entry exists        FdfTenantServices ts = new FdfTenantServices();        FdfTenant defaultTenant = ts.getDefaultTenant();        if(defaultTenant == null) {            // create the default FdfTenant            FdfTenant defaultTenantState = new FdfTenant();            defaultSystem = ss.getDefaultSystem();            defaultTenantState.name = FdfSettings.DEFAULT_TENANT_NAME;            defaultTenantState.description = FdfSettings.DEFAULT_TENANT_DESRIPTION;            defaultTenantState.isPrimary = FdfSettings.DEFAULT_TENANT_IS_PRIMARY;            defaultTenantState.webURL = FdfSettings.DEFAULT_TENANT_WEBSITE;            defaultTenantState.euid = 1;            defaultTenantState.esid = defaultSystem.id;            ts.saveTenant(defaultTenantState);            fdfLog.info("Created default tenant.");        }    }    public <S> void update(Class<S> c, S state) {        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            // determine the number of fields            int numberOfFields = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if (!field.isAnnotationPresent(FdfIgnore.class)) {                    numberOfFields++;                }            }            // Start the sql statement            String sql = "update " + c.getSimpleName() + " set";            int fieldCounter = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter++;                    if (!field.getName().equals("rid")) {                        sql += " " + field.getName() + " = ?";                        if (numberOfFields > fieldCounter) sql += ",";                    }                }            }            Connection conn = null;            PreparedStatement preparedStmt = null;            ResultSet rs = null;            try {                sql += " where rid = " + c.getField("rid").get(state) + " ;";                conn = HSqlConnection.getInstance().getSession();                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);                int fieldCounter3 = 1;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                        try {                            if (field.getType() == String.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == int.class || field.getType() == Integer.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.INTEGER);                                    }                                }                            } else if (field.getType() == Long.class || field.getType() == long.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BIGINT);                                    }                                }                            } else if (field.getType() == Double.class || field.getType() == double.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                                    }                                }                            } else if (field.getType() == Float.class || field.getType() == float.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.FLOAT);                                    }                                }                            }                            else if (field.getType() == BigDecimal.class) {                                if (!field.getName().toLowerCase().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                                    }                                }                            }                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                                if (field.get(state) != null) {                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                                }                            } else if (field.getType() == char.class || field.getType() == Character.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);                                }                            } else if (field.getType() == Date.class) {                                if (field.get(state) != null) {                                Date insertDate = (Date) field.get(state);                                    if (insertDate == null) {                                        preparedStmt.setTimestamp(fieldCounter3, null);                                    } else {                                        preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.TIMESTAMP);                                }                            } else if (field.getType() == UUID.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (Class.class.isAssignableFrom(field.getType())) {                                if(field.get(state) != null) {                                    String className = field.get(state).toString();                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                                }                                else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                                ParameterizedType pt = (ParameterizedType) field.getGenericType();                                if (pt.getActualTypeArguments().length == 1                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")                                        || pt.getActualTypeArguments()[0].toString().contains("long")                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")                                        || pt.getActualTypeArguments()[0].toString().contains("int")                                        || pt.getActualTypeArguments()[0].toString().contains("Double")                                        || pt.getActualTypeArguments()[0].toString().contains("double")                                        || pt.getActualTypeArguments()[0].toString().contains("Float")                                        || pt.getActualTypeArguments()[0].toString().contains("float")                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    // try to serialize the object                                    if (field.get(state) != null) {                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();                                        ObjectOutputStream oos = null;                                        try {                                            oos = new ObjectOutputStream(baos);                                            oos.writeObject(field.get(state));                                            oos.close();                                            preparedStmt.setString(fieldCounter3,                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));                                        } catch (IOException e) {                                            e.printStackTrace();                                        }                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);                                    }                                }                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                            if (!field.getName().equals("rid")) fieldCounter3++;                        } catch (IllegalAccessException e) {                            e.printStackTrace();                        }                    }                }                fdfLog.debug("update sql : {}", preparedStmt);                preparedStmt.execute();            } catch (SQLException e) {                e.printStackTrace();            } catch (IllegalAccessException e) {                e.printStackTrace();            } catch (NoSuchFieldException e) {                e.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (preparedStmt != null) {                    try {                        preparedStmt.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }    }    public <S> Long insert(Class<S> c, S state) {        // spot to hold returned id for new record        long newId = -1L;        // determine the number of fields        int numberOfFields = 0;        for (Field field : c.getFields()) {            // check to see if the class has an @fdfIgonre            if (!field.isAnnotationPresent(FdfIgnore.class)) {                numberOfFields++;            }        }        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            // Start the sql statement            String sql = "insert into " + c.getSimpleName() + " (";            int fieldCounter = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter++;                    if (!field.getName().equals("rid")) {                        sql += " " + field.getName();                        if (numberOfFields > fieldCounter) sql += ",";                    }                }            }            sql += " ) values (";            //insert the correct number of question marks for the prepared statement            int fieldCounter2 = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter2++;                    if (!field.getName().equals("rid")) {                        sql += " ?";                        if (numberOfFields > fieldCounter2) sql += ",";                    }                }            }            sql += ");";            Connection conn = null;            PreparedStatement preparedStmt = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);                int fieldCounter3 = 1;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                        try {                            if (field.getType() == String.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == int.class || field.getType() == Integer.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.INTEGER);                                }                            } else if (field.getType() == Long.class || field.getType() == long.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BIGINT);                                }                            } else if (field.getType() == Double.class || field.getType() == double.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                                }                            } else if (field.getType() == Float.class || field.getType() == float.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.FLOAT);                                }                            }                            else if (field.getType() == BigDecimal.class) {                                if (field.get(state) != null) {                                    if (!field.getName().toLowerCase().equals("rid")) {                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                                }                            }                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                                if (field.get(state) != null) {                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                                }                            } else if (field.getType() == char.class || field.getType() == Character.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);                                }                            } else if (field.getType() == UUID.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == Date.class) {                                Date insertDate = (Date) field.get(state);                                if (insertDate == null) {                                    preparedStmt.setTimestamp(fieldCounter3, null);                                } else {                                    preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                                }                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (Class.class.isAssignableFrom(field.getType())) {                                if (field.get(state) != null) {                                    String className = field.get(state).toString();                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                                ParameterizedType pt = (ParameterizedType) field.getGenericType();                                if (pt.getActualTypeArguments().length == 1                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")                                        || pt.getActualTypeArguments()[0].toString().contains("long")                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")                                        || pt.getActualTypeArguments()[0].toString().contains("int")                                        || pt.getActualTypeArguments()[0].toString().contains("Double")                                        || pt.getActualTypeArguments()[0].toString().contains("double")                                        || pt.getActualTypeArguments()[0].toString().contains("Float")                                        || pt.getActualTypeArguments()[0].toString().contains("float")                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    // try to serialize the object                                    if (field.get(state) != null) {                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();                                        ObjectOutputStream oos = null;                                        try {                                            oos = new ObjectOutputStream(baos);                                            oos.writeObject(field.get(state));                                            oos.close();                                            preparedStmt.setString(fieldCounter3,                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));                                        } catch (IOException e) {                                            e.printStackTrace();                                        }                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);                                    }                                }                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                            if (!field.getName().equals("rid")) fieldCounter3++;                        } catch (IllegalAccessException e) {                            e.printStackTrace();                        }                    }                }                fdfLog.debug("insert sql : {}", preparedStmt);                preparedStmt.execute();                rs = preparedStmt.getGeneratedKeys();                rs.next();                newId = rs.getLong(1);            } catch (SQLException e) {                e.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (preparedStmt != null) {                    try {                        preparedStmt.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return newId;    }    /**     * General select Query to retrieve all information for passed entity, can be used to return specified     * data from any table.  It looks to the class for datatype information and matches each table field returned     * to the EntityState object by name.  If specific select statements are made they only the corresponding object     * members will return with data.  If the select parameter is null, all memebers will be returned.     *     * Table to query is determined by passing in the corresponding model class. (ex. MyObjectModel.class)     * Where clauses are passed as an List of Where objects which contain the key (or name), the value to check     * against, and the type of Conditional (applied between clauses if there is more then one, AND is the default).     *     * Example sql statement that would be generated for the following class: User.class     * and where: {[firstName, Larry], [lastName, Smith, AND]} would be:     *      SELECT * FROM User where firstName = 'Larry' AND lastName = 'Smith';     *     * @param c Class of entity to select from     * @param sqlStatement Class that contains all the necessary fields to build the sql statement     * @param <S> Type extending CommonState to query and return     * @return data queried     */    public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {        List<S> everything = new ArrayList<>();        //Check if class is @FdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            //Start the sql statement            String sql = sqlStatement.getSelect() + " FROM " + c.getSimpleName()                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()                    + sqlStatement.getLimit() + ";";            fdfLog.debug("select sql: {}", sql);            Connection conn = null;            PreparedStatement ps = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                ps = conn.prepareStatement(sql);                if (ps != null) {                    rs = ps.executeQuery();                    while (rs.next()) {                        // create a new object of type passed                        Object thisObject = c.newInstance();                        for (Field field : c.getFields()) {                            // check the datatype of the field to apply the correct method to                            // retrieve the data on the resultset                            // check to see if the class has an @fdfIgonre                            if(!field.isAnnotationPresent(FdfIgnore.class)) {                                try {                                    if (field.getType() == String.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getString(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == long.class || field.getType() == Long.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getLong(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == double.class || field.getType() == Double.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getDouble(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == float.class || field.getType() == Float.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getFloat(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == BigDecimal.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBigDecimal(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == char.class || field.getType() == Character.class) {                                        try {                                            field.setAccessible(true);                                            if (field.getName() != null && rs.getString(field.getName()) != null && rs.getString(field.getName()).length() > 0) {                                                field.set(thisObject, rs.getString(field.getName()).charAt(0));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Date.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getTimestamp(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        } catch (NullPointerException npe) {                                            // Nullpointer in timestap                                            fdfLog.debug("NullPointer on timestamp column {}, This is usually because select"                                                    + "statement did not include column", field.getName(), npe.getMessage());                                        }                                    } else if (field.getType() == UUID.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, UUID.fromString(rs.getString(field.getName())));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject, Enum.valueOf((Class<Enum>) field.getType(),                                                    rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (Class.class.isAssignableFrom(field.getType())                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject,                                                    FdfUtil.getClassByFullyQualifiedName(rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getGenericType() instanceof ParameterizedType                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        ParameterizedType pt = (ParameterizedType) field.getGenericType();                                        if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Long")                                                        || pt.getActualTypeArguments()[0].toString().contains("long"))) {                                            List<Long> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Long.parseLong(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Integer")                                                        || pt.getActualTypeArguments()[0].toString().contains("int"))) {                                            List<Integer> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Integer.parseInt(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Float")                                                        || pt.getActualTypeArguments()[0].toString().contains("float"))) {                                            List<Float> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Float.parseFloat(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Double")                                                        || pt.getActualTypeArguments()[0].toString().contains("double"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("BigDecimal"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Boolean")                                                        || pt.getActualTypeArguments()[0].toString().contains("boolean"))) {                                            List<Boolean> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Boolean.parseBoolean(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                pt.getActualTypeArguments()[0].toString().contains("String")) {                                            List<String> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(str.replaceAll("\\s", ""));                                            }                                            field.set(thisObject, list);                                        } else {                                            // serialized object, deserialize                                            try {                                                field.setAccessible(true);                                                byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                                ObjectInputStream ois = new ObjectInputStream(                                                        new ByteArrayInputStream(data));                                                Object o = ois.readObject();                                                ois.close();                                                field.set(thisObject, o);                                            } catch (SQLException e) {                                                if (e.getSQLState().equals("S1000")) {                                                    // Invalid column name, thrown if select statement does not include column                                                    fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                            + "{}, This is usually because select statement did not include column and "                                                            + "can be ignored. Message is {}", field.getName(), e.getMessage());                                                } else {                                                    fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                            ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                                }                                            }                                        }                                    } else if (field.getName() != null && rs.getString(field.getName()) != null) {                                        // serialized object, deserialize                                        try {                                            field.setAccessible(true);                                            byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                            ObjectInputStream ois = new ObjectInputStream(                                                    new ByteArrayInputStream(data));                                            Object o = ois.readObject();                                            ois.close();                                            field.set(thisObject, o);                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                } catch (SQLException e) {                                    if (e.getSQLState().equals("S1000")) {                                        // Invalid column name, thrown if select statement does not include column                                        fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                + "{}, This is usually because select statement did not include column and "                                                + "can be ignored. Message is {}", field.getName(), e.getMessage());                                    } else {                                        fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                    }                                }                            }                        }                        S thisUserStateTest = (S) thisObject;                        everything.add(thisUserStateTest);                    }                }            } catch (SQLException e) {                e.printStackTrace();            } catch (Exception ex) {                ex.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (ps != null) {                    try {                        ps.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return everything;    }    static String getFieldNameAndDataType(Field field) {        String sql = "";        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());        if (field.getType() == String.class) {            sql += field.getName() + " TEXT";        } else if (field.getType() == int.class || field.getType() == Integer.class) {            sql += field.getName() + " INT";        } else if (field.getType() == Long.class || field.getType() == long.class) {            sql += field.getName() + " BIGINT";            if (field.getName().equals("rid")) {                sql += " IDENTITY PRIMARY KEY";            }        } else if (field.getType() == Double.class || field.getType() == double.class) {            sql += field.getName() + " DOUBLE";        } else if (field.getType() == Float.class || field.getType() == float.class) {            sql += field.getName() + " FLOAT";        }        else if (field.getType() == BigDecimal.class) {            sql += field.getName() + " NUMERIC(10,4)";        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {            sql += field.getName() + " BOOLEAN";        } else if (field.getType() == Date.class) {            sql += field.getName() + " TIMESTAMP";            if (field.getName().equals("arsd")) {                sql += " DEFAULT CURRENT_TIMESTAMP";            } else {                sql += " NULL";            }        } else if (field.getType() == UUID.class) {            sql += field.getName() + " VARCHAR(132)";        } else if (field.getType() == Character.class || field.getType() == char.class) {            sql += field.getName() + " CHAR";        } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {            sql += field.getName() + " VARCHAR(200)";        } else if (Class.class.isAssignableFrom(field.getType())) {            sql += field.getName() + " VARCHAR(200)";        }        else if (field.getGenericType() instanceof ParameterizedType) {            ParameterizedType pt = (ParameterizedType) field.getGenericType();            if(pt.getActualTypeArguments().length == 1                    && (pt.getActualTypeArguments()[0].toString().contains("Long")                    || pt.getActualTypeArguments()[0].toString().contains("long")                    || pt.getActualTypeArguments()[0].toString().contains("Integer")                    || pt.getActualTypeArguments()[0].toString().contains("int")                    || pt.getActualTypeArguments()[0].toString().contains("Double")                    || pt.getActualTypeArguments()[0].toString().contains("double")                    || pt.getActualTypeArguments()[0].toString().contains("Float")                    || pt.getActualTypeArguments()[0].toString().contains("float")                    || pt.getActualTypeArguments()[0].toString().contains("boolean")                    || pt.getActualTypeArguments()[0].toString().contains("Boolean")                    || pt.getActualTypeArguments()[0].toString().contains("String"))) {                sql += field.getName() + " TEXT";            }            else {                // unknown create text fields to serialize                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());                sql += field.getName() + " BLOB";            }        }        else {            // unknown create text fields to serialize            fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());            sql += field.getName() + " BLOB";        }        return sql;    }    static String parseWhere(List<WhereClause> where) {        // If where clauses were passed, add them to the sql statement        String sql = "";        if(where != null && where.size() > 0) {            sql += " where";            for(WhereClause clause : where) {                // if there is more then one clause, check the conditional type.                if(where.indexOf(clause) != 0 && (where.indexOf(clause) +1) <= where.size()) {                    if(clause.conditional == WhereClause.CONDITIONALS.AND) {                        sql += " AND";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.OR) {                        sql += " OR";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.NOT) {                        sql += " NOT";                    }                }                // check to see if there are any open parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.OPEN_PARENTHESIS) {                            sql += " (";                        }                    }                }                // add the clause formatting the sql for the correct datatype                if(clause.operator != WhereClause.Operators.UNARY) {                    if (clause.value == WhereClause.NULL) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value + "";                    } else if (clause.valueDataType == String.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == int.class || clause.valueDataType == Integer.class ||                            clause.valueDataType == long.class || clause.valueDataType == Long.class ||                            clause.valueDataType == double.class || clause.valueDataType == Double.class ||                            clause.valueDataType == float.class || clause.valueDataType == Float.class ||                            clause.valueDataType == BigDecimal.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value;                    } else if (clause.valueDataType == boolean.class || clause.valueDataType == Boolean.class) {                        if (clause.value.toLowerCase().equals("true")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " true";                        } else if (clause.value.toLowerCase().equals("false")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " false";                        }                    } else if (clause.valueDataType == Date.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == UUID.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    }                }                // check to see if there are any closing parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.CLOSE_PARENTHESIS) {                            sql += " )";                        }                    }                }            }        }        return sql;    }}
\ No newline at end of file
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.state.FdfSystem;
+import com.fdflib.model.state.FdfTenant;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.persistence.database.HSqlConnection;
+import com.fdflib.persistence.impl.CorePersistenceImpl;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.FieldMapping;
+import com.fdflib.persistence.mapping.IndexMapping;
+import com.fdflib.persistence.mapping.RowPlan;
+import com.fdflib.service.FdfSystemServices;
+import com.fdflib.service.FdfTenantServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Created by brian.gormanly on 5/19/15.
+ */
+public class CoreHSqlQueries implements CorePersistenceImpl {
+
+    private static final CoreHSqlQueries INSTANCE = new CoreHSqlQueries();
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreHSqlQueries.class);
+
+    // classes whose id sequence has been checked, and the locks that let only one thread check each of them
+    private final Set<Class<?>> checkedIdSequences = ConcurrentHashMap.newKeySet();
+    private final Map<Class<?>, Object> idSequenceLocks = new ConcurrentHashMap<>();
+
+    private CoreHSqlQueries() {}
+
+    public static CoreHSqlQueries getInstance() {
+        return INSTANCE;
+    }
+
+    public void checkDatabase() throws SQLException {
+        // create database
+
+    }
+
+    public void checkTables() throws SQLException {
+        // get the 4df data model
+        List<Class> classList = FdfSettings.getInstance().modelClasses;
+
+        // create the tables for the model objects
+        for(Class<?> c: classList) {
+
+            // persisted fields of the class
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+            List<FieldMapping> fields = mapping.getFields();
+
+            // check to see if the class has an @fdfIgonre
+            if(!mapping.isIgnored()) {
+
+                // check to see if the table already exists
+                String tableTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_TABLES "
+                        + "Where TABLE_NAME = '" + c.getSimpleName() + "';";
+
+                Connection conn = null;
+                Statement stmt = null;
+                ResultSet rs = null;
+
+                try {
+                    conn = HSqlConnection.getInstance().getSession();
+                    stmt = conn.createStatement();
+
+                    if (stmt != null) {
+                        fdfLog.debug("Executing SQL: {}", tableTest);
+                        rs = stmt.executeQuery(tableTest);
+                    }
+
+                    if (rs != null) {
+
+                            // Table does not exist, create
+                            fdfLog.info("creating table: {}", c.getSimpleName());
+                            // check there there is at lease one field
+                            if (fields.size() > 0) {
+                                String sql = "CREATE TABLE IF NOT EXISTS " + c.getSimpleName() + " ( ";
+                                int fieldCounter = 0;
+
+                                for (FieldMapping field : fields) {
+
+                                    sql += getFieldNameAndDataType(field);
+
+                                    fieldCounter++;
+
+                                    if (fields.size() > fieldCounter) sql += ", ";
+                                }
+                                sql += ");";
+
+                                fdfLog.debug("Table sql {} : {}", c.getSimpleName(), sql);
+
+                                if (stmt != null) {
+                                    stmt.executeUpdate(sql);
+                                }
+                            } else {
+                                fdfLog.info("No table created for model object {} class had no valid data members", c.getSimpleName());
+                            }
+
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating a table:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                } finally {
+                    if (rs != null) {
+                        rs.close();
+                    }
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    if (conn != null) {
+                        HSqlConnection.getInstance().close(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    public void checkFields() throws SQLException {
+        // get the 4df data model
+        List<Class> classList = FdfSettings.getInstance().modelClasses;
+
+        // create the tables for the model objects
+        for(Class<?> c : classList) {
+            // persisted fields of the class
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+            List<FieldMapping> fields = mapping.getFields();
+
+            if(fields.size() > 0) {
+                // check to see if the class has an @fdfIgonre
+                if(!mapping.isIgnored()) {
+                    Connection conn = null;
+                    Statement stmt = null;
+                    ResultSet rs = null;
+
+                    try {
+                        conn = HSqlConnection.getInstance().getSession();
+                        stmt = conn.createStatement();
+
+                        for (FieldMapping field : fields) {
+
+                            // query for the field in the database
+                            // check to see if the table already exists
+                            String fieldTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_COLUMNS"
+                                    + " Where TABLE_NAME = '" + c.getSimpleName() + "' and COLUMN_NAME = '"
+                                    + field.getName() + "';";
+
+                            if(stmt != null) {
+                                rs = stmt.executeQuery(fieldTest);
+                                if (rs != null && !rs.next()) {
+                                    // the field did not exist,
+                                    fdfLog.info("creating field: {} in table: {}", field.getName(), c.getSimpleName());
+
+                                    String alterSql = "alter table " + c.getSimpleName() + " add column "
+                                            + getFieldNameAndDataType(field) + ";";
+
+                                    fdfLog.debug("Add field sql {} : {}", c.getSimpleName(), alterSql);
+
+                                    stmt.executeUpdate(alterSql);
+                                }
+                            }
+                        }
+                    } catch (SQLException sqlException) {
+
+                        // some other error
+                        fdfLog.warn("Error occurred checking or creating a field:::");
+                        fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                        ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                                sqlException.getMessage());
+
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    } finally {
+                        if (rs != null) {
+                            rs.close();
+                        }
+                        if (stmt != null) {
+                            stmt.close();
+                        }
+                        if (conn != null) {
+                            HSqlConnection.getInstance().close(conn);
+                        }
+                    }
+                }
+            }
+        }
+
+        // create or complete the history tables
+        checkHistoryTables();
+    }
+
+    /**
+     * Creates the history tables of the classes annotated with @FdfSplitHistory and adds the fields they are missing.
+     */
+    private void checkHistoryTables() throws SQLException {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            if(!mapping.isIgnored() && mapping.isSplitHistory() && mapping.getFields().size() > 0) {
+                Connection conn = null;
+
+                try {
+                    conn = HSqlConnection.getInstance().getSession();
+                    HistoryTables.checkHistoryTable(conn, mapping, getHistoryTable(c),
+                            CoreHSqlQueries::getFieldNameAndDataType);
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating a history table:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } finally {
+                    if(conn != null) {
+                        HSqlConnection.getInstance().close(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    public void checkIndexes() throws SQLException {
+        // get the 4df data model
+        List<Class> classList = FdfSettings.getInstance().modelClasses;
+
+        // create the missing indexes of the model tables
+        for(Class<?> c: classList) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            // check to see if the class has an @fdfIgonre
+            if(!mapping.isIgnored() && mapping.getIndexes().size() > 0) {
+
+                Connection conn = null;
+                Statement stmt = null;
+
+                try {
+                    conn = HSqlConnection.getInstance().getSession();
+                    stmt = conn.createStatement();
+
+                    for (IndexMapping index : mapping.getIndexes()) {
+                        checkIndex(stmt, c, index, false);
+
+                        // the history table holds no current states
+                        if (mapping.isSplitHistory() && !index.isCurrentOnly()) {
+                            checkIndex(stmt, c, index, true);
+                        }
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating an index:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } catch (Exception ex) {
+                    fdfLog.error("Unable to check the indexes of {}: {}", c.getSimpleName(), ex.getMessage());
+                } finally {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    if(conn != null) {
+                        HSqlConnection.getInstance().close(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkIndex(Statement stmt, Class<?> c, IndexMapping index, boolean history) throws SQLException {
+        String tableName = c.getSimpleName().toUpperCase() + (history ? "_history" : "");
+        String indexName = history ? index.getHistoryName() : index.getName();
+
+        // check to see if the index already exists
+        String indexTest = "SELECT * FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE TABLE_NAME = '"
+                + tableName.toUpperCase() + "' AND INDEX_NAME = '" + indexName.toUpperCase() + "';";
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(indexTest)) {
+            exists = rs.next();
+        }
+
+        if (!exists) {
+            String indexSql = "CREATE INDEX " + indexName + " ON " + (history ? getHistoryTable(c) : getTable(c))
+                    + " (" + index.getColumnList() + ");";
+
+            fdfLog.info("creating index: {} on table: {}", indexName, tableName);
+            fdfLog.debug("Index sql {} : {}", tableName, indexSql);
+
+            stmt.executeUpdate(indexSql);
+        }
+    }
+
+    public void checkDefaultEntries() throws SQLException {
+        // check to see if the default entry exists for FdfSystem
+        FdfSystemServices ss = new FdfSystemServices();
+        FdfSystem defaultSystem = ss.getDefaultSystem();
+        if(defaultSystem == null) {
+            // create the default FdfSystem entry
+            FdfSystem newDefaultSystem = new FdfSystem();
+            newDefaultSystem.name = FdfSettings.DEFAULT_SYSTEM_NAME;
+            newDefaultSystem.description = FdfSettings.DEFAULT_SYSTEM_DESCRIPTION;
+
+            newDefaultSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.DEFAULT_SYSTEM_PASSWORD);
+            newDefaultSystem.euid = 0;
+            newDefaultSystem.esid = 0;
+            FdfCommonServices.save(FdfSystem.class, newDefaultSystem);
+            fdfLog.info("Created default system.");
+        }
+
+        // check to see if the test system entry exists
+        FdfSystem testSystem = ss.getTestSystem();
+        if(testSystem == null) {
+            // create the default FdfSystem entry
+            FdfSystem newTestSystem = new FdfSystem();
+            newTestSystem.name = FdfSettings.TEST_SYSTEM_NAME;
+            newTestSystem.description = FdfSettings.TEST_SYSTEM_DESCRIPTION;
+
+            newTestSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.TEST_SYSTEM_PASSWORD);
+            newTestSystem.euid = 0;
+            newTestSystem.esid = 0;
+            FdfCommonServices.save(FdfSystem.class, newTestSystem);
+            fdfLog.info("Created test system.");
+        }
+
+        // check to see if the default Tenant entry exists
+        FdfTenantServices ts = new FdfTenantServices();
+        FdfTenant defaultTenant = ts.getDefaultTenant();
+
+        if(defaultTenant == null) {
+            // create the default FdfTenant
+            FdfTenant defaultTenantState = new FdfTenant();
+            defaultSystem = ss.getDefaultSystem();
+            defaultTenantState.name = FdfSettings.DEFAULT_TENANT_NAME;
+            defaultTenantState.description = FdfSettings.DEFAULT_TENANT_DESRIPTION;
+            defaultTenantState.isPrimary = FdfSettings.DEFAULT_TENANT_IS_PRIMARY;
+            defaultTenantState.webURL = FdfSettings.DEFAULT_TENANT_WEBSITE;
+            defaultTenantState.euid = 1;
+            defaultTenantState.esid = defaultSystem.id;
+            ts.saveTenant(defaultTenantState);
+            fdfLog.info("Created default tenant.");
+        }
+    }
+
+    public <S> void update(Class<S> c, S state) {
+        // states of a split class may move to the history table, which takes a transaction
+        if(ClassMapping.forClass(c).isSplitHistory()) {
+            updateBatch(c, Collections.singletonList(state));
+            return;
+        }
+
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
+
+                mapping.bindUpdate(preparedStmt, state);
+
+                fdfLog.debug("update sql : {}", preparedStmt);
+
+                preparedStmt.execute();
+
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update {}: {}", c.getSimpleName(), e.getMessage());
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Updates all passed states (matched by rid) using JDBC batches of FdfSettings.BATCH_SIZE statements, all
+     * batches are executed in a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to update
+     * @param <S> Type of the entity states
+     */
+    public <S> void updateBatch(Class<S> c, List<S> states) {
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            boolean autoCommit = true;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
+
+                int batched = 0;
+                for (S state : states) {
+                    mapping.bindUpdate(preparedStmt, state);
+                    preparedStmt.addBatch();
+                    batched++;
+
+                    if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+                    }
+                }
+
+                // rows already in the history table are updated there, the states just closed are moved to it
+                if (mapping.isSplitHistory()) {
+                    HistoryTables.updateAndMove(conn, mapping, getUpdateSql(c, getHistoryTable(c)), getTable(c),
+                            getHistoryTable(c), states);
+                }
+
+                fdfLog.debug("update batch of {} : {}", batched, c.getSimpleName());
+
+                conn.commit();
+
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+    }
+
+    public <S> Long insert(Class<S> c, S state) {
+        // closed states of a split class are inserted and moved to the history table in one transaction
+        if(HistoryTables.isClosed(ClassMapping.forClass(c), state)) {
+            return insertBatch(c, Collections.singletonList(state)).get(0);
+        }
+
+        try {
+            return insert(c, state, null);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to insert {}: {}", c.getSimpleName(), e.getMessage());
+        }
+        return -1L;
+    }
+
+    /**
+     * Inserts the state as the new current state of its entity.  The previous current state (if any) is closed and
+     * the new state is inserted on one connection inside a single transaction.
+     *
+     * @param c Class of the entity state
+     * @param state state to insert, arsd must already be set and is used as the ared of the closed state
+     * @param <S> Type extending CommonState to insert
+     * @return rid of the inserted state
+     */
+    public <S extends CommonState> Long insertCurrent(Class<S> c, S state) {
+        long newId = -1L;
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            boolean autoCommit = true;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+
+                // close the previous current state
+                preparedStmt = conn.prepareStatement("update " + c.getSimpleName()
+                        + " set cf = false, ared = ? where id = ? and tid = ? and cf = true;");
+                preparedStmt.setTimestamp(1, new Timestamp(state.arsd.getTime()));
+                preparedStmt.setLong(2, state.id);
+                preparedStmt.setLong(3, state.tid);
+                preparedStmt.executeUpdate();
+
+                // move the closed state to the history table
+                if (ClassMapping.forClass(c).isSplitHistory()) {
+                    HistoryTables.moveClosed(conn, ClassMapping.forClass(c), getTable(c), getHistoryTable(c),
+                            "id = ? AND tid = ?", Collections.singletonList(new Object[] {state.id, state.tid}));
+                }
+
+                // insert the new current state in the same transaction
+                newId = insert(c, state, conn);
+                conn.commit();
+
+            } catch (SQLException e) {
+                fdfLog.error("Unable to save {}: {}", c.getSimpleName(), e.getMessage());
+                newId = -1L;
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        return newId;
+    }
+
+    /**
+     * Inserts all passed states using JDBC batches of FdfSettings.BATCH_SIZE statements, all batches are executed in
+     * a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to insert
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the batch failed
+     */
+    public <S> List<Long> insertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, false);
+    }
+
+    /**
+     * Saves all passed states as the new current states of their entities in a single transaction: the current state
+     * of each entity is closed at the arsd of its new state, the new states are inserted in JDBC batches of
+     * FdfSettings.BATCH_SIZE statements and, for classes annotated with @FdfSplitHistory, the closed states are moved
+     * to the history table.  Nothing is written if any step fails.
+     *
+     * @param c Class of the entity states
+     * @param states states to save, at most one per entity, with id, tid and arsd set
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the save failed
+     */
+    public <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, true);
+    }
+
+    @SuppressWarnings("unchecked") // closeCurrent is only passed for states extending CommonState
+    private <S> List<Long> insertBatch(Class<S> c, List<S> states, boolean closeCurrent) {
+
+        List<Long> newIds = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            ResultSet rs = null;
+            boolean autoCommit = true;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+
+                // close the current states of the entities before their new states are written
+                if (closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, null);
+                }
+
+                preparedStmt = conn.prepareStatement(getInsertSql(c), Statement.RETURN_GENERATED_KEYS);
+
+                int batched = 0;
+                for (S state : states) {
+                    mapping.bindInsert(preparedStmt, state, 1);
+                    preparedStmt.addBatch();
+                    batched++;
+
+                    if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+
+                        // collect the generated rids for this batch
+                        rs = preparedStmt.getGeneratedKeys();
+                        while (rs.next()) {
+                            newIds.add(rs.getLong(1));
+                        }
+                        rs.close();
+                        rs = null;
+                    }
+                }
+
+                // and close any current state a concurrent save committed in the meantime
+                if (closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, newIds);
+                }
+
+                // closed states belong in the history table
+                if (mapping.isSplitHistory()) {
+                    if (closeCurrent) {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "id = ? AND tid = ?",
+                                HistoryTables.entityKeys((List<CommonState>) states));
+                    }
+                    else {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "rid = ?",
+                                HistoryTables.closedRids(states, newIds));
+                    }
+                }
+
+                fdfLog.debug("insert batch of {} : {}", batched, c.getSimpleName());
+
+                conn.commit();
+
+            } catch (SQLException e) {
+                fdfLog.error("Unable to insert the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                newIds.clear();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        // report a failed rid for any state that was not written
+        while (states != null && newIds.size() < states.size()) {
+            newIds.add(-1L);
+        }
+
+        return newIds;
+
+    }
+
+    private <S> Long insert(Class<S> c, S state, Connection sharedConn) throws SQLException {
+
+        // spot to hold returned id for new record
+        long newId = -1L;
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            ResultSet rs = null;
+
+            try {
+                conn = sharedConn != null ? sharedConn : HSqlConnection.getInstance().getSession();
+                preparedStmt = conn.prepareStatement(getInsertSql(c), Statement.RETURN_GENERATED_KEYS);
+
+                mapping.bindInsert(preparedStmt, state, 1);
+
+                fdfLog.debug("insert sql : {}", preparedStmt);
+
+                preparedStmt.execute();
+                rs = preparedStmt.getGeneratedKeys();
+                rs.next();
+                newId = rs.getLong(1);
+
+            } catch (SQLException e) {
+                if (sharedConn != null) throw e;
+                fdfLog.error("Unable to insert {}: {}", c.getSimpleName(), e.getMessage());
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (conn != null && sharedConn == null) {
+                    try {
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        return newId;
+
+    }
+
+    /**
+     * Takes count new entity ids from the id sequence of the class, a database sequence named after the table.  The
+     * sequence is checked the first time ids are taken for a class: created if it does not exist and moved past the
+     * highest id in the table if it is behind (ids saved by MaxIdAllocator).
+     *
+     * @param c Class of the entity
+     * @param count number of ids to take
+     * @return the new ids, empty if they could not be taken
+     */
+    public List<Long> nextEntityIds(Class<? extends CommonState> c, int count) {
+        List<Long> ids = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && count > 0) {
+            Connection conn = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                if(!checkedIdSequences.contains(c)) {
+                    synchronized (idSequenceLocks.computeIfAbsent(c, k -> new Object())) {
+                        if(!checkedIdSequences.contains(c)) {
+                            checkIdSequence(conn, c);
+                            checkedIdSequences.add(c);
+                        }
+                    }
+                }
+
+                ps = conn.prepareStatement("SELECT NEXT VALUE FOR " + getIdSequenceName(c)
+                        + " FROM UNNEST(SEQUENCE_ARRAY(1, ?, 1));");
+                ps.setInt(1, count);
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            } catch (SQLException e) {
+                fdfLog.error("Unable to take entity ids for {}: {}", c.getSimpleName(), e.getMessage());
+                ids.clear();
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (ps != null) {
+                    try {
+                        ps.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                try {
+                    if (conn != null) {
+                        HSqlConnection.getInstance().close(conn);
+                    }
+                }
+                catch (SQLException e) {
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void checkIdSequence(Connection conn, Class<?> c) throws SQLException {
+        long maxId = 0;
+        try (Statement max = conn.createStatement();
+             ResultSet rs = max.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + c.getSimpleName() + ";")) {
+            if (rs.next()) {
+                maxId = rs.getLong(1);
+            }
+        }
+
+        try (PreparedStatement exists = conn.prepareStatement(
+                "SELECT NEXT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?;")) {
+            exists.setString(1, getIdSequenceName(c).toUpperCase());
+            try (ResultSet rs = exists.executeQuery(); Statement change = conn.createStatement()) {
+                if (!rs.next()) {
+                    fdfLog.info("creating id sequence for {}", c.getSimpleName());
+                    change.execute("CREATE SEQUENCE IF NOT EXISTS " + getIdSequenceName(c) + " AS BIGINT START WITH "
+                            + (maxId + 1) + ";");
+                }
+                else if (rs.getLong(1) <= maxId) {
+                    // move the sequence past the highest id in the table
+                    change.execute("ALTER SEQUENCE " + getIdSequenceName(c) + " RESTART WITH " + (maxId + 1) + ";");
+                }
+            }
+        }
+    }
+
+    private static String getIdSequenceName(Class<?> c) {
+        return c.getSimpleName() + "_id_seq";
+    }
+
+    /**
+     * Table holding the states of the class, only its current states if the class is annotated with @FdfSplitHistory.
+     */
+    private static String getTable(Class<?> c) {
+        return c.getSimpleName();
+    }
+
+    /**
+     * Table holding the closed states of a class annotated with @FdfSplitHistory.
+     */
+    private static String getHistoryTable(Class<?> c) {
+        return c.getSimpleName() + "_history";
+    }
+
+    /**
+     * Builds the prepared update statement for the passed class, all fields are set and the row is matched by rid.
+     */
+    private String getUpdateSql(Class<?> c) {
+        return getUpdateSql(c, getTable(c));
+    }
+
+    private String getUpdateSql(Class<?> c, String table) {
+
+        // Start the sql statement
+        StringBuilder sql = new StringBuilder("update ").append(table).append(" set");
+        for (FieldMapping field : ClassMapping.forClass(c).getInsertFields()) {
+            sql.append(" ").append(field.getName()).append(" = ?,");
+        }
+        sql.deleteCharAt(sql.length() - 1).append(" where rid = ? ;");
+
+        return sql.toString();
+    }
+
+    /**
+     * Builds the prepared insert statement for the passed class, rid is left to the database.
+     */
+    private String getInsertSql(Class<?> c) {
+
+        // Start the sql statement
+        StringBuilder sql = new StringBuilder("insert into ").append(c.getSimpleName()).append(" ("),
+                val = new StringBuilder();
+        for (FieldMapping field : ClassMapping.forClass(c).getInsertFields()) {
+            sql.append(" ").append(field.getName()).append(",");
+            val.append(" ?,");
+        }
+        sql.deleteCharAt(sql.length() - 1).append(" ) values (").append(val.deleteCharAt(val.length() - 1))
+                .append(");");
+
+        return sql.toString();
+    }
+
+
+    /**
+     * General select Query to retrieve all information for passed entity, can be used to return specified
+     * data from any table.  It looks to the class for datatype information and matches each table field returned
+     * to the EntityState object by name.  If specific select statements are made they only the corresponding object
+     * members will return with data.  If the select parameter is null, all memebers will be returned.
+     *
+     * Table to query is determined by passing in the corresponding model class. (ex. MyObjectModel.class)
+     * Where clauses are passed as an List of Where objects which contain the key (or name), the value to check
+     * against, and the type of Conditional (applied between clauses if there is more then one, AND is the default).
+     *
+     * Example sql statement that would be generated for the following class: User.class
+     * and where: {[firstName, Larry], [lastName, Smith, AND]} would be:
+     *      SELECT * FROM User where firstName = 'Larry' AND lastName = 'Smith';
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement Class that contains all the necessary fields to build the sql statement
+     * @param <S> Type extending CommonState to query and return
+     * @return data queried
+     */
+    public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {
+        List<S> everything = new ArrayList<>();
+        //Check if class is @FdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            String sql = getSelectSql(c, sqlStatement);
+
+            fdfLog.debug("select sql: {}", sql);
+
+            ClassMapping<?> mapping = ClassMapping.forClass((Class<?>) c);
+            Connection conn = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+
+            try {
+                conn = HSqlConnection.getInstance().getSession();
+                ps = conn.prepareStatement(sql);
+                sqlStatement.bindParameters(ps, 1);
+
+                if (ps != null) {
+                    long start = System.nanoTime();
+                    rs = ps.executeQuery();
+                    long executed = System.nanoTime();
+                    RowPlan<?> plan = mapping.planFor(rs.getMetaData());
+                    while (rs.next()) {
+                        everything.add((S) plan.read(rs));
+                    }
+                    SlowQueryLog.getInstance().record(conn, sql, sqlStatement, c, everything.size(), executed - start,
+                            System.nanoTime() - executed, "EXPLAIN PLAN FOR ");
+                }
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (ps != null) {
+                    try {
+                        ps.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        HSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return everything;
+    }
+
+    /**
+     * Streaming version of selectQuery, rows are read from an open cursor FdfSettings.FETCH_SIZE at a time and
+     * hydrated as the stream is consumed.  The connection stays open until the stream has been read to the end or
+     * closed, streams that may not be read to the end must be closed (try with resources).
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement Class that contains all the necessary fields to build the sql statement
+     * @param <S> Type extending CommonState to query and return
+     * @return stream of the data queried
+     */
+    @Override
+    public <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return Stream.empty();
+        }
+
+        String sql = getSelectSql(c, sqlStatement);
+        fdfLog.debug("stream sql: {}", sql);
+
+        try {
+            Connection conn = HSqlConnection.getInstance().getSession();
+            return StreamingSelect.open(conn, HSqlConnection.getInstance()::close, sql, sqlStatement, c,
+                    FdfSettings.FETCH_SIZE, false);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to stream {}: {}", c.getSimpleName(), e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    private String getSelectSql(Class<?> c, SqlStatement sqlStatement) {
+        //Start the sql statement
+        return sqlStatement.getSelect() + " FROM "
+                + HistoryTables.getFromSql(ClassMapping.forClass(c), sqlStatement, getTable(c), getHistoryTable(c))
+                + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
+                + sqlStatement.getLimit() + ";";
+    }
+
+    static String getFieldNameAndDataType(FieldMapping field) {
+        String sql = field.getName();
+
+        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());
+
+        switch (field.getType()) {
+            case STRING:
+            case LIST:
+                sql += " TEXT";
+                break;
+            case INTEGER:
+                sql += " INT";
+                break;
+            case LONG:
+            sql += " BIGINT";
+            if (field.getName().equals("rid")) {
+                sql += " IDENTITY PRIMARY KEY";
+            }
+                break;
+            case DOUBLE:
+                sql += " DOUBLE";
+                break;
+            case FLOAT:
+                sql += " FLOAT";
+                break;
+            case BIG_DECIMAL:
+                sql += " NUMERIC(10,4)";
+                break;
+            case BOOLEAN:
+                sql += " BOOLEAN";
+                break;
+            case DATE:
+                sql += " TIMESTAMP";
+                if (field.getName().equals("arsd")) {
+                    sql += " DEFAULT CURRENT_TIMESTAMP";
+                } else {
+                    sql += " NULL";
+                }
+                break;
+            case UUID:
+                sql += " VARCHAR(132)";
+                break;
+            case CHARACTER:
+                sql += " CHAR";
+                break;
+            case ENUM:
+            case CLASS:
+                sql += " VARCHAR(200)";
+                break;
+            default:
+                // unknown, build a field to serialize the object to
+                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getJavaType());
+                sql += " BLOB";
+        }
+
+        return sql;
+    }
+
+    static String parseWhere(List<WhereClause> where) {
+        // If where clauses were passed, add them to the sql statement
+        String sql = "";
+        if(where != null && where.size() > 0) {
+            sql += " where";
+            for(WhereClause clause : where) {
+                // if there is more then one clause, check the conditional type.
+                if(where.indexOf(clause) != 0 && (where.indexOf(clause) +1) <= where.size()) {
+                    if(clause.conditional == WhereClause.CONDITIONALS.AND) {
+                        sql += " AND";
+                    }
+                    else if (clause.conditional == WhereClause.CONDITIONALS.OR) {
+                        sql += " OR";
+                    }
+                    else if (clause.conditional == WhereClause.CONDITIONALS.NOT) {
+                        sql += " NOT";
+                    }
+                }
+
+                // check to see if there are any open parenthesis to apply
+                if(clause.groupings != null && clause.groupings.size() > 0) {
+                    for(WhereClause.GROUPINGS grouping: clause.groupings) {
+                        if(grouping == WhereClause.GROUPINGS.OPEN_PARENTHESIS) {
+                            sql += " (";
+                        }
+                    }
+                }
+
+                // add the clause formatting the sql for the correct datatype
+                if(clause.operator != WhereClause.Operators.UNARY) {
+                    if (clause.value == WhereClause.NULL) {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value + "";
+                    } else if (clause.valueDataType == String.class) {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";
+                    } else if (clause.valueDataType == int.class || clause.valueDataType == Integer.class ||
+                            clause.valueDataType == long.class || clause.valueDataType == Long.class ||
+                            clause.valueDataType == double.class || clause.valueDataType == Double.class ||
+                            clause.valueDataType == float.class || clause.valueDataType == Float.class ||
+                            clause.valueDataType == BigDecimal.class) {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value;
+                    } else if (clause.valueDataType == boolean.class || clause.valueDataType == Boolean.class) {
+                        if (clause.value.toLowerCase().equals("true")) {
+                            sql += " " + clause.name + " " + clause.getOperatorString() + " true";
+                        } else if (clause.value.toLowerCase().equals("false")) {
+                            sql += " " + clause.name + " " + clause.getOperatorString() + " false";
+                        }
+                    } else if (clause.valueDataType == Date.class) {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";
+                    } else if (clause.valueDataType == UUID.class) {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";
+                    } else {
+                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";
+                    }
+                }
+
+                // check to see if there are any closing parenthesis to apply
+                if(clause.groupings != null && clause.groupings.size() > 0) {
+                    for(WhereClause.GROUPINGS grouping: clause.groupings) {
+                        if(grouping == WhereClause.GROUPINGS.CLOSE_PARENTHESIS) {
+                            sql += " )";
+                        }
+                    }
+                }
+            }
+        }
+        return sql;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,342 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.state.FdfSystem;
+import com.fdflib.model.state.FdfTenant;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.impl.CorePersistenceImpl;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.service.FdfSystemServices;
+import com.fdflib.service.FdfTenantServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistence held in the heap of the application (FdfSettings.PERSISTENCE = MEMORY), for tests and for data that does
+ * not need to outlive the process.  Each model class is kept in a MemoryTable, an append only column store in rid
+ * order with version chains per (tid, id), the cf flags as a bit set and an interval index on (arsd, ared).
+ *
+ * SqlStatements are evaluated directly on the columns rather than through SQL: where clauses (with groupings, IN,
+ * BETWEEN, LIKE and IS [NOT]), keyset positions, order by, limit and offset, select lists of columns, DISTINCT and the
+ * max / min / count aggregates.  GROUP BY is not supported.  Statements that can not be evaluated are reported like a
+ * failed query on a database: the error is logged and no rows are returned.
+ */
+public class CoreMemoryQueries implements CorePersistenceImpl {
+
+    private static final CoreMemoryQueries INSTANCE = new CoreMemoryQueries();
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreMemoryQueries.class);
+
+    private final Map<Class<?>, MemoryTable<?>> tables = new ConcurrentHashMap<>();
+
+    private CoreMemoryQueries() {}
+
+    public static CoreMemoryQueries getInstance() {
+        return INSTANCE;
+    }
+
+    public void checkDatabase() throws SQLException {
+        // nothing to create, the store lives in the heap
+    }
+
+    public void checkTables() throws SQLException {
+        // create the tables for the model objects
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            if(!ClassMapping.forClass(c).isIgnored() && !tables.containsKey(c)) {
+                fdfLog.info("creating memory table {}", c.getSimpleName());
+                table(c);
+            }
+        }
+    }
+
+    public void checkFields() throws SQLException {
+        // the columns of a memory table are those of the class mapping it was created from
+    }
+
+    public void checkIndexes() throws SQLException {
+        // the version chains, cf bits and interval index are kept up to date on every write
+    }
+
+    public void checkDefaultEntries() throws SQLException {
+        // check to see if the default entry exists for FdfSystem
+        FdfSystemServices ss = new FdfSystemServices();
+        FdfSystem defaultSystem = ss.getDefaultSystem();
+        if(defaultSystem == null) {
+            // create the default FdfSystem entry
+            FdfSystem newDefaultSystem = new FdfSystem();
+            newDefaultSystem.name = FdfSettings.DEFAULT_SYSTEM_NAME;
+            newDefaultSystem.description = FdfSettings.DEFAULT_SYSTEM_DESCRIPTION;
+
+            newDefaultSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.DEFAULT_SYSTEM_PASSWORD);
+            newDefaultSystem.euid = 0;
+            newDefaultSystem.esid = 0;
+            FdfCommonServices.save(FdfSystem.class, newDefaultSystem);
+            fdfLog.info("Created default system.");
+        }
+
+        // check to see if the test system entry exists
+        FdfSystem testSystem = ss.getTestSystem();
+        if(testSystem == null) {
+            // create the default FdfSystem entry
+            FdfSystem newTestSystem = new FdfSystem();
+            newTestSystem.name = FdfSettings.TEST_SYSTEM_NAME;
+            newTestSystem.description = FdfSettings.TEST_SYSTEM_DESCRIPTION;
+
+            newTestSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.TEST_SYSTEM_PASSWORD);
+            newTestSystem.euid = 0;
+            newTestSystem.esid = 0;
+            FdfCommonServices.save(FdfSystem.class, newTestSystem);
+            fdfLog.info("Created test system.");
+        }
+
+        // check to see if the default Tenant entry exists
+        FdfTenantServices ts = new FdfTenantServices();
+        FdfTenant defaultTenant = ts.getDefaultTenant();
+
+        if(defaultTenant == null) {
+            // create the default FdfTenant
+            FdfTenant defaultTenantState = new FdfTenant();
+            defaultSystem = ss.getDefaultSystem();
+            defaultTenantState.name = FdfSettings.DEFAULT_TENANT_NAME;
+            defaultTenantState.description = FdfSettings.DEFAULT_TENANT_DESRIPTION;
+            defaultTenantState.isPrimary = FdfSettings.DEFAULT_TENANT_IS_PRIMARY;
+            defaultTenantState.webURL = FdfSettings.DEFAULT_TENANT_WEBSITE;
+            defaultTenantState.euid = 1;
+            defaultTenantState.esid = defaultSystem.id;
+            ts.saveTenant(defaultTenantState);
+            fdfLog.info("Created default tenant.");
+        }
+    }
+
+    /**
+     * Drops every stored state, the tables are created again as they are used.
+     */
+    public void clear() {
+        tables.clear();
+    }
+
+    public <S> void update(Class<S> c, S state) {
+        updateBatch(c, Collections.singletonList(state));
+    }
+
+    /**
+     * Updates all passed states (matched by rid) in one write, no select sees only some of them updated.
+     *
+     * @param c Class of the entity states
+     * @param states states to update
+     * @param <S> Type of the entity states
+     */
+    @SuppressWarnings("unchecked")
+    public <S> void updateBatch(Class<S> c, List<S> states) {
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+            table(c).updateAll((List<CommonState>) states);
+            fdfLog.debug("update batch of {} : {}", states.size(), c.getSimpleName());
+        }
+    }
+
+    public <S> Long insert(Class<S> c, S state) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return -1L;
+        }
+        return table(c).append((CommonState) state);
+    }
+
+    /**
+     * Inserts the state as the new current state of its entity, the previous current state (if any) is closed in the
+     * same write.
+     *
+     * @param c Class of the entity state
+     * @param state state to insert, arsd must already be set and is used as the ared of the closed state
+     * @param <S> Type extending CommonState to insert
+     * @return rid of the inserted state
+     */
+    public <S extends CommonState> Long insertCurrent(Class<S> c, S state) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return -1L;
+        }
+        return table(c).appendCurrent(state);
+    }
+
+    /**
+     * Inserts all passed states in one write.
+     *
+     * @param c Class of the entity states
+     * @param states states to insert
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states
+     */
+    @SuppressWarnings("unchecked")
+    public <S> List<Long> insertBatch(Class<S> c, List<S> states) {
+        List<Long> newIds = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+            newIds = table(c).appendAll((List<CommonState>) states);
+            fdfLog.debug("insert batch of {} : {}", states.size(), c.getSimpleName());
+        }
+
+        // report a failed rid for any state that was not written
+        while (states != null && newIds.size() < states.size()) {
+            newIds.add(-1L);
+        }
+        return newIds;
+    }
+
+    /**
+     * Saves all passed states as the new current states of their entities in one write, the current state of each
+     * entity is closed at the arsd of its new state.
+     *
+     * @param c Class of the entity states
+     * @param states states to save, at most one per entity, with id, tid and arsd set
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states
+     */
+    public <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> c, List<S> states) {
+        List<Long> newIds = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+            newIds = this.<S>table(c).appendAllCurrent(states);
+            fdfLog.debug("close and insert batch of {} : {}", states.size(), c.getSimpleName());
+        }
+
+        // report a failed rid for any state that was not written
+        while (states != null && newIds.size() < states.size()) {
+            newIds.add(-1L);
+        }
+        return newIds;
+    }
+
+    /**
+     * Takes count new entity ids for the class, counting on from the highest id stored.
+     *
+     * @param c Class of the entity
+     * @param count number of ids to take
+     * @return the new ids
+     */
+    public List<Long> nextEntityIds(Class<? extends CommonState> c, int count) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class) || count <= 0) {
+            return new ArrayList<>();
+        }
+        return table(c).nextIds(count);
+    }
+
+    /**
+     * Evaluates the statement on the table of the passed class, see the class comment for what it supports.
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement statement to evaluate
+     * @param <S> Type extending CommonState to query and return
+     * @return data queried
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {
+        List<S> everything = new ArrayList<>();
+        //Check if class is @FdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            MemoryTable<S> table = table(c);
+            try {
+                long start = System.nanoTime();
+                long[] selected = new long[1];
+                // select and read under one read lock, so no update lands between the rows chosen and their values
+                everything = table.readLocked(() -> {
+                    int[] rows = table.select(sqlStatement);
+                    selected[0] = System.nanoTime();
+                    return table.read(sqlStatement, rows);
+                });
+                SlowQueryLog.getInstance().record(null, getSql(c, sqlStatement), sqlStatement, c, everything.size(),
+                        selected[0] - start, System.nanoTime() - selected[0], null);
+            } catch (RuntimeException e) {
+                fdfLog.error("Unable to select {}: {}", c.getSimpleName(), e.getMessage());
+            }
+        }
+        return everything;
+    }
+
+    /**
+     * Streaming version of selectQuery.  The matching rows are found up front and each state is read from its row
+     * as the stream is consumed, so the states of a large select are not all held at once.
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement statement to evaluate
+     * @param <S> Type extending CommonState to query and return
+     * @return stream of the data queried
+     */
+    @Override
+    public <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return Stream.empty();
+        }
+
+        // select lists and aggregates are read in one go
+        if(!sqlStatement.getSelectItems().isEmpty()) {
+            List<S> states = selectQuery(c, sqlStatement);
+            FdfSettings.METRICS.recordRowsHydrated(c, states.size());
+            return states.stream();
+        }
+
+        MemoryTable<S> table = table(c);
+        int[] rows;
+        try {
+            rows = table.select(sqlStatement);
+        } catch (RuntimeException e) {
+            fdfLog.error("Unable to stream {}: {}", c.getSimpleName(), e.getMessage());
+            return Stream.empty();
+        }
+        int from = Math.min(rows.length, Math.max(0, sqlStatement.getOffsetRows()));
+        int to = sqlStatement.getLimitRows() > 0
+                ? Math.min(rows.length, from + sqlStatement.getLimitRows()) : rows.length;
+
+        AtomicLong hydrated = new AtomicLong();
+        return Arrays.stream(rows, from, to).mapToObj(row -> {
+            hydrated.incrementAndGet();
+            return table.readLocked(row);
+        }).onClose(() -> FdfSettings.METRICS.recordRowsHydrated(c, hydrated.get()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends CommonState> MemoryTable<S> table(Class<?> c) {
+        return (MemoryTable<S>) tables.computeIfAbsent(c, type -> newTable(type.asSubclass(CommonState.class)));
+    }
+
+    private static <S extends CommonState> MemoryTable<S> newTable(Class<S> c) {
+        return new MemoryTable<>(ClassMapping.forClass(c));
+    }
+
+    /**
+     * SQL the statement stands for, used as its shape in the slow query log.
+     */
+    private static String getSql(Class<?> c, SqlStatement sqlStatement) {
+        return sqlStatement.getSelect() + " FROM " + c.getSimpleName() + sqlStatement.getWhere()
+                + sqlStatement.getGroupBy() + sqlStatement.getOrderBy() + sqlStatement.getLimit() + ";";
+    }
+}
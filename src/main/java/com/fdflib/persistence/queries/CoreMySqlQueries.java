@@ -24,20 +24,22 @@ import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.database.MySqlConnection;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.FieldMapping;
+import com.fdflib.persistence.mapping.FieldType;
+import com.fdflib.persistence.mapping.IndexMapping;
+import com.fdflib.persistence.mapping.RowPlan;
 import com.fdflib.service.FdfSystemServices;
 import com.fdflib.service.FdfTenantServices;
 import com.fdflib.util.FdfSettings;
-import com.fdflib.util.FdfUtil;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 /**
  * Created by brian.gormanly on 5/19/15.
@@ -47,6 +49,13 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
     private static final CoreMySqlQueries INSTANCE = new CoreMySqlQueries();
     private static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreMySqlQueries.class);
 
+    // table holding the next entity id of each model table
+    private static final String ID_COUNTER_TABLE = "fdfidcounter";
+
+    // classes whose id counter has been checked, and the locks that let only one thread check each of them
+    private final Set<Class<?>> checkedIdSequences = ConcurrentHashMap.newKeySet();
+    private final Map<Class<?>, Object> idSequenceLocks = new ConcurrentHashMap<>();
+
     private CoreMySqlQueries() {}
 
     public static CoreMySqlQueries getInstance() {
@@ -104,9 +113,10 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
 
     public void checkTables() throws SQLException {
         //Create tables for model
-        for(Class c: FdfSettings.getInstance().modelClasses) {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
             //Check if @FdfIgonre class
-            if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            if(!mapping.isIgnored()) {
                 Connection conn = null;
                 Statement stmt = null;
                 ResultSet rs = null;
@@ -119,13 +129,12 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
                         if (rs != null && !rs.next()) {
                             fdfLog.info("creating table: {}", c.getSimpleName().toLowerCase());
                             //Check that there is at lease one field
-                            if(c.getFields().length > 0) {
+                            if(mapping.getFields().size() > 0) {
                                 //Table does not exist, create
                                 StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
                                         .append(FdfSettings.DB_NAME).append(".")
                                         .append(c.getSimpleName().toLowerCase()).append(" (");
-                                Arrays.stream(c.getFields()).filter(field -> !field.isAnnotationPresent(FdfIgnore.class))
-                                        .forEach(field -> sql.append(" ").append(getFieldNameAndDataType(field)).append(","));
+                                mapping.getFields().forEach(field -> sql.append(" ").append(getFieldNameAndDataType(field)).append(","));
 
                                 String create = sql.deleteCharAt(sql.length()-1).append(");").toString();
                                 fdfLog.debug("Table sql {} : {}", c.getSimpleName().toLowerCase(), create);
@@ -162,11 +171,12 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
 
     public void checkFields() throws SQLException {
         //Create tables for model
-        for(Class c: FdfSettings.getInstance().modelClasses) {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
             //Check if @FdfIgonre class
-            if(!c.isAnnotationPresent(FdfIgnore.class)) {
-                //Remove @FdfIgnore fields
-                List<Field> fields = Arrays.stream(c.getFields()).filter(field -> !field.isAnnotationPresent(FdfIgnore.class)).collect(Collectors.toList());
+            if(!mapping.isIgnored()) {
+                //Persisted fields
+                List<FieldMapping> fields = mapping.getFields();
                 //If any fields are left
                 if(fields.size() > 0) {
 
@@ -176,7 +186,7 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
                     try {
                         conn = MySqlConnection.getInstance().get4dfDbConnection();
                         stmt = conn.createStatement();
-                        for(Field field : fields) {
+                        for(FieldMapping field : fields) {
                             //Check if field exists in table
                             String fieldTest = "SELECT * FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = '"
                                     + FdfSettings.DB_NAME + "' AND TABLE_NAME = '" + c.getSimpleName().toLowerCase()
@@ -214,6 +224,124 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
                 }
             }
         }
+
+        //Create or complete the history tables
+        checkHistoryTables();
+    }
+
+    /**
+     * Creates the history tables of the classes annotated with @FdfSplitHistory and adds the fields they are missing.
+     */
+    private void checkHistoryTables() throws SQLException {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            if(!mapping.isIgnored() && mapping.isSplitHistory() && mapping.getFields().size() > 0) {
+                Connection conn = null;
+
+                try {
+                    conn = MySqlConnection.getInstance().get4dfDbConnection();
+                    HistoryTables.checkHistoryTable(conn, mapping, getHistoryTable(c),
+                            CoreMySqlQueries::getFieldNameAndDataType);
+
+                    // InnoDB sets the auto increment back to the highest rid in the class table on restart, keep it
+                    // past the rids that were moved to the history table
+                    try (Statement stmt = conn.createStatement()) {
+                        long nextRid = 1;
+                        try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(rid), 0) + 1 FROM "
+                                + getHistoryTable(c) + ";")) {
+                            if (rs.next()) {
+                                nextRid = rs.getLong(1);
+                            }
+                        }
+                        stmt.executeUpdate("ALTER TABLE " + getTable(c) + " AUTO_INCREMENT = " + nextRid + ";");
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating a history table:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } finally {
+                    if(conn != null) {
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    public void checkIndexes() throws SQLException {
+        // get the 4df data model
+        List<Class> classList = FdfSettings.getInstance().modelClasses;
+
+        // create the missing indexes of the model tables
+        for(Class<?> c: classList) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            // check to see if the class has an @fdfIgonre
+            if(!mapping.isIgnored() && mapping.getIndexes().size() > 0) {
+
+                Connection conn = null;
+                Statement stmt = null;
+
+                try {
+                    conn = MySqlConnection.getInstance().get4dfDbConnection();
+                    stmt = conn.createStatement();
+
+                    for (IndexMapping index : mapping.getIndexes()) {
+                        checkIndex(stmt, c, index, false);
+
+                        // the history table holds no current states
+                        if (mapping.isSplitHistory() && !index.isCurrentOnly()) {
+                            checkIndex(stmt, c, index, true);
+                        }
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating an index:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } catch (Exception ex) {
+                    fdfLog.error("Unable to check the indexes of {}: {}", c.getSimpleName(), ex.getMessage());
+                } finally {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    if(conn != null) {
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkIndex(Statement stmt, Class<?> c, IndexMapping index, boolean history) throws SQLException {
+        String tableName = c.getSimpleName().toLowerCase() + (history ? "_history" : "");
+        String indexName = history ? index.getHistoryName() : index.getName();
+
+        // check to see if the index already exists
+        String indexTest = "SELECT * FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = '"
+                + FdfSettings.DB_NAME + "' AND TABLE_NAME = '" + tableName + "' AND INDEX_NAME = '" + indexName + "';";
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(indexTest)) {
+            exists = rs.next();
+        }
+
+        if (!exists) {
+            String indexSql = "CREATE INDEX " + indexName + " ON " + (history ? getHistoryTable(c) : getTable(c))
+                    + " (" + getIndexColumnList(index) + ");";
+
+            fdfLog.info("creating index: {} on table: {}", indexName, tableName);
+            fdfLog.debug("Index sql {} : {}", tableName, indexSql);
+
+            stmt.executeUpdate(indexSql);
+        }
     }
 
     public void checkDefaultEntries() throws SQLException {
@@ -269,150 +397,103 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
     }
 
     public <S> void update(Class<S> c, S state) {
+        //States of a split class may move to the history table, which takes a transaction
+        if(ClassMapping.forClass(c).isSplitHistory()) {
+            updateBatch(c, Collections.singletonList(state));
+            return;
+        }
+
         //Check if @FdfIgonre class
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
             Connection conn = null;
             PreparedStatement preparedStmt = null;
             try {
-                //Remove @FdfIgnore Fields
-                List<Field> fields = Arrays.stream(c.getFields()).filter(field -> !field.isAnnotationPresent(FdfIgnore.class)
-                        && !field.getName().equals("rid")).collect(Collectors.toList());
-                //Start Sql Statement
-                StringBuilder sql = new StringBuilder("UPDATE ").append(FdfSettings.DB_NAME).append(".")
-                        .append(c.getSimpleName().toLowerCase()).append(" SET");
-                fields.forEach(field -> sql.append(" ").append(field.getName()).append(" = ?,"));
-                sql.deleteCharAt(sql.length() - 1).append(" WHERE rid = ").append(c.getField("rid").get(state)).append(";");
+                //Mapped fields
+                ClassMapping<S> mapping = ClassMapping.forClass(c);
                 //Create Connection
                 conn = MySqlConnection.getInstance().get4dfDbConnection();
-                preparedStmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
-
-                int fieldCounter3 = 1;
-                for(Field field : fields) {
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
+                mapping.bindUpdate(preparedStmt, state);
+                fdfLog.debug("update sql : {}", preparedStmt);
+                preparedStmt.execute();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update {}: {}", c.getSimpleName(), e.getMessage());
+            } finally {
+                if (preparedStmt != null) try {
+                    preparedStmt.close();
+                } catch (SQLException e) {
+                    fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                }
+                if(conn != null) {
                     try {
-                        if(field.getType() == String.class) {
-                            if(field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if(field.getType() == int.class || field.getType() == Integer.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setInt(fieldCounter3, (int) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.INTEGER);
-                            }
-                        } else if (field.getType() == Long.class || field.getType() == long.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setLong(fieldCounter3, (long) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                            }
-                        } else if (field.getType() == Double.class || field.getType() == double.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setDouble(fieldCounter3, (double) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.DOUBLE);
-                            }
-                        } else if (field.getType() == Float.class || field.getType() == float.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setFloat(fieldCounter3, (float) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.FLOAT);
-                            }
-                        } else if (field.getType() == BigDecimal.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.NUMERIC);
-                            }
-                        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);
-                            }
-                        } else if (field.getType() == char.class || field.getType() == Character.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                            }
-                        } else if (field.getType() == Date.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setTimestamp(fieldCounter3, new java.sql.Timestamp(((Date) field.get(state)).getTime()));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.DATE);
-                            }
-                        } else if (field.getType() == UUID.class) {
-                            if(field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (field.getType() != null && field.getType().isEnum()) {
-                            if(field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (Class.class.isAssignableFrom(field.getType())) {
-                            if(field.get(state) != null) {
-                                String className = field.get(state).toString();
-                                preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));
-                            }
-                            else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {
-                            ParameterizedType pt = (ParameterizedType) field.getGenericType();
-                            if(pt.getActualTypeArguments().length == 1 && pt.getActualTypeArguments()[0].toString()
-                                    .matches(".*?((L|l)ong|Integer|int|(D|d)ouble|(F|f)loat|(B|b)oolean|String).*")) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else try {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                                oos.writeObject(field.get(state));
-                                oos.close();
-                                preparedStmt.setString(fieldCounter3,
-                                        Base64.getEncoder().encodeToString(baos.toByteArray()));
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        } else if (field.get(state) != null) {
-                            try {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                                oos.writeObject(field.get(state));
-                                oos.close();
-                                preparedStmt.setString(fieldCounter3,
-                                        Base64.getEncoder().encodeToString(baos.toByteArray()));
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        } else {
-                            preparedStmt.setNull(fieldCounter3, Types.BLOB);
-                        }
-                        fieldCounter3++;
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                    catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
                     }
                 }
-                fdfLog.debug("update sql : {}", preparedStmt);
-                preparedStmt.execute();
-            } catch (SQLException | IllegalAccessException | NoSuchFieldException e) {
-                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Updates all passed states (matched by rid) using JDBC batches of FdfSettings.BATCH_SIZE statements, all
+     * batches are executed in a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to update
+     * @param <S> Type of the entity states
+     */
+    public <S> void updateBatch(Class<S> c, List<S> states) {
+        //Check if @FdfIgonre class
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            boolean autoCommit = true;
+            try {
+                //Mapped fields
+                ClassMapping<S> mapping = ClassMapping.forClass(c);
+                //Create Connection
+                conn = MySqlConnection.getInstance().get4dfDbConnection();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
+                int batched = 0;
+                for(S state : states) {
+                    mapping.bindUpdate(preparedStmt, state);
+                    preparedStmt.addBatch();
+                    batched++;
+                    if(batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+                    }
+                }
+                //Rows already in the history table are updated there, the states just closed are moved to it
+                if(mapping.isSplitHistory()) {
+                    HistoryTables.updateAndMove(conn, mapping, getUpdateSql(c, getHistoryTable(c)), getTable(c),
+                            getHistoryTable(c), states);
+                }
+                fdfLog.debug("update batch of {} : {}", batched, c.getSimpleName());
+                conn.commit();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                if(conn != null) try {
+                    conn.rollback();
+                } catch (SQLException e1) {
+                    fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                }
             } finally {
                 if (preparedStmt != null) try {
                     preparedStmt.close();
                 } catch (SQLException e) {
-                    e.printStackTrace();
+                    fdfLog.error("Unable to close the statement: {}", e.getMessage());
                 }
                 if(conn != null) {
                     try {
+                        conn.setAutoCommit(autoCommit);
                         MySqlConnection.getInstance().close4dfDbSession(conn);
                     }
                     catch (SQLException e) {
-                        e.printStackTrace();
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
                     }
                 }
             }
@@ -420,138 +501,215 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
     }
 
     public <S> Long insert(Class<S> c, S state) {
+        //Closed states of a split class are inserted and moved to the history table in one transaction
+        if(HistoryTables.isClosed(ClassMapping.forClass(c), state)) {
+            return insertBatch(c, Collections.singletonList(state)).get(0);
+        }
+
+        try {
+            return insert(c, state, null);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to insert {}: {}", c.getSimpleName(), e.getMessage());
+        }
+        return -1L;
+    }
+
+    /**
+     * Inserts the state as the new current state of its entity.  The previous current state (if any) is closed and
+     * the new state is inserted on one connection inside a single transaction.
+     *
+     * @param c Class of the entity state
+     * @param state state to insert, arsd must already be set and is used as the ared of the closed state
+     * @param <S> Type extending CommonState to insert
+     * @return rid of the inserted state
+     */
+    public <S extends CommonState> Long insertCurrent(Class<S> c, S state) {
         long newId = -1L;
         //Check if @FdfIgonre class
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            boolean autoCommit = true;
+            try {
+                conn = MySqlConnection.getInstance().get4dfDbConnection();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                //Close the previous current state
+                preparedStmt = conn.prepareStatement("UPDATE " + FdfSettings.DB_NAME + "." + c.getSimpleName().toLowerCase()
+                        + " SET cf = false, ared = ? WHERE id = ? AND tid = ? AND cf = true;");
+                preparedStmt.setTimestamp(1, new Timestamp(state.arsd.getTime()));
+                preparedStmt.setLong(2, state.id);
+                preparedStmt.setLong(3, state.tid);
+                preparedStmt.executeUpdate();
+                //Move the closed state to the history table
+                if(ClassMapping.forClass(c).isSplitHistory()) {
+                    HistoryTables.moveClosed(conn, ClassMapping.forClass(c), getTable(c), getHistoryTable(c),
+                            "id = ? AND tid = ?", Collections.singletonList(new Object[] {state.id, state.tid}));
+                }
+                //Insert the new current state in the same transaction
+                newId = insert(c, state, conn);
+                conn.commit();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to save {}: {}", c.getSimpleName(), e.getMessage());
+                newId = -1L;
+                if(conn != null) try {
+                    conn.rollback();
+                } catch (SQLException e1) {
+                    fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                }
+            } finally {
+                if (preparedStmt != null) try {
+                    preparedStmt.close();
+                } catch (SQLException e) {
+                    fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                }
+                if(conn != null) {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                    catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return newId;
+    }
+
+    /**
+     * Inserts all passed states using JDBC batches of FdfSettings.BATCH_SIZE statements, all batches are executed in
+     * a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to insert
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the batch failed
+     */
+    public <S> List<Long> insertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, false);
+    }
+
+    /**
+     * Saves all passed states as the new current states of their entities in a single transaction: the current state
+     * of each entity is closed at the arsd of its new state, the new states are inserted in JDBC batches of
+     * FdfSettings.BATCH_SIZE statements and, for classes annotated with @FdfSplitHistory, the closed states are moved
+     * to the history table.  Nothing is written if any step fails.
+     *
+     * @param c Class of the entity states
+     * @param states states to save, at most one per entity, with id, tid and arsd set
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the save failed
+     */
+    public <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, true);
+    }
+
+    @SuppressWarnings("unchecked") // closeCurrent is only passed for states extending CommonState
+    private <S> List<Long> insertBatch(Class<S> c, List<S> states, boolean closeCurrent) {
+        List<Long> newIds = new ArrayList<>();
+        //Check if @FdfIgonre class
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
             Connection conn = null;
             PreparedStatement preparedStmt = null;
             ResultSet rs = null;
+            boolean autoCommit = true;
             try {
-                //Remove @FdfIgnore Fields
-                List<Field> fields = Arrays.stream(c.getFields()).filter(field -> !field.isAnnotationPresent(FdfIgnore.class)
-                        && !field.getName().equals("rid")).collect(Collectors.toList());
-                //Start Sql Statement
-                StringBuilder sql = new StringBuilder("INSERT INTO ").append(FdfSettings.DB_NAME).append(".")
-                        .append(c.getSimpleName().toLowerCase()).append(" ("),
-                        val = new StringBuilder();
-                fields.forEach(field -> {
-                    sql.append(" ").append(field.getName()).append(",");
-                    val.append(" ?,");
-                });
-                sql.deleteCharAt(sql.length()-1).append(") VALUES (")
-                        .append(val.deleteCharAt(val.length()-1).toString()).append(");");
+                //Mapped fields
+                ClassMapping<S> mapping = ClassMapping.forClass(c);
                 //Create Connection
                 conn = MySqlConnection.getInstance().get4dfDbConnection();
-                preparedStmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
-                int fieldCounter3 = 1;
-                for (Field field : fields) {
-                    try {
-                        if (field.getType() == String.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setInt(fieldCounter3, (int) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.INTEGER);
-                            }
-                        } else if (field.getType() == Long.class || field.getType() == long.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setLong(fieldCounter3, (long) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                            }
-                        } else if (field.getType() == Double.class || field.getType() == double.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setDouble(fieldCounter3, (double) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.DOUBLE);
-                            }
-                        } else if (field.getType() == Float.class || field.getType() == float.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setFloat(fieldCounter3, (float) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.FLOAT);
-                            }
-                        } else if (field.getType() == BigDecimal.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.NUMERIC);
-                            }
-                        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.TINYINT);
-                            }
-                        } else if (field.getType() == char.class || field.getType() == Character.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                            }
-                        } else if (field.getType() == UUID.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (field.getType() == Date.class) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setTimestamp(fieldCounter3, new java.sql.Timestamp(((Date) field.get(state)).getTime()));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.DATE);
-                            }
-                        } else if (field.getType() != null && field.getType().isEnum()) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (Class.class.isAssignableFrom(field.getType())) {
-                            if (field.get(state) != null) {
-                                preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(field.get(state).toString()));
-                            } else {
-                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                            }
-                        } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {
-                            ParameterizedType pt = (ParameterizedType) field.getGenericType();
-                            if(pt.getActualTypeArguments().length == 1 && pt.getActualTypeArguments()[0].toString()
-                                    .matches(".*?((L|l)ong|Integer|int|(D|d)ouble|(F|f)loat|(B|b)oolean|String).*")) {
-                                preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                            } else try {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                                oos.writeObject(field.get(state));
-                                oos.close();
-                                preparedStmt.setString(fieldCounter3,
-                                        Base64.getEncoder().encodeToString(baos.toByteArray()));
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        } else if(field.get(state) != null) {
-                            try {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                                oos.writeObject(field.get(state));
-                                oos.close();
-                                preparedStmt.setString(fieldCounter3,
-                                        Base64.getEncoder().encodeToString(baos.toByteArray()));
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        } else {
-                            preparedStmt.setNull(fieldCounter3, Types.BLOB);
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                //Close the current states of the entities before their new states are written
+                if(closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, null);
+                }
+                preparedStmt = conn.prepareStatement(getInsertSql(c), Statement.RETURN_GENERATED_KEYS);
+                int batched = 0;
+                for(S state : states) {
+                    mapping.bindInsert(preparedStmt, state, 1);
+                    preparedStmt.addBatch();
+                    batched++;
+                    if(batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+                        //Collect the generated rids for this batch
+                        rs = preparedStmt.getGeneratedKeys();
+                        while(rs != null && rs.next()) {
+                            newIds.add(rs.getLong(1));
                         }
-                        fieldCounter3++;
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
+                        if(rs != null) rs.close();
+                        rs = null;
                     }
                 }
+                //And close any current state a concurrent save committed in the meantime
+                if(closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, newIds);
+                }
+                //Closed states belong in the history table
+                if(mapping.isSplitHistory()) {
+                    if(closeCurrent) {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "id = ? AND tid = ?",
+                                HistoryTables.entityKeys((List<CommonState>) states));
+                    }
+                    else {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "rid = ?",
+                                HistoryTables.closedRids(states, newIds));
+                    }
+                }
+                fdfLog.debug("insert batch of {} : {}", batched, c.getSimpleName());
+                conn.commit();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to insert the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                newIds.clear();
+                if(conn != null) try {
+                    conn.rollback();
+                } catch (SQLException e1) {
+                    fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                }
+            } finally {
+                if (rs != null) try {
+                    rs.close();
+                } catch (SQLException e) {
+                    fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                }
+                if (preparedStmt != null) try {
+                    preparedStmt.close();
+                } catch (SQLException e) {
+                    fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                }
+                if(conn != null) {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                    catch (SQLException e) {
+                        fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        //Report a failed rid for any state that was not written
+        while(states != null && newIds.size() < states.size()) {
+            newIds.add(-1L);
+        }
+        return newIds;
+    }
+
+    private <S> Long insert(Class<S> c, S state, Connection sharedConn) throws SQLException {
+        long newId = -1L;
+        //Check if @FdfIgonre class
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            ResultSet rs = null;
+            try {
+                //Mapped fields
+                ClassMapping<S> mapping = ClassMapping.forClass(c);
+                //Create Connection
+                conn = sharedConn != null ? sharedConn : MySqlConnection.getInstance().get4dfDbConnection();
+                preparedStmt = conn.prepareStatement(getInsertSql(c), Statement.RETURN_GENERATED_KEYS);
+                mapping.bindInsert(preparedStmt, state, 1);
                 fdfLog.debug("insert sql : {}", preparedStmt);
                 preparedStmt.execute();
                 rs = preparedStmt.getGeneratedKeys();
@@ -559,6 +717,7 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
                     newId = rs.getLong(1);
                 }
             } catch (SQLException e) {
+                if(sharedConn != null) throw e;
                 e.printStackTrace();
             } finally {
                 if (rs != null) try {
@@ -571,7 +730,7 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
                 } catch (SQLException e) {
                     e.printStackTrace();
                 }
-                if(conn != null) {
+                if(conn != null && sharedConn == null) {
                     try {
                         MySqlConnection.getInstance().close4dfDbSession(conn);
                     }
@@ -584,6 +743,157 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
         return newId;
     }
 
+    /**
+     * Takes count new entity ids from the id counter of the class, a row of the fdfidcounter table.  The counter is
+     * checked the first time ids are taken for a class: created if it does not exist and moved past the highest id in
+     * the table if it is behind (ids saved by MaxIdAllocator).
+     *
+     * @param c Class of the entity
+     * @param count number of ids to take
+     * @return the new ids, empty if they could not be taken
+     */
+    public List<Long> nextEntityIds(Class<? extends CommonState> c, int count) {
+        List<Long> ids = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && count > 0) {
+            Connection conn = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+
+            try {
+                conn = MySqlConnection.getInstance().get4dfDbConnection();
+                if(!checkedIdSequences.contains(c)) {
+                    synchronized (idSequenceLocks.computeIfAbsent(c, k -> new Object())) {
+                        if(!checkedIdSequences.contains(c)) {
+                            checkIdSequence(conn, c);
+                            checkedIdSequences.add(c);
+                        }
+                    }
+                }
+
+                // LAST_INSERT_ID(expr) hands the new counter value back on this connection
+                ps = conn.prepareStatement("UPDATE " + FdfSettings.DB_NAME + "." + ID_COUNTER_TABLE
+                        + " SET nextid = LAST_INSERT_ID(nextid + ?) WHERE tablename = ?;");
+                ps.setInt(1, count);
+                ps.setString(2, c.getSimpleName().toLowerCase());
+                ps.executeUpdate();
+                ps.close();
+
+                ps = conn.prepareStatement("SELECT LAST_INSERT_ID();");
+                rs = ps.executeQuery();
+                if (rs.next()) {
+                    long next = rs.getLong(1);
+                    for (long id = next - count; id < next; id++) {
+                        ids.add(id);
+                    }
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+            } catch (SQLException e) {
+                fdfLog.error("Unable to take entity ids for {}: {}", c.getSimpleName(), e.getMessage());
+                ids.clear();
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (ps != null) {
+                    try {
+                        ps.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                try {
+                    if (conn != null) {
+                        MySqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+                catch (SQLException e) {
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void checkIdSequence(Connection conn, Class<?> c) throws SQLException {
+        String counter = FdfSettings.DB_NAME + "." + ID_COUNTER_TABLE;
+        String table = FdfSettings.DB_NAME + "." + c.getSimpleName().toLowerCase();
+
+        try (Statement create = conn.createStatement()) {
+            create.execute("CREATE TABLE IF NOT EXISTS " + counter
+                    + " (tablename VARCHAR(128) NOT NULL PRIMARY KEY, nextid BIGINT NOT NULL);");
+        }
+
+        // start after the highest id in the table, or move the counter past it if it is behind
+        try (PreparedStatement insert = conn.prepareStatement("INSERT IGNORE INTO " + counter
+                + " (tablename, nextid) SELECT ?, COALESCE(MAX(id), 0) + 1 FROM " + table + ";")) {
+            insert.setString(1, c.getSimpleName().toLowerCase());
+            insert.executeUpdate();
+        }
+        try (PreparedStatement sync = conn.prepareStatement("UPDATE " + counter
+                + " SET nextid = (SELECT COALESCE(MAX(id), 0) + 1 FROM " + table + ") WHERE tablename = ?"
+                + " AND nextid <= (SELECT COALESCE(MAX(id), 0) FROM " + table + ");")) {
+            sync.setString(1, c.getSimpleName().toLowerCase());
+            sync.executeUpdate();
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+    }
+
+    /**
+     * Table holding the states of the class, only its current states if the class is annotated with @FdfSplitHistory.
+     */
+    private static String getTable(Class<?> c) {
+        return FdfSettings.DB_NAME + "." + c.getSimpleName().toLowerCase();
+    }
+
+    /**
+     * Table holding the closed states of a class annotated with @FdfSplitHistory.
+     */
+    private static String getHistoryTable(Class<?> c) {
+        return FdfSettings.DB_NAME + "." + c.getSimpleName().toLowerCase() + "_history";
+    }
+
+    /**
+     * Builds the prepared update statement for the mapped fields of the class, the row is matched by rid.
+     */
+    private String getUpdateSql(Class<?> c) {
+        return getUpdateSql(c, getTable(c));
+    }
+
+    private String getUpdateSql(Class<?> c, String table) {
+        //Start Sql Statement
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET");
+        ClassMapping.forClass(c).getInsertFields().forEach(field -> sql.append(" ").append(field.getName()).append(" = ?,"));
+        sql.deleteCharAt(sql.length() - 1).append(" WHERE rid = ?;");
+        return sql.toString();
+    }
+
+    /**
+     * Builds the prepared insert statement for the mapped fields of the class.
+     */
+    private String getInsertSql(Class<?> c) {
+        //Start Sql Statement
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(FdfSettings.DB_NAME).append(".")
+                .append(c.getSimpleName().toLowerCase()).append(" ("),
+                val = new StringBuilder();
+        ClassMapping.forClass(c).getInsertFields().forEach(field -> {
+            sql.append(" ").append(field.getName()).append(",");
+            val.append(" ?,");
+        });
+        sql.deleteCharAt(sql.length()-1).append(") VALUES (")
+                .append(val.deleteCharAt(val.length()-1).toString()).append(");");
+        return sql.toString();
+    }
+
 
     /**
      * General select Query to retrieve all information for passed entity, can be used to return specified
@@ -608,19 +918,11 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
         List<S> everything = new ArrayList<>();
         //Check if class is @FdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
-
-            // if no order by was passed use id
-            if(sqlStatement.getOrderBy().length() == 0) {
-                sqlStatement.orderBy("id");
-            }
-
-            //Start the sql statement
-            String sql = sqlStatement.getSelect() + " FROM " + FdfSettings.DB_NAME + "." + c.getSimpleName().toLowerCase()
-                    + sqlStatement.getWhere() + sqlStatement.getGroupBy()
-                    + sqlStatement.getOrderBy() + sqlStatement.getLimit() + ";";
+            String sql = getSelectSql(c, sqlStatement);
 
             fdfLog.debug("select sql: {}", sql);
 
+            ClassMapping<?> mapping = ClassMapping.forClass((Class<?>) c);
             Connection conn = null;
             PreparedStatement ps = null;
             ResultSet rs = null;
@@ -628,429 +930,17 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
             try {
                 conn = MySqlConnection.getInstance().get4dfDbConnection();
                 ps = conn.prepareStatement(sql);
+                sqlStatement.bindParameters(ps, 1);
                 if(ps != null) {
+                    long start = System.nanoTime();
                     rs = ps.executeQuery();
+                    long executed = System.nanoTime();
+                    RowPlan<?> plan = mapping.planFor(rs.getMetaData());
                     while(rs.next()) {
-                        // create a new object of type passed
-                        Object thisObject = c.newInstance();
-
-                        for (Field field : c.getFields()) {
-                            // check the datatype of the field to apply the correct method to
-                            // retrieve the data on the resultset
-
-                            // check to see if the class has an @fdfIgonre
-                            if(!field.isAnnotationPresent(FdfIgnore.class)) {
-                                try {
-                                    if (field.getType() == String.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getString(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getInt(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == long.class || field.getType() == Long.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getLong(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == double.class || field.getType() == Double.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getDouble(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == float.class || field.getType() == Float.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getFloat(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getInt(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    }
-                                    else if (field.getType() == BigDecimal.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBigDecimal(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    }
-                                    else if (field.getType() == char.class || field.getType() == Character.class) {
-                                        try {
-                                            field.setAccessible(true);
-                                            if (field.getName() != null && rs.getString(field.getName()) != null && rs.getString(field.getName()).length() > 0) {
-                                                field.set(thisObject, rs.getString(field.getName()).charAt(0));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == Date.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getTimestamp(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        } catch (NullPointerException npe) {
-                                            // Nullpointer in timestap
-                                            fdfLog.debug("NullPointer on Date column {}, This is usually because select"
-                                                    + "statement did not include column", field.getName(), npe.getMessage());
-                                        }
-                                    } else if (field.getType() == UUID.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, UUID.fromString(rs.getString(field.getName())));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == boolean.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBoolean(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == Boolean.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBoolean(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        try {
-                                            field.setAccessible(true);
-                                            field.set(thisObject, Enum.valueOf((Class<Enum>) field.getType(),
-                                                    rs.getString(field.getName())));
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (Class.class.isAssignableFrom(field.getType())
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        try {
-                                            field.setAccessible(true);
-                                            field.set(thisObject,
-                                                    FdfUtil.getClassByFullyQualifiedName(rs.getString(field.getName())));
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getGenericType() instanceof ParameterizedType
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        ParameterizedType pt = (ParameterizedType) field.getGenericType();
-
-                                        if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Long")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("long"))) {
-
-                                            List<Long> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Long.parseLong(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Integer")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("int"))) {
-
-                                            List<Integer> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Integer.parseInt(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Float")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("float"))) {
-
-                                            List<Float> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Float.parseFloat(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Double")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("double"))) {
-
-                                            List<Double> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        }
-                                        else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("BigDecimal"))) {
-
-                                            List<Double> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        }
-                                        else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Boolean")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("boolean"))) {
-
-                                            List<Boolean> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Boolean.parseBoolean(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                pt.getActualTypeArguments()[0].toString().contains("String")) {
-
-                                            List<String> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(str.replaceAll("\\s", ""));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else {
-                                            // serialized object, deserialize
-                                            try {
-                                                field.setAccessible(true);
-
-                                                byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));
-                                                ObjectInputStream ois = new ObjectInputStream(
-                                                        new ByteArrayInputStream(data));
-                                                Object o = ois.readObject();
-                                                ois.close();
-
-                                                field.set(thisObject, o);
-                                            } catch (SQLException e) {
-                                                if (e.getSQLState().equals("S0022")) {
-                                                    // Invalid column name, thrown if select statement does not include column
-                                                    fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                            + "{}, This is usually because select statement did not include column and "
-                                                            + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                                } else {
-                                                    fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                            ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                                }
-                                            }
-                                        }
-                                    } else if (field.getName() != null && rs.getString(field.getName()) != null) {
-                                        // serialized object, deserialize
-                                        try {
-                                            field.setAccessible(true);
-
-                                            byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));
-                                            ObjectInputStream ois = new ObjectInputStream(
-                                                    new ByteArrayInputStream(data));
-                                            Object o = ois.readObject();
-                                            ois.close();
-
-                                            field.set(thisObject, o);
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("S0022")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    }
-                                } catch (SQLException e) {
-                                    if (e.getSQLState().equals("S0022")) {
-                                        // Invalid column name, thrown if select statement does not include column
-                                        fdfLog.debug("Select statement had sql state S0022 (Invalid column name) on column"
-                                                + "{}, This is usually because select statement did not include column and "
-                                                + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                    } else {
-                                        fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                    }
-                                }
-                            }
-                        }
-                        S thisUserStateTest = (S) thisObject;
-                        everything.add(thisUserStateTest);
+                        everything.add((S) plan.read(rs));
                     }
+                    SlowQueryLog.getInstance().record(conn, sql, sqlStatement, c, everything.size(), executed - start,
+                            System.nanoTime() - executed, "EXPLAIN ");
                 }
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -1082,63 +972,122 @@ public class CoreMySqlQueries implements CorePersistenceImpl {
         return everything;
     }
 
-    static String getFieldNameAndDataType(Field field) {
-        String sql = "";
+    /**
+     * Streaming version of selectQuery, rows are read from an open cursor FdfSettings.FETCH_SIZE at a time and
+     * hydrated as the stream is consumed.  The connection stays open until the stream has been read to the end or
+     * closed, streams that may not be read to the end must be closed (try with resources).
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement Class that contains all the necessary fields to build the sql statement
+     * @param <S> Type extending CommonState to query and return
+     * @return stream of the data queried
+     */
+    @Override
+    public <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return Stream.empty();
+        }
+
+        String sql = getSelectSql(c, sqlStatement);
+        fdfLog.debug("stream sql: {}", sql);
+
+        try {
+            // Connector/J only streams row by row when the fetch size is Integer.MIN_VALUE
+            Connection conn = MySqlConnection.getInstance().get4dfDbConnection();
+            return StreamingSelect.open(conn, MySqlConnection.getInstance()::close4dfDbSession, sql, sqlStatement, c,
+                    Integer.MIN_VALUE, false);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to close the connection: {}", e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    private String getSelectSql(Class<?> c, SqlStatement sqlStatement) {
+        // if no order by was passed use id
+        if(sqlStatement.getOrderBy().length() == 0) {
+            sqlStatement.orderBy("id");
+        }
+
+        //Start the sql statement
+        return sqlStatement.getSelect() + " FROM "
+                + HistoryTables.getFromSql(ClassMapping.forClass(c), sqlStatement, getTable(c), getHistoryTable(c))
+                + sqlStatement.getWhere() + sqlStatement.getGroupBy()
+                + sqlStatement.getOrderBy() + sqlStatement.getLimit() + ";";
+    }
+
+    static String getFieldNameAndDataType(FieldMapping field) {
+        String sql = field.getName();
 
         fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());
 
-        if (field.getType() == String.class) {
-            sql += field.getName() + " TEXT";
-        } else if (field.getType() == int.class || field.getType() == Integer.class) {
-            sql += field.getName() + " INT";
-        } else if (field.getType() == Long.class || field.getType() == long.class) {
-            sql += field.getName() + " BIGINT";
+        switch (field.getType()) {
+            case STRING:
+            case LIST:
+                sql += " TEXT";
+                break;
+            case INTEGER:
+                sql += " INT";
+                break;
+            case LONG:
+            sql += " BIGINT";
             if (field.getName().equals("rid")) {
                 sql += " PRIMARY KEY AUTO_INCREMENT";
             }
-        } else if (field.getType() == Double.class || field.getType() == double.class) {
-            sql += field.getName() + " DOUBLE";
-        } else if (field.getType() == Float.class || field.getType() == float.class) {
-            sql += field.getName() + " FLOAT";
-        }
-        else if (field.getType() == BigDecimal.class) {
-            sql += field.getName() + " NUMERIC(10,4)";
-        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-            sql += field.getName() + " TINYINT(1)";
-        } else if (field.getType() == Date.class) {
-            sql += field.getName() + " DATETIME";
-            if (field.getName().equals("arsd")) {
-                sql += " DEFAULT CURRENT_TIMESTAMP";
-            } else {
-                sql += " NULL";
-            }
-        } else if (field.getType() == UUID.class) {
-            sql += field.getName() + " VARCHAR(132)";
-        } else if (field.getType() == Character.class || field.getType() == char.class) {
-            sql += field.getName() + " CHAR";
-        } else if (field.getType() != null && field.getType().isEnum()) {
-            sql += field.getName() + " VARCHAR(200)";
-        } else if (Class.class.isAssignableFrom(field.getType())) {
-            sql += field.getName() + " VARCHAR(200)";
+                break;
+            case DOUBLE:
+                sql += " DOUBLE";
+                break;
+            case FLOAT:
+                sql += " FLOAT";
+                break;
+            case BIG_DECIMAL:
+                sql += " NUMERIC(10,4)";
+                break;
+            case BOOLEAN:
+                sql += " TINYINT(1)";
+                break;
+            case DATE:
+                sql += " DATETIME";
+                if (field.getName().equals("arsd")) {
+                    sql += " DEFAULT CURRENT_TIMESTAMP";
+                } else {
+                    sql += " NULL";
+                }
+                break;
+            case UUID:
+                sql += " VARCHAR(132)";
+                break;
+            case CHARACTER:
+                sql += " CHAR";
+                break;
+            case ENUM:
+            case CLASS:
+                sql += " VARCHAR(200)";
+                break;
+            default:
+                // unknown, build a field to serialize the object to
+                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getJavaType());
+                sql += " BLOB";
         }
-        else if (field.getGenericType() instanceof ParameterizedType) {
-            ParameterizedType pt = (ParameterizedType) field.getGenericType();
-            if(pt.getActualTypeArguments().length == 1 && pt.getActualTypeArguments()[0].toString()
-                    .matches(".*?((L|l)ong|Integer|int|(D|d)ouble|(F|f)loat|(B|b)oolean|String).*")) {
-                sql += field.getName() + " TEXT";
+
+        return sql;
+    }
+
+    static String getIndexColumnList(IndexMapping index) {
+        // TEXT and BLOB columns can only be indexed on a prefix of the value
+        StringBuilder columns = new StringBuilder();
+        for (FieldMapping field : index.getFields()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
             }
-            else {
-                // unknown create text fields to serialize
-                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());
-                sql += field.getName() + " BLOB";
+            columns.append(field.getName());
+            if (field.getType() == FieldType.STRING || field.getType() == FieldType.LIST
+                    || field.getType() == FieldType.OBJECT) {
+                columns.append("(255)");
             }
         }
-        else {
-            // unknown create text fields to serialize
-            fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());
-            sql += field.getName() + " BLOB";
-        }
-        return sql;
+        return columns.toString();
     }
 
     static String parseWhere(List<WhereClause> where) {
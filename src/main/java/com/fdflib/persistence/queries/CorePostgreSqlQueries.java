@@ -24,19 +24,22 @@ import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.database.PostgreSqlConnection;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.FieldMapping;
+import com.fdflib.persistence.mapping.IndexMapping;
+import com.fdflib.persistence.mapping.RowPlan;
 import com.fdflib.service.FdfSystemServices;
 import com.fdflib.service.FdfTenantServices;
 import com.fdflib.util.FdfSettings;
-import com.fdflib.util.FdfUtil;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
 import java.math.BigDecimal;
 import java.sql.*;
+import java.time.YearMonth;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 /**
  * Created by brian.gormanly on 1/14/16.
@@ -46,6 +49,16 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
     private static final CorePostgreSqlQueries INSTANCE = new CorePostgreSqlQueries();
     static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CorePostgreSqlQueries.class);
 
+    // upper bound of a range partition, as returned by pg_get_expr(relpartbound)
+    private static final java.util.regex.Pattern PARTITION_END = java.util.regex.Pattern.compile("TO \\('([^']+)'\\)");
+
+    // classes whose id sequence has been checked, and the locks that let only one thread check each of them
+    private final Set<Class<?>> checkedIdSequences = ConcurrentHashMap.newKeySet();
+    private final Map<Class<?>, Object> idSequenceLocks = new ConcurrentHashMap<>();
+
+    // end (epoch millis) of the last partition created for each partitioned class
+    private final Map<Class<?>, Long> partitionedUntil = new ConcurrentHashMap<>();
+
     private CorePostgreSqlQueries() {}
 
     public static CorePostgreSqlQueries getInstance() {
@@ -120,20 +133,14 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         List<Class> classList = FdfSettings.getInstance().modelClasses;
 
         // build the tables for the model objects
-        for(Class c: classList) {
-
-            // check to see if the class has an @fdfIgonre
-            if(!c.isAnnotationPresent(FdfIgnore.class)) {
+        for(Class<?> c: classList) {
 
-                // determine the number of fields
-                int numberOfFields = 0;
-                for (Field field : c.getFields()) {
+            // persisted fields of the class
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+            List<FieldMapping> fields = mapping.getFields();
 
-                    // check to see if the class has an @fdfIgonre
-                    if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                        numberOfFields++;
-                    }
-                }
+            // check to see if the class has an @fdfIgonre
+            if(!mapping.isIgnored()) {
 
                 // check to see if the table already exists
                 String tableTest = "select * from information_schema.TABLES where table_catalog = '"
@@ -159,26 +166,26 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                             // Table does not exist, build
                             fdfLog.info("creating table: {}", c.getSimpleName().toLowerCase());
                             // check there there is at lease one field
-                            if (c.getFields().length > 0) {
+                            if (fields.size() > 0) {
                                 String sql = "CREATE TABLE " + "\"" + c.getSimpleName().toLowerCase()
                                         + "\"" + " ( ";
                                 int fieldCounter = 0;
 
-                                for (Field field : c.getFields()) {
+                                for (FieldMapping field : fields) {
 
-                                    // check to see if the class has an @fdfIgonre
-                                    if(!field.isAnnotationPresent(FdfIgnore.class)) {
+                                    sql += getFieldNameAndDataType(field);
 
-                                        sql += getFieldNameAndDataType(field);
-
-                                        fieldCounter++;
-
-                                        if (numberOfFields > fieldCounter) sql += ", ";
-                                    }
+                                    fieldCounter++;
 
+                                    if (fields.size() > fieldCounter) sql += ", ";
                                 }
                                 sql += ");";
 
+                                // the partitions of the table are created by checkPartitions
+                                if (!mapping.isSplitHistory() && isPartitioned(conn, mapping)) {
+                                    sql = getPartitionedTableSql(getTable(c), fields, true);
+                                }
+
                                 fdfLog.debug("Table sql {} : {}", c.getSimpleName().toLowerCase(), sql);
 
                                 if (stmt != null) {
@@ -220,22 +227,16 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         List<Class> classList = FdfSettings.getInstance().modelClasses;
 
         // build the tables for the model objects
-        for(Class c: classList) {
-
-            // determine the number of fields
-            int numberOfFields = 0;
-            for (Field field : c.getFields()) {
+        for(Class<?> c: classList) {
 
-                // check to see if the class has an @fdfIgonre
-                if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                    numberOfFields++;
-                }
-            }
+            // persisted fields of the class
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+            List<FieldMapping> fields = mapping.getFields();
 
-            if(numberOfFields > 0) {
+            if(fields.size() > 0) {
 
                 // check to see if the class has an @fdfIgonre
-                if(!c.isAnnotationPresent(FdfIgnore.class)) {
+                if(!mapping.isIgnored()) {
 
                     Connection conn = null;
                     Statement stmt = null;
@@ -245,34 +246,30 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                         conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
                         stmt = conn.createStatement();
 
-                        for (Field field : c.getFields()) {
-
-                            // check to see if the class has an @fdfIgonre
-                            if(!field.isAnnotationPresent(FdfIgnore.class)) {
+                        for (FieldMapping field : fields) {
 
-                                // query for the field in the database
-                                // check to see if the table already exists
-                                String fieldTest = "select * from information_schema.columns where table_catalog= '"
-                                        + FdfSettings.DB_NAME.toLowerCase() + "' and table_name= '"
-                                        + c.getSimpleName().toLowerCase() + "' and column_name= '"
-                                        + field.getName().toLowerCase() + "';";
-                                fdfLog.debug("Checking existence of field {} with SQL: {}", c.getSimpleName().toLowerCase(), fieldTest);
+                            // query for the field in the database
+                            // check to see if the table already exists
+                            String fieldTest = "select * from information_schema.columns where table_catalog= '"
+                                    + FdfSettings.DB_NAME.toLowerCase() + "' and table_name= '"
+                                    + c.getSimpleName().toLowerCase() + "' and column_name= '"
+                                    + field.getName().toLowerCase() + "';";
+                            fdfLog.debug("Checking existence of field {} with SQL: {}", c.getSimpleName().toLowerCase(), fieldTest);
 
-                                if (stmt != null) {
-                                    rs = stmt.executeQuery(fieldTest);
-                                }
+                            if (stmt != null) {
+                                rs = stmt.executeQuery(fieldTest);
+                            }
 
-                                if (rs != null) {
-                                    if (!rs.next()) {
-                                        // the field did not exist,
-                                        String alterSql = "alter table " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " add column "
-                                                + this.getFieldNameAndDataType(field) + ";";
+                            if (rs != null) {
+                                if (!rs.next()) {
+                                    // the field did not exist,
+                                    String alterSql = "alter table " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " add column "
+                                            + this.getFieldNameAndDataType(field) + ";";
 
-                                        fdfLog.info("Add field sql {} : {}", c.getSimpleName().toLowerCase(), alterSql);
+                                    fdfLog.info("Add field sql {} : {}", c.getSimpleName().toLowerCase(), alterSql);
 
-                                        if (stmt != null) {
-                                            stmt.executeUpdate(alterSql);
-                                        }
+                                    if (stmt != null) {
+                                        stmt.executeUpdate(alterSql);
                                     }
                                 }
                             }
@@ -301,6 +298,518 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                 }
             }
         }
+
+        // keep List columns created as text bound as text, before the history tables get their columns
+        checkArrayColumns();
+
+        // create or complete the history tables
+        checkHistoryTables();
+
+        // create the partitions of the coming months
+        checkPartitions();
+    }
+
+    /**
+     * Creates the history tables of the classes annotated with @FdfSplitHistory and adds the fields they are missing.
+     */
+    private void checkHistoryTables() throws SQLException {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            if(!mapping.isIgnored() && mapping.isSplitHistory() && mapping.getFields().size() > 0) {
+                Connection conn = null;
+
+                try {
+                    conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                    if (isPartitioned(conn, mapping)) {
+                        try (Statement stmt = conn.createStatement()) {
+                            stmt.executeUpdate(getPartitionedTableSql(getHistoryTable(c), mapping.getFields(), false));
+                        }
+                    }
+                    HistoryTables.checkHistoryTable(conn, mapping, getHistoryTable(c),
+                            CorePostgreSqlQueries::getFieldNameAndDataType);
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating a history table:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } finally {
+                    if(conn != null) {
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the List columns that were created as text, before FdfSettings.POSTGRES_NATIVE_ARRAYS was turned on, and
+     * keeps binding their fields as text until convertArrayColumns is called for the class.  Columns are never
+     * converted at startup.
+     */
+    private void checkArrayColumns() throws SQLException {
+        if (!FdfSettings.POSTGRES_NATIVE_ARRAYS) {
+            return;
+        }
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            if(!mapping.isIgnored()) {
+                Connection conn = null;
+
+                try {
+                    conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                    for (FieldMapping field : textArrayFields(conn, mapping, c.getSimpleName().toLowerCase())) {
+                        field.setTextColumn(true);
+                        fdfLog.warn("{}.{} is stored in a text column, call convertArrayColumns to store it in a "
+                                + "native array column", c.getSimpleName(), field.getName());
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking the array fields:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } finally {
+                    if(conn != null) {
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts the List columns of a class that still hold the text of the list ([1, 2, 3]), because its tables were
+     * created before FdfSettings.POSTGRES_NATIVE_ARRAYS was turned on, to native array columns, in one transaction.
+     * The conversion rewrites the tables under an ACCESS EXCLUSIVE lock and can not be undone: the text is split on
+     * commas and trimmed of brackets and spaces, so strings containing a comma or starting or ending with [, ] or a
+     * space are changed.  Instances still binding these fields as text fail to save once they are converted, so run
+     * it when every instance has POSTGRES_NATIVE_ARRAYS turned on.
+     *
+     * @param c model class whose List columns are converted
+     * @return the converted columns, as table.column
+     */
+    public List<String> convertArrayColumns(Class<?> c) {
+        List<String> converted = new ArrayList<>();
+        if (!FdfSettings.POSTGRES_NATIVE_ARRAYS) {
+            fdfLog.warn("FdfSettings.POSTGRES_NATIVE_ARRAYS is off, the List columns of {} are not converted",
+                    c.getSimpleName());
+            return converted;
+        }
+
+        ClassMapping<?> mapping = ClassMapping.forClass(c);
+        List<String> tables = new ArrayList<>();
+        tables.add(c.getSimpleName().toLowerCase());
+        if(mapping.isSplitHistory()) {
+            tables.add(c.getSimpleName().toLowerCase() + "_history");
+        }
+
+        Connection conn = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            List<FieldMapping> fields = new ArrayList<>();
+            try (Statement stmt = conn.createStatement()) {
+                for (String table : tables) {
+                    for (FieldMapping field : textArrayFields(conn, mapping, table)) {
+                        String column = field.getName();
+                        String elements = "btrim(" + column + ", '[] ')";
+                        String arrayType = field.getNativeArrayType() + "[]";
+                        String alterSql = "alter table \"" + table + "\" alter column " + column + " type "
+                                + arrayType + " using case when " + elements + " = '' then '{}'::" + arrayType
+                                + " else regexp_split_to_array(" + elements + ", '\\s*,\\s*')::" + arrayType
+                                + " end;";
+
+                        fdfLog.info("Convert field to array sql {} : {}", table, alterSql);
+                        stmt.executeUpdate(alterSql);
+                        converted.add(table + "." + column);
+                        fields.add(field);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                converted.clear();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            for (FieldMapping field : fields) {
+                field.setTextColumn(false);
+            }
+        } catch (SQLException e) {
+            fdfLog.error("Unable to convert the List columns of {}: {}", c.getSimpleName(), e.getMessage());
+        } finally {
+            try {
+                if (conn != null) {
+                    PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                }
+            }
+            catch (SQLException e) {
+                fdfLog.error("Unable to close the connection: {}", e.getMessage());
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * List fields of the class stored in native arrays whose column in the table is text.
+     */
+    private static List<FieldMapping> textArrayFields(Connection conn, ClassMapping<?> mapping, String table)
+            throws SQLException {
+        List<FieldMapping> fields = new ArrayList<>();
+        for (FieldMapping field : mapping.getFields()) {
+            if (field.getNativeArrayType() == null) {
+                continue;
+            }
+            try (PreparedStatement ps = conn.prepareStatement("select data_type from "
+                    + "information_schema.columns where table_schema = current_schema() "
+                    + "and table_name = ? and column_name = ?")) {
+                ps.setString(1, table);
+                ps.setString(2, field.getName().toLowerCase());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && ("text".equals(rs.getString(1)) || "character varying".equals(rs.getString(1)))) {
+                        fields.add(field);
+                    }
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Creates the default partition and the partitions of the current and the next FdfSettings.PARTITIONS_AHEAD
+     * periods for the tables of classes annotated with @FdfPartitioned.  Run by initializeFdfDataModel and again by
+     * the first save after the last created partition has ended, so states only reach the default partition if a
+     * partition could not be created.  Tables created before the class was annotated are not partitioned and are
+     * skipped.
+     */
+    public void checkPartitions() throws SQLException {
+        for(Class<?> c: FdfSettings.getInstance().modelClasses) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            if(!mapping.isIgnored() && mapping.getPartitionMonths() > 0) {
+                checkPartitions(c);
+            }
+        }
+    }
+
+    /**
+     * Creates the partitions of the class from the current period on.  A partition that cannot be created is logged
+     * and the following ones are still created.
+     */
+    private synchronized void checkPartitions(Class<?> c) {
+        int months = ClassMapping.forClass(c).getPartitionMonths();
+        String tableName = getPartitionedTableName(c);
+        Connection conn = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+
+            try (Statement stmt = conn.createStatement()) {
+                // check to see if the table is partitioned
+                boolean partitioned;
+                try (ResultSet rs = stmt.executeQuery("select * from pg_class where relname = '" + tableName
+                        + "' and relkind = 'p';")) {
+                    partitioned = rs.next();
+                }
+
+                if (!partitioned) {
+                    fdfLog.info("table {} is not partitioned, no partitions created", tableName);
+                    return;
+                }
+
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS \"" + tableName + "_default\" PARTITION OF \""
+                        + tableName + "\" DEFAULT;");
+            }
+
+            // partitions start on a multiple of months counted from year 0
+            int month = YearMonth.now().getYear() * 12 + YearMonth.now().getMonthValue() - 1;
+            YearMonth start = YearMonth.of(0, 1).plusMonths(month - Math.floorMod(month, months));
+
+            for (int i = 0; i <= FdfSettings.PARTITIONS_AHEAD; i++) {
+                YearMonth end = start.plusMonths(months);
+                try {
+                    createPartition(conn, tableName, start, end);
+                } catch (SQLException sqlException) {
+                    fdfLog.error("Unable to create the partition of {} from {}: {}", tableName, start.atDay(1),
+                            sqlException.getMessage());
+                }
+                start = end;
+            }
+
+            partitionedUntil.put(c, Timestamp.valueOf(start.atDay(1).atStartOfDay()).getTime());
+        } catch (SQLException sqlException) {
+            fdfLog.error("Unable to check the partitions of {}: {}", tableName, sqlException.getMessage());
+        } finally {
+            try {
+                if (conn != null) {
+                    PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                }
+            } catch (SQLException e) {
+                fdfLog.error("Unable to close the connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the partition of the table for the period from start to end, if it does not exist.  PostgreSQL refuses a
+     * new partition while the default partition holds states of its period, so those states are moved: the partition
+     * is created as a plain table, the states are moved into it from the default partition and it is attached, all in
+     * one transaction.
+     */
+    private static void createPartition(Connection conn, String tableName, YearMonth start, YearMonth end)
+            throws SQLException {
+        String partition = tableName + "_p" + start.getYear() + "_" + String.format("%02d", start.getMonthValue());
+        String bounds = "FOR VALUES FROM ('" + start.atDay(1) + " 00:00:00') TO ('" + end.atDay(1) + " 00:00:00')";
+        Timestamp from = Timestamp.valueOf(start.atDay(1).atStartOfDay());
+        Timestamp to = Timestamp.valueOf(end.atDay(1).atStartOfDay());
+
+        try (PreparedStatement ps = conn.prepareStatement("select * from pg_class where relname = ?;")) {
+            ps.setString(1, partition);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+
+        boolean inDefault;
+        try (PreparedStatement ps = conn.prepareStatement("select 1 from \"" + tableName + "_default\" where arsd >= ? "
+                + "and arsd < ? limit 1;")) {
+            ps.setTimestamp(1, from);
+            ps.setTimestamp(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                inDefault = rs.next();
+            }
+        }
+
+        if (!inDefault) {
+            String partitionSql = "CREATE TABLE IF NOT EXISTS \"" + partition + "\" PARTITION OF \"" + tableName
+                    + "\" " + bounds + ";";
+            fdfLog.debug("Partition sql {} : {}", tableName, partitionSql);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(partitionSql);
+            }
+            return;
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement move = conn.prepareStatement("with moved as (delete from \"" + tableName
+                     + "_default\" where arsd >= ? and arsd < ? returning *) insert into \"" + partition
+                     + "\" select * from moved;")) {
+            stmt.executeUpdate("CREATE TABLE \"" + partition + "\" (LIKE \"" + tableName + "\" INCLUDING DEFAULTS);");
+            move.setTimestamp(1, from);
+            move.setTimestamp(2, to);
+            int moved = move.executeUpdate();
+            stmt.executeUpdate("ALTER TABLE \"" + tableName + "\" ATTACH PARTITION \"" + partition + "\" " + bounds
+                    + ";");
+            conn.commit();
+            fdfLog.info("moved {} states of {} from the default partition to {}", moved, tableName, partition);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Creates the next partitions of a partitioned class once the last partition created for it has ended.
+     */
+    private void checkPartitionsAhead(Class<?> c) {
+        Long until = partitionedUntil.get(c);
+        if (until != null && System.currentTimeMillis() >= until) {
+            checkPartitions(c);
+        }
+    }
+
+    /**
+     * Checks if the tables of the class are created partitioned.  Partitioned tables with a default partition and a
+     * primary key need PostgreSQL 11, older servers get plain tables.
+     */
+    private static boolean isPartitioned(Connection conn, ClassMapping<?> mapping) throws SQLException {
+        if (mapping.getPartitionMonths() == 0) {
+            return false;
+        }
+
+        int version = conn.getMetaData().getDatabaseMajorVersion();
+        if (version < 11) {
+            fdfLog.info("PostgreSQL {} does not support partitioned tables with a default partition, {} is not "
+                    + "partitioned", version, mapping.getType().getSimpleName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Detaches the arsd partitions of the class that only hold states that started before the passed date.  The
+     * detached partitions are left in the database as tables of their own to be archived or dropped, their states
+     * are no longer returned by any query.
+     *
+     * @param c Class annotated with @FdfPartitioned
+     * @param date partitions ending on or before this date are detached
+     * @return names of the detached partitions
+     */
+    public List<String> detachPartitionsBefore(Class<?> c, Date date) {
+        List<String> detached = new ArrayList<>();
+        if (ClassMapping.forClass(c).getPartitionMonths() == 0 || date == null) {
+            return detached;
+        }
+
+        String tableName = getPartitionedTableName(c);
+        Connection conn = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+
+            // the upper bound of every range partition of the table
+            Map<String, Timestamp> partitionEnds = new LinkedHashMap<>();
+            try (PreparedStatement ps = conn.prepareStatement("select child.relname, "
+                    + "pg_get_expr(child.relpartbound, child.oid) from pg_inherits "
+                    + "join pg_class parent on parent.oid = pg_inherits.inhparent "
+                    + "join pg_class child on child.oid = pg_inherits.inhrelid where parent.relname = ?;")) {
+                ps.setString(1, tableName);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        java.util.regex.Matcher bound = PARTITION_END.matcher(rs.getString(2));
+                        if (bound.find()) {
+                            partitionEnds.put(rs.getString(1), Timestamp.valueOf(bound.group(1)));
+                        }
+                    }
+                }
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                for (Map.Entry<String, Timestamp> partition : partitionEnds.entrySet()) {
+                    if (!partition.getValue().after(date)) {
+                        fdfLog.info("detaching partition {} from {}", partition.getKey(), tableName);
+                        stmt.executeUpdate("ALTER TABLE \"" + tableName + "\" DETACH PARTITION \""
+                                + partition.getKey() + "\";");
+                        detached.add(partition.getKey());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            fdfLog.error("Unable to detach the partitions of {}: {}", tableName, e.getMessage());
+        } finally {
+            try {
+                if (conn != null) {
+                    PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                }
+            }
+            catch (SQLException e) {
+                fdfLog.error("Unable to close the connection: {}", e.getMessage());
+            }
+        }
+        return detached;
+    }
+
+    /**
+     * Builds the create statement of a table partitioned by arsd.  The primary key of a partitioned table has to
+     * include the partition key, so rid is unique together with arsd.
+     */
+    private String getPartitionedTableSql(String table, List<FieldMapping> fields, boolean generateRid) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (");
+        for (FieldMapping field : fields) {
+            if (field.getName().equals("rid")) {
+                sql.append(" rid ").append(generateRid ? "BIGSERIAL" : "BIGINT").append(",");
+            } else {
+                sql.append(" ").append(getFieldNameAndDataType(field)).append(",");
+            }
+        }
+        sql.append(" PRIMARY KEY (rid, arsd) ) PARTITION BY RANGE (arsd);");
+        return sql.toString();
+    }
+
+    /**
+     * Unquoted name of the partitioned table of the class: its history table if it is split, its table otherwise.
+     */
+    private static String getPartitionedTableName(Class<?> c) {
+        return c.getSimpleName().toLowerCase() + (ClassMapping.forClass(c).isSplitHistory() ? "_history" : "");
+    }
+
+    public void checkIndexes() throws SQLException {
+        // get the 4df data model
+        List<Class> classList = FdfSettings.getInstance().modelClasses;
+
+        // create the missing indexes of the model tables
+        for(Class<?> c: classList) {
+            ClassMapping<?> mapping = ClassMapping.forClass(c);
+
+            // check to see if the class has an @fdfIgonre
+            if(!mapping.isIgnored() && mapping.getIndexes().size() > 0) {
+
+                Connection conn = null;
+                Statement stmt = null;
+
+                try {
+                    conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                    stmt = conn.createStatement();
+
+                    for (IndexMapping index : mapping.getIndexes()) {
+                        checkIndex(stmt, c, index, false);
+
+                        // the history table holds no current states
+                        if (mapping.isSplitHistory() && !index.isCurrentOnly()) {
+                            checkIndex(stmt, c, index, true);
+                        }
+                    }
+                } catch (SQLException sqlException) {
+
+                    // some other error
+                    fdfLog.warn("Error occurred checking or creating an index:::");
+                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                            sqlException.getMessage());
+
+                } catch (Exception ex) {
+                    fdfLog.error("Unable to check the indexes of {}: {}", c.getSimpleName(), ex.getMessage());
+                } finally {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                    if(conn != null) {
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkIndex(Statement stmt, Class<?> c, IndexMapping index, boolean history) throws SQLException {
+        String tableName = c.getSimpleName().toLowerCase() + (history ? "_history" : "");
+        String indexName = history ? index.getHistoryName() : index.getName();
+
+        // check to see if the index already exists
+        String indexTest = "select * from pg_indexes where tablename = '" + tableName + "' and indexname = '"
+                + indexName + "';";
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(indexTest)) {
+            exists = rs.next();
+        }
+
+        if (!exists) {
+            String indexSql = "CREATE INDEX " + "\"" + indexName + "\"" + " ON "
+                    + (history ? getHistoryTable(c) : getTable(c)) + " (" + index.getColumnList() + ")"
+                    // current state lookups only ever need the current rows
+                    + (index.isCurrentOnly() ? " WHERE cf = true" : "") + ";";
+
+            fdfLog.info("creating index: {} on table: {}", indexName, tableName);
+            fdfLog.debug("Index sql {} : {}", tableName, indexSql);
+
+            stmt.executeUpdate(indexSql);
+        }
     }
 
     public void checkDefaultEntries() throws SQLException {
@@ -355,519 +864,463 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
     }
 
     public <S> void update(Class<S> c, S state) {
+        // states of a split class may move to the history table, which takes a transaction
+        if(ClassMapping.forClass(c).isSplitHistory()) {
+            updateBatch(c, Collections.singletonList(state));
+            return;
+        }
+
 
         // check to see if the class has an @fdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
 
-            // determine the number of fields
-            int numberOfFields = 0;
-            for (Field field : c.getFields()) {
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
 
-                // check to see if the class has an @fdfIgonre
-                if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                    numberOfFields++;
-                }
-            }
+            try {
+                conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
 
-            // Start the sql statement
-            String sql = "update " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " set";
+                mapping.bindUpdate(preparedStmt, state);
 
-            int fieldCounter = 0;
+                fdfLog.debug("update sql : {}", preparedStmt);
 
-            for (Field field : c.getFields()) {
-
-                // check to see if the class has an @fdfIgonre
-                if(!field.isAnnotationPresent(FdfIgnore.class)) {
+                preparedStmt.execute();
 
-                    fieldCounter++;
-                    if (!field.getName().equals("rid")) {
-                        sql += " " + field.getName() + " = ?";
-                        if (numberOfFields > fieldCounter) sql += ",";
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update {}: {}", c.getSimpleName(), e.getMessage());
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                try {
+                    if (conn != null) {
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
                     }
                 }
+                catch (SQLException e) {
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                }
             }
+        }
 
+    }
+
+    /**
+     * Updates all passed states (matched by rid) using JDBC batches of FdfSettings.BATCH_SIZE statements, all
+     * batches are executed in a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to update
+     * @param <S> Type of the entity states
+     */
+    public <S> void updateBatch(Class<S> c, List<S> states) {
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
+
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
             Connection conn = null;
             PreparedStatement preparedStmt = null;
-            ResultSet rs = null;
+            boolean autoCommit = true;
 
             try {
+                conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                preparedStmt = conn.prepareStatement(getUpdateSql(c));
+
+                int batched = 0;
+                for (S state : states) {
+                    mapping.bindUpdate(preparedStmt, state);
+                    preparedStmt.addBatch();
+                    batched++;
+
+                    if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+                    }
+                }
 
-                sql += " where rid = " + c.getField("rid").get(state) + " ;";
+                // rows already in the history table are updated there, the states just closed are moved to it
+                if (mapping.isSplitHistory()) {
+                    HistoryTables.updateAndMove(conn, mapping, getUpdateSql(c, getHistoryTable(c)), getTable(c),
+                            getHistoryTable(c), states);
+                }
 
-                conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
-                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                fdfLog.debug("update batch of {} : {}", batched, c.getSimpleName());
 
-                int fieldCounter3 = 1;
-                for (Field field : c.getFields()) {
+                conn.commit();
 
-                    // check to see if the class has an @fdfIgonre
-                    if(!field.isAnnotationPresent(FdfIgnore.class)) {
+            } catch (SQLException e) {
+                fdfLog.error("Unable to update the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                try {
+                    if (conn != null) {
+                        conn.setAutoCommit(autoCommit);
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+                catch (SQLException e) {
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                }
+            }
+        }
 
-                        try {
-                            if (field.getType() == String.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                if (!field.getName().equals("rid") && field.get(state) != null) {
-                                    if (field.get(state) != null) {
-                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.INTEGER);
-                                    }
-                                }
-                            } else if (field.getType() == Long.class || field.getType() == long.class) {
-                                if (!field.getName().equals("rid")) {
-                                    if (field.get(state) != null) {
-                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                                    }
-                                }
-                            } else if (field.getType() == Double.class || field.getType() == double.class) {
-                                if (!field.getName().equals("rid")) {
-                                    if (field.get(state) != null) {
-                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.DOUBLE);
-                                    }
-                                }
-                            } else if (field.getType() == Float.class || field.getType() == float.class) {
-                                if (!field.getName().equals("rid")) {
-                                    if (field.get(state) != null) {
-                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.FLOAT);
-                                    }
-                                }
-                            }
-                            else if (field.getType() == BigDecimal.class) {
-                                if (!field.getName().equals("rid")) {
-                                    if (field.get(state) != null) {
-                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.NUMERIC);
-                                    }
-                                }
-                            }
-                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);
-                                }
+    }
 
-                            } else if (field.getType() == char.class || field.getType() == Character.class) {
-                                if (field.get(state) != null && field.get(state).toString() != null
-                                        && field.get(state).toString().substring(0, 1) != null) {
-                                    Character convert = field.get(state).toString().charAt(0);
+    public <S> Long insert(Class<S> c, S state) {
+        // closed states of a split class are inserted and moved to the history table in one transaction
+        if(HistoryTables.isClosed(ClassMapping.forClass(c), state)) {
+            return insertBatch(c, Collections.singletonList(state)).get(0);
+        }
 
-                                    // check to see if the character is a null character -- screw you postgres this better work
-                                    if (Character.isLetterOrDigit(field.get(state).toString().charAt(0))) {
-                                        preparedStmt.setString(fieldCounter3, convert.toString());
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                                }
-                            } else if (field.getType() == Date.class) {
-                                if (field.get(state) != null) {
-                                    Date insertDate = (Date) field.get(state);
-                                    if (insertDate == null) {
-                                        preparedStmt.setTimestamp(fieldCounter3, null);
-                                    } else {
-                                        preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.TIMESTAMP);
-                                }
-                            } else if (field.getType() == UUID.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            }
-                            else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (Class.class.isAssignableFrom(field.getType())) {
-                                if (field.get(state) != null) {
-                                    String className = field.get(state).toString();
-                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {
-                                ParameterizedType pt = (ParameterizedType) field.getGenericType();
-                                if (pt.getActualTypeArguments().length == 1
-                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")
-                                        || pt.getActualTypeArguments()[0].toString().contains("long")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")
-                                        || pt.getActualTypeArguments()[0].toString().contains("int")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Double")
-                                        || pt.getActualTypeArguments()[0].toString().contains("double")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Float")
-                                        || pt.getActualTypeArguments()[0].toString().contains("float")
-                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")
-                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {
-
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-
-                                } else {
-                                    // try to serialize the object
-                                    if (field.get(state) != null) {
-
-                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                        ObjectOutputStream oos = null;
-                                        try {
-                                            oos = new ObjectOutputStream(baos);
-                                            oos.writeObject(field.get(state));
-                                            oos.close();
-
-                                            preparedStmt.setString(fieldCounter3,
-                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));
-
-                                        } catch (IOException e) {
-                                            e.printStackTrace();
-                                        }
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);
-                                    }
-                                }
+        return insert(c, state, false);
+    }
 
-                            } else {
-                                // try to serialize the object
-                                if (field.get(state) != null) {
+    /**
+     * Inserts the state as the new current state of its entity.  The previous current state (if any) is closed in
+     * the same statement using a data-modifying CTE.  Saves of the same entity take a transaction lock first so they
+     * run one after the other, and any current state a concurrent saveAll committed in the meantime is closed after
+     * the insert, so the entity is left with one current state.  For classes annotated with @FdfSplitHistory the
+     * closed state is then moved to the history table in the same transaction.
+     *
+     * @param c Class of the entity state
+     * @param state state to insert, arsd must already be set and is used as the ared of the closed state
+     * @param <S> Type extending CommonState to insert
+     * @return rid of the inserted state
+     */
+    public <S extends CommonState> Long insertCurrent(Class<S> c, S state) {
+        return insert(c, state, true);
+    }
+
+    /**
+     * Inserts all passed states using JDBC batches of FdfSettings.BATCH_SIZE statements, all batches are executed in
+     * a single transaction.
+     *
+     * @param c Class of the entity states
+     * @param states states to insert
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the batch failed
+     */
+    public <S> List<Long> insertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, false);
+    }
 
-                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                    ObjectOutputStream oos = null;
-                                    try {
-                                        oos = new ObjectOutputStream(baos);
-                                        oos.writeObject(field.get(state));
-                                        oos.close();
+    /**
+     * Saves all passed states as the new current states of their entities in a single transaction: the current state
+     * of each entity is closed at the arsd of its new state, the new states are inserted in JDBC batches of
+     * FdfSettings.BATCH_SIZE statements and, for classes annotated with @FdfSplitHistory, the closed states are moved
+     * to the history table.  Nothing is written if any step fails.
+     *
+     * @param c Class of the entity states
+     * @param states states to save, at most one per entity, with id, tid and arsd set
+     * @param <S> Type of the entity states
+     * @return generated rids in the same order as the passed states, -1 for every state if the save failed
+     */
+    public <S extends CommonState> List<Long> closeAndInsertBatch(Class<S> c, List<S> states) {
+        return insertBatch(c, states, true);
+    }
 
-                                        preparedStmt.setString(fieldCounter3,
-                                                Base64.getEncoder().encodeToString(baos.toByteArray()));
+    @SuppressWarnings("unchecked") // closeCurrent is only passed for states extending CommonState
+    private <S> List<Long> insertBatch(Class<S> c, List<S> states, boolean closeCurrent) {
 
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);
-                                }
-                            }
+        List<Long> newIds = new ArrayList<>();
 
-                            if (!field.getName().equals("rid")) fieldCounter3++;
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && states != null && !states.isEmpty()) {
 
-                        } catch (IllegalAccessException e) {
-                            e.printStackTrace();
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            Connection conn = null;
+            PreparedStatement preparedStmt = null;
+            ResultSet rs = null;
+            boolean autoCommit = true;
+
+            try {
+                conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+
+                // close the current states of the entities before their new states are written
+                if (closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, null);
+                }
+
+                preparedStmt = conn.prepareStatement(getInsertSql(c), Statement.RETURN_GENERATED_KEYS);
+
+                int batched = 0;
+                for (S state : states) {
+                    mapping.bindInsert(preparedStmt, state, 1);
+                    preparedStmt.addBatch();
+                    batched++;
+
+                    if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                        preparedStmt.executeBatch();
+
+                        // collect the generated rids for this batch
+                        rs = preparedStmt.getGeneratedKeys();
+                        while (rs.next()) {
+                            newIds.add(rs.getLong("rid"));
                         }
+                        rs.close();
+                        rs = null;
                     }
                 }
 
-                fdfLog.debug("update sql : {}", preparedStmt);
+                // and close any current state a concurrent save committed in the meantime
+                if (closeCurrent) {
+                    CurrentStates.close(conn, getTable(c), (List<CommonState>) states, newIds);
+                }
 
-                preparedStmt.execute();
+                // closed states belong in the history table
+                if (mapping.isSplitHistory()) {
+                    if (closeCurrent) {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "id = ? AND tid = ?",
+                                HistoryTables.entityKeys((List<CommonState>) states));
+                    }
+                    else {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "rid = ?",
+                                HistoryTables.closedRids(states, newIds));
+                    }
+                }
 
+                fdfLog.debug("insert batch of {} : {}", batched, c.getSimpleName());
+
+                conn.commit();
 
             } catch (SQLException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (NoSuchFieldException e) {
-                e.printStackTrace();
+                fdfLog.error("Unable to insert the batch of {}: {}", c.getSimpleName(), e.getMessage());
+                newIds.clear();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
             } finally {
                 if (rs != null) {
                     try {
                         rs.close();
                     } catch (SQLException e) {
-                        e.printStackTrace();
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
                     }
                 }
                 if (preparedStmt != null) {
                     try {
                         preparedStmt.close();
                     } catch (SQLException e) {
-                        e.printStackTrace();
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
                     }
                 }
                 try {
                     if (conn != null) {
+                        conn.setAutoCommit(autoCommit);
                         PostgreSqlConnection.getInstance().close4dfDbSession(conn);
                     }
                 }
                 catch (SQLException e) {
-                    e.printStackTrace();
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
                 }
             }
         }
 
+        // report a failed rid for any state that was not written
+        while (states != null && newIds.size() < states.size()) {
+            newIds.add(-1L);
+        }
+
+        return newIds;
+
     }
 
-    public <S> Long insert(Class<S> c, S state) {
+    private <S> Long insert(Class<S> c, S state, boolean closeCurrent) {
 
         // spot to hold returned id for new record
         long newId = -1L;
 
-        // determine the number of fields
-        int numberOfFields = 0;
-        for (Field field : c.getFields()) {
-
-            // check to see if the class has an @fdfIgonre
-            if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                numberOfFields++;
-            }
-        }
-
         // check to see if the class has an @fdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
 
             // Start the sql statement
-            String sql = "insert into " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " (";
-
-            int fieldCounter = 0;
-            for (Field field : c.getFields()) {
-
-                // check to see if the class has an @fdfIgonre
-                if(!field.isAnnotationPresent(FdfIgnore.class)) {
-
-                    fieldCounter++;
-                    if (!field.getName().equals("rid")) {
-                        sql += " " + field.getName();
-                        if (numberOfFields > fieldCounter) sql += ",";
-                    }
-                }
+            String sql = "";
+            if(closeCurrent) {
+                sql += "with closed as (update " + "\"" + c.getSimpleName().toLowerCase() + "\""
+                        + " set cf = false, ared = ? where id = ? and tid = ? and cf = true) ";
             }
+            // the driver only asks for generated keys on plain inserts, so the rid is returned explicitly
+            sql += getInsertSql(c).replaceFirst(";$", " returning rid;");
 
-            sql += " ) values (";
-
-            //insert the correct number of question marks for the prepared statement
-            int fieldCounter2 = 0;
-            for (Field field : c.getFields()) {
-
-                // check to see if the class has an @fdfIgonre
-                if(!field.isAnnotationPresent(FdfIgnore.class)) {
-
-                    fieldCounter2++;
-                    if (!field.getName().equals("rid")) {
-                        sql += " ?";
-                        if (numberOfFields > fieldCounter2) sql += ",";
-                    }
-                }
-            }
-            sql += ");";
-
+            ClassMapping<S> mapping = ClassMapping.forClass(c);
+            // a split class moves the state it closed to the history table in the same transaction
+            boolean moveClosed = closeCurrent && mapping.isSplitHistory();
             Connection conn = null;
             PreparedStatement preparedStmt = null;
             ResultSet rs = null;
+            boolean autoCommit = true;
 
             try {
                 conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
-                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                if(closeCurrent) {
+                    autoCommit = conn.getAutoCommit();
+                    conn.setAutoCommit(false);
+                    lockEntity(conn, c, ((CommonState) state).id);
+                }
+                preparedStmt = conn.prepareStatement(sql);
 
                 int fieldCounter3 = 1;
-                for (Field field : c.getFields()) {
+                if(closeCurrent) {
+                    CommonState currentState = (CommonState) state;
+                    preparedStmt.setTimestamp(fieldCounter3++, new Timestamp(currentState.arsd.getTime()));
+                    preparedStmt.setLong(fieldCounter3++, currentState.id);
+                    preparedStmt.setLong(fieldCounter3++, currentState.tid);
+                }
+                mapping.bindInsert(preparedStmt, state, fieldCounter3);
 
-                    // check to see if the class has an @fdfIgonre
-                    if(!field.isAnnotationPresent(FdfIgnore.class)) {
+                fdfLog.debug("insert sql : {}", preparedStmt);
 
-                        try {
-                            if (field.getType() == String.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                if (field.get(state) != null) {
-                                    if (!field.getName().equals("rid")) {
-                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.INTEGER);
-                                }
-                            } else if (field.getType() == Long.class || field.getType() == long.class) {
-                                if (field.get(state) != null) {
-                                    if (!field.getName().equals("rid")) {
-                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                                }
-                            } else if (field.getType() == Double.class || field.getType() == double.class) {
-                                if (field.get(state) != null) {
-                                    if (!field.getName().equals("rid")) {
-                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                                }
-                            } else if (field.getType() == Float.class || field.getType() == float.class) {
-                                if (field.get(state) != null) {
-                                    if (!field.getName().equals("rid")) {
-                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BIGINT);
-                                }
-                            }
-                            else if (field.getType() == BigDecimal.class) {
-                                if (field.get(state) != null) {
-                                    if (!field.getName().equals("rid")) {
-                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.NUMERIC);
-                                }
-                            }
-                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.TINYINT);
-                                }
+                rs = preparedStmt.executeQuery();
+                rs.next();
+                newId = rs.getLong("rid");
 
-                            } else if (field.getType() == char.class || field.getType() == Character.class) {
-                                if (field.get(state) != null && field.get(state).toString() != null
-                                        && field.get(state).toString().substring(0, 1) != null) {
+                if(closeCurrent) {
+                    // close any current state a concurrent save committed in the meantime, as closeAndInsertBatch does
+                    CommonState currentState = (CommonState) state;
+                    CurrentStates.close(conn, getTable(c), Collections.singletonList(currentState),
+                            Collections.singletonList(newId));
 
-                                    Character convert = field.get(state).toString().charAt(0);
+                    if(moveClosed) {
+                        HistoryTables.moveClosed(conn, mapping, getTable(c), getHistoryTable(c), "id = ? AND tid = ?",
+                                Collections.singletonList(new Object[] {currentState.id, currentState.tid}));
+                    }
+                    conn.commit();
+                }
 
-                                    // check to see if the character is a null character -- screw you postgres this better work
-                                    if (Character.isLetterOrDigit(field.get(state).toString().charAt(0))) {
-                                        preparedStmt.setString(fieldCounter3, convert.toString());
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);
-                                }
-                            } else if (field.getType() == Date.class) {
-                                Date insertDate = (Date) field.get(state);
-                                if (insertDate == null) {
-                                    preparedStmt.setTimestamp(fieldCounter3, null);
-                                } else {
-                                    preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));
-                                }
+            } catch (SQLException e) {
+                fdfLog.error("Unable to insert {}: {}", c.getSimpleName(), e.getMessage());
+                if (closeCurrent && conn != null) {
+                    newId = -1L;
+                    try {
+                        conn.rollback();
+                    } catch (SQLException e1) {
+                        fdfLog.error("Unable to roll back: {}", e1.getMessage());
+                    }
+                }
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
+                    }
+                }
+                try {
+                    if (conn != null) {
+                        if(closeCurrent) {
+                            conn.setAutoCommit(autoCommit);
+                        }
+                        PostgreSqlConnection.getInstance().close4dfDbSession(conn);
+                    }
+                }
+                catch (SQLException e) {
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
+                }
+            }
+        }
 
-                            } else if (field.getType() == UUID.class) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {
-                                if (field.get(state) != null) {
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (Class.class.isAssignableFrom(field.getType())) {
-                                if (field.get(state) != null) {
-                                    String className = field.get(state).toString();
-                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);
-                                }
-                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {
-                                ParameterizedType pt = (ParameterizedType) field.getGenericType();
-                                if (pt.getActualTypeArguments().length == 1
-                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")
-                                        || pt.getActualTypeArguments()[0].toString().contains("long")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")
-                                        || pt.getActualTypeArguments()[0].toString().contains("int")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Double")
-                                        || pt.getActualTypeArguments()[0].toString().contains("double")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Float")
-                                        || pt.getActualTypeArguments()[0].toString().contains("float")
-                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")
-                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")
-                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {
-
-                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());
-
-                                } else {
-                                    // try to serialize the object
-                                    if (field.get(state) != null) {
-
-                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                        ObjectOutputStream oos = null;
-                                        try {
-                                            oos = new ObjectOutputStream(baos);
-                                            oos.writeObject(field.get(state));
-                                            oos.close();
-
-                                            preparedStmt.setString(fieldCounter3,
-                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));
-
-                                        } catch (IOException e) {
-                                            e.printStackTrace();
-                                        }
-                                    } else {
-                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);
-                                    }
-                                }
-                            } else {
-                                // try to serialize the object
-                                if (field.get(state) != null) {
+        return newId;
 
-                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                    ObjectOutputStream oos = null;
-                                    try {
-                                        oos = new ObjectOutputStream(baos);
-                                        oos.writeObject(field.get(state));
-                                        oos.close();
+    }
 
-                                        preparedStmt.setString(fieldCounter3,
-                                                Base64.getEncoder().encodeToString(baos.toByteArray()));
+    /**
+     * Waits for the other saves of the entity to finish, until the transaction ends.  The statements that follow see
+     * the current state the last save committed, and concurrent saves do not deadlock on each others row locks.
+     */
+    private static void lockEntity(Connection conn, Class<?> c, long id) throws SQLException {
+        try (PreparedStatement lock = conn.prepareStatement("SELECT pg_advisory_xact_lock(?, ?);")) {
+            lock.setInt(1, getTable(c).hashCode());
+            lock.setInt(2, Long.hashCode(id));
+            lock.execute();
+        }
+    }
 
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                } else {
-                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);
-                                }
-                            }
+    /**
+     * Takes count new entity ids from the id sequence of the class, a database sequence named after the table.  The
+     * sequence is checked the first time ids are taken for a class: created if it does not exist and moved past the
+     * highest id in the table if it is behind (ids saved by MaxIdAllocator).
+     *
+     * @param c Class of the entity
+     * @param count number of ids to take
+     * @return the new ids, empty if they could not be taken
+     */
+    public List<Long> nextEntityIds(Class<? extends CommonState> c, int count) {
+        List<Long> ids = new ArrayList<>();
 
-                            if (!field.getName().equals("rid")) fieldCounter3++;
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && count > 0) {
+            Connection conn = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
 
-                        } catch (IllegalAccessException e) {
-                            e.printStackTrace();
+            try {
+                conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+                if(!checkedIdSequences.contains(c)) {
+                    synchronized (idSequenceLocks.computeIfAbsent(c, k -> new Object())) {
+                        if(!checkedIdSequences.contains(c)) {
+                            checkIdSequence(conn, c);
+                            checkedIdSequences.add(c);
                         }
                     }
                 }
 
-                fdfLog.debug("insert sql : {}", preparedStmt);
-
-                preparedStmt.execute();
-                rs = preparedStmt.getGeneratedKeys();
-                rs.next();
-                newId = rs.getLong("rid");
-
+                ps = conn.prepareStatement("SELECT nextval('\"" + getIdSequenceName(c)
+                        + "\"') FROM generate_series(1, ?);");
+                ps.setInt(1, count);
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
             } catch (SQLException e) {
-                e.printStackTrace();
+                fdfLog.error("Unable to take entity ids for {}: {}", c.getSimpleName(), e.getMessage());
+                ids.clear();
             } finally {
                 if (rs != null) {
                     try {
                         rs.close();
                     } catch (SQLException e) {
-                        e.printStackTrace();
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
                     }
                 }
-                if (preparedStmt != null) {
+                if (ps != null) {
                     try {
-                        preparedStmt.close();
+                        ps.close();
                     } catch (SQLException e) {
-                        e.printStackTrace();
+                        fdfLog.error("Unable to close the statement: {}", e.getMessage());
                     }
                 }
                 try {
@@ -876,13 +1329,91 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                     }
                 }
                 catch (SQLException e) {
-                    e.printStackTrace();
+                    fdfLog.error("Unable to close the connection: {}", e.getMessage());
                 }
             }
         }
+        return ids;
+    }
 
-        return newId;
+    private void checkIdSequence(Connection conn, Class<?> c) throws SQLException {
+        String table = "\"" + c.getSimpleName().toLowerCase() + "\"";
+        String sequence = "\"" + getIdSequenceName(c) + "\"";
+
+        try (PreparedStatement exists = conn.prepareStatement(
+                "SELECT 1 FROM pg_class WHERE relkind = 'S' AND relname = ?;")) {
+            exists.setString(1, getIdSequenceName(c));
+            try (ResultSet rs = exists.executeQuery()) {
+                if (!rs.next()) {
+                    fdfLog.info("creating id sequence for {}", c.getSimpleName());
+                    try (Statement create = conn.createStatement()) {
+                        create.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence + ";");
+                    }
+                }
+            }
+        }
+
+        // move the sequence past the highest id in the table if it is behind
+        try (Statement sync = conn.createStatement()) {
+            sync.execute("SELECT setval('" + sequence + "', d.m + 1, false) FROM (SELECT COALESCE(MAX(id), 0) AS m FROM "
+                    + table + ") d, " + sequence + " s WHERE d.m >= CASE WHEN s.is_called THEN s.last_value + 1 "
+                    + "ELSE s.last_value END;");
+        }
+    }
 
+    private static String getIdSequenceName(Class<?> c) {
+        return c.getSimpleName().toLowerCase() + "_id_seq";
+    }
+
+    /**
+     * Table holding the states of the class, only its current states if the class is annotated with @FdfSplitHistory.
+     */
+    private static String getTable(Class<?> c) {
+        return "\"" + c.getSimpleName().toLowerCase() + "\"";
+    }
+
+    /**
+     * Table holding the closed states of a class annotated with @FdfSplitHistory.
+     */
+    private static String getHistoryTable(Class<?> c) {
+        return "\"" + c.getSimpleName().toLowerCase() + "_history\"";
+    }
+
+    /**
+     * Builds the prepared update statement for the passed class, all fields are set and the row is matched by rid.
+     */
+    private String getUpdateSql(Class<?> c) {
+        return getUpdateSql(c, getTable(c));
+    }
+
+    private String getUpdateSql(Class<?> c, String table) {
+
+        // Start the sql statement
+        StringBuilder sql = new StringBuilder("update ").append(table).append(" set");
+        for (FieldMapping field : ClassMapping.forClass(c).getInsertFields()) {
+            sql.append(" ").append(field.getName()).append(" = ?,");
+        }
+        sql.deleteCharAt(sql.length() - 1).append(" where rid = ? ;");
+
+        return sql.toString();
+    }
+
+    /**
+     * Builds the prepared insert statement for the passed class, rid is left to the database.
+     */
+    private String getInsertSql(Class<?> c) {
+
+        // Start the sql statement
+        StringBuilder sql = new StringBuilder("insert into ").append("\"" + c.getSimpleName().toLowerCase() + "\"").append(" ("),
+                val = new StringBuilder();
+        for (FieldMapping field : ClassMapping.forClass(c).getInsertFields()) {
+            sql.append(" ").append(field.getName()).append(",");
+            val.append(" ?,");
+        }
+        sql.deleteCharAt(sql.length() - 1).append(" ) values (").append(val.deleteCharAt(val.length() - 1))
+                .append(");");
+
+        return sql.toString();
     }
 
 
@@ -911,18 +1442,11 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
 
         // check to see if the class has an @fdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
-
-            // if no order by was passed use id
-            if(sqlStatement.getOrderBy().length() == 0) {
-                sqlStatement.orderBy("id");
-            }
-            // start the sql statement
-            String sql = sqlStatement.getSelect() + " FROM \"" + c.getSimpleName().toLowerCase() + "\""
-                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
-                    + sqlStatement.getLimit() + ";";
+            String sql = getSelectSql(c, sqlStatement);
 
             fdfLog.debug("select sql: {}", sql);
 
+            ClassMapping<?> mapping = ClassMapping.forClass((Class<?>) c);
             Connection conn = null;
             PreparedStatement ps = null;
             ResultSet rs = null;
@@ -930,433 +1454,18 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
             try {
                 conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
                 ps = conn.prepareStatement(sql);
+                sqlStatement.bindParameters(ps, 1);
 
                 if (ps != null) {
+                    long start = System.nanoTime();
                     rs = ps.executeQuery();
+                    long executed = System.nanoTime();
+                    RowPlan<?> plan = mapping.planFor(rs.getMetaData());
                     while (rs.next()) {
-
-                        // build a new object of type passed
-                        Object thisObject = c.newInstance();
-
-                        for (Field field : c.getFields()) {
-
-                            // check the datatype of the field to apply the correct method to
-                            // retrieve the data on the resultset
-
-                            // check to see if the class has an @fdfIgonre
-                            if(!field.isAnnotationPresent(FdfIgnore.class)) {
-                                try {
-
-                                    if (field.getType() == String.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getString(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getInt(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == long.class || field.getType() == Long.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getLong(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                                + "{}, This is usually because select statement did not include column and "
-                                                                + "can be ignored. Message is {}", field.getName(),
-                                                        e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == double.class || field.getType() == Double.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getDouble(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == float.class || field.getType() == Float.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getFloat(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getInt(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == BigDecimal.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBigDecimal(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == char.class || field.getType() == Character.class) {
-                                        try {
-                                            field.setAccessible(true);
-                                            if (field.getName() != null && rs.getString(field.getName()) != null && rs.getString(field.getName()).length() > 0) {
-                                                field.set(thisObject, rs.getString(field.getName()).charAt(0));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == Date.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getTimestamp(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        } catch (NullPointerException npe) {
-                                            // Nullpointer in timestap
-                                            fdfLog.debug("NullPointer on timestamp column {}, This is usually because select"
-                                                    + "statement did not include column", field.getName(), npe.getMessage());
-                                        }
-                                    } else if (field.getType() == UUID.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, UUID.fromString(rs.getString(field.getName())));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == boolean.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBoolean(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() == Boolean.class) {
-                                        try {
-                                            if(field.getName() != null && rs.getString(field.getName()) != null) {
-                                                field.setAccessible(true);
-                                                field.set(thisObject, rs.getBoolean(field.getName()));
-                                            }
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        try {
-                                            field.setAccessible(true);
-                                            field.set(thisObject, Enum.valueOf((Class<Enum>) field.getType(),
-                                                    rs.getString(field.getName())));
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (Class.class.isAssignableFrom(field.getType())
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        try {
-                                            field.setAccessible(true);
-                                            field.set(thisObject,
-                                                    FdfUtil.getClassByFullyQualifiedName(
-                                                            rs.getString(field.getName())));
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    } else if (field.getGenericType() instanceof ParameterizedType
-                                            && field.getName() != null && rs.getString(field.getName()) != null) {
-                                        ParameterizedType pt = (ParameterizedType) field.getGenericType();
-
-                                        if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Long")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("long"))) {
-
-                                            List<Long> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Long.parseLong(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Integer")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("int"))) {
-
-                                            List<Integer> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Integer.parseInt(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Float")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("float"))) {
-
-                                            List<Float> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Float.parseFloat(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Double")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("double"))) {
-
-                                            List<Double> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        }
-                                        else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("BigDecimal"))) {
-
-                                            List<Double> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        }
-                                        else if (pt.getActualTypeArguments().length == 1 &&
-                                                (pt.getActualTypeArguments()[0].toString().contains("Boolean")
-                                                        || pt.getActualTypeArguments()[0].toString().contains("boolean"))) {
-
-                                            List<Boolean> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(Boolean.parseBoolean(str.replaceAll("\\s", "")));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else if (pt.getActualTypeArguments().length == 1 &&
-                                                pt.getActualTypeArguments()[0].toString().contains("String")) {
-
-                                            List<String> list = new ArrayList<>();
-
-                                            String[] strArr = rs.getString(field.getName()).substring(1,
-                                                    rs.getString(field.getName()).length() - 1).split(",");
-
-                                            for (String str : strArr) {
-                                                list.add(str.replaceAll("\\s", ""));
-                                            }
-
-                                            field.set(thisObject, list);
-                                        } else {
-                                            // serialized object, deserialize
-                                            try {
-                                                field.setAccessible(true);
-
-                                                byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));
-                                                ObjectInputStream ois = new ObjectInputStream(
-                                                        new ByteArrayInputStream(data));
-                                                Object o = ois.readObject();
-                                                ois.close();
-
-                                                field.set(thisObject, o);
-                                            } catch (SQLException e) {
-                                                if (e.getSQLState().equals("42703")) {
-                                                    // Invalid column name, thrown if select statement does not include column
-                                                    fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                            + "{}, This is usually because select statement did not include column and "
-                                                            + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                                } else {
-                                                    fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                            ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                                }
-                                            }
-                                        }
-                                    } else if (field.getName() != null && rs.getString(field.getName()) != null) {
-                                        // serialized object, deserialize
-                                        try {
-                                            field.setAccessible(true);
-
-                                            byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));
-                                            ObjectInputStream ois = new ObjectInputStream(
-                                                    new ByteArrayInputStream(data));
-                                            Object o = ois.readObject();
-                                            ois.close();
-
-                                            field.set(thisObject, o);
-                                        } catch (SQLException e) {
-                                            if (e.getSQLState().equals("42703")) {
-                                                // Invalid column name, thrown if select statement does not include column
-                                                fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                        + "{}, This is usually because select statement did not include column and "
-                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                            } else {
-                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                            }
-                                        }
-                                    }
-                                } catch (SQLException e) {
-                                    if (e.getSQLState().equals("42703")) {
-                                        // Invalid column name, thrown if select statement does not include column
-                                        fdfLog.debug("Select statement had sql state 42703 (Invalid column name) on column"
-                                                + "{}, This is usually because select statement did not include column and "
-                                                + "can be ignored. Message is {}", field.getName(), e.getMessage());
-                                    } else {
-                                        fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +
-                                                ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
-                                    }
-                                }
-                            }
-                        }
-                        S thisUserStateTest = (S) thisObject;
-                        everything.add(thisUserStateTest);
+                        everything.add((S) plan.read(rs));
                     }
+                    SlowQueryLog.getInstance().record(conn, sql, sqlStatement, c, everything.size(), executed - start,
+                            System.nanoTime() - executed, "EXPLAIN ");
                 }
 
             } catch (SQLException e) {
@@ -1391,79 +1500,105 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         return everything;
     }
 
-    static String getFieldNameAndDataType(Field field) {
-        String sql = "";
-
-        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());
-
-        if (field.getType() == String.class) {
-            sql += field.getName()+ " TEXT";
-        } else if (field.getType() == int.class || field.getType() == Integer.class) {
-            sql += field.getName()+ " INT";
-        } else if (field.getType() == Long.class || field.getType() == long.class) {
+    /**
+     * Streaming version of selectQuery, rows are read from an open cursor FdfSettings.FETCH_SIZE at a time and
+     * hydrated as the stream is consumed.  The connection stays open until the stream has been read to the end or
+     * closed, streams that may not be read to the end must be closed (try with resources).
+     *
+     * @param c Class of entity to select from
+     * @param sqlStatement Class that contains all the necessary fields to build the sql statement
+     * @param <S> Type extending CommonState to query and return
+     * @return stream of the data queried
+     */
+    @Override
+    public <S extends CommonState> Stream<S> streamQuery(Class<S> c, SqlStatement sqlStatement) {
+        // check to see if the class has an @fdfIgonre
+        if(c.isAnnotationPresent(FdfIgnore.class)) {
+            return Stream.empty();
+        }
 
-            if (field.getName().equals("rid")) {
-                sql += field.getName()+ " BIGSERIAL PRIMARY KEY";
-            }
-            else {
-                sql += field.getName()+ " BIGINT";
-            }
-        } else if (field.getType() == Double.class || field.getType() == double.class) {
-            sql += field.getName()+ " double precision";
-        } else if (field.getType() == Float.class || field.getType() == float.class) {
-            sql += field.getName()+ " real";
+        String sql = getSelectSql(c, sqlStatement);
+        fdfLog.debug("stream sql: {}", sql);
 
+        try {
+            // the driver only fetches through a cursor when autocommit is off
+            Connection conn = PostgreSqlConnection.getInstance().get4dfDbConnection();
+            return StreamingSelect.open(conn, PostgreSqlConnection.getInstance()::close4dfDbSession, sql, sqlStatement, c,
+                    FdfSettings.FETCH_SIZE, true);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to close the connection: {}", e.getMessage());
+            return Stream.empty();
         }
-        else if (field.getType() == BigDecimal.class) {
-            sql += field.getName() + " NUMERIC(10,4)";
-        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-            sql += field.getName()+ " BOOLEAN";
-        } else if (field.getType() == Date.class) {
-            sql += field.getName()+ " TIMESTAMP";
-            if (field.getName().equals("arsd")) {
-                sql += " DEFAULT CURRENT_TIMESTAMP";
-            } else {
-                sql += " NULL";
-            }
-        } else if (field.getType() == UUID.class) {
-            sql += field.getName() + " VARCHAR(132)";
-        } else if (field.getType() == Character.class || field.getType() == char.class) {
-            sql += field.getName()+ " CHAR";
-        } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {
-            sql += field.getName()+ " VARCHAR(200)";
-        } else if (Class.class.isAssignableFrom(field.getType())) {
-            sql += field.getName()+ " VARCHAR(200)";
+    }
+
+    private String getSelectSql(Class<?> c, SqlStatement sqlStatement) {
+        // if no order by was passed use id
+        if(sqlStatement.getOrderBy().length() == 0) {
+            sqlStatement.orderBy("id");
         }
-        else if (field.getGenericType() instanceof ParameterizedType) {
-            ParameterizedType pt = (ParameterizedType) field.getGenericType();
-            if(pt.getActualTypeArguments().length == 1
-                    && (pt.getActualTypeArguments()[0].toString().contains("Long")
-                    || pt.getActualTypeArguments()[0].toString().contains("long")
-                    || pt.getActualTypeArguments()[0].toString().contains("Integer")
-                    || pt.getActualTypeArguments()[0].toString().contains("int")
-                    || pt.getActualTypeArguments()[0].toString().contains("Double")
-                    || pt.getActualTypeArguments()[0].toString().contains("double")
-                    || pt.getActualTypeArguments()[0].toString().contains("Float")
-                    || pt.getActualTypeArguments()[0].toString().contains("float")
-                    || pt.getActualTypeArguments()[0].toString().contains("boolean")
-                    || pt.getActualTypeArguments()[0].toString().contains("Boolean")
-                    || pt.getActualTypeArguments()[0].toString().contains("String"))) {
-
-                sql += field.getName() + " TEXT";
-            }
-            else {
-                // unknown build text fields to serialize
-                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());
-                sql += field.getName()+ " bytea";
+        // start the sql statement
+        return sqlStatement.getSelect() + " FROM "
+                + HistoryTables.getFromSql(ClassMapping.forClass(c), sqlStatement, getTable(c), getHistoryTable(c))
+                + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
+                + sqlStatement.getLimit() + ";";
+    }
 
-            }
+    static String getFieldNameAndDataType(FieldMapping field) {
+        String sql = field.getName();
 
-        }
-        else {
-            // unknown build text fields to serialize
-            fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());
-            sql += field.getName()+ " bytea";
+        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());
 
+        switch (field.getType()) {
+            case STRING:
+                sql += " TEXT";
+                break;
+            case LIST:
+                sql += field.getArrayType() != null ? " " + field.getArrayType() + "[]" : " TEXT";
+                break;
+            case INTEGER:
+                sql += " INT";
+                break;
+            case LONG:
+            if (field.getName().equals("rid")) {
+                sql += " BIGSERIAL PRIMARY KEY";
+            } else {
+                sql += " BIGINT";
+            }
+                break;
+            case DOUBLE:
+                sql += " double precision";
+                break;
+            case FLOAT:
+                sql += " real";
+                break;
+            case BIG_DECIMAL:
+                sql += " NUMERIC(10,4)";
+                break;
+            case BOOLEAN:
+                sql += " BOOLEAN";
+                break;
+            case DATE:
+                sql += " TIMESTAMP";
+                if (field.getName().equals("arsd")) {
+                    sql += " DEFAULT CURRENT_TIMESTAMP";
+                } else {
+                    sql += " NULL";
+                }
+                break;
+            case UUID:
+                sql += " VARCHAR(132)";
+                break;
+            case CHARACTER:
+                sql += " CHAR";
+                break;
+            case ENUM:
+            case CLASS:
+                sql += " VARCHAR(200)";
+                break;
+            default:
+                // unknown, build a field to serialize the object to
+                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getJavaType());
+                sql += " bytea";
         }
 
         return sql;
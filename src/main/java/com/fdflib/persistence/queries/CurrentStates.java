@@ -0,0 +1,76 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.util.FdfSettings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * SQL shared by the persistence implementations to close the current state of entities as new states are saved.
+ *
+ * Table names are passed in already qualified and quoted the way the calling database needs them.
+ */
+final class CurrentStates {
+
+    private CurrentStates() {}
+
+    /**
+     * Closes the current (cf = true) state of the entity of each passed state, ending it at the arsd of the passed
+     * state.  Runs on the passed connection, the caller holds the transaction.
+     *
+     * Run before the states are inserted it closes their previous current states.  Run again after the insert, with
+     * the new rids to keep, it closes the current states a concurrent save of the same entities committed while this
+     * transaction waited for its row locks, so each entity is left with exactly one current state.
+     *
+     * @param conn connection to run on
+     * @param table class table
+     * @param states states being saved, with id, tid and arsd set
+     * @param keepRids rids of the inserted states, in the same order, null before the insert
+     * @throws SQLException if the states could not be closed
+     */
+    static void close(Connection conn, String table, List<? extends CommonState> states, List<Long> keepRids)
+            throws SQLException {
+        String sql = "UPDATE " + table + " SET cf = false, ared = ? WHERE id = ? AND tid = ? AND cf = true"
+                + (keepRids != null ? " AND rid <> ?" : "");
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int batched = 0;
+            for (int i = 0; i < states.size(); i++) {
+                CommonState state = states.get(i);
+                ps.setTimestamp(1, new Timestamp(state.arsd.getTime()));
+                ps.setLong(2, state.id);
+                ps.setLong(3, state.tid);
+                if (keepRids != null) {
+                    ps.setLong(4, keepRids.get(i));
+                }
+                ps.addBatch();
+                batched++;
+
+                if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                    ps.executeBatch();
+                }
+            }
+        }
+    }
+}
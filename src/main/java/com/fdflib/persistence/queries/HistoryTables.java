@@ -0,0 +1,240 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.FieldMapping;
+import com.fdflib.util.FdfSettings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * SQL shared by the persistence implementations for classes annotated with @FdfSplitHistory.  The current states of
+ * such a class are stored in its table and the closed states in a history table with the same columns, rids are
+ * generated by the class table and kept when a state is moved to the history table.
+ *
+ * Table names are passed in already qualified and quoted the way the calling database needs them.
+ */
+final class HistoryTables {
+
+    // column definition of rid in a history table, rids are copied from the class table rather than generated
+    static final String HISTORY_RID_COLUMN = "rid BIGINT PRIMARY KEY";
+
+    private HistoryTables() {}
+
+    /**
+     * Returns what a select has to read from: the class table if the class is not split or the where clause only
+     * matches current states, the history table if it only matches closed states and the union of both otherwise.
+     *
+     * @param mapping mapping of the class
+     * @param sqlStatement select to run
+     * @param table class table
+     * @param historyTable history table
+     * @return table or derived table to select from
+     */
+    static String getFromSql(ClassMapping<?> mapping, SqlStatement sqlStatement, String table, String historyTable) {
+        if(!mapping.isSplitHistory()) {
+            return table;
+        }
+        switch (sqlStatement.getStateScope()) {
+            case CURRENT:
+                return table;
+            case CLOSED:
+                return historyTable;
+            default:
+                String columns = getColumnList(mapping);
+                return "(SELECT " + columns + " FROM " + table + " UNION ALL SELECT " + columns + " FROM "
+                        + historyTable + ") states";
+        }
+    }
+
+    /**
+     * @param mapping mapping of the class
+     * @return comma separated names of all persisted columns, rid included
+     */
+    static String getColumnList(ClassMapping<?> mapping) {
+        return mapping.getFields().stream().map(FieldMapping::getName).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Moves the closed (cf = false) rows matched by the condition from the class table to the history table by
+     * copying and then deleting them.  Runs on the passed connection, the caller holds the transaction.
+     *
+     * @param conn connection to run on
+     * @param mapping mapping of the class
+     * @param table class table
+     * @param historyTable history table
+     * @param condition condition matching the rows to move, with ? for the values of each key
+     * @param keys values for the ? of the condition, one array per batch entry
+     * @throws SQLException if the rows could not be moved
+     */
+    static void moveClosed(Connection conn, ClassMapping<?> mapping, String table, String historyTable,
+                           String condition, List<Object[]> keys) throws SQLException {
+        if(keys.isEmpty()) {
+            return;
+        }
+        String where = " WHERE " + condition + " AND cf = false";
+        String columns = getColumnList(mapping);
+
+        try (PreparedStatement copy = conn.prepareStatement("INSERT INTO " + historyTable + " (" + columns
+                + ") SELECT " + columns + " FROM " + table + where);
+             PreparedStatement delete = conn.prepareStatement("DELETE FROM " + table + where)) {
+
+            int batched = 0;
+            for (Object[] key : keys) {
+                for (int i = 0; i < key.length; i++) {
+                    copy.setObject(i + 1, key[i]);
+                    delete.setObject(i + 1, key[i]);
+                }
+                copy.addBatch();
+                delete.addBatch();
+                batched++;
+
+                if (batched % FdfSettings.BATCH_SIZE == 0 || batched == keys.size()) {
+                    // the copies of a batch have to be written before its rows are deleted
+                    copy.executeBatch();
+                    delete.executeBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param mapping mapping of the class
+     * @param state state to check
+     * @return true if the class keeps closed states in a history table and the state is closed (cf = false)
+     */
+    static boolean isClosed(ClassMapping<?> mapping, Object state) {
+        return mapping.isSplitHistory() && state instanceof CommonState && !((CommonState) state).cf;
+    }
+
+    /**
+     * Returns the rids of the closed states, as keys for moveClosed with the condition "rid = ?".
+     *
+     * @param states states that were written
+     * @param rids rids of the states, in the same order
+     * @return one key per closed state
+     */
+    static List<Object[]> closedRids(List<?> states, List<Long> rids) {
+        List<Object[]> keys = new ArrayList<>();
+        for (int i = 0; i < states.size() && i < rids.size(); i++) {
+            if (states.get(i) instanceof CommonState && !((CommonState) states.get(i)).cf) {
+                keys.add(new Object[] {rids.get(i)});
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the id and tid of each state, as keys for moveClosed with the condition "id = ? AND tid = ?".
+     *
+     * @param states states that were written
+     * @return one key per state
+     */
+    static List<Object[]> entityKeys(List<? extends CommonState> states) {
+        List<Object[]> keys = new ArrayList<>();
+        for (CommonState state : states) {
+            keys.add(new Object[] {state.id, state.tid});
+        }
+        return keys;
+    }
+
+    /**
+     * Writes states to a split class whose rows may be in either table: states already in the history table are
+     * updated there, then the states that were just closed are moved out of the class table.  The class table must
+     * already have been updated on the same connection, the caller holds the transaction.
+     *
+     * @param conn connection to run on
+     * @param mapping mapping of the class
+     * @param historyUpdateSql update statement of the history table, matching the row by rid
+     * @param table class table
+     * @param historyTable history table
+     * @param states updated states
+     * @param <S> type of the states
+     * @throws SQLException if the states could not be written
+     */
+    static <S> void updateAndMove(Connection conn, ClassMapping<S> mapping, String historyUpdateSql, String table,
+                                  String historyTable, List<S> states) throws SQLException {
+        List<Object[]> closed = new ArrayList<>();
+        try (PreparedStatement update = conn.prepareStatement(historyUpdateSql)) {
+            int batched = 0;
+            for (S state : states) {
+                mapping.bindUpdate(update, state);
+                update.addBatch();
+                batched++;
+
+                if (batched % FdfSettings.BATCH_SIZE == 0 || batched == states.size()) {
+                    update.executeBatch();
+                }
+                if (isClosed(mapping, state)) {
+                    closed.add(new Object[] {((CommonState) state).rid});
+                }
+            }
+        }
+        moveClosed(conn, mapping, table, historyTable, "rid = ?", closed);
+    }
+
+    /**
+     * Creates the history table if it does not exist and adds the columns it is missing.
+     *
+     * @param conn connection to run on
+     * @param mapping mapping of the class
+     * @param historyTable history table
+     * @param columnSql column definition (name and data type) of a field in the database
+     * @throws SQLException if the table could not be checked
+     */
+    static void checkHistoryTable(Connection conn, ClassMapping<?> mapping, String historyTable,
+                                  Function<FieldMapping, String> columnSql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(historyTable).append(" (");
+            for (FieldMapping field : mapping.getFields()) {
+                sql.append(" ").append(field.getName().equals("rid") ? HISTORY_RID_COLUMN : columnSql.apply(field))
+                        .append(",");
+            }
+            sql.deleteCharAt(sql.length() - 1).append(" );");
+            stmt.executeUpdate(sql.toString());
+
+            // the columns the table has, read without fetching any row
+            Set<String> columns = new HashSet<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + historyTable + " WHERE 1 = 0")) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    columns.add(metaData.getColumnLabel(i).toLowerCase());
+                }
+            }
+
+            for (FieldMapping field : mapping.getFields()) {
+                if (!columns.contains(field.getName().toLowerCase())) {
+                    stmt.executeUpdate("ALTER TABLE " + historyTable + " ADD COLUMN " + columnSql.apply(field) + ";");
+                }
+            }
+        }
+    }
+}
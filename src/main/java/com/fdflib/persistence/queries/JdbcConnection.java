@@ -38,8 +38,9 @@ public class JdbcConnection {
      * connection pools.
      */
     public void shutdownDb() {
-        if (FdfSettings.USE_HIKARICP) {
+        if (FdfSettings.USE_HIKARICP && hds != null) {
             hds.close();
+            hds = null;
         }
     }
 
@@ -112,11 +113,9 @@ public class JdbcConnection {
         config.setConnectionTestQuery(FdfSettings.HIKARICP_CONNECTION_TEST_QUERY);
         config.setMaximumPoolSize(FdfSettings.HIKARICP_MAX_POOL_SIZE);
         config.setMinimumIdle(FdfSettings.HIKARICP_MIN_IDLE_MS);
-        /* TODO: Caused by: java.lang.ClassNotFoundException: com.codahale.metrics.MetricRegistry
-        if(FdfSettings.HIKARICP_METRIC_REG != null) {
-            config.setMetricRegistry(FdfSettings.HIKARICP_METRIC_REG);
+        if(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY != null) {
+            config.setMetricsTrackerFactory(FdfSettings.HIKARICP_METRICS_TRACKER_FACTORY);
         }
-        */
         /* TODO: Caused by: java.lang.ClassNotFoundException: com.codahale.metrics.MetricRegistry
         config.setHealthCheckRegistry(FdfSettings.HIKARICP_HEALTH_CHECK_REG);
         */
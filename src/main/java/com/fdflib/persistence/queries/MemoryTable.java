@@ -0,0 +1,935 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.codec.FieldCodecs;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.FieldMapping;
+import com.fdflib.persistence.mapping.FieldType;
+import com.fdflib.util.FdfSettings;
+import com.fdflib.util.FdfUtil;
+import com.fdflib.util.IntList;
+import com.fdflib.util.LongIntMap;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append only column store holding the states of one model class for CoreMemoryQueries.
+ *
+ * Rows are kept in rid order, the rid of a row is its position + 1, and are never removed: an update rewrites the
+ * columns of its row in place, which the 4DF services only do to close a state.  The common state fields are held in
+ * primitive columns (dates as epoch milliseconds), every other field in a column of its own.  Values are copied in and
+ * out and fields stored through a codec are kept encoded, so stored states share nothing with the states of callers.
+ *
+ * Three indexes are kept up to date as rows are written:
+ *  - a version chain per (tid, id), the rows of the entity in rid order
+ *  - the cf column, a bit set, so current states are found without reading the closed ones
+ *  - an interval index on (arsd, ared), the lowest arsd and highest ared (open counts as highest) of every block of
+ *    BLOCK_SIZE rows, blocks whose states all start after or all end before the time asked for are skipped
+ */
+class MemoryTable<S extends CommonState> {
+
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(MemoryTable.class);
+
+    private static final int BLOCK_SHIFT = 8;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    // stored for a null date, lower than any date so null arsds never narrow the interval index
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final Pattern AGGREGATE = Pattern.compile("(?i)(max|min|count)\\s*\\(\\s*(\\*|\\w+)\\s*\\)(?:\\s+(?:as\\s+)?(\\w+))?");
+    private static final Pattern COLUMN = Pattern.compile("(?i)(\\w+)(?:\\s+(?:as\\s+)?(\\w+))?");
+    private static final Pattern DISTINCT = Pattern.compile("(?i)distinct\\s+(.+)");
+
+    private final ClassMapping<S> mapping;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // common state columns
+    private int size = 0;
+    private long[] ids, tids, euids, esids, arsds, areds;
+    private final BitSet cfs = new BitSet(), dfs = new BitSet();
+
+    // the other persisted fields, values[field][row]
+    private final List<FieldMapping> valueFields = new ArrayList<>();
+    private Object[][] values;
+
+    // interval index, per block of rows
+    private long[] blockMinArsd = new long[0], blockMaxAred = new long[0];
+
+    // version chains, tid -> id -> position in chains
+    private final Map<Long, LongIntMap> chainIndex = new HashMap<>();
+    private final List<IntList> chains = new ArrayList<>();
+
+    private long maxId = 0, nextId = 1;
+
+    private final Map<String, Column> columns = new HashMap<>();
+
+    MemoryTable(ClassMapping<S> mapping) {
+        this.mapping = mapping;
+        ids = new long[BLOCK_SIZE];
+        tids = new long[BLOCK_SIZE];
+        euids = new long[BLOCK_SIZE];
+        esids = new long[BLOCK_SIZE];
+        arsds = new long[BLOCK_SIZE];
+        areds = new long[BLOCK_SIZE];
+
+        columns.put("rid", new LongColumn(mapping.getField("rid")) {
+            long getLong(int row) { return row + 1; }
+        });
+        columns.put("id", new LongColumn(mapping.getField("id")) {
+            long getLong(int row) { return ids[row]; }
+        });
+        columns.put("tid", new LongColumn(mapping.getField("tid")) {
+            long getLong(int row) { return tids[row]; }
+        });
+        columns.put("euid", new LongColumn(mapping.getField("euid")) {
+            long getLong(int row) { return euids[row]; }
+        });
+        columns.put("esid", new LongColumn(mapping.getField("esid")) {
+            long getLong(int row) { return esids[row]; }
+        });
+        columns.put("cf", new BitColumn(mapping.getField("cf"), cfs));
+        columns.put("df", new BitColumn(mapping.getField("df"), dfs));
+        columns.put("arsd", new DateColumn(mapping.getField("arsd")) {
+            long getMillis(int row) { return arsds[row]; }
+        });
+        columns.put("ared", new DateColumn(mapping.getField("ared")) {
+            long getMillis(int row) { return areds[row]; }
+        });
+
+        for (FieldMapping field : mapping.getFields()) {
+            if (!columns.containsKey(field.getName().toLowerCase())) {
+                columns.put(field.getName().toLowerCase(), new ValueColumn(field, valueFields.size()));
+                valueFields.add(field);
+            }
+        }
+        values = new Object[valueFields.size()][BLOCK_SIZE];
+    }
+
+    /**
+     * @return simple name of the model class
+     */
+    String getName() {
+        return mapping.getType().getSimpleName();
+    }
+
+    /**
+     * @return number of rows
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param name column name, case insensitive
+     * @return the column, null if the table has no such column
+     */
+    Column column(String name) {
+        return name != null ? columns.get(name.trim().toLowerCase()) : null;
+    }
+
+    /*
+     * Writing
+     */
+
+    /**
+     * Appends the state.
+     *
+     * @return rid of the new row
+     */
+    long append(S state) {
+        lock.writeLock().lock();
+        try {
+            return appendRow(state) + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends all the states at once, no reader sees only some of them.
+     *
+     * @return rids of the new rows, in the order of the states
+     */
+    List<Long> appendAll(List<S> states) {
+        List<Long> rids = new ArrayList<>(states.size());
+        lock.writeLock().lock();
+        try {
+            for (S state : states) {
+                rids.add(appendRow(state) + 1L);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return rids;
+    }
+
+    /**
+     * Closes the current state of the entity (cf = false, ared = the arsd of the passed state) and appends the passed
+     * state, as one write.
+     *
+     * @return rid of the new row
+     */
+    long appendCurrent(S state) {
+        lock.writeLock().lock();
+        try {
+            closeCurrent(state);
+            return appendRow(state) + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the current state of the entity of each state and appends the states, as one write.
+     *
+     * @return rids of the new rows, in the order of the states
+     */
+    List<Long> appendAllCurrent(List<S> states) {
+        List<Long> rids = new ArrayList<>(states.size());
+        lock.writeLock().lock();
+        try {
+            for (S state : states) {
+                closeCurrent(state);
+                rids.add(appendRow(state) + 1L);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return rids;
+    }
+
+    /**
+     * Closes the current row of the entity of the state at the arsd of the state, the write lock must be held.
+     */
+    private void closeCurrent(S state) {
+        IntList chain = chain(state.tid, state.id, false);
+        if (chain != null) {
+            long closed = state.arsd != null ? state.arsd.getTime() : NO_DATE;
+            for (int i = 0; i < chain.size(); i++) {
+                int row = chain.getInt(i);
+                if (cfs.get(row)) {
+                    cfs.clear(row);
+                    areds[row] = closed;
+                    indexBlock(row >>> BLOCK_SHIFT);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the row of each state (matched by rid) with the state, states whose rid is not in the table are
+     * skipped.
+     */
+    void updateAll(List<S> states) {
+        lock.writeLock().lock();
+        try {
+            for (S state : states) {
+                if (state.rid < 1 || state.rid > size) {
+                    continue;
+                }
+                int row = (int) (state.rid - 1);
+                long tid = tids[row], id = ids[row];
+                writeRow(row, state);
+                if (tid != state.tid || id != state.id) {
+                    chain(tid, id, false).remove((Integer) row);
+                    addToChain(row);
+                }
+                indexBlock(row >>> BLOCK_SHIFT);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes count new entity ids, the first after the highest id in the table.
+     */
+    List<Long> nextIds(int count) {
+        List<Long> taken = new ArrayList<>(count);
+        lock.writeLock().lock();
+        try {
+            nextId = Math.max(nextId, maxId + 1);
+            for (int i = 0; i < count; i++) {
+                taken.add(nextId++);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return taken;
+    }
+
+    private int appendRow(S state) {
+        int row = size;
+        if (row == ids.length) {
+            grow();
+        }
+        writeRow(row, state);
+        size++;
+        addToChain(row);
+
+        // widen the interval of the block
+        int block = row >>> BLOCK_SHIFT;
+        if (block == blockMinArsd.length) {
+            blockMinArsd = Arrays.copyOf(blockMinArsd, block + 1);
+            blockMaxAred = Arrays.copyOf(blockMaxAred, block + 1);
+            blockMinArsd[block] = Long.MAX_VALUE;
+            blockMaxAred[block] = Long.MIN_VALUE;
+        }
+        blockMinArsd[block] = Math.min(blockMinArsd[block], arsds[row]);
+        blockMaxAred[block] = Math.max(blockMaxAred[block], areds[row] == NO_DATE ? Long.MAX_VALUE : areds[row]);
+        return row;
+    }
+
+    private void writeRow(int row, S state) {
+        ids[row] = state.id;
+        tids[row] = state.tid;
+        euids[row] = state.euid;
+        esids[row] = state.esid;
+        arsds[row] = state.arsd != null ? state.arsd.getTime() : NO_DATE;
+        areds[row] = state.ared != null ? state.ared.getTime() : NO_DATE;
+        cfs.set(row, state.cf);
+        dfs.set(row, state.df);
+        maxId = Math.max(maxId, state.id);
+
+        for (int f = 0; f < valueFields.size(); f++) {
+            FieldMapping field = valueFields.get(f);
+            Object value = field.get(state);
+            if (value != null && field.getType() == FieldType.OBJECT) {
+                try {
+                    value = FieldCodecs.write(field.getCodec(), field.isCompressed(), value,
+                            field.getField().getGenericType());
+                } catch (IOException | RuntimeException e) {
+                    fdfLog.warn("Unable to encode field {}: {}", field.getName(), e.getMessage());
+                    value = null;
+                }
+            } else {
+                value = ClassMapping.copyValue(value);
+            }
+            values[f][row] = value;
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        tids = Arrays.copyOf(tids, capacity);
+        euids = Arrays.copyOf(euids, capacity);
+        esids = Arrays.copyOf(esids, capacity);
+        arsds = Arrays.copyOf(arsds, capacity);
+        areds = Arrays.copyOf(areds, capacity);
+        for (int f = 0; f < values.length; f++) {
+            values[f] = Arrays.copyOf(values[f], capacity);
+        }
+    }
+
+    /**
+     * Recomputes the interval of a block after a row in it changed.
+     */
+    private void indexBlock(int block) {
+        long minArsd = Long.MAX_VALUE, maxAred = Long.MIN_VALUE;
+        for (int row = block << BLOCK_SHIFT; row < Math.min(size, (block + 1) << BLOCK_SHIFT); row++) {
+            minArsd = Math.min(minArsd, arsds[row]);
+            maxAred = Math.max(maxAred, areds[row] == NO_DATE ? Long.MAX_VALUE : areds[row]);
+        }
+        blockMinArsd[block] = minArsd;
+        blockMaxAred[block] = maxAred;
+    }
+
+    private IntList chain(long tid, long id, boolean create) {
+        LongIntMap tenant = chainIndex.get(tid);
+        if (tenant == null) {
+            if (!create) {
+                return null;
+            }
+            chainIndex.put(tid, tenant = new LongIntMap());
+        }
+        int position = tenant.get(id);
+        if (position < 0) {
+            if (!create) {
+                return null;
+            }
+            position = chains.size();
+            tenant.put(id, position);
+            chains.add(new IntList(4));
+        }
+        return chains.get(position);
+    }
+
+    private void addToChain(int row) {
+        IntList chain = chain(tids[row], ids[row], true);
+        // rows are appended in rid order, only a moved row lands inside the chain
+        int at = chain.size();
+        while (at > 0 && chain.getInt(at - 1) > row) {
+            at--;
+        }
+        chain.add(at, row);
+    }
+
+    /*
+     * Reading
+     */
+
+    /**
+     * Finds the rows matching the where clause of the statement, in rid order or the order by of the statement.
+     * Offset and limit are not applied, see read.
+     *
+     * @throws IllegalArgumentException if the statement can not be evaluated on the table
+     */
+    int[] select(SqlStatement sqlStatement) {
+        MemoryWhere where = MemoryWhere.compile(this, sqlStatement.getWhereClauses(), sqlStatement.getAfterId(),
+                sqlStatement.getAfterRid());
+        Comparator<Integer> order = ordering(sqlStatement.getOrderByItems());
+
+        lock.readLock().lock();
+        try {
+            IntList rows = candidates(where);
+            IntList matched = new IntList(rows.size());
+            IntPredicate test = where.test;
+            for (int i = 0; i < rows.size(); i++) {
+                if (test.test(rows.getInt(i))) {
+                    matched.addInt(rows.getInt(i));
+                }
+            }
+            if (order != null) {
+                matched.sort(order);
+            }
+            return matched.toIntArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the rows returned by select as states: whole states, the columns of the select list or the aggregates of
+     * the select list, then applies the offset and limit of the statement.
+     *
+     * @throws IllegalArgumentException if the select list can not be evaluated on the table
+     */
+    List<S> read(SqlStatement sqlStatement, int[] rows) {
+        if (!sqlStatement.getGroupByItems().isEmpty()) {
+            throw new IllegalArgumentException("GROUP BY is not supported by the memory store");
+        }
+
+        List<String> items = new ArrayList<>();
+        for (String item : sqlStatement.getSelectItems()) {
+            for (String part : item.split(",")) {
+                if (!part.trim().isEmpty() && !part.trim().equals("*")) {
+                    items.add(part.trim());
+                }
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            if (items.isEmpty()) {
+                int from = Math.min(rows.length, Math.max(0, sqlStatement.getOffsetRows()));
+                int to = sqlStatement.getLimitRows() > 0
+                        ? Math.min(rows.length, from + sqlStatement.getLimitRows()) : rows.length;
+                List<S> states = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    states.add(readRow(rows[i]));
+                }
+                return states;
+            }
+            if (AGGREGATE.matcher(items.get(0)).matches()) {
+                return Collections.singletonList(aggregate(items, rows));
+            }
+            return page(project(items, rows), sqlStatement);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the reads under one hold of the read lock (it is reentrant), so a select and the read of its rows see the
+     * table between the same two writes.
+     *
+     * @return the result of the reads
+     */
+    <T> T readLocked(Supplier<T> reads) {
+        lock.readLock().lock();
+        try {
+            return reads.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the state in the row, read under the read lock
+     */
+    S readLocked(int row) {
+        lock.readLock().lock();
+        try {
+            return readRow(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private S readRow(int row) {
+        S state = mapping.newInstance();
+        state.rid = row + 1;
+        state.id = ids[row];
+        state.tid = tids[row];
+        state.euid = euids[row];
+        state.esid = esids[row];
+        state.arsd = toDate(arsds[row]);
+        state.ared = toDate(areds[row]);
+        state.cf = cfs.get(row);
+        state.df = dfs.get(row);
+        for (int f = 0; f < valueFields.size(); f++) {
+            valueFields.get(f).set(state, readValue(valueFields.get(f), values[f][row]));
+        }
+        return state;
+    }
+
+    private IntList candidates(MemoryWhere where) {
+        IntList rows = new IntList();
+
+        // rid set, straight to the rows
+        if (where.rids != null) {
+            for (long rid : where.rids) {
+                if (rid >= 1 && rid <= size) {
+                    rows.addInt((int) (rid - 1));
+                }
+            }
+            return sorted(rows);
+        }
+
+        // entity ids, through the version chains
+        if (where.ids != null) {
+            Collection<LongIntMap> tenants = where.tid != null
+                    ? (chainIndex.containsKey(where.tid)
+                    ? Collections.singletonList(chainIndex.get(where.tid)) : Collections.emptyList())
+                    : chainIndex.values();
+            for (LongIntMap tenant : tenants) {
+                for (long id : where.ids) {
+                    int position = tenant.get(id);
+                    if (position >= 0) {
+                        IntList chain = chains.get(position);
+                        for (int i = 0; i < chain.size(); i++) {
+                            rows.addInt(chain.getInt(i));
+                        }
+                    }
+                }
+            }
+            return sorted(rows);
+        }
+
+        // scan the blocks whose interval overlaps the time asked for, only the current rows if cf = true
+        for (int block = 0; block < blockMinArsd.length; block++) {
+            if (blockMinArsd[block] > where.arsdAtMost || blockMaxAred[block] < where.aredAtLeast) {
+                continue;
+            }
+            int end = Math.min(size, (block + 1) << BLOCK_SHIFT);
+            if (where.currentOnly) {
+                for (int row = cfs.nextSetBit(block << BLOCK_SHIFT); row >= 0 && row < end;
+                     row = cfs.nextSetBit(row + 1)) {
+                    rows.addInt(row);
+                }
+            } else {
+                for (int row = block << BLOCK_SHIFT; row < end; row++) {
+                    rows.addInt(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static IntList sorted(IntList rows) {
+        int[] sorted = rows.toIntArray();
+        Arrays.sort(sorted);
+        return new IntList(sorted);
+    }
+
+    private Comparator<Integer> ordering(List<String> orderBy) {
+        Comparator<Integer> order = null;
+        for (String item : orderBy) {
+            for (String part : item.split(",")) {
+                String[] words = part.trim().split("\\s+");
+                if (words[0].isEmpty()) {
+                    continue;
+                }
+                Column column = column(words[0]);
+                if (column == null || words.length > 2) {
+                    throw new IllegalArgumentException("Unable to order " + getName() + " by " + part.trim());
+                }
+                // nulls first, as HSQL and MySQL sort them
+                Comparator<Integer> next = Comparator.comparing(row -> column.isNull(row) ? null : column.key(row),
+                        Comparator.nullsFirst(MemoryWhere::compare));
+                if (words.length == 2 && words[1].equalsIgnoreCase("desc")) {
+                    next = next.reversed();
+                } else if (words.length == 2 && !words[1].equalsIgnoreCase("asc")) {
+                    throw new IllegalArgumentException("Unable to order " + getName() + " by " + part.trim());
+                }
+                order = order == null ? next : order.thenComparing(next);
+            }
+        }
+        return order;
+    }
+
+    private S aggregate(List<String> items, int[] rows) {
+        S state = mapping.newInstance();
+        for (String item : items) {
+            Matcher aggregate = AGGREGATE.matcher(item);
+            if (!aggregate.matches()) {
+                throw new IllegalArgumentException("GROUP BY is not supported by the memory store, unable to select "
+                        + item + " with aggregates");
+            }
+            String function = aggregate.group(1).toLowerCase();
+            Column column = aggregate.group(2).equals("*") ? null : column(aggregate.group(2));
+            String alias = aggregate.group(3) != null ? aggregate.group(3)
+                    : column != null && !function.equals("count") ? aggregate.group(2) : null;
+            FieldMapping target = mapping.getField(alias);
+            if (target == null || (column == null && !function.equals("count"))) {
+                throw new IllegalArgumentException("Unable to select " + item + " from " + getName()
+                        + ", aggregates must be of a column and named after a field");
+            }
+
+            Object result = null;
+            if (function.equals("count")) {
+                long count = 0;
+                for (int row : rows) {
+                    if (column == null || !column.isNull(row)) {
+                        count++;
+                    }
+                }
+                result = count;
+            } else {
+                int found = -1;
+                for (int row : rows) {
+                    if (!column.isNull(row) && (found < 0
+                            || MemoryWhere.compare(column.key(row), column.key(found)) * (function.equals("max") ? 1 : -1) > 0)) {
+                        found = row;
+                    }
+                }
+                if (found >= 0) {
+                    result = column.value(found);
+                }
+            }
+            target.set(state, result instanceof Number ? toType((Number) result, target.getJavaType()) : result);
+        }
+        return state;
+    }
+
+    private List<S> project(List<String> items, int[] rows) {
+        boolean distinct = false;
+        Matcher distinctMatch = DISTINCT.matcher(items.get(0));
+        if (distinctMatch.matches()) {
+            distinct = true;
+            items.set(0, distinctMatch.group(1).trim());
+        }
+
+        List<Column> selected = new ArrayList<>();
+        List<FieldMapping> targets = new ArrayList<>();
+        for (String item : items) {
+            Matcher columnMatch = COLUMN.matcher(item);
+            Column column = columnMatch.matches() ? column(columnMatch.group(1)) : null;
+            FieldMapping target = column != null ? mapping.getField(columnMatch.group(2) != null
+                    ? columnMatch.group(2) : columnMatch.group(1)) : null;
+            if (target == null) {
+                throw new IllegalArgumentException("Unable to select " + item + " from " + getName());
+            }
+            selected.add(column);
+            targets.add(target);
+        }
+
+        List<S> states = new ArrayList<>();
+        Set<List<Object>> seen = new HashSet<>();
+        for (int row : rows) {
+            List<Object> projected = new ArrayList<>(selected.size());
+            for (Column column : selected) {
+                projected.add(column.value(row));
+            }
+            if (distinct && !seen.add(projected)) {
+                continue;
+            }
+            S state = mapping.newInstance();
+            for (int i = 0; i < targets.size(); i++) {
+                Object value = projected.get(i);
+                targets.get(i).set(state, value instanceof Number
+                        ? toType((Number) value, targets.get(i).getJavaType()) : value);
+            }
+            states.add(state);
+        }
+        return states;
+    }
+
+    private static <T> List<T> page(List<T> states, SqlStatement sqlStatement) {
+        int from = Math.min(states.size(), Math.max(0, sqlStatement.getOffsetRows()));
+        int to = sqlStatement.getLimitRows() > 0
+                ? Math.min(states.size(), from + sqlStatement.getLimitRows()) : states.size();
+        return from == 0 && to == states.size() ? states : new ArrayList<>(states.subList(from, to));
+    }
+
+    private static Object readValue(FieldMapping field, Object stored) {
+        if (stored != null && field.getType() == FieldType.OBJECT) {
+            byte[] encoded = (byte[]) stored;
+            FdfSettings.METRICS.recordBytesDecoded(field.getField().getDeclaringClass(), encoded.length);
+            try {
+                return FieldCodecs.read(field.getCodec(), encoded, field.getField().getGenericType());
+            } catch (IOException | RuntimeException e) {
+                fdfLog.warn("Unable to decode field {}: {}", field.getName(), e.getMessage());
+                return null;
+            }
+        }
+        return ClassMapping.copyValue(stored);
+    }
+
+    private static Date toDate(long millis) {
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Converts a number selected from a column into the type of the field it is returned in.
+     */
+    private static Object toType(Number value, Class<?> type) {
+        if (type == long.class || type == Long.class) return value.longValue();
+        if (type == int.class || type == Integer.class) return value.intValue();
+        if (type == short.class || type == Short.class) return value.shortValue();
+        if (type == double.class || type == Double.class) return value.doubleValue();
+        if (type == float.class || type == Float.class) return value.floatValue();
+        if (type == BigDecimal.class) return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+        return value;
+    }
+
+    /*
+     * Columns
+     */
+
+    /**
+     * A column of the table as seen by where clauses, ordering and select lists.
+     */
+    abstract class Column {
+        final FieldMapping field;
+
+        Column(FieldMapping field) {
+            this.field = field;
+        }
+
+        /** @return true if the column holds primitive longs, read with getLong */
+        boolean isLong() {
+            return false;
+        }
+
+        long getLong(int row) {
+            throw new UnsupportedOperationException();
+        }
+
+        abstract boolean isNull(int row);
+
+        /** @return the value of a not null row as compared and ordered, of the type returned by constant */
+        abstract Comparable<?> key(int row);
+
+        /** @return a where clause value converted for comparison with key */
+        abstract Comparable<?> constant(String value);
+
+        /** @return the value of a not null row as text, the way it is stored in a database, for LIKE */
+        String text(int row) {
+            return key(row).toString();
+        }
+
+        /** @return the value of the row as it is set on a state */
+        abstract Object value(int row);
+    }
+
+    private abstract class LongColumn extends Column {
+        LongColumn(FieldMapping field) {
+            super(field);
+        }
+
+        boolean isLong() {
+            return true;
+        }
+
+        abstract long getLong(int row);
+
+        boolean isNull(int row) {
+            return false;
+        }
+
+        Comparable<?> key(int row) {
+            return getLong(row);
+        }
+
+        Comparable<?> constant(String value) {
+            return MemoryWhere.parseLong(value);
+        }
+
+        Object value(int row) {
+            return getLong(row);
+        }
+    }
+
+    private abstract class DateColumn extends Column {
+        DateColumn(FieldMapping field) {
+            super(field);
+        }
+
+        abstract long getMillis(int row);
+
+        boolean isNull(int row) {
+            return getMillis(row) == NO_DATE;
+        }
+
+        Comparable<?> key(int row) {
+            return getMillis(row);
+        }
+
+        Comparable<?> constant(String value) {
+            return MemoryWhere.parseDate(value);
+        }
+
+        String text(int row) {
+            return new java.sql.Timestamp(getMillis(row)).toString();
+        }
+
+        Object value(int row) {
+            return toDate(getMillis(row));
+        }
+    }
+
+    private class BitColumn extends Column {
+        private final BitSet bits;
+
+        BitColumn(FieldMapping field, BitSet bits) {
+            super(field);
+            this.bits = bits;
+        }
+
+        boolean isNull(int row) {
+            return false;
+        }
+
+        Comparable<?> key(int row) {
+            return bits.get(row);
+        }
+
+        Comparable<?> constant(String value) {
+            return toBoolean(value);
+        }
+
+        Object value(int row) {
+            return bits.get(row);
+        }
+    }
+
+    private class ValueColumn extends Column {
+        private final int index;
+
+        ValueColumn(FieldMapping field, int index) {
+            super(field);
+            this.index = index;
+        }
+
+        boolean isNull(int row) {
+            Object value = values[index][row];
+            // the null character is stored as null by the databases
+            return value == null || (value instanceof Character && (Character) value == '\u0000');
+        }
+
+        Comparable<?> key(int row) {
+            Object value = values[index][row];
+            switch (field.getType()) {
+                case INTEGER:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:
+                case BIG_DECIMAL:
+                    return toDecimal((Number) value);
+                case BOOLEAN:
+                    return (Boolean) value;
+                case DATE:
+                    return ((Date) value).getTime();
+                case CLASS:
+                    return FdfUtil.getClassName(value.toString());
+                case OBJECT:
+                    throw new IllegalArgumentException("Unable to compare " + field.getName()
+                            + ", fields stored through a codec can only be tested for null");
+                default:
+                    return value.toString();
+            }
+        }
+
+        Comparable<?> constant(String value) {
+            switch (field.getType()) {
+                case INTEGER:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:
+                case BIG_DECIMAL:
+                    try {
+                        return new BigDecimal(value.trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number: " + value, e);
+                    }
+                case BOOLEAN:
+                    return toBoolean(value);
+                case DATE:
+                    return MemoryWhere.parseDate(value);
+                case OBJECT:
+                    throw new IllegalArgumentException("Unable to compare " + field.getName()
+                            + ", fields stored through a codec can only be tested for null");
+                default:
+                    return value;
+            }
+        }
+
+        Object value(int row) {
+            return readValue(field, values[index][row]);
+        }
+    }
+
+    private static BigDecimal toDecimal(Number value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return BigDecimal.valueOf(value.doubleValue());
+        }
+        return BigDecimal.valueOf(value.longValue());
+    }
+
+    private static Boolean toBoolean(String value) {
+        String text = value.trim();
+        if (text.equalsIgnoreCase("true") || text.equals("1")) {
+            return true;
+        }
+        if (text.equalsIgnoreCase("false") || text.equals("0")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+}
@@ -0,0 +1,529 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.util.LongSet;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Where clause of a SqlStatement compiled into a predicate over the rows of a MemoryTable.  The clauses are parsed the
+ * way the SQL written by SqlStatement.getWhere() reads: groupings are parentheses, AND binds tighter than OR and a NOT
+ * conditional is AND NOT.  Comparisons follow SQL, a null value matches nothing but IS NULL and IS NOT.
+ *
+ * The conjuncts of the clause (the parts ANDed at the top level) are also read for the indexes of the table: rid and id
+ * sets, the tenant, cf = true and the time the states must be active at.  The predicate always checks every clause,
+ * the indexes only narrow the rows it is tested on.
+ */
+class MemoryWhere {
+
+    private enum Token {
+        AND, OR, NOT, OPEN, CLOSE
+    }
+
+    /**
+     * Parsed where clause: a clause, or AND / OR / NOT of its children.
+     */
+    private static class Node {
+        final Token op;
+        final WhereClause clause;
+        final List<Node> children = new ArrayList<>();
+
+        Node(WhereClause clause) {
+            this.op = null;
+            this.clause = clause;
+        }
+
+        Node(Token op, Node... children) {
+            this.op = op;
+            this.clause = null;
+            for (Node child : children) {
+                // flatten chains of the same operator
+                if (op != Token.NOT && child.op == op) {
+                    this.children.addAll(child.children);
+                } else {
+                    this.children.add(child);
+                }
+            }
+        }
+    }
+
+    private static final IntPredicate ALL = row -> true;
+    private static final IntPredicate NONE = row -> false;
+
+    private final MemoryTable<?> table;
+
+    /** tests a row against the whole clause */
+    IntPredicate test = ALL;
+
+    /** rids the clause is limited to, without duplicates, null if it is not */
+    long[] rids;
+    /** entity ids the clause is limited to, without duplicates, null if it is not */
+    long[] ids;
+    /** tenant the clause is limited to, null if it is not */
+    Long tid;
+    /** true if the clause only matches current states (cf = true) */
+    boolean currentOnly = false;
+    /** latest arsd a matching state can have, in epoch milliseconds */
+    long arsdAtMost = Long.MAX_VALUE;
+    /** earliest ared a matching state can have (open counts as latest), in epoch milliseconds */
+    long aredAtLeast = Long.MIN_VALUE;
+
+    private MemoryWhere(MemoryTable<?> table) {
+        this.table = table;
+    }
+
+    /**
+     * Compiles the where clauses and keyset position of a statement.
+     *
+     * @param table table the clauses are tested against
+     * @param clauses where clauses of the statement
+     * @param afterId id of the keyset position, -1 if there is none
+     * @param afterRid rid of the keyset position
+     * @return the compiled clause
+     * @throws IllegalArgumentException if the clauses do not parse or name a column the table does not have
+     */
+    static MemoryWhere compile(MemoryTable<?> table, List<WhereClause> clauses, long afterId, long afterRid) {
+        MemoryWhere where = new MemoryWhere(table);
+        List<Node> conjuncts = new ArrayList<>();
+
+        if (!clauses.isEmpty()) {
+            Parser parser = new Parser(tokenize(clauses));
+            Node root = parser.expression();
+            if (!parser.done()) {
+                throw new IllegalArgumentException("Unable to parse where clause, unbalanced groupings");
+            }
+            where.test = where.compile(root);
+            conjuncts.addAll(root.op == Token.AND ? root.children : Collections.singletonList(root));
+        }
+
+        for (Node conjunct : conjuncts) {
+            where.plan(conjunct);
+        }
+
+        // (id, rid) > (afterId, afterRid)
+        if (afterId >= 0) {
+            MemoryTable<?>.Column id = table.column("id");
+            MemoryTable<?>.Column rid = table.column("rid");
+            IntPredicate keyset = row -> id.getLong(row) > afterId
+                    || (id.getLong(row) == afterId && rid.getLong(row) > afterRid);
+            where.test = where.test == ALL ? keyset : where.test.and(keyset);
+        }
+        return where;
+    }
+
+    /*
+     * Parsing
+     */
+
+    private static List<Object> tokenize(List<WhereClause> clauses) {
+        List<Object> tokens = new ArrayList<>();
+        for (int i = 0; i < clauses.size(); i++) {
+            WhereClause clause = clauses.get(i);
+            // the conditional of the first clause is replaced by WHERE
+            if (i > 0) {
+                tokens.add(clause.conditional == WhereClause.CONDITIONALS.OR ? Token.OR : Token.AND);
+                if (clause.conditional == WhereClause.CONDITIONALS.NOT) {
+                    tokens.add(Token.NOT);
+                }
+            }
+            clause.groupings.stream().filter(grouping -> grouping == WhereClause.GROUPINGS.OPEN_PARENTHESIS)
+                    .forEach(open -> tokens.add(Token.OPEN));
+            if (clause.operator != WhereClause.Operators.UNARY) {
+                tokens.add(clause);
+            }
+            clause.groupings.stream().filter(grouping -> grouping == WhereClause.GROUPINGS.CLOSE_PARENTHESIS)
+                    .forEach(close -> tokens.add(Token.CLOSE));
+        }
+        return tokens;
+    }
+
+    private static class Parser {
+        private final List<Object> tokens;
+        private int position = 0;
+
+        Parser(List<Object> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean done() {
+            return position == tokens.size();
+        }
+
+        private boolean next(Token token) {
+            if (position < tokens.size() && tokens.get(position) == token) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        Node expression() {
+            Node node = term();
+            while (next(Token.OR)) {
+                node = new Node(Token.OR, node, term());
+            }
+            return node;
+        }
+
+        private Node term() {
+            Node node = factor();
+            while (next(Token.AND)) {
+                node = new Node(Token.AND, node, factor());
+            }
+            return node;
+        }
+
+        private Node factor() {
+            if (next(Token.NOT)) {
+                return new Node(Token.NOT, factor());
+            }
+            if (next(Token.OPEN)) {
+                Node node = expression();
+                if (!next(Token.CLOSE)) {
+                    throw new IllegalArgumentException("Unable to parse where clause, missing close parenthesis");
+                }
+                return node;
+            }
+            if (position < tokens.size() && tokens.get(position) instanceof WhereClause) {
+                return new Node((WhereClause) tokens.get(position++));
+            }
+            throw new IllegalArgumentException("Unable to parse where clause at "
+                    + (position < tokens.size() ? tokens.get(position) : "end"));
+        }
+    }
+
+    /*
+     * Compiling
+     */
+
+    private IntPredicate compile(Node node) {
+        if (node.op == null) {
+            return compile(node.clause);
+        }
+        if (node.op == Token.NOT) {
+            return compile(node.children.get(0)).negate();
+        }
+        IntPredicate predicate = null;
+        for (Node child : node.children) {
+            IntPredicate next = compile(child);
+            predicate = predicate == null ? next : node.op == Token.AND ? predicate.and(next) : predicate.or(next);
+        }
+        return predicate;
+    }
+
+    private IntPredicate compile(WhereClause clause) {
+        MemoryTable<?>.Column column = table.column(clause.name);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown column " + clause.name + " in where clause of "
+                    + table.getName());
+        }
+        WhereClause.Operators operator = clause.operator != null ? clause.operator : WhereClause.Operators.EQUAL;
+        String value = clause.value != null ? clause.value.trim() : WhereClause.NULL;
+
+        // IS [NOT] NULL / TRUE / FALSE
+        if (operator == WhereClause.Operators.IS || operator == WhereClause.Operators.IS_NOT) {
+            IntPredicate is;
+            if (value.equalsIgnoreCase(WhereClause.NULL)) {
+                is = row -> column.isNull(row);
+            } else {
+                Comparable<?> constant = column.constant(value);
+                is = row -> !column.isNull(row) && compare(column.key(row), constant) == 0;
+            }
+            return operator == WhereClause.Operators.IS ? is : is.negate();
+        }
+
+        // any other comparison with null is unknown
+        if (value.equalsIgnoreCase(WhereClause.NULL)) {
+            return NONE;
+        }
+
+        switch (operator) {
+            case IN:
+                return in(column, value);
+            case LIKE:
+                Pattern pattern = likePattern(value);
+                return row -> !column.isNull(row) && pattern.matcher(column.text(row)).matches();
+            case BETWEEN:
+                if (clause.value2 == null) {
+                    throw new IllegalArgumentException("BETWEEN without a second value on " + clause.name);
+                }
+                return between(column, value, clause.value2.trim());
+            default:
+                return compare(column, operator, value);
+        }
+    }
+
+    private static IntPredicate compare(MemoryTable<?>.Column column, WhereClause.Operators operator, String value) {
+        // primitive columns are compared without boxing
+        if (column.isLong()) {
+            long constant = parseLong(value);
+            switch (operator) {
+                case EQUAL: return row -> column.getLong(row) == constant;
+                case NOT_EQUAL: return row -> column.getLong(row) != constant;
+                case GREATER_THAN: return row -> column.getLong(row) > constant;
+                case LESS_THAN: return row -> column.getLong(row) < constant;
+                case GREATER_THAN_OR_EQUAL: return row -> column.getLong(row) >= constant;
+                case LESS_THAN_OR_EQUAL: return row -> column.getLong(row) <= constant;
+                default: throw unsupported(operator);
+            }
+        }
+
+        Comparable<?> constant = column.constant(value);
+        switch (operator) {
+            case EQUAL: return row -> !column.isNull(row) && compare(column.key(row), constant) == 0;
+            case NOT_EQUAL: return row -> !column.isNull(row) && compare(column.key(row), constant) != 0;
+            case GREATER_THAN: return row -> !column.isNull(row) && compare(column.key(row), constant) > 0;
+            case LESS_THAN: return row -> !column.isNull(row) && compare(column.key(row), constant) < 0;
+            case GREATER_THAN_OR_EQUAL: return row -> !column.isNull(row) && compare(column.key(row), constant) >= 0;
+            case LESS_THAN_OR_EQUAL: return row -> !column.isNull(row) && compare(column.key(row), constant) <= 0;
+            default: throw unsupported(operator);
+        }
+    }
+
+    private static IntPredicate between(MemoryTable<?>.Column column, String low, String high) {
+        if (column.isLong()) {
+            long from = parseLong(low);
+            long to = parseLong(high);
+            return row -> column.getLong(row) >= from && column.getLong(row) <= to;
+        }
+        Comparable<?> from = column.constant(low);
+        Comparable<?> to = column.constant(high);
+        return row -> !column.isNull(row) && compare(column.key(row), from) >= 0 && compare(column.key(row), to) <= 0;
+    }
+
+    private static IntPredicate in(MemoryTable<?>.Column column, String value) {
+        List<String> members = members(value);
+        if (column.isLong()) {
+            LongSet set = new LongSet(members.size());
+            for (String member : members) {
+                set.add(parseLong(member));
+            }
+            return row -> set.contains(column.getLong(row));
+        }
+        List<Comparable<?>> constants = new ArrayList<>();
+        for (String member : members) {
+            constants.add(column.constant(member));
+        }
+        return row -> {
+            if (column.isNull(row)) {
+                return false;
+            }
+            Comparable<?> key = column.key(row);
+            for (Comparable<?> constant : constants) {
+                if (compare(key, constant) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /*
+     * Index planning
+     */
+
+    private void plan(Node conjunct) {
+        if (conjunct.op == Token.OR) {
+            // (ared >= date OR ared IS NULL), the active at date test of FdfCommonServices
+            long earliest = Long.MAX_VALUE;
+            for (Node child : conjunct.children) {
+                if (child.op != null || !"ared".equalsIgnoreCase(child.clause.name)) {
+                    return;
+                }
+                WhereClause clause = child.clause;
+                if (clause.operator == WhereClause.Operators.IS && WhereClause.NULL.equalsIgnoreCase(clause.value)) {
+                    continue;
+                }
+                Long from = aredFrom(clause);
+                if (from == null) {
+                    return;
+                }
+                earliest = Math.min(earliest, from);
+            }
+            aredAtLeast = Math.max(aredAtLeast, earliest);
+            return;
+        }
+        if (conjunct.op != null) {
+            return;
+        }
+
+        WhereClause clause = conjunct.clause;
+        WhereClause.Operators operator = clause.operator != null ? clause.operator : WhereClause.Operators.EQUAL;
+        String name = clause.name.toLowerCase();
+        String value = clause.value != null ? clause.value.trim() : WhereClause.NULL;
+        if (value.equalsIgnoreCase(WhereClause.NULL)) {
+            return;
+        }
+
+        switch (name) {
+            case "rid":
+            case "id":
+                long[] set = null;
+                if (operator == WhereClause.Operators.EQUAL) {
+                    set = new long[] {parseLong(value)};
+                } else if (operator == WhereClause.Operators.IN) {
+                    set = distinct(members(value));
+                }
+                if (set != null) {
+                    if (name.equals("rid")) {
+                        rids = set;
+                    } else {
+                        ids = set;
+                    }
+                }
+                break;
+            case "tid":
+                if (operator == WhereClause.Operators.EQUAL) {
+                    tid = parseLong(value);
+                }
+                break;
+            case "cf":
+                if ((operator == WhereClause.Operators.EQUAL || operator == WhereClause.Operators.IS)
+                        && value.equalsIgnoreCase("true")) {
+                    currentOnly = true;
+                }
+                break;
+            case "arsd":
+                if (operator == WhereClause.Operators.LESS_THAN_OR_EQUAL || operator == WhereClause.Operators.LESS_THAN
+                        || operator == WhereClause.Operators.EQUAL) {
+                    arsdAtMost = Math.min(arsdAtMost, parseDate(value));
+                } else if (operator == WhereClause.Operators.BETWEEN && clause.value2 != null) {
+                    arsdAtMost = Math.min(arsdAtMost, parseDate(clause.value2.trim()));
+                }
+                break;
+            case "ared":
+                Long from = aredFrom(clause);
+                if (from != null) {
+                    aredAtLeast = Math.max(aredAtLeast, from);
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * @return the earliest ared the clause matches, null if it does not bound ared from below
+     */
+    private static Long aredFrom(WhereClause clause) {
+        if (clause.value == null || clause.value.trim().equalsIgnoreCase(WhereClause.NULL)) {
+            return null;
+        }
+        switch (clause.operator) {
+            case GREATER_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case EQUAL:
+            case BETWEEN:
+                return parseDate(clause.value.trim());
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Values
+     */
+
+    /**
+     * Compares two column keys or constants (see MemoryTable.Column.key), which are of the same type for the same
+     * column.
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(Comparable<?> a, Comparable<?> b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+    }
+
+    /**
+     * Parses a date the way it is passed in where clauses, formatted with GeneralConstants.DB_DATE_FORMAT.
+     */
+    static long parseDate(String value) {
+        try {
+            return Timestamp.valueOf(value.trim()).getTime();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not a date: " + value, e);
+        }
+    }
+
+    private static long[] distinct(List<String> members) {
+        LongSet seen = new LongSet(members.size());
+        return members.stream().mapToLong(MemoryWhere::parseLong).filter(seen::add).toArray();
+    }
+
+    /**
+     * Splits an IN set such as (1,2,3) or ('a','b') into its members, without quotes.
+     */
+    private static List<String> members(String value) {
+        String set = value.trim();
+        if (set.startsWith("(") && set.endsWith(")")) {
+            set = set.substring(1, set.length() - 1);
+        }
+        List<String> members = new ArrayList<>();
+        for (String member : Arrays.asList(set.split(","))) {
+            member = member.trim();
+            if (member.length() > 1 && member.startsWith("'") && member.endsWith("'")) {
+                member = member.substring(1, member.length() - 1).replace("''", "'");
+            }
+            if (!member.isEmpty()) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Converts a LIKE pattern into a regular expression, % matches any run of characters and _ any one character.
+     */
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static IllegalArgumentException unsupported(WhereClause.Operators operator) {
+        return new IllegalArgumentException("Unsupported operator " + operator);
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Logs selects that take longer than FdfSettings.SLOW_QUERY_THRESHOLD_MS, with the time spent executing the query
+ * apart from the time spent reading and hydrating its rows.  Queries are grouped by shape, their SQL with literals
+ * replaced by ? and IN lists collapsed, and the worst FdfSettings.SLOW_QUERY_TOP_N shapes are kept in memory
+ * (getWorst, report).  With FdfSettings.SLOW_QUERY_EXPLAIN the plan of each shape is captured once, by running the
+ * query again under EXPLAIN with the same parameters, and logged with it.
+ *
+ * Called by the selectQuery implementations of each database, which pass their EXPLAIN syntax.
+ */
+public class SlowQueryLog {
+
+    private static final SlowQueryLog INSTANCE = new SlowQueryLog();
+    private static final org.slf4j.Logger fdfLog = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    // shapes kept beyond the top N before the least costly are dropped
+    private static final int MAX_SHAPES = 1000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Slow executions of one query shape.
+     */
+    public static class Shape {
+        private final String sql;
+        private final String modelClass;
+        private final AtomicBoolean explained = new AtomicBoolean(false);
+        private volatile String plan = null;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long maxExecuteNanos = 0;
+        private long maxHydrateNanos = 0;
+        private int binds = 0;
+        private int rows = 0;
+
+        Shape(String sql, String modelClass) {
+            this.sql = sql;
+            this.modelClass = modelClass;
+        }
+
+        synchronized void record(int binds, int rows, long executeNanos, long hydrateNanos) {
+            long nanos = executeNanos + hydrateNanos;
+            count++;
+            totalNanos += nanos;
+            if (nanos >= maxNanos) {
+                maxNanos = nanos;
+                maxExecuteNanos = executeNanos;
+                maxHydrateNanos = hydrateNanos;
+                this.binds = binds;
+                this.rows = rows;
+            }
+        }
+
+        /**
+         * @return the normalized SQL of the shape
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return simple name of the model class queried
+         */
+        public String getModelClass() {
+            return modelClass;
+        }
+
+        /**
+         * @return the plan captured with EXPLAIN, null if none was
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return number of slow executions
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * @return total milliseconds of the slow executions
+         */
+        public synchronized double getTotalMillis() {
+            return totalNanos / 1000000.0;
+        }
+
+        /**
+         * @return milliseconds of the slowest execution
+         */
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1000000.0;
+        }
+
+        /**
+         * @return milliseconds the slowest execution spent executing the query
+         */
+        public synchronized double getMaxExecuteMillis() {
+            return maxExecuteNanos / 1000000.0;
+        }
+
+        /**
+         * @return milliseconds the slowest execution spent reading and hydrating rows
+         */
+        public synchronized double getMaxHydrateMillis() {
+            return maxHydrateNanos / 1000000.0;
+        }
+
+        /**
+         * @return number of bound parameters of the slowest execution
+         */
+        public synchronized int getBinds() {
+            return binds;
+        }
+
+        /**
+         * @return number of rows returned by the slowest execution
+         */
+        public synchronized int getRows() {
+            return rows;
+        }
+    }
+
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+
+    private SlowQueryLog() {}
+
+    public static SlowQueryLog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a select if it was slower than the threshold.  Must be called while the connection is still open.
+     *
+     * @param conn connection the select ran on, used for EXPLAIN
+     * @param sql the select
+     * @param sqlStatement statement whose parameters were bound
+     * @param c model class selected
+     * @param rows number of rows hydrated
+     * @param executeNanos time spent in executeQuery
+     * @param hydrateNanos time spent reading and hydrating the rows
+     * @param explain EXPLAIN syntax of the database, put in front of the select
+     */
+    void record(Connection conn, String sql, SqlStatement sqlStatement, Class<?> c, int rows, long executeNanos,
+                long hydrateNanos, String explain) {
+        Integer threshold = FdfSettings.SLOW_QUERY_THRESHOLD_MS;
+        if (threshold == null || threshold < 0 || executeNanos + hydrateNanos < threshold * 1000000L) {
+            return;
+        }
+
+        String shapeSql = normalize(sql);
+        Shape shape = shapes.computeIfAbsent(shapeSql, s -> new Shape(s, c.getSimpleName()));
+        int binds = sqlStatement.getParameters().size();
+        shape.record(binds, rows, executeNanos, hydrateNanos);
+
+        fdfLog.warn("Slow query on {}: {} ms ({} ms executing, {} ms hydrating), {} rows, {} binds: {}",
+                c.getSimpleName(), String.format("%.1f", (executeNanos + hydrateNanos) / 1000000.0),
+                String.format("%.1f", executeNanos / 1000000.0), String.format("%.1f", hydrateNanos / 1000000.0),
+                rows, binds, shapeSql);
+
+        if (FdfSettings.SLOW_QUERY_EXPLAIN && explain != null && shape.explained.compareAndSet(false, true)) {
+            shape.plan = explain(conn, explain + sql, sqlStatement);
+            if (shape.plan != null) {
+                fdfLog.warn("Plan of slow query {}:\n{}", shapeSql, shape.plan);
+            }
+        }
+
+        if (shapes.size() > MAX_SHAPES) {
+            trim();
+        }
+    }
+
+    /**
+     * @return the shapes with the most time spent in slow executions, the worst first, at most
+     * FdfSettings.SLOW_QUERY_TOP_N
+     */
+    public List<Shape> getWorst() {
+        List<Shape> worst = new ArrayList<>(shapes.values());
+        worst.sort(Comparator.comparingDouble(Shape::getTotalMillis).reversed());
+        return worst.size() > FdfSettings.SLOW_QUERY_TOP_N
+                ? new ArrayList<>(worst.subList(0, FdfSettings.SLOW_QUERY_TOP_N)) : worst;
+    }
+
+    /**
+     * @return one line per shape of getWorst(), followed by its plan if one was captured
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Shape shape : getWorst()) {
+            report.append(shape.getModelClass()).append(": ").append(shape.getCount()).append(" slow, total ")
+                    .append(String.format("%.1f", shape.getTotalMillis())).append(" ms, worst ")
+                    .append(String.format("%.1f", shape.getMaxMillis())).append(" ms (")
+                    .append(String.format("%.1f", shape.getMaxExecuteMillis())).append(" executing, ")
+                    .append(String.format("%.1f", shape.getMaxHydrateMillis())).append(" hydrating, ")
+                    .append(shape.getRows()).append(" rows, ").append(shape.getBinds()).append(" binds): ")
+                    .append(shape.getSql()).append("\n");
+            if (shape.getPlan() != null) {
+                report.append(shape.getPlan()).append("\n");
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Drops every recorded shape.
+     */
+    public void clear() {
+        shapes.clear();
+    }
+
+    /**
+     * Replaces literals with ?, collapses IN lists and whitespace, so queries that only differ in their values have
+     * the same shape.
+     */
+    static String normalize(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("IN (?...)");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    private static String explain(Connection conn, String explainSql, SqlStatement sqlStatement) {
+        try (PreparedStatement ps = conn.prepareStatement(explainSql)) {
+            try {
+                sqlStatement.bindParameters(ps, 1);
+            } catch (SQLException e) {
+                // HSQL plans the statement without its parameters (EXPLAIN PLAN FOR takes none)
+                ps.clearParameters();
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                while (rs.next()) {
+                    if (plan.length() > 0) {
+                        plan.append("\n");
+                    }
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        if (i > 1) {
+                            plan.append(" | ");
+                        }
+                        plan.append(rs.getString(i));
+                    }
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            fdfLog.debug("Unable to explain {}: {}", explainSql, e.getMessage());
+            return null;
+        }
+    }
+
+    private void trim() {
+        List<Shape> all = new ArrayList<>(shapes.values());
+        all.sort(Comparator.comparingDouble(Shape::getTotalMillis).reversed());
+        for (int i = MAX_SHAPES / 2; i < all.size(); i++) {
+            shapes.remove(all.get(i).getSql());
+        }
+    }
+}
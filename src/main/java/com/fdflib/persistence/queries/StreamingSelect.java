@@ -0,0 +1,190 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.persistence.mapping.RowPlan;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Select whose rows are read from an open cursor as they are consumed instead of being collected into a list.  The
+ * connection, statement and result set stay open until the last row has been read or the stream is closed, rows are
+ * fetched from the database fetchSize at a time and each one is hydrated only when it is reached.  The number of rows
+ * hydrated is recorded into FdfSettings.METRICS when the stream is closed.
+ *
+ * Used by the streamQuery implementations of each database, which pass the connection along with how to hand it back
+ * and the fetch size / transaction settings their driver needs for the cursor to actually stream.
+ */
+class StreamingSelect<S> implements Iterator<S>, AutoCloseable {
+
+    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(StreamingSelect.class);
+
+    /**
+     * Hands the connection back once the stream is done with it.
+     */
+    interface SessionCloser {
+        void close(Connection connection) throws SQLException;
+    }
+
+    private final Connection conn;
+    private final SessionCloser closer;
+    private final boolean restoreAutoCommit;
+    private final Class<S> type;
+    private long rows = 0;
+    private PreparedStatement ps;
+    private ResultSet rs;
+    private RowPlan<S> plan;
+
+    private boolean fetched = false;
+    private boolean closed = false;
+
+    private StreamingSelect(Connection conn, SessionCloser closer, boolean restoreAutoCommit, Class<S> type) {
+        this.conn = conn;
+        this.type = type;
+        this.closer = closer;
+        this.restoreAutoCommit = restoreAutoCommit;
+    }
+
+    /**
+     * Runs the select and returns a stream over its rows.  The stream closes the cursor and hands the connection back
+     * when the last row has been read, streams that are not read to the end must be closed (try with resources).
+     *
+     * @param conn connection to run the select on, owned by the stream from here on
+     * @param closer hands the connection back
+     * @param sql select sql containing sqlStatement.getWhere()
+     * @param sqlStatement statement whose parameters are bound
+     * @param c class of the rows
+     * @param fetchSize number of rows fetched per round trip, passed to Statement.setFetchSize
+     * @param needsTransaction true if the driver only uses a cursor with autocommit off (Postgres)
+     * @param <S> type of the rows
+     * @return stream of the rows, empty if the select could not be run
+     */
+    static <S> Stream<S> open(Connection conn, SessionCloser closer, String sql, SqlStatement sqlStatement,
+                              Class<S> c, int fetchSize, boolean needsTransaction) {
+        StreamingSelect<S> select = null;
+        try {
+            boolean restoreAutoCommit = needsTransaction && conn.getAutoCommit();
+            select = new StreamingSelect<>(conn, closer, restoreAutoCommit, c);
+            if (restoreAutoCommit) {
+                conn.setAutoCommit(false);
+            }
+
+            select.ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            select.ps.setFetchSize(fetchSize);
+            sqlStatement.bindParameters(select.ps, 1);
+            select.rs = select.ps.executeQuery();
+            select.plan = ClassMapping.forClass(c).planFor(select.rs.getMetaData());
+        } catch (SQLException e) {
+            fdfLog.error("Unable to run the select of {}: {}", c.getSimpleName(), e.getMessage());
+            if (select != null) {
+                select.close();
+            } else {
+                closeSession(conn, closer);
+            }
+            return Stream.empty();
+        }
+
+        StreamingSelect<S> rows = select;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(rows::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!fetched && !closed) {
+            try {
+                fetched = rs.next();
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Unable to read the next row of the select", e);
+            }
+            if (!fetched) {
+                close();
+            }
+        }
+        return fetched;
+    }
+
+    @Override
+    public S next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        rows++;
+        return plan.read(rs);
+    }
+
+    /**
+     * Closes the cursor and hands the connection back, may be called more then once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        fetched = false;
+        FdfSettings.METRICS.recordRowsHydrated(type, rows);
+
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to close the result set: {}", e.getMessage());
+            }
+        }
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                fdfLog.error("Unable to close the statement: {}", e.getMessage());
+            }
+        }
+        if (restoreAutoCommit) {
+            try {
+                // nothing was written, end the read only transaction the cursor lived in
+                conn.commit();
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                fdfLog.error("Unable to end the transaction of the select: {}", e.getMessage());
+            }
+        }
+        closeSession(conn, closer);
+    }
+
+    private static void closeSession(Connection conn, SessionCloser closer) {
+        try {
+            closer.close(conn);
+        } catch (SQLException e) {
+            fdfLog.error("Unable to close the connection: {}", e.getMessage());
+        }
+    }
+}
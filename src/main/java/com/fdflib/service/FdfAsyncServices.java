@@ -0,0 +1,280 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.service;
+
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous versions of the FdfCommonServices calls, each returns a CompletableFuture completed with the result of
+ * the blocking call once it has run on the 4DFLib executor.  Independent lookups can be started together and joined:
+ *
+ *     CompletableFuture&lt;Foo&gt; foo = FdfAsyncServices.getEntityCurrentById(Foo.class, fooId, 1);
+ *     CompletableFuture&lt;Bar&gt; bar = FdfAsyncServices.getEntityCurrentById(Bar.class, barId, 1);
+ *     CompletableFuture.allOf(foo, bar).join();
+ *
+ * The executor is FdfSettings.ASYNC_EXECUTOR when set, otherwise a bounded pool created on first use with one thread
+ * per pooled database connection (FdfSettings.ASYNC_POOL_SIZE) and a queue of FdfSettings.ASYNC_QUEUE_SIZE calls.
+ * When the queue is full calls run on the calling thread, so callers are held back instead of queueing without
+ * bound.  Pass tenant 1 for the default tenant (when not using multi-tenant).
+ */
+public class FdfAsyncServices {
+
+    static Logger fdfLog = LoggerFactory.getLogger(FdfAsyncServices.class);
+
+    private static ExecutorService executor = null;
+
+    /**
+     * Runs the passed call on the 4DFLib executor, for FdfCommonServices calls that have no asynchronous version here.
+     *
+     * @param call blocking call to run
+     * @param <T> type of the result
+     * @return future completed with the result of the call, or exceptionally with what it threw
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, getExecutor());
+    }
+
+    /* ---- Save ---- */
+
+    /**
+     * @see FdfCommonServices#save(Class, CommonState, long, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> save(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
+        return supply(() -> FdfCommonServices.save(entityState, state, userId, systemId, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#saveCurrent(Class, CommonState, long, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> saveCurrent(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
+        return supply(() -> FdfCommonServices.saveCurrent(entityState, state, userId, systemId, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#saveAll(Class, Collection, long, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<S>> saveAll(Class<S> entityState, Collection<S> states, long userId, long systemId, long tenantId) {
+        return supply(() -> FdfCommonServices.saveAll(entityState, states, userId, systemId, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#setDeleteFlag(Class, long, long, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> setDeleteFlag(Class<S> entityState, long id, long userId, long systemId, long tenantId) {
+        return supply(() -> FdfCommonServices.setDeleteFlag(entityState, id, userId, systemId, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#removeDeleteFlag(Class, long, long, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> removeDeleteFlag(Class<S> entityState, long id, long userId, long systemId, long tenantId) {
+        return supply(() -> FdfCommonServices.removeDeleteFlag(entityState, id, userId, systemId, tenantId));
+    }
+
+    /* ---- Get by id ---- */
+
+    /**
+     * @see FdfCommonServices#getEntityCurrentById(Class, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> getEntityCurrentById(Class<S> entityState, long id, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityCurrentById(entityState, id, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityById(Class, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> getEntityById(Class<S> entityState, long id, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityById(entityState, id, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityHistoryById(Class, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> getEntityHistoryById(Class<S> entityState, long id, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityHistoryById(entityState, id, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityByRid(Class, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> getEntityByRid(Class<S> entityState, long rid) {
+        return supply(() -> FdfCommonServices.getEntityByRid(entityState, rid));
+    }
+
+    /* ---- Audit ---- */
+
+    /**
+     * @see FdfCommonServices#auditEntityById(Class, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> auditEntityById(Class<S> entityState, long id, long tenantId) {
+        return supply(() -> FdfCommonServices.auditEntityById(entityState, id, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#auditEntityCurrentById(Class, long, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> auditEntityCurrentById(Class<S> entityState, long id, long tenantId) {
+        return supply(() -> FdfCommonServices.auditEntityCurrentById(entityState, id, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#auditAtDateById(Class, long, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> auditAtDateById(Class<S> entityState, long id, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.auditAtDateById(entityState, id, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#auditAll(Class, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<FdfEntity<S>>> auditAll(Class<S> entityState, long tenantId) {
+        return supply(() -> FdfCommonServices.auditAll(entityState, tenantId));
+    }
+
+    /* ---- Dates and ranges ---- */
+
+    /**
+     * @see FdfCommonServices#getAtDateById(Class, long, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<S> getAtDateById(Class<S> entityState, long id, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getAtDateById(entityState, id, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityFromDateById(Class, long, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> getEntityFromDateById(Class<S> entityState, long id, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityFromDateById(entityState, id, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityBeforeDateById(Class, long, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> getEntityBeforeDateById(Class<S> entityState, long id, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityBeforeDateById(entityState, id, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getEntityBetweenDatesById(Class, long, Date, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<FdfEntity<S>> getEntityBetweenDatesById(Class<S> entityState, long id, Date startDate, Date endDate, long tenantId) {
+        return supply(() -> FdfCommonServices.getEntityBetweenDatesById(entityState, id, startDate, endDate, tenantId));
+    }
+
+    /* ---- All entities ---- */
+
+    /**
+     * @see FdfCommonServices#getAll(Class, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<FdfEntity<S>>> getAll(Class<S> entityState, long tenantId) {
+        return supply(() -> FdfCommonServices.getAll(entityState, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getAllCurrent(Class, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<S>> getAllCurrent(Class<S> entityState, long tenantId) {
+        return supply(() -> FdfCommonServices.getAllCurrent(entityState, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getAllAtDate(Class, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<S>> getAllAtDate(Class<S> entityState, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getAllAtDate(entityState, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getAllFromDate(Class, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<FdfEntity<S>>> getAllFromDate(Class<S> entityState, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getAllFromDate(entityState, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getAllBeforeDate(Class, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<FdfEntity<S>>> getAllBeforeDate(Class<S> entityState, Date date, long tenantId) {
+        return supply(() -> FdfCommonServices.getAllBeforeDate(entityState, date, tenantId));
+    }
+
+    /**
+     * @see FdfCommonServices#getAllBetweenDates(Class, Date, Date, long)
+     */
+    public static <S extends CommonState> CompletableFuture<List<FdfEntity<S>>> getAllBetweenDates(Class<S> entityState, Date startDate, Date endDate, long tenantId) {
+        return supply(() -> FdfCommonServices.getAllBetweenDates(entityState, startDate, endDate, tenantId));
+    }
+
+    /* ---- Executor ---- */
+
+    /**
+     * Stops the executor created by FdfAsyncServices, waiting up to 30 seconds for the calls already submitted to run.
+     * Called by FdfServices.shutdownFdfDataModel, an executor passed in FdfSettings.ASYNC_EXECUTOR is left to the
+     * application.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    fdfLog.warn("Async calls still running at shutdown, they will fail once the database is closed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (FdfSettings.ASYNC_EXECUTOR != null) {
+            return FdfSettings.ASYNC_EXECUTOR;
+        }
+        if (executor == null) {
+            int threads = FdfSettings.ASYNC_POOL_SIZE != null ? FdfSettings.ASYNC_POOL_SIZE
+                    : FdfSettings.PERSISTENCE == DatabaseUtil.DatabaseType.HSQL ? FdfSettings.HSQL_POOL_SIZE
+                    : FdfSettings.PERSISTENCE == DatabaseUtil.DatabaseType.MEMORY ? Runtime.getRuntime().availableProcessors()
+                    : FdfSettings.HIKARICP_MAX_POOL_SIZE;
+            threads = Math.max(1, threads);
+            fdfLog.info("Starting async executor with {} threads", threads);
+
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, FdfSettings.ASYNC_QUEUE_SIZE)),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "4dflib-async-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return executor;
+    }
+}
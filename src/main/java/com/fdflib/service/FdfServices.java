@@ -20,6 +20,12 @@ import com.fdflib.model.state.FdfSystem;
 import com.fdflib.model.state.FdfTenant;
 import com.fdflib.persistence.FdfPersistence;
 import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.persistence.database.HSqlConnection;
+import com.fdflib.persistence.database.MariaDbConnection;
+import com.fdflib.persistence.database.MySqlConnection;
+import com.fdflib.persistence.database.PostgreSqlConnection;
+import com.fdflib.persistence.queries.CoreMemoryQueries;
+import com.fdflib.persistence.mapping.ClassMapping;
 import com.fdflib.util.FdfSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,13 +50,14 @@ public class FdfServices {
 
     public static void initializeFdfDataModel(List<Class> passedClasses) {
 
-        // check to see if the necessary settings are in place
+        // check to see if the necessary settings are in place, the memory store needs no database settings
         int flag = 0;
-        if(settings.DB_HOST == null) {
+        boolean inMemory = settings.PERSISTENCE == DatabaseUtil.DatabaseType.MEMORY;
+        if(settings.DB_HOST == null && !inMemory) {
             flag++;
             fdfLog.error("(initializeFdfDataModel): No DB_HOST set!");
         }
-        if(settings.DB_NAME == null) {
+        if(settings.DB_NAME == null && !inMemory) {
             flag++;
             fdfLog.error("(initializeFdfDataModel): No DB_NAME set!");
         }
@@ -58,7 +65,7 @@ public class FdfServices {
             flag++;
             fdfLog.error("(initializeFdfDataModel): No PERSISTENCE (Database) set!");
         }
-        if(settings.DB_USER == null) {
+        if(settings.DB_USER == null && !inMemory) {
             flag++;
             fdfLog.error("(initializeFdfDataModel): No DB_USER set!");
         }
@@ -76,7 +83,7 @@ public class FdfServices {
             fdfLog.info("(initializeFdfDataModel): No DB_ENCODING set, setting default {}", settings.DB_ENCODING.toString());
 
         }
-        if(FdfSettings.DB_PROTOCOL == null) {
+        if(FdfSettings.DB_PROTOCOL == null && !inMemory) {
             if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.MYSQL) {
                 settings.DB_PROTOCOL = DatabaseUtil.DatabaseProtocol.JDBC_MYSQL;
             }
@@ -93,6 +100,9 @@ public class FdfServices {
         // add the library FdfTenant model
         FdfSettings.getInstance().modelClasses.add(FdfTenant.class);
 
+        // build the column mappings for the data model once, they are used by all persistence implementations
+        ClassMapping.register(FdfSettings.getInstance().modelClasses);
+
         if(flag == 0) {
             // We have enough information to see if there exists a database
             // do necessary logging
@@ -106,11 +116,16 @@ public class FdfServices {
             fdfLog.info("Database schema name: {}", settings.DB_NAME);
             fdfLog.info("------------------------------------------------------------------");
             try {
+                // open the embedded database once, it stays up until shutdownFdfDataModel
+                if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.HSQL) {
+                    HSqlConnection.getInstance().start();
+                }
                 if(settings.USE_DB_ROOT) {
                     FdfPersistence.getInstance().checkDatabase();
                 }
                 FdfPersistence.getInstance().checkTables();
                 FdfPersistence.getInstance().checkFields();
+                FdfPersistence.getInstance().checkIndexes();
                 FdfPersistence.getInstance().checkDefaultEntries();
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -124,5 +139,29 @@ public class FdfServices {
 
     }
 
+    /**
+     * Releases the database resources held by 4DFLib: waits for submitted FdfAsyncServices calls, closes the connection
+     * pool and, for HSQL, shuts the embedded database (and its network server) down.  The MEMORY store drops its data.
+     * Call once when the application stops.
+     */
+    public static void shutdownFdfDataModel() {
+        FdfAsyncServices.shutdown();
+        if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.HSQL) {
+            HSqlConnection.getInstance().shutdown();
+        }
+        else if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.MYSQL) {
+            MySqlConnection.getInstance().shutdownDb();
+        }
+        else if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.MARIADB) {
+            MariaDbConnection.getInstance().shutdownDb();
+        }
+        else if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.POSTGRES) {
+            PostgreSqlConnection.getInstance().shutdownDb();
+        }
+        else if(settings.PERSISTENCE == DatabaseUtil.DatabaseType.MEMORY) {
+            CoreMemoryQueries.getInstance().clear();
+        }
+    }
+
 
 }
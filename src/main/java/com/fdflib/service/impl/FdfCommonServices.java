@@ -16,16 +16,26 @@
 
 package com.fdflib.service.impl;
 
+import com.fdflib.cache.CurrentStateCache;
+import com.fdflib.cache.HistoryCache;
+import com.fdflib.metrics.FdfMetrics;
 import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.entity.FdfEntityCollector;
 import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfPage;
 import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.util.FdfSettings;
 import com.fdflib.util.GeneralConstants;
+import com.fdflib.util.LongSet;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Universal implementation of the 4DF API, allows querying across all Entity states that extend CommonState.
@@ -81,31 +91,7 @@ public abstract class FdfCommonServices {
      * @return S the saved entity state (without FdfEntity)
      */
     public static <S extends CommonState> S save(S state, Class<S> entityState, long userId, long systemId, long tenantId) {
-        if(state.id <= 0) {
-            //Generate valid id for entity
-            state.id = getNewEntityId(entityState, tenantId);
-        }
-        else {
-            //Get the current record and archive it
-            S lastCurrentEntity = auditEntityCurrentById(entityState, state.id, tenantId);
-            //FdfEntity<S> thisEntity = auditEntityById(entityState, state.id, tenantId);
-            if(lastCurrentEntity != null) {
-                //Mark as inactive
-                lastCurrentEntity.cf = false;
-                //Record inactivity date
-                lastCurrentEntity.ared = Calendar.getInstance().getTime();
-                //Update old state
-                FdfPersistence.getInstance().update(entityState, lastCurrentEntity);
-            }
-        }
-        //Set generic fields for new record, save entity, then return it.
-        state.arsd = Calendar.getInstance().getTime();
-        state.ared = null;
-        state.cf = true;
-        state.euid = userId;
-        state.esid = systemId;
-        state.tid = tenantId;
-        return auditEntityByRid(entityState, FdfPersistence.getInstance().insert(entityState, state));
+        return auditEntityByRid(entityState, saveNewCurrentState(entityState, state, userId, systemId, tenantId));
     }
 
     /**
@@ -152,43 +138,193 @@ public abstract class FdfCommonServices {
      * @return FdfEntity that contains current and historical states for the saved entity
      */
     public static <S extends CommonState> FdfEntity<S> save(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
-        // set the common meta fields for the new record
-        state.arsd = Calendar.getInstance().getTime();
-        state.ared = null;
-        state.cf = true;
-        state.euid = userId;
-        state.esid = systemId;
-        state.tid = tenantId;
-        // check to see if this if an id is assigned (existing vs new entity)
+        // save the new state as current, closing the previous current state
+        saveNewCurrentState(entityState, state, userId, systemId, tenantId);
         if(state.id <= 0) {
-            // if this is a new entity, get an id for it
-            state.id = getNewEntityId(entityState, tenantId);
-            if(state.id < 0) {
-                return new FdfEntity<>();
+            return new FdfEntity<>();
+        }
+        // get the entity and return
+        return auditEntityById(entityState, state.id, tenantId);
+    }
+
+    /**
+     * Save an Entities State to persistence without reading back the entity.  The previous current state is closed
+     * and the new state inserted in a single transaction (a single statement where the database supports it).  Uses
+     * the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param userId Id of user that is saving the state
+     * @param systemId Id of system that is saving the state
+     * @param <S> parameterized type of entity state
+     * @return the saved state with rid, arsd and ared set, null if the save failed
+     */
+    public static <S extends CommonState> S saveCurrent(Class<S> entityState, S state, long userId, long systemId) {
+        return saveCurrent(entityState, state, userId, systemId, 1);
+    }
+
+    /**
+     * Save an Entities State to persistence without reading back the entity.  The previous current state is closed
+     * and the new state inserted in a single transaction (a single statement where the database supports it).
+     *
+     * This method signature assumes that the object contains the userId, systemId and tenantId saving the data in the
+     * euid, esid, and tid respectively.
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param <S> parameterized type of entity state
+     * @return the saved state with rid, arsd and ared set, null if the save failed
+     */
+    public static <S extends CommonState> S saveCurrent(Class<S> entityState, S state) {
+        return saveCurrent(entityState, state, state.euid, state.esid, state.tid);
+    }
+
+    /**
+     * Save an Entities State to persistence without reading back the entity.  The previous current state is closed
+     * and the new state inserted in a single transaction (a single statement where the database supports it).  The
+     * returned state is the passed state with the new rid and the arsd/ared that were written, the entity history is
+     * not re-read.  Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param userId Id of user that is saving the state
+     * @param systemId Id of system that is saving the state
+     * @param tenantId Id of tenant this entity is associated with
+     * @param <S> parameterized type of entity state
+     * @return the saved state with rid, arsd and ared set, null if the save failed
+     */
+    public static <S extends CommonState> S saveCurrent(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
+        long rid = saveNewCurrentState(entityState, state, userId, systemId, tenantId);
+        if(rid < 0) {
+            return null;
+        }
+        state.rid = rid;
+        return state;
+    }
+
+    /**
+     * Save many Entity States to persistence at once using JDBC batching.  Uses the Default FdfTenant (when not using
+     * multi-tenant)
+     *
+     * @param entityState State Type to save
+     * @param states states to save, each entity may only appear once
+     * @param userId Id of user that is saving the states
+     * @param systemId Id of system that is saving the states
+     * @param <S> parameterized type of entity state
+     * @return the saved states in the order passed, with id, rid, arsd and ared set (rid is -1 if a state was not saved)
+     */
+    public static <S extends CommonState> List<S> saveAll(Class<S> entityState, Collection<S> states, long userId, long systemId) {
+        return saveAll(entityState, states, userId, systemId, 1);
+    }
+
+    /**
+     * Save many Entity States to persistence at once using JDBC batching.  The current states of the existing entities
+     * are closed with one batched update and all new states are written with one batched insert, in batches of
+     * FdfSettings.BATCH_SIZE statements and a single transaction, so either all states are saved or none.  New
+     * entities are assigned ids by FdfSettings.ENTITY_ID_ALLOCATOR.  Nothing is saved if an entity is passed more than
+     * once.  Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState State Type to save
+     * @param states states to save, each entity may only appear once
+     * @param userId Id of user that is saving the states
+     * @param systemId Id of system that is saving the states
+     * @param tenantId Id of tenant these entities are associated with
+     * @param <S> parameterized type of entity state
+     * @return the saved states in the order passed, with id, rid, arsd and ared set (rid is -1 if a state was not saved)
+     */
+    public static <S extends CommonState> List<S> saveAll(Class<S> entityState, Collection<S> states, long userId, long systemId, long tenantId) {
+        List<S> savedStates = new ArrayList<>(states);
+        if(savedStates.isEmpty()) {
+            return savedStates;
+        }
+        long start = System.nanoTime();
+        Date now = Calendar.getInstance().getTime();
+
+        // each entity may only be saved once per call, its states would all start at the same instant
+        Set<Long> entityIds = new HashSet<>();
+        Set<S> passed = Collections.newSetFromMap(new IdentityHashMap<>());
+        int newEntities = 0;
+        for(S state : savedStates) {
+            if(!passed.add(state) || (state.id > 0 && !entityIds.add(state.id))) {
+                fdfLog.error("Entity {} of {} was passed to saveAll more than once, nothing saved", state.id,
+                        entityState.getSimpleName());
+                for(S failed : savedStates) {
+                    failed.rid = -1;
+                }
+                return savedStates;
+            }
+            if(state.id <= 0) {
+                newEntities++;
             }
         }
-        // get full entity for state
-        FdfEntity<S> thisEntity = auditEntityById(entityState, state.id, tenantId);
-        // check to see if there is an existing entity, if not, create
-        if(thisEntity == null) {
-            thisEntity = new FdfEntity<>();
+
+        // new entities get their ids in one allocation, before anything is written
+        List<Long> newIds = newEntities > 0
+                ? FdfSettings.ENTITY_ID_ALLOCATOR.nextIds(entityState, tenantId, newEntities)
+                : Collections.<Long>emptyList();
+        if(newIds.size() < newEntities) {
+            fdfLog.error("Unable to allocate {} entity ids for {}", newEntities, entityState.getSimpleName());
+            for(S state : savedStates) {
+                state.rid = -1;
+            }
+            return savedStates;
         }
-        // get the previous current record and move to history
-        if(thisEntity.current != null) {
-            S lastCurrentState = thisEntity.current;
-            // set the end date
-            lastCurrentState.ared = Calendar.getInstance().getTime();
-            // set the current flag
-            lastCurrentState.cf = false;
-            // move the state to history
-            FdfPersistence.getInstance().update(entityState, lastCurrentState);
+
+        // set the common meta fields for the new records
+        int nextId = 0;
+        for(S state : savedStates) {
+            if(state.id <= 0) {
+                state.id = newIds.get(nextId++);
+            }
+            state.arsd = now;
+            state.ared = null;
+            state.cf = true;
+            state.euid = userId;
+            state.esid = systemId;
+            state.tid = tenantId;
+        }
+
+        // close the current states of the entities and save the new states as current in one transaction
+        List<Long> returnedRids = FdfPersistence.getInstance().closeAndInsertBatch(entityState, savedStates);
+        for(int i = 0; i < savedStates.size(); i++) {
+            savedStates.get(i).rid = i < returnedRids.size() ? returnedRids.get(i) : -1L;
+            CurrentStateCache.getInstance().invalidate(entityState, savedStates.get(i).id, tenantId);
+        }
+        FdfSettings.METRICS.recordOperation(entityState, FdfMetrics.Operation.SAVE, System.nanoTime() - start);
+        return savedStates;
+    }
+
+    /**
+     * Sets the common meta fields on the state, assigns a new id for new entities and writes the state as the current
+     * state of the entity, closing the previous current state at the same instant.
+     *
+     * @return rid of the new state, or -1 if the save failed
+     */
+    private static <S extends CommonState> long saveNewCurrentState(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
+        long start = System.nanoTime();
+        try {
+            // set the common meta fields for the new record, the previous current state ends as this one starts
+            state.arsd = Calendar.getInstance().getTime();
+            state.ared = null;
+            state.cf = true;
+            state.euid = userId;
+            state.esid = systemId;
+            state.tid = tenantId;
+            // check to see if this if an id is assigned (existing vs new entity)
+            if(state.id <= 0) {
+                // if this is a new entity, get an id for it
+                state.id = getNewEntityId(entityState, tenantId);
+                if(state.id < 0) {
+                    return -1L;
+                }
+            }
+            // close the previous current state and save the new state as current
+            Long returnedRid = FdfPersistence.getInstance().insertCurrent(entityState, state);
+            CurrentStateCache.getInstance().invalidate(entityState, state.id, tenantId);
+            return returnedRid != null ? returnedRid : -1L;
+        } finally {
+            FdfSettings.METRICS.recordOperation(entityState, FdfMetrics.Operation.SAVE, System.nanoTime() - start);
         }
-        // save the new state as current
-        long returnedRid = FdfPersistence.getInstance().insert(entityState, state);
-        // get id for rid
-        S entity = auditEntityByRid(entityState, returnedRid);
-        // get the entity and return
-        return auditEntityById(entityState, entity.id, tenantId);
     }
 
     /**
@@ -335,6 +471,20 @@ public abstract class FdfCommonServices {
         return FdfPersistence.getInstance().selectQuery(entityState, sqlStatement);
     }
 
+    /**
+     * Streaming version of sqlStatementSelect, rows are read from an open cursor and hydrated as the stream is
+     * consumed so results larger then memory can be processed.  The stream holds a database connection until it has
+     * been read to the end or closed, use try with resources when it may not be read to the end.
+     *
+     * @param entityState
+     * @param sqlStatement
+     * @param <S>
+     * @return
+     */
+    public static <S extends CommonState> Stream<S> sqlStatementStream(Class<S> entityState, SqlStatement sqlStatement) {
+        return FdfPersistence.getInstance().streamQuery(entityState, sqlStatement);
+    }
+
     /**
      * Retrieves all entities including deleted records of type passed from persistence. Includes all current and
      * historical data for each entity returned.  Uses the Default FdfTenant (when not using multi-tenant)
@@ -360,6 +510,35 @@ public abstract class FdfCommonServices {
         return manageReturnedEntities(SqlStatement.build().where(addByTid(tenantId)).run(entityState));
     }
 
+    /**
+     * Streaming version of auditAll, entities are read from an open cursor ordered by id and passed on one at a time
+     * so tables larger then memory can be exported.  The stream holds a database connection until it has been read to
+     * the end or closed, use try with resources when it may not be read to the end.  Uses the Default FdfTenant (when
+     * not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param <S> parameterized type of entity
+     * @return Stream of type passed
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> streamAuditAll(Class<S> entityState) {
+        return streamAuditAll(entityState, 1);
+    }
+
+    /**
+     * Streaming version of auditAll, entities are read from an open cursor ordered by id and passed on one at a time
+     * so tables larger then memory can be exported.  The stream holds a database connection until it has been read to
+     * the end or closed, use try with resources when it may not be read to the end.  Includes specified tenant (when
+     * using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return Stream of type passed
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> streamAuditAll(Class<S> entityState, long tenantId) {
+        return manageStreamedEntities(SqlStatement.build().where(addByTid(tenantId)).orderBy("id").stream(entityState));
+    }
+
     /**
      * Retrieves all entities including deleted records of type passed from persistence, only returns current data for
      * each entity, without any historical data.  Uses the Default FdfTenant (when not using multi-tenant)
@@ -460,6 +639,120 @@ public abstract class FdfCommonServices {
         return manageReturnedEntities(SqlStatement.build().where(addNotCf()).where(setWithHistory(tenantId)).run(entityState));
     }
 
+    /**
+     * Returns one page of the current states of the entity type passed, ordered by id, using keyset pagination so that
+     * deep pages cost as little as the first one.  Pass a null cursor for the first page and the nextCursor of each
+     * page for the page after it.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param pageSize maximum number of states in the page
+     * @param <S> Parameterized type of entity
+     * @return page of current states
+     */
+    public static <S extends CommonState> FdfPage<S> getAllCurrentPage(Class<S> entityState, String cursor, int pageSize) {
+        return getAllCurrentPage(entityState, cursor, pageSize, 1);
+    }
+
+    /**
+     * Returns one page of the current states of the entity type passed, ordered by id, using keyset pagination so that
+     * deep pages cost as little as the first one.  Pass a null cursor for the first page and the nextCursor of each
+     * page for the page after it.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param pageSize maximum number of states in the page
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return page of current states
+     */
+    public static <S extends CommonState> FdfPage<S> getAllCurrentPage(Class<S> entityState, String cursor, int pageSize, long tenantId) {
+        List<S> states = SqlStatement.build().where(setForCurrent(tenantId)).after(cursor).limit(pageSize, 1).run(entityState);
+        return new FdfPage<>(states, pageSize > 0 && states.size() >= pageSize
+                ? SqlStatement.cursorOf(states.get(states.size() - 1)) : null);
+    }
+
+    /**
+     * Returns one page of the entities of the type passed with their historical states only (as getAllHistory), ordered
+     * by id, using keyset pagination so that deep pages cost as little as the first one.  Each entity is returned whole
+     * on one page unless it alone has more than pageSize states, then it continues on the following page.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param pageSize maximum number of states in the page
+     * @param <S> Parameterized type of entity
+     * @return page of entities
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAllHistoryPage(Class<S> entityState, String cursor, int pageSize) {
+        return getAllHistoryPage(entityState, cursor, pageSize, 1);
+    }
+
+    /**
+     * Returns one page of the entities of the type passed with their historical states only (as getAllHistory), ordered
+     * by id, using keyset pagination so that deep pages cost as little as the first one.  Each entity is returned whole
+     * on one page unless it alone has more than pageSize states, then it continues on the following page.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param pageSize maximum number of states in the page
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return page of entities
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAllHistoryPage(Class<S> entityState, String cursor, int pageSize, long tenantId) {
+        List<S> states = SqlStatement.build().where(addNotCf()).where(setWithHistory(tenantId)).after(cursor)
+                .limit(pageSize, 1).run(entityState);
+        if(pageSize <= 0 || states.size() < pageSize) {
+            return new FdfPage<>(manageReturnedEntities(states), null);
+        }
+
+        // the last entity may have more states on the next page, leave it to that page unless it fills this one
+        long lastId = states.get(states.size() - 1).id;
+        int end = states.size();
+        while(end > 0 && states.get(end - 1).id == lastId) {
+            end--;
+        }
+        List<S> pageStates = end > 0 ? states.subList(0, end) : states;
+        return new FdfPage<>(manageReturnedEntities(new ArrayList<>(pageStates)),
+                SqlStatement.cursorOf(pageStates.get(pageStates.size() - 1)));
+    }
+
+    /**
+     * Streaming version of getAllHistory, entities are read from an open cursor ordered by id and passed on one at a
+     * time.  The stream holds a database connection until it has been read to the end or closed, use try with
+     * resources when it may not be read to the end.  Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param <S> parameterized type of entity
+     * @return Stream of type passed
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> streamAllHistory(Class<S> entityState) {
+        return streamAllHistory(entityState, 1);
+    }
+
+    /**
+     * Streaming version of getAllHistory, entities are read from an open cursor ordered by id and passed on one at a
+     * time.  The stream holds a database connection until it has been read to the end or closed, use try with
+     * resources when it may not be read to the end.  Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return Stream of type passed
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> streamAllHistory(Class<S> entityState, long tenantId) {
+        return manageStreamedEntities(SqlStatement.build().where(addNotCf()).where(setWithHistory(tenantId))
+                .orderBy("id").stream(entityState));
+    }
+
     /**
      * Retrieves all entities of the passed type from persistence as they existed at the date passed. Only states
      * existing at the date passed will be returned.  Usually this will only return one State per Entity in the form
@@ -703,7 +996,10 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> FdfEntity<S> auditEntityById(Class<S> entityState, long id, long tenantId) {
-        return manageReturnedEntity(SqlStatement.build().where(addById(id)).where(addByTid(tenantId)).run(entityState));
+        if(!isHistoryCached(entityState)) {
+            return manageReturnedEntity(SqlStatement.build().where(addById(id)).where(addByTid(tenantId)).run(entityState));
+        }
+        return manageReturnedEntity(getStatesById(entityState, id, tenantId));
     }
 
     /**
@@ -723,7 +1019,8 @@ public abstract class FdfCommonServices {
     /**
      * Retrieves the entity associated with the id passed. Returns current and historical states for the entity
      *
-     * Includes specified tenant (when using multi-tenant)
+     * Includes specified tenant (when using multi-tenant).  Served from the CurrentStateCache for classes annotated
+     * with @FdfCached.
      *
      * @param entityState The entity type to query
      * @param id The Id of the Entity to retrieve
@@ -732,7 +1029,8 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> FdfEntity<S> getEntityById(Class<S> entityState, long id, long tenantId) {
-        return manageReturnedEntity(SqlStatement.build().where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
+        return CurrentStateCache.getInstance().getEntity(entityState, id, tenantId, () ->
+                manageReturnedEntity(SqlStatement.build().where(addById(id)).where(setWithHistory(tenantId)).run(entityState)));
     }
 
     /**
@@ -754,7 +1052,8 @@ public abstract class FdfCommonServices {
      * Retrieves the entity of type passed from persistence, only returns current data, without any historical
      * data.
      *
-     * Includes specified tenant (when using multi-tenant)
+     * Includes specified tenant (when using multi-tenant).  Served from the CurrentStateCache for classes annotated
+     * with @FdfCached.
      *
      * @param entityState The entity type to query
      * @param id Id of the Entity to retrieve
@@ -763,13 +1062,157 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> S getEntityCurrentById(Class<S> entityState, long id, long tenantId) {
-        return SqlStatement.build().where(addById(id)).where(setForCurrent(tenantId)).run(entityState).stream().findAny().orElse(null);
+        return CurrentStateCache.getInstance().getCurrent(entityState, id, tenantId, () ->
+                SqlStatement.build().where(addById(id)).where(setForCurrent(tenantId)).run(entityState).stream().findAny().orElse(null));
     }
 
     public static <S extends CommonState> S auditEntityCurrentById(Class<S> entityState, long id, long tenantId) {
         return SqlStatement.build().where(addById(id)).where(auditForCurrent(tenantId)).run(entityState).stream().findAny().orElse(null);
     }
 
+    /**
+     * Retrieves the current states of the entities with the ids passed, in as few queries as possible (one per
+     * FdfSettings.BATCH_SIZE ids).  Ids without a current state are left out of the returned map.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param <S> parameterized type of entity
+     * @return current states by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, S> getEntitiesCurrentByIds(Class<S> entityState, Collection<Long> ids) {
+        return getEntitiesCurrentByIds(entityState, ids, 1);
+    }
+
+    /**
+     * Retrieves the current states of the entities with the ids passed, in as few queries as possible (one per
+     * FdfSettings.BATCH_SIZE ids).  Ids without a current state are left out of the returned map.
+     *
+     * Includes specified tenant (when using multi-tenant).  Served from the CurrentStateCache for classes annotated
+     * with @FdfCached, only the ids it does not hold are queried.
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return current states by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, S> getEntitiesCurrentByIds(Class<S> entityState, Collection<Long> ids, long tenantId) {
+        return inIdOrder(ids, CurrentStateCache.getInstance().getCurrents(entityState, ids, tenantId, missing -> {
+            Map<Long, S> states = new HashMap<>();
+            for(S state : selectByIds(entityState, missing, setForCurrent(tenantId))) {
+                states.putIfAbsent(state.id, state);
+            }
+            return states;
+        }));
+    }
+
+    /**
+     * Retrieves the entities with the ids passed, current and historical states, in as few queries as possible (one per
+     * FdfSettings.BATCH_SIZE ids).  Ids without any state are left out of the returned map.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param <S> Parameterized type of entity
+     * @return Entities by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, FdfEntity<S>> getEntitiesByIds(Class<S> entityState, Collection<Long> ids) {
+        return getEntitiesByIds(entityState, ids, 1);
+    }
+
+    /**
+     * Retrieves the entities with the ids passed, current and historical states, in as few queries as possible (one per
+     * FdfSettings.BATCH_SIZE ids).  Ids without any state are left out of the returned map.
+     *
+     * Includes specified tenant (when using multi-tenant).  Served from the CurrentStateCache for classes annotated
+     * with @FdfCached, only the ids it does not hold are queried.
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return Entities by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, FdfEntity<S>> getEntitiesByIds(Class<S> entityState, Collection<Long> ids, long tenantId) {
+        return inIdOrder(ids, CurrentStateCache.getInstance().getEntities(entityState, ids, tenantId, missing ->
+                entitiesById(missing, selectByIds(entityState, missing, setWithHistory(tenantId)))));
+    }
+
+    /**
+     * Retrieves the entities with the ids passed, current and historical states including states that are in a df
+     * state, in as few queries as possible (one per FdfSettings.BATCH_SIZE ids).  Ids without any state are left out
+     * of the returned map.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param <S> Parameterized type of entity
+     * @return Entities by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, FdfEntity<S>> auditEntitiesByIds(Class<S> entityState, Collection<Long> ids) {
+        return auditEntitiesByIds(entityState, ids, 1);
+    }
+
+    /**
+     * Retrieves the entities with the ids passed, current and historical states including states that are in a df
+     * state, in as few queries as possible (one per FdfSettings.BATCH_SIZE ids).  Ids without any state are left out
+     * of the returned map.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return Entities by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, FdfEntity<S>> auditEntitiesByIds(Class<S> entityState, Collection<Long> ids, long tenantId) {
+        List<WhereClause> whereStatement = new ArrayList<>();
+        whereStatement.add(addByTid(tenantId));
+        return entitiesById(ids, selectByIds(entityState, ids, whereStatement));
+    }
+
+    /**
+     * Retrieves the states the entities with the ids passed had at the date passed, in as few queries as possible (one
+     * per FdfSettings.BATCH_SIZE ids).  Ids without a state at the date are left out of the returned map.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param date Date to retrieve the states at
+     * @param <S> Parameterized type of entity
+     * @return states by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, S> getAtDateByIds(Class<S> entityState, Collection<Long> ids, Date date) {
+        return getAtDateByIds(entityState, ids, date, 1);
+    }
+
+    /**
+     * Retrieves the states the entities with the ids passed had at the date passed, in as few queries as possible (one
+     * per FdfSettings.BATCH_SIZE ids).  Ids without a state at the date are left out of the returned map.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param ids Ids of the Entities to retrieve
+     * @param date Date to retrieve the states at
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return states by id, in the order of the ids passed
+     */
+    public static <S extends CommonState> Map<Long, S> getAtDateByIds(Class<S> entityState, Collection<Long> ids, Date date, long tenantId) {
+        Map<Long, S> states = new HashMap<>();
+        for(S state : selectByIds(entityState, ids, setAtDate(date, tenantId))) {
+            states.putIfAbsent(state.id, state);
+        }
+        return inIdOrder(ids, states);
+    }
+
     /**
      * Retrieves entity of type passed from persistence, only returning the historical data in the entity,
      * no current data is included.
@@ -798,7 +1241,11 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> FdfEntity<S> getEntityHistoryById(Class<S> entityState, long id, long tenantId) {
-        return manageReturnedEntity(SqlStatement.build().where(addNotCf()).where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
+        if(!isHistoryCached(entityState)) {
+            return manageReturnedEntity(SqlStatement.build().where(addNotCf()).where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
+        }
+        return manageReturnedEntity(getStatesById(entityState, id, tenantId).stream()
+                .filter(state -> !state.cf && !state.df).collect(Collectors.toList()));
     }
 
     /**
@@ -932,7 +1379,11 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> S getAtDateById(Class<S> entityState, long id, Date date, long tenantId) {
-        return SqlStatement.build().where(addById(id)).where(setAtDate(date, tenantId)).run(entityState).stream().findFirst().orElse(null);
+        if(!isHistoryCached(entityState)) {
+            return SqlStatement.build().where(addById(id)).where(setAtDate(date, tenantId)).run(entityState).stream().findFirst().orElse(null);
+        }
+        return getStatesById(entityState, id, tenantId).stream()
+                .filter(state -> !state.df && startedBy(state, date) && notEndedBefore(state, date)).findFirst().orElse(null);
     }
 
     /**
@@ -1085,8 +1536,13 @@ public abstract class FdfCommonServices {
      * @return List of type passed
      */
     public static <S extends CommonState> FdfEntity<S> getEntityBetweenDatesById(Class<S> entityState, long id, Date startDate, Date endDate, long tenantId) {
-        return manageReturnedEntity(SqlStatement.build().where(addByArsdBefore(endDate)).where(addByArsdBefore(startDate))
-                .where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
+        if(!isHistoryCached(entityState)) {
+            return manageReturnedEntity(SqlStatement.build().where(addByArsdBefore(endDate)).where(addByArsdBefore(startDate))
+                    .where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
+        }
+        return manageReturnedEntity(getStatesById(entityState, id, tenantId).stream()
+                .filter(state -> !state.df && startedBy(state, endDate) && startedBy(state, startDate))
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -1097,27 +1553,20 @@ public abstract class FdfCommonServices {
      * @return List of Entities of Type passed
      */
     public static <S extends CommonState> List<FdfEntity<S>> manageReturnedEntities(List<S> rawStates) {
-        // create a List of entities
-        List<FdfEntity<S>> allEntities = new ArrayList<>();
-        for(S state: rawStates) {
-            // see if this states entityId has already been seen
-            boolean flag = false;
-            // compare this id against existing ones
-            for(FdfEntity<S> thisEntity : allEntities) {
-                if(thisEntity.entityId == state.id) {
-                    flag = true;
-                    addStateToEntity(state, thisEntity);
-                }
-            }
-            // state id was not found in existing entities, add a new one
-            if(!flag) {
-                // build a entity
-                FdfEntity<S> entity = new FdfEntity<>();
-                addStateToEntity(state, entity);
-                allEntities.add(entity);
-            }
-        }
-        return allEntities;
+        return FdfEntityCollector.collect(rawStates);
+    }
+
+    /**
+     * Takes a stream of raw states ordered by id and organizes them into a stream of entities, each entity is passed
+     * on as soon as all of its states have been read.  The query must be ordered by id (states of one id must be next
+     * to each other), closing the returned stream closes the stream of states.
+     *
+     * @param rawStates : Stream of states ordered by id to organize into entities
+     * @param <S> Parameterized Type of entity
+     * @return Stream of Entities of Type passed
+     */
+    public static <S extends CommonState> Stream<FdfEntity<S>> manageStreamedEntities(Stream<S> rawStates) {
+        return FdfEntityCollector.groupOrdered(rawStates);
     }
 
     /**
@@ -1129,7 +1578,21 @@ public abstract class FdfCommonServices {
      */
     public static <S extends CommonState> FdfEntity<S> manageReturnedEntity(List<S> rawStates) {
         FdfEntity<S> entity = new FdfEntity<>();
-        rawStates.forEach(state -> addStateToEntity(state, entity));
+        LongSet historyRids = new LongSet(rawStates.size());
+        for(S state : rawStates) {
+            //The first state sets the entityId, states of any other id do not belong here.
+            if(entity.entityId == -1) {
+                entity.entityId = state.id;
+            }
+            if(entity.entityId == state.id) {
+                if(state.cf) {
+                    entity.current = state;
+                }
+                else if(historyRids.add(state.rid)) {
+                    entity.history.add(state);
+                }
+            }
+        }
         return entity;
     }
 
@@ -1177,11 +1640,106 @@ public abstract class FdfCommonServices {
      * @return Entities of Type passed
      */
     public static long getNewEntityId(Class<? extends CommonState> entityState, long tenantId) {
+        return FdfSettings.ENTITY_ID_ALLOCATOR.nextId(entityState, tenantId);
+    }
+
+    /**
+     * Returns the highest id of the tenant's current states, 0 if there are none.  Used by MaxIdAllocator.
+     * @param entityState Class of entity to query
+     * @param tenantId Id of tenant associated with the entity
+     * @return highest entity id
+     */
+    public static long getMaxEntityId(Class<? extends CommonState> entityState, long tenantId) {
         CommonState returnedState = SqlStatement.build().select("max(id) AS id").where(auditForCurrent(tenantId)).run(entityState).stream().findAny().orElse(null);
-        return (returnedState != null && returnedState.id > 0 ? returnedState.id + 1 : 1);
+        return (returnedState != null && returnedState.id > 0 ? returnedState.id : 0);
     }
 
     /* ---- Generic Service Functions ---- */
+
+    /**
+     * Selects the states matching the where statement for the ids passed, with one id IN (...) query per
+     * FdfSettings.BATCH_SIZE ids.  Each id set is padded to a power of two by repeating its last id so that only a
+     * few differently sized statements are ever prepared.
+     */
+    private static <S extends CommonState> List<S> selectByIds(Class<S> entityState, Collection<Long> ids, List<WhereClause> whereStatement) {
+        List<Long> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        idList.removeIf(Objects::isNull);
+        List<S> states = new ArrayList<>();
+        int chunkSize = Math.max(1, FdfSettings.BATCH_SIZE);
+        for(int start = 0; start < idList.size(); start += chunkSize) {
+            List<Long> idChunk = idList.subList(start, Math.min(start + chunkSize, idList.size()));
+            int setSize = Math.max(idChunk.size(), Math.min(chunkSize, Integer.highestOneBit(idChunk.size() * 2 - 1)));
+            StringBuilder idSet = new StringBuilder();
+            for(int i = 0; i < setSize; i++) {
+                if(idSet.length() > 0) {
+                    idSet.append(",");
+                }
+                idSet.append(idChunk.get(Math.min(i, idChunk.size() - 1)));
+            }
+            List<WhereClause> chunkStatement = new ArrayList<>(whereStatement);
+            chunkStatement.add(addByIdSet(idSet.toString()));
+            states.addAll(FdfPersistence.getInstance().selectQuery(entityState, SqlStatement.build().where(chunkStatement)));
+        }
+        return states;
+    }
+
+    private static <S extends CommonState> Map<Long, FdfEntity<S>> entitiesById(Collection<Long> ids, List<S> states) {
+        Map<Long, FdfEntity<S>> entities = new HashMap<>();
+        for(FdfEntity<S> entity : manageReturnedEntities(states)) {
+            entities.put(entity.entityId, entity);
+        }
+        return inIdOrder(ids, entities);
+    }
+
+    private static <V> Map<Long, V> inIdOrder(Collection<Long> ids, Map<Long, V> values) {
+        Map<Long, V> ordered = new LinkedHashMap<>();
+        for(Long id : ids) {
+            if(id != null && values.containsKey(id)) {
+                ordered.put(id, values.get(id));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * True if the by id history reads of the class go through the HistoryCache: the class is annotated with
+     * @FdfHistoryCached and FdfSettings.HISTORY_CACHE_SIZE is above 0.
+     */
+    private static boolean isHistoryCached(Class<?> entityState) {
+        return FdfSettings.HISTORY_CACHE_SIZE > 0 && ClassMapping.forClass(entityState).isHistoryCached();
+    }
+
+    /**
+     * Reads every state of the entity ordered by rid, closed states already read are taken from the HistoryCache and
+     * only the states newer than its watermark for the entity are read from the database.  Callers filter the states
+     * with the same rules their where clauses would apply.  Only used for classes annotated with @FdfHistoryCached.
+     */
+    private static <S extends CommonState> List<S> getStatesById(Class<S> entityState, long id, long tenantId) {
+        return HistoryCache.getInstance().getStates(entityState, id, tenantId, watermark -> SqlStatement.build()
+                .where(addById(id)).where(addByTid(tenantId)).where(watermark >= 0 ? addByRidAfter(watermark) : null)
+                .run(entityState));
+    }
+
+    /**
+     * In memory version of addByArsdBefore: true if the state started at or before the date (at the second precision
+     * of DB_DATE_FORMAT), or if there is no date.
+     */
+    private static boolean startedBy(CommonState state, Date date) {
+        return date == null || (state.arsd != null && !state.arsd.after(toDbPrecision(date)));
+    }
+
+    /**
+     * In memory version of addByAredAfter: true if the state is current or ended at or after the date (at the second
+     * precision of DB_DATE_FORMAT), only current states when there is no date.
+     */
+    private static boolean notEndedBefore(CommonState state, Date date) {
+        return state.ared == null || (date != null && !state.ared.before(toDbPrecision(date)));
+    }
+
+    private static Date toDbPrecision(Date date) {
+        return new Date(date.getTime() - Math.floorMod(date.getTime(), 1000L));
+    }
+
     protected static String parseIdSet(String idSet) {
         if(idSet.matches(".*\\d.*")) {
             idSet = idSet.replaceAll("-+", ",");
@@ -1208,6 +1766,19 @@ public abstract class FdfCommonServices {
         whereRid.valueDataType = Long.class;
         return whereRid;
     }
+    /**
+     * Creates a WhereClause that represents <i>WHERE rid &gt; @param rid</i>
+     * @param rid Value for WhereClause
+     * @return WhereClause for rid
+     */
+    protected static WhereClause addByRidAfter(long rid) {
+        WhereClause whereRid = new WhereClause();
+        whereRid.name = "rid";
+        whereRid.operator = WhereClause.Operators.GREATER_THAN;
+        whereRid.value = Long.toString(rid);
+        whereRid.valueDataType = Long.class;
+        return whereRid;
+    }
     /**
      * Creates a WhereClause that represents <b>WHERE id = @param id</b>
      * @param id Value for WhereClause
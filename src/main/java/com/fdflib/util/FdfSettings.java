@@ -16,12 +16,23 @@
 
 package com.fdflib.util;
 
+import com.fdflib.metrics.FdfMetrics;
+import com.fdflib.metrics.HikariMetricsTrackerFactory;
+import com.fdflib.metrics.NoOpMetrics;
+import com.fdflib.persistence.codec.BinaryCodec;
+import com.fdflib.persistence.codec.FieldCodec;
 import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.persistence.id.EntityIdAllocator;
+import com.fdflib.persistence.id.SequenceIdAllocator;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -61,6 +72,10 @@ public class FdfSettings {
     public static Boolean HSQL_DB_FILE = true;
     //HyperSQL database file location
     public static String HQSL_DB_FILE_LOCATION = "hsql/";
+    // Number of pooled connections to the embedded HSQL database
+    public static Integer HSQL_POOL_SIZE = 10;
+    // If set to true the embedded HSQL database is also served on DB_PORT so other processes can connect to it
+    public static Boolean HSQL_SERVER = false;
 
     public static String DEFAULT_TENANT_NAME = "Default FdfTenant";
     public static String DEFAULT_TENANT_DESRIPTION = "Default FdfTenant is created by 4dflib, if you do not intent to use "
@@ -78,6 +93,111 @@ public class FdfSettings {
     public static String TEST_SYSTEM_DESCRIPTION = "Default test system for use connecting to the system for testing";
     public static String TEST_SYSTEM_PASSWORD = "testSystemPassword";
 
+    /**
+     * Number of statements sent to the database in each JDBC batch by the batch save methods (saveAll), also the
+     * number of ids in each id IN (...) query of the multi id reads (getEntitiesCurrentByIds...).  Larger batches
+     * mean fewer round trips at the cost of more memory per batch.  Default: 1000
+     */
+    public static Integer BATCH_SIZE = 1000;
+
+    /**
+     * Number of prepared statements the JDBC driver caches per connection (by SQL text) so that repeated queries of
+     * the same shape are not parsed and planned again.  Passed to the driver on the connection string: MySQL and
+     * MariaDB cache server side prepared statements, Postgres keeps the server side statements it prepared once a
+     * query has been run prepareThreshold (5) times.  HSQL caches compiled statements on its own.  0 turns the driver
+     * caches off.  Default: 250
+     */
+    public static Integer STATEMENT_CACHE_SIZE = 250;
+
+    /**
+     * Number of rows fetched from the database per round trip by streaming selects (SqlStatement.stream), which read
+     * rows from an open cursor as they are consumed instead of loading the whole result.  MySQL ignores this and
+     * streams row by row.  Default: 1000
+     */
+    public static Integer FETCH_SIZE = 1000;
+
+    /**
+     * Number of future partitions created ahead of time for the tables of classes annotated with @FdfPartitioned
+     * (PostgreSQL).  They are created by FdfServices.initializeFdfDataModel and again by the first save after the last
+     * created partition has ended.  States outside of the created partitions go to the default partition of the table
+     * and are moved out of it when their partition is created.  Default: 3
+     */
+    public static Integer PARTITIONS_AHEAD = 3;
+
+    /**
+     * Maximum number of current states and entities held by the CurrentStateCache for classes annotated with
+     * @FdfCached, the least recently used are evicted beyond it.  0 disables the cache.  Default: 10000
+     */
+    public static Integer CACHE_SIZE = 10000;
+
+    /**
+     * Maximum number of closed states held by the HistoryCache for classes annotated with @FdfHistoryCached, the
+     * closed states of the least recently read entities are evicted beyond it.  0 disables the cache.  Default: 100000
+     */
+    public static Integer HISTORY_CACHE_SIZE = 100000;
+
+    /**
+     * Codec that stores model fields without a column type of their own (value objects, maps, sets...) in their binary
+     * column, for fields without @FdfCodec.  Default: BinaryCodec
+     */
+    public static FieldCodec FIELD_CODEC = new BinaryCodec();
+
+    /**
+     * Allows java serialization for codec fields: reading values stored before codecs existed (java serialized or its
+     * Base64 text), fields using JavaSerializationCodec and JDK types BinaryCodec can only store serialized.  Turn it
+     * on to read legacy values until they have been re-saved with BinaryCodec.  Even then only classes allowed by
+     * CODEC_ALLOWED_CLASSES (or fitting the field type, JDK and model package classes) are resolved.  Default: false
+     */
+    public static Boolean ALLOW_JAVA_SERIALIZATION = false;
+
+    /**
+     * Classes, or packages when ending with ".", codec fields may name in stored values besides classes fitting the
+     * declared type of the field, JDK classes and classes in the packages of the registered model classes.  Stored
+     * values naming any other class fail to read instead of loading it.  Default: empty
+     */
+    public static Set<String> CODEC_ALLOWED_CLASSES = new HashSet<>();
+
+    /**
+     * Stores List fields in native Postgres array columns (int8[], text[]...) instead of their text representation.
+     * Applies to new columns, existing text columns keep being read and written as text until
+     * CorePostgreSqlQueries.convertArrayColumns is called for their class.  The conversion locks and rewrites the
+     * table and is lossy for strings containing a comma or starting or ending with [, ] or a space.  Only used with
+     * POSTGRES.  Default: false
+     */
+    public static Boolean POSTGRES_NATIVE_ARRAYS = false;
+
+    /**
+     * Receives the timings of inserts, updates, selects and saves per model class, the rows hydrated, the bytes of
+     * codec encoded fields decoded and the connection pool metrics.  InMemoryMetrics keeps them in memory and can
+     * report the hottest tables, or adapt FdfMetrics to your metrics library.  Set it before initializeFdfDataModel so
+     * the pools register their gauges with it.  Default: NoOpMetrics
+     */
+    public static FdfMetrics METRICS = new NoOpMetrics();
+
+    /**
+     * Selects taking at least this many milliseconds (executing and hydrating) are logged as a warning with their SQL
+     * shape and kept in the SlowQueryLog.  Negative or null turns the log off.  Default: 1000
+     */
+    public static Integer SLOW_QUERY_THRESHOLD_MS = 1000;
+
+    /**
+     * Captures the plan of each slow query shape once, by running it again under EXPLAIN.  This costs a second
+     * execution of the planner the first time a shape is slow.  Default: false
+     */
+    public static Boolean SLOW_QUERY_EXPLAIN = false;
+
+    /**
+     * Number of the worst slow query shapes returned by SlowQueryLog.getWorst() and report().  Default: 20
+     */
+    public static Integer SLOW_QUERY_TOP_N = 20;
+
+    /**
+     * Allocates the ids of new entities.  SequenceIdAllocator takes each id from a sequence per model table (a counter
+     * table on MySQL / MariaDB), HiLoIdAllocator takes blocks of ids from the same sequence and hands them out from
+     * memory, MaxIdAllocator uses max(id) + 1 which is not safe with concurrent saves.  Default: SequenceIdAllocator
+     */
+    public static EntityIdAllocator ENTITY_ID_ALLOCATOR = new SequenceIdAllocator();
+
     /**
      * HikariCP settings
      * See: https://github.com/brettwooldridge/HikariCP/wiki/Configuration
@@ -145,12 +265,12 @@ public class FdfSettings {
     public static Integer HIKARICP_MIN_IDLE_MS = HIKARICP_MAX_POOL_SIZE;
 
     /**
-     * This property is only available via programmatic configuration or IoC container. This property allows you to
-     * specify an instance of a Codahale/Dropwizard MetricRegistry to be used by the pool to record various metrics.
-     * See the Metrics wiki page for details. Default: none
-     * TODO: Caused by: java.lang.ClassNotFoundException: com.codahale.metrics.MetricRegistry
+     * Receives the metrics of the pools 4DFLib creates (connection acquire and usage times, timeouts and pool
+     * gauges).  The default passes them on to METRICS, set Hikari's CodahaleMetricsTrackerFactory or
+     * PrometheusMetricsTrackerFactory instead to record them in those libraries (which must then be on the
+     * classpath), null to not record them.  Default: HikariMetricsTrackerFactory
      */
-    //public static String HIKARICP_METRIC_REG = "";
+    public static MetricsTrackerFactory HIKARICP_METRICS_TRACKER_FACTORY = new HikariMetricsTrackerFactory();
 
     /**
      * This property is only available via programmatic configuration or IoC container. This property allows you to
@@ -262,6 +382,25 @@ public class FdfSettings {
      */
     public static ThreadFactory HIKARICP_THREAD_FACTORY = null;
 
+    /**
+     * Number of threads running the calls of FdfAsyncServices.  Each running call holds a database connection, so
+     * more threads than pooled connections only wait on the pool.  Default: null (HIKARICP_MAX_POOL_SIZE,
+     * HSQL_POOL_SIZE for HSQL or one per processor for MEMORY)
+     */
+    public static Integer ASYNC_POOL_SIZE = null;
+
+    /**
+     * Number of FdfAsyncServices calls that may wait for a thread.  Once the queue is full further calls run on the
+     * calling thread, slowing callers down to the rate the database can take.  Default: 1000
+     */
+    public static Integer ASYNC_QUEUE_SIZE = 1000;
+
+    /**
+     * Executor running the calls of FdfAsyncServices, for applications that manage their own threads.  Default: null
+     * (a bounded executor sized by ASYNC_POOL_SIZE and ASYNC_QUEUE_SIZE, created on first use)
+     */
+    public static ExecutorService ASYNC_EXECUTOR = null;
+
 
 
     private FdfSettings() {
@@ -0,0 +1,137 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable List<Integer> backed by a int[], used for Integer list fields read from native array columns so that the
+ * elements are held unboxed.  Behaves like an ArrayList except that it can not hold null elements.  Not thread safe.
+ */
+public class IntList extends AbstractList<Integer> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList() {
+        this(10);
+    }
+
+    /**
+     * @param capacity number of elements the list should hold without growing
+     */
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 4)];
+    }
+
+    /**
+     * @param values elements of the list, copied
+     */
+    public IntList(int[] values) {
+        this.values = Arrays.copyOf(values, Math.max(values.length, 4));
+        this.size = values.length;
+    }
+
+    @Override
+    public Integer get(int index) {
+        return getInt(index);
+    }
+
+    /**
+     * @param index index of the element
+     * @return the element, unboxed
+     */
+    public int getInt(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    public Integer set(int index, Integer element) {
+        checkIndex(index);
+        int previous = values[index];
+        values[index] = element;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Integer element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int value = element;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Appends the element without boxing it.
+     *
+     * @param value element to add
+     */
+    public void addInt(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size++] = value;
+        modCount++;
+    }
+
+    @Override
+    public Integer remove(int index) {
+        checkIndex(index);
+        int previous = values[index];
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the elements
+     */
+    public int[] toIntArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable List<Long> backed by a long[], used for Long list fields read from native array columns so that the
+ * elements are held unboxed.  Behaves like an ArrayList except that it can not hold null elements.  Not thread safe.
+ */
+public class LongList extends AbstractList<Long> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] values;
+    private int size = 0;
+
+    public LongList() {
+        this(10);
+    }
+
+    /**
+     * @param capacity number of elements the list should hold without growing
+     */
+    public LongList(int capacity) {
+        values = new long[Math.max(capacity, 4)];
+    }
+
+    /**
+     * @param values elements of the list, copied
+     */
+    public LongList(long[] values) {
+        this.values = Arrays.copyOf(values, Math.max(values.length, 4));
+        this.size = values.length;
+    }
+
+    @Override
+    public Long get(int index) {
+        return getLong(index);
+    }
+
+    /**
+     * @param index index of the element
+     * @return the element, unboxed
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    public Long set(int index, Long element) {
+        checkIndex(index);
+        long previous = values[index];
+        values[index] = element;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Long element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        long value = element;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Appends the element without boxing it.
+     *
+     * @param value element to add
+     */
+    public void addLong(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size++] = value;
+        modCount++;
+    }
+
+    @Override
+    public Long remove(int index) {
+        checkIndex(index);
+        long previous = values[index];
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the elements
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
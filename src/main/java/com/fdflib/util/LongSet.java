@@ -0,0 +1,111 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.util;
+
+/**
+ * Open addressing hash set of primitive longs (rids, entity ids) without boxing.  Not thread safe.
+ */
+public class LongSet {
+
+    private long[] keys;
+    private boolean[] used;
+    private int size = 0;
+    private int mask;
+
+    public LongSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of values the set should hold without growing
+     */
+    public LongSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param value value to look for
+     * @return true if the set contains the value
+     */
+    public boolean contains(long value) {
+        int slot = slot(value);
+        while (used[slot]) {
+            if (keys[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the value to the set.
+     *
+     * @param value value to add
+     * @return true if the value was added, false if the set already contained it
+     */
+    public boolean add(long value) {
+        int slot = slot(value);
+        while (used[slot]) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        used[slot] = true;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return number of values in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    private int slot(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+
+        keys = new long[oldKeys.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib;
+
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.persistence.database.HSqlConnection;
+import com.fdflib.service.FdfServices;
+import com.fdflib.util.FdfSettings;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts 4DFLib for a test class.  The persistence implementation is picked once per JVM, so every test class runs in
+ * its own JVM (forkEvery in build.gradle) and calls one of the use methods from its @BeforeClass.
+ *
+ * The PostgreSQL tests only run when the fdf.test.postgres.host system property is set, e.g.
+ * gradle test -Dfdf.test.postgres.host=localhost.  They use a throw away database and the root user given by
+ * fdf.test.postgres.rootUser / fdf.test.postgres.rootPassword (postgres and no password by default).
+ */
+public class FdfTestDatabase {
+
+    public static final String POSTGRES_HOST = System.getProperty("fdf.test.postgres.host");
+    public static final String POSTGRES_ROOT_USER = System.getProperty("fdf.test.postgres.rootUser", "postgres");
+    public static final String POSTGRES_ROOT_PASSWORD = System.getProperty("fdf.test.postgres.rootPassword", "");
+
+    /**
+     * Starts 4DFLib on an in-memory HSQL database.
+     */
+    public static void useHsql(Class<?>... model) {
+        FdfSettings.PERSISTENCE = DatabaseUtil.DatabaseType.HSQL;
+        FdfSettings.DB_PROTOCOL = DatabaseUtil.DatabaseProtocol.JDBC_HSQL;
+        FdfSettings.HSQL_DB_FILE = false;
+        FdfSettings.DB_NAME = "fdftest";
+        initialize(model);
+    }
+
+    /**
+     * Opens a session on the in-memory HSQL database, used by tests to look at the tables directly.
+     */
+    public static Connection hsqlConnection() throws SQLException {
+        return HSqlConnection.getInstance().getSession();
+    }
+
+    /**
+     * Starts 4DFLib on the MEMORY store.
+     */
+    public static void useMemory(Class<?>... model) {
+        FdfSettings.PERSISTENCE = DatabaseUtil.DatabaseType.MEMORY;
+        initialize(model);
+    }
+
+    /**
+     * @return true if a PostgreSQL server was given for the tests
+     */
+    public static boolean hasPostgres() {
+        return POSTGRES_HOST != null && !POSTGRES_HOST.isEmpty();
+    }
+
+    /**
+     * Starts 4DFLib on a new PostgreSQL database of the passed name, owned by a user of the same name.  Any database
+     * and user of that name are dropped first.
+     */
+    public static void usePostgres(String database, Class<?>... model) throws SQLException {
+        FdfSettings.PERSISTENCE = DatabaseUtil.DatabaseType.POSTGRES;
+        FdfSettings.DB_PROTOCOL = DatabaseUtil.DatabaseProtocol.JDBC_POSTGRES;
+        FdfSettings.DB_HOST = POSTGRES_HOST;
+        FdfSettings.DB_NAME = database;
+        FdfSettings.DB_USER = database;
+        FdfSettings.DB_PASSWORD = database;
+        FdfSettings.USE_DB_ROOT = true;
+        FdfSettings.DB_ROOT_USER = POSTGRES_ROOT_USER;
+        FdfSettings.DB_ROOT_PASSWORD = POSTGRES_ROOT_PASSWORD;
+
+        try (Connection conn = postgresRootConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP DATABASE IF EXISTS \"" + database.toLowerCase() + "\"");
+            stmt.executeUpdate("DROP USER IF EXISTS \"" + database + "\"");
+        }
+        initialize(model);
+    }
+
+    /**
+     * Opens a connection to the test database as the root user, used by tests to look at the tables directly.
+     */
+    public static Connection postgresConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:postgresql://" + POSTGRES_HOST + "/"
+                + FdfSettings.DB_NAME.toLowerCase(), POSTGRES_ROOT_USER, POSTGRES_ROOT_PASSWORD);
+    }
+
+    private static Connection postgresRootConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:postgresql://" + POSTGRES_HOST + "/postgres", POSTGRES_ROOT_USER,
+                POSTGRES_ROOT_PASSWORD);
+    }
+
+    // initializeFdfDataModel takes a list of raw classes
+    @SuppressWarnings("rawtypes")
+    private static void initialize(Class<?>... model) {
+        List<Class> classes = new ArrayList<>(Arrays.asList(model));
+        FdfServices.initializeFdfDataModel(classes);
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.cache;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.metrics.FdfMetrics;
+import com.fdflib.metrics.InMemoryMetrics;
+import com.fdflib.metrics.NoOpMetrics;
+import com.fdflib.model.CachedPart;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.persistence.mapping.ClassMapping;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * CurrentStateCache reads of classes annotated with @FdfCached and the copies ClassMapping makes of cached states,
+ * on HSQL.
+ */
+public class CurrentStateCacheTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class, CachedPart.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void cachedClassIsReadOnceUntilSaved() {
+        CachedPart saved = FdfCommonServices.saveCurrent(CachedPart.class, newPart("gear"));
+        long hits = CurrentStateCache.getInstance().getHitCount();
+
+        assertEquals("gear", FdfCommonServices.getEntityCurrentById(CachedPart.class, saved.id).name);
+        assertEquals("gear", FdfCommonServices.getEntityCurrentById(CachedPart.class, saved.id).name);
+        assertEquals(hits + 1, CurrentStateCache.getInstance().getHitCount());
+
+        saved.name = "cog";
+        FdfCommonServices.saveCurrent(CachedPart.class, saved);
+        assertEquals("cog", FdfCommonServices.getEntityCurrentById(CachedPart.class, saved.id).name);
+        assertEquals("cog", FdfCommonServices.getEntityById(CachedPart.class, saved.id).current.name);
+    }
+
+    @Test
+    public void multiIdReadsQueryOnlyTheIdsNotCached() {
+        List<Long> ids = new ArrayList<>();
+        for (String name : Arrays.asList("pulley", "belt", "chain")) {
+            ids.add(FdfCommonServices.saveCurrent(CachedPart.class, newPart(name)).id);
+        }
+        FdfCommonServices.getEntityCurrentById(CachedPart.class, ids.get(1));
+
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        FdfSettings.METRICS = metrics;
+        try {
+            long hits = CurrentStateCache.getInstance().getHitCount();
+            Map<Long, CachedPart> parts = FdfCommonServices.getEntitiesCurrentByIds(CachedPart.class, ids);
+            assertEquals(ids, new ArrayList<>(parts.keySet()));
+            assertEquals("belt", parts.get(ids.get(1)).name);
+            assertEquals(hits + 1, CurrentStateCache.getInstance().getHitCount());
+            assertEquals(1, metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount());
+
+            // now all cached, and copies of the cached states
+            parts.get(ids.get(0)).name = "changed";
+            parts = FdfCommonServices.getEntitiesCurrentByIds(CachedPart.class, ids);
+            assertEquals("pulley", parts.get(ids.get(0)).name);
+            assertEquals(1, metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount());
+
+            // a save drops its entity, only that one is read again
+            CachedPart chain = parts.get(ids.get(2));
+            chain.name = "cable";
+            FdfCommonServices.saveCurrent(CachedPart.class, chain);
+            long selects = metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount();
+            parts = FdfCommonServices.getEntitiesCurrentByIds(CachedPart.class, ids);
+            assertEquals("cable", parts.get(ids.get(2)).name);
+            assertEquals(selects + 1, metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount());
+
+            Map<Long, FdfEntity<CachedPart>> entities = FdfCommonServices.getEntitiesByIds(CachedPart.class, ids);
+            assertEquals(ids, new ArrayList<>(entities.keySet()));
+            assertEquals(1, entities.get(ids.get(2)).history.size());
+            selects = metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount();
+            entities = FdfCommonServices.getEntitiesByIds(CachedPart.class, ids);
+            assertEquals("cable", entities.get(ids.get(2)).current.name);
+            assertEquals(selects, metrics.getTimer(CachedPart.class, FdfMetrics.Operation.SELECT).getCount());
+        } finally {
+            FdfSettings.METRICS = new NoOpMetrics();
+        }
+    }
+
+    @Test
+    public void changesToReturnedStatesDoNotReachTheCache() {
+        CachedPart saved = FdfCommonServices.saveCurrent(CachedPart.class, newPart("wheel"));
+
+        CachedPart read = FdfCommonServices.getEntityCurrentById(CachedPart.class, saved.id);
+        read.due.setTime(0);
+        read.tags.add(99L);
+        read.bins[0] = 99;
+        read.size.width = 99;
+        read.attributes.get("colors").add("green");
+
+        CachedPart again = FdfCommonServices.getEntityCurrentById(CachedPart.class, saved.id);
+        assertEquals(1000L, again.due.getTime());
+        assertEquals(Arrays.asList(1L, 2L), again.tags);
+        assertArrayEquals(new int[] {1, 2}, again.bins);
+        assertEquals(3.0, again.size.width, 0);
+        assertEquals(Collections.singletonList("red"), again.attributes.get("colors"));
+    }
+
+    @Test
+    public void classesWithoutTheAnnotationAreNotCached() {
+        Part saved = FdfCommonServices.saveCurrent(Part.class, new Part("axle", 1));
+        long hits = CurrentStateCache.getInstance().getHitCount();
+        long misses = CurrentStateCache.getInstance().getMissCount();
+
+        FdfCommonServices.getEntityCurrentById(Part.class, saved.id);
+        FdfCommonServices.getEntityCurrentById(Part.class, saved.id);
+        assertEquals(hits, CurrentStateCache.getInstance().getHitCount());
+        assertEquals(misses, CurrentStateCache.getInstance().getMissCount());
+    }
+
+    @Test
+    public void copiesShareNoMutableValues() {
+        CachedPart part = newPart("spring");
+        CachedPart copy = ClassMapping.forClass(CachedPart.class).copy(part);
+
+        assertNotSame(part.due, copy.due);
+        assertNotSame(part.tags, copy.tags);
+        assertNotSame(part.bins, copy.bins);
+        assertNotSame(part.size, copy.size);
+        assertNotSame(part.attributes.get("colors"), copy.attributes.get("colors"));
+        assertEquals(part.attributes, copy.attributes);
+        assertEquals(part.size.height, copy.size.height, 0);
+    }
+
+    private static CachedPart newPart(String name) {
+        CachedPart part = new CachedPart(name);
+        part.due = new Date(1000L);
+        part.tags = new ArrayList<>(Arrays.asList(1L, 2L));
+        part.bins = new int[] {1, 2};
+        part.size = new CachedPart.Dimensions(3, 4);
+        part.attributes.put("colors", new ArrayList<>(Collections.singletonList("red")));
+        return part;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.cache;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.HistoryPart;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistoryCache reads of classes annotated with @FdfHistoryCached and of classes without it, on HSQL.
+ */
+public class HistoryCacheTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class, HistoryPart.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Before
+    public void clearCache() {
+        HistoryCache.getInstance().clear();
+    }
+
+    @Test
+    public void cachedClassServesClosedStatesFromTheCache() {
+        long id = saveVersions(HistoryPart.class, new HistoryPart("gear", 1), 3);
+
+        FdfEntity<HistoryPart> first = FdfCommonServices.getEntityHistoryById(HistoryPart.class, id);
+        assertEquals(2, first.history.size());
+        assertEquals(2, HistoryCache.getInstance().size());
+        long hits = HistoryCache.getInstance().getHitCount();
+
+        FdfEntity<HistoryPart> second = FdfCommonServices.getEntityHistoryById(HistoryPart.class, id);
+        assertEquals(2, second.history.size());
+        assertEquals(hits + 1, HistoryCache.getInstance().getHitCount());
+
+        // a state saved since is read from the database on top of the cached ones
+        HistoryPart current = FdfCommonServices.getEntityCurrentById(HistoryPart.class, id);
+        current.quantity = 4;
+        FdfCommonServices.save(HistoryPart.class, current);
+        FdfEntity<HistoryPart> third = FdfCommonServices.getEntityHistoryById(HistoryPart.class, id);
+        assertEquals(3, third.history.size());
+        assertEquals(4, FdfCommonServices.auditEntityById(HistoryPart.class, id, 1).current.quantity);
+    }
+
+    @Test
+    public void cachedStatesAreCopies() {
+        long id = saveVersions(HistoryPart.class, new HistoryPart("cam", 1), 2);
+
+        FdfCommonServices.getEntityHistoryById(HistoryPart.class, id).history.get(0).quantity = 100;
+        assertEquals(1, FdfCommonServices.getEntityHistoryById(HistoryPart.class, id).history.get(0).quantity);
+    }
+
+    @Test
+    public void atDateReadsMatchTheDatabase() throws Exception {
+        HistoryPart part = FdfCommonServices.saveCurrent(HistoryPart.class, new HistoryPart("pin", 1));
+        Thread.sleep(1100);
+        Date between = new Date();
+        Thread.sleep(1100);
+        part.quantity = 2;
+        FdfCommonServices.saveCurrent(HistoryPart.class, part);
+        Thread.sleep(1100);
+
+        assertEquals(1, FdfCommonServices.getAtDateById(HistoryPart.class, part.id, between).quantity);
+        assertEquals(1, FdfCommonServices.getAtDateById(HistoryPart.class, part.id, between).quantity);
+        assertEquals(2, FdfCommonServices.getAtDateById(HistoryPart.class, part.id, new Date()).quantity);
+    }
+
+    @Test
+    public void classesWithoutTheAnnotationAreFilteredByTheDatabase() throws SQLException {
+        long id = saveVersions(Part.class, new Part("axle", 1), 3);
+        long misses = HistoryCache.getInstance().getMissCount();
+
+        assertEquals(2, FdfCommonServices.getEntityHistoryById(Part.class, id).history.size());
+        assertEquals(0, HistoryCache.getInstance().size());
+        assertEquals(misses, HistoryCache.getInstance().getMissCount());
+
+        // closed states flagged deleted by another process are seen right away
+        markClosedStatesDeleted("Part", id);
+        assertTrue(FdfCommonServices.getEntityHistoryById(Part.class, id).history.isEmpty());
+    }
+
+    @Test
+    public void cachedClassNeedsInvalidateForChangesMadeElsewhere() throws SQLException {
+        long id = saveVersions(HistoryPart.class, new HistoryPart("shaft", 1), 3);
+        assertEquals(2, FdfCommonServices.getEntityHistoryById(HistoryPart.class, id).history.size());
+
+        markClosedStatesDeleted("HistoryPart", id);
+        assertEquals(2, FdfCommonServices.getEntityHistoryById(HistoryPart.class, id).history.size());
+
+        HistoryCache.getInstance().invalidate(HistoryPart.class, id, 1);
+        assertTrue(FdfCommonServices.getEntityHistoryById(HistoryPart.class, id).history.isEmpty());
+    }
+
+    private static <S extends com.fdflib.model.state.CommonState> long saveVersions(Class<S> c, S state,
+                                                                                   int versions) {
+        S saved = FdfCommonServices.saveCurrent(c, state);
+        for (int i = 1; i < versions; i++) {
+            saved = FdfCommonServices.saveCurrent(c, saved);
+        }
+        return saved.id;
+    }
+
+    private static void markClosedStatesDeleted(String table, long id) throws SQLException {
+        try (Connection conn = FdfTestDatabase.hsqlConnection();
+             PreparedStatement ps = conn.prepareStatement("update " + table + " set df = true where id = ? and cf = false")) {
+            ps.setLong(1, id);
+            assertTrue(ps.executeUpdate() > 0);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.metrics;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.CachedPart;
+import com.fdflib.model.Part;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measurements recorded into InMemoryMetrics by the persistence and service calls on HSQL, and by the HikariCP
+ * tracker.
+ */
+public class InMemoryMetricsTest {
+
+    private InMemoryMetrics metrics;
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class, CachedPart.class);
+    }
+
+    @Before
+    public void useInMemoryMetrics() {
+        metrics = new InMemoryMetrics();
+        FdfSettings.METRICS = metrics;
+    }
+
+    @After
+    public void useNoOpMetrics() {
+        FdfSettings.METRICS = new NoOpMetrics();
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void operationsAndRowsAreRecordedPerClass() {
+        FdfCommonServices.saveAll(Part.class, Arrays.asList(new Part("cam", 1), new Part("lever", 2)), 1, 1);
+        Part part = FdfCommonServices.saveCurrent(Part.class, new Part("spring", 3));
+        metrics.reset();
+
+        part.quantity = 4;
+        FdfCommonServices.saveCurrent(Part.class, part);
+        int rows = SqlStatement.build().run(Part.class).size();
+
+        assertEquals(1, metrics.getTimer(Part.class, FdfMetrics.Operation.SAVE).getCount());
+        assertEquals(1, metrics.getTimer(Part.class, FdfMetrics.Operation.INSERT).getCount());
+        assertTrue(metrics.getTimer(Part.class, FdfMetrics.Operation.SELECT).getCount() >= 1);
+        assertTrue(metrics.getTimer(Part.class, FdfMetrics.Operation.SELECT).getMax() > 0);
+        assertEquals(4, rows);
+        assertTrue(metrics.getRowsHydrated(Part.class) >= rows);
+        assertTrue(metrics.getModelClasses().contains(Part.class));
+        assertFalse(metrics.getModelClasses().contains(CachedPart.class));
+        assertTrue(metrics.report().startsWith("Part: total "));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTimer(Part.class, FdfMetrics.Operation.SELECT).getCount());
+        assertEquals(0, metrics.getRowsHydrated(Part.class));
+        assertFalse(metrics.report().contains("Part:"));
+    }
+
+    @Test
+    public void decodedBytesAreRecordedForTheDeclaringClass() {
+        CachedPart part = new CachedPart("cover");
+        part.size = new CachedPart.Dimensions(2, 3);
+        FdfCommonServices.saveCurrent(CachedPart.class, part);
+
+        assertEquals(0, metrics.getBytesDecoded(CachedPart.class));
+        SqlStatement.build().run(CachedPart.class);
+        assertTrue(metrics.getBytesDecoded(CachedPart.class) > 0);
+        assertTrue(metrics.report().contains(" bytes"));
+    }
+
+    @Test
+    public void hikariPoolsArePassedOn() {
+        PoolStats stats = new PoolStats(0) {
+            @Override
+            protected void update() {
+                totalConnections = 5;
+                idleConnections = 3;
+                activeConnections = 2;
+                pendingThreads = 1;
+            }
+        };
+        MetricsTracker tracker = new HikariMetricsTrackerFactory().create("test-pool", stats);
+        tracker.recordConnectionAcquiredNanos(2000000);
+        tracker.recordConnectionAcquiredNanos(4000000);
+        tracker.recordConnectionUsageMillis(7);
+        tracker.recordConnectionTimeout();
+
+        InMemoryMetrics.Pool pool = metrics.getPool("test-pool");
+        assertEquals(2, pool.getAcquired().getCount());
+        assertEquals(4000000, pool.getAcquired().getMax());
+        assertEquals(3000000.0, pool.getAcquired().getMean(), 0.1);
+        assertEquals(7, pool.getUsage().getTotal());
+        assertEquals(1, pool.getTimeouts());
+        assertEquals(2, pool.getStats().getActiveConnections());
+        assertEquals(5, pool.getStats().getTotalConnections());
+        assertTrue(metrics.report().contains("pool test-pool: acquired 2 x 3.000 ms (max 4.000), timeouts 1, "
+                + "connections 2 active / 3 idle / 5 total, 1 waiting"));
+
+        // the gauges stay registered when the measurements are reset
+        metrics.reset();
+        assertEquals(0, metrics.getPool("test-pool").getTimeouts());
+        assertEquals(1, metrics.getPool("test-pool").getStats().getPendingThreads());
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.model;
+
+import com.fdflib.annotation.FdfCached;
+import com.fdflib.model.state.CommonState;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model class used by the tests, its current states are kept in the CurrentStateCache.  Holds values of every kind
+ * the cache has to copy.
+ */
+@FdfCached(ttlSeconds = 600)
+public class CachedPart extends CommonState {
+
+    private static final long serialVersionUID = 1L;
+
+    public String name;
+    public Date due;
+    public List<Long> tags;
+    public int[] bins;
+    public Dimensions size;
+    public Map<String, List<String>> attributes = new HashMap<>();
+
+    public CachedPart() {
+        super();
+    }
+
+    public CachedPart(String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * Value object stored by the codec.
+     */
+    public static class Dimensions {
+        public double width;
+        public double height;
+
+        public Dimensions() {
+        }
+
+        public Dimensions(double width, double height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
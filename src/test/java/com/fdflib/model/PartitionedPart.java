@@ -0,0 +1,41 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.model;
+
+import com.fdflib.annotation.FdfPartitioned;
+import com.fdflib.model.state.CommonState;
+
+/**
+ * Model class used by the tests, partitioned by month on PostgreSQL.
+ */
+@FdfPartitioned(months = 1)
+public class PartitionedPart extends CommonState {
+
+    private static final long serialVersionUID = 1L;
+
+    public String name;
+
+    public PartitionedPart() {
+        super();
+    }
+
+    public PartitionedPart(String name) {
+        super();
+        this.name = name;
+    }
+}
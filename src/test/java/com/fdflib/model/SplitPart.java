@@ -0,0 +1,43 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.model;
+
+import com.fdflib.annotation.FdfSplitHistory;
+import com.fdflib.model.state.CommonState;
+
+/**
+ * Model class used by the tests, its closed states are kept in a separate history table.
+ */
+@FdfSplitHistory
+public class SplitPart extends CommonState {
+
+    private static final long serialVersionUID = 1L;
+
+    public String name;
+    public int quantity;
+
+    public SplitPart() {
+        super();
+    }
+
+    public SplitPart(String name, int quantity) {
+        super();
+        this.name = name;
+        this.quantity = quantity;
+    }
+}
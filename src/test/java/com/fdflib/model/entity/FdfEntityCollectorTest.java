@@ -0,0 +1,116 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.model.entity;
+
+import com.fdflib.model.Part;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Grouping of raw states into entities by FdfEntityCollector, along with the LongIntMap and LongSet indexes it uses.
+ */
+public class FdfEntityCollectorTest {
+
+    @Test
+    public void groupsStatesByIdInTheOrderTheyWereSeen() {
+        List<FdfEntity<Part>> entities = FdfEntityCollector.collect(Arrays.asList(
+                state(7, 1, false), state(3, 2, true), state(7, 3, true), state(7, 4, false), state(3, 5, false)));
+
+        assertEquals(2, entities.size());
+        assertEquals(7, entities.get(0).entityId);
+        assertEquals(3, entities.get(0).current.rid);
+        assertEquals(Arrays.asList(1L, 4L), rids(entities.get(0).history));
+        assertEquals(3, entities.get(1).entityId);
+        assertEquals(2, entities.get(1).current.rid);
+        assertEquals(Arrays.asList(5L), rids(entities.get(1).history));
+    }
+
+    @Test
+    public void historyStatesAreAddedOncePerRid() {
+        List<FdfEntity<Part>> entities = FdfEntityCollector.collect(Arrays.asList(
+                state(1, 10, false), state(1, 10, false), state(1, 11, false), state(1, 10, false)));
+
+        assertEquals(1, entities.size());
+        assertNull(entities.get(0).current);
+        assertEquals(Arrays.asList(10L, 11L), rids(entities.get(0).history));
+    }
+
+    @Test
+    public void indexesGrowPastTheirExpectedSize() {
+        FdfEntityCollector<Part> collector = new FdfEntityCollector<>(4);
+        for (long id = 0; id < 10000; id++) {
+            collector.add(state(id * 31, id * 2, true));
+            collector.add(state(id * 31, id * 2 + 1, false));
+        }
+        collector.add(state(31 * 5000, 3, false));
+
+        List<FdfEntity<Part>> entities = collector.getEntities();
+        assertEquals(10000, entities.size());
+        for (int e = 0; e < entities.size(); e++) {
+            assertEquals(e * 31L, entities.get(e).entityId);
+            assertEquals(e * 2L, entities.get(e).current.rid);
+        }
+        assertEquals(Arrays.asList(10001L), rids(entities.get(5000).history));
+    }
+
+    @Test
+    public void groupsAStreamOrderedById() {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Stream<Part> states = Stream.of(state(1, 1, false), state(1, 2, true), state(2, 3, true), state(4, 4, false),
+                state(4, 4, false)).onClose(() -> closed.set(true));
+
+        List<FdfEntity<Part>> entities;
+        try (Stream<FdfEntity<Part>> grouped = FdfEntityCollector.groupOrdered(states)) {
+            entities = grouped.collect(Collectors.toList());
+        }
+
+        assertEquals(Arrays.asList(1L, 2L, 4L), entities.stream().map(entity -> entity.entityId)
+                .collect(Collectors.toList()));
+        assertEquals(2, entities.get(0).current.rid);
+        assertEquals(Arrays.asList(1L), rids(entities.get(0).history));
+        assertTrue(entities.get(1).history.isEmpty());
+        assertNull(entities.get(2).current);
+        assertEquals(Arrays.asList(4L), rids(entities.get(2).history));
+        assertTrue(closed.get());
+    }
+
+    private static Part state(long id, long rid, boolean current) {
+        Part part = new Part();
+        part.id = id;
+        part.rid = rid;
+        part.cf = current;
+        return part;
+    }
+
+    private static List<Long> rids(List<Part> states) {
+        List<Long> rids = new ArrayList<>();
+        for (Part state : states) {
+            rids.add(state.rid);
+        }
+        return rids;
+    }
+}
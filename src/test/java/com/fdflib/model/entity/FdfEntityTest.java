@@ -0,0 +1,113 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.model.entity;
+
+import com.fdflib.model.Part;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * History lookups of FdfEntity after the history list is changed in place, they must match a scan of the history.
+ */
+public class FdfEntityTest {
+
+    @Test
+    public void setIsSeenByTheLookups() {
+        FdfEntity<Part> entity = entity(state(1, 0, 10), state(2, 10, 20));
+        assertEquals(2, entity.getStateOfEntityAt(new Date(15)).rid);
+        assertEquals(2, entity.getMostRecentState().rid);
+        assertNotNull(entity.getStateByRid(2));
+
+        entity.history.set(1, state(3, 10, 30));
+        assertEquals(3, entity.getStateOfEntityAt(new Date(25)).rid);
+        assertEquals(3, entity.getMostRecentState().rid);
+        assertNull(entity.getStateByRid(2));
+        assertEquals(3, entity.getStateByRid(3).rid);
+    }
+
+    @Test
+    public void replaceAllSortAndSubListAreSeenByTheLookups() {
+        FdfEntity<Part> entity = entity(state(1, 0, 10), state(2, 0, 10));
+        assertEquals(2, entity.getStateOfEntityAt(new Date(5)).rid);
+
+        // overlapping states, the last one in the list wins
+        entity.history.sort(Comparator.comparingLong((Part part) -> part.rid).reversed());
+        assertEquals(1, entity.getStateOfEntityAt(new Date(5)).rid);
+
+        entity.history.replaceAll(part -> part.rid == 1 ? state(4, 0, 10) : part);
+        assertEquals(4, entity.getStateOfEntityAt(new Date(5)).rid);
+        assertNull(entity.getStateByRid(1));
+
+        entity.history.subList(1, 2).set(0, state(5, 0, 10));
+        assertEquals(5, entity.getStateOfEntityAt(new Date(5)).rid);
+        assertEquals(5, entity.getStateByRid(5).rid);
+        assertNull(entity.getStateByRid(4));
+    }
+
+    @Test
+    public void constructorCopiesTheHistory() {
+        List<Part> history = new ArrayList<>(Arrays.asList(state(1, 0, 10)));
+        FdfEntity<Part> entity = new FdfEntity<>(state(9, 20, 30), history);
+        assertEquals(1, entity.getStateByRid(1).rid);
+
+        history.set(0, state(2, 0, 10));
+        assertEquals(1, entity.getStateByRid(1).rid);
+        assertEquals(1, entity.getStateOfEntityAt(new Date(5)).rid);
+    }
+
+    @Test
+    public void assignedListIsScanned() {
+        FdfEntity<Part> entity = new FdfEntity<>();
+        List<Part> history = new ArrayList<>(Arrays.asList(state(1, 0, 10), state(2, 10, 20)));
+        entity.history = history;
+        assertEquals(2, entity.getMostRecentState().rid);
+        assertEquals(1, entity.getStateOfEntityAt(new Date(5)).rid);
+
+        history.set(0, state(3, 0, 10));
+        assertEquals(3, entity.getStateOfEntityAt(new Date(5)).rid);
+        assertEquals(3, entity.getStateByRid(3).rid);
+        assertNull(entity.getStateByRid(1));
+
+        history.set(1, state(4, 10, 40));
+        assertEquals(4, entity.getMostRecentState().rid);
+    }
+
+    private static FdfEntity<Part> entity(Part... states) {
+        FdfEntity<Part> entity = new FdfEntity<>();
+        entity.history.addAll(Arrays.asList(states));
+        return entity;
+    }
+
+    private static Part state(long rid, long arsd, long ared) {
+        Part part = new Part();
+        part.id = 1;
+        part.rid = rid;
+        part.cf = false;
+        part.arsd = new Date(arsd);
+        part.ared = new Date(ared);
+        return part;
+    }
+}
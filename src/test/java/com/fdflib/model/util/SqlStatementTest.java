@@ -0,0 +1,103 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.model.util;
+
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Where clauses of SqlStatement: which values are bound as parameters and which are written as literals.
+ */
+public class SqlStatementTest {
+
+    @Test
+    public void bindsValuesOfTheirDeclaredType() {
+        SqlStatement statement = SqlStatement.build().where(clause("id", Long.class, "5"))
+                .where(clause("name", String.class, "bolt"))
+                .where(clause("arsd", Date.class, "2026-01-02 03:04:05"));
+
+        assertEquals(" WHERE id = ? AND name = ? AND arsd = ?", statement.getWhere());
+        assertEquals(Arrays.asList(5L, "bolt", Timestamp.valueOf("2026-01-02 03:04:05")), statement.getParameters());
+    }
+
+    @Test
+    public void writesValuesThatDoNotConvertAsLiterals() {
+        SqlStatement statement = SqlStatement.build().where(clause("arsd", Date.class, "now"))
+                .where(clause("quantity", Integer.class, "quantity + 1"))
+                .where(clause("cf", Boolean.class, "1"));
+
+        assertEquals(" WHERE arsd = 'now' AND quantity = quantity + 1 AND cf = 1", statement.getWhere());
+        assertTrue(statement.getParameters().isEmpty());
+    }
+
+    @Test
+    public void writesValuesWithoutDataTypeAsLiterals() {
+        WhereClause in = clause("id", null, "(1,2)");
+        in.operator = WhereClause.Operators.IN;
+        SqlStatement statement = SqlStatement.build().where(clause("id", null, "5")).where(in)
+                .where(clause("name", null, "o'neil"));
+
+        assertEquals(" WHERE id = '5' AND id IN (1,2) AND name = 'o''neil'", statement.getWhere());
+        assertTrue(statement.getParameters().isEmpty());
+    }
+
+    @Test
+    public void bindsEachMemberOfANumericSet() {
+        WhereClause in = clause("id", Long.class, "(1, 2, 3)");
+        in.operator = WhereClause.Operators.IN;
+        SqlStatement statement = SqlStatement.build().where(in);
+
+        assertEquals(" WHERE id IN (?, ?, ?)", statement.getWhere());
+        assertEquals(Arrays.asList(1L, 2L, 3L), statement.getParameters());
+    }
+
+    @Test
+    public void postgresStatementCacheIsOnlyConfiguredWhenEnabled() {
+        DatabaseUtil.DatabaseProtocol protocol = FdfSettings.DB_PROTOCOL;
+        Integer cacheSize = FdfSettings.STATEMENT_CACHE_SIZE;
+        try {
+            FdfSettings.DB_PROTOCOL = DatabaseUtil.DatabaseProtocol.JDBC_POSTGRES;
+            FdfSettings.STATEMENT_CACHE_SIZE = 0;
+            String url = DatabaseUtil.returnDBConnectionString();
+            assertTrue(url.contains("stringtype=unspecified"));
+            assertFalse(url.contains("preparedStatementCacheQueries"));
+
+            FdfSettings.STATEMENT_CACHE_SIZE = 100;
+            assertTrue(DatabaseUtil.returnDBConnectionString().contains("&preparedStatementCacheQueries=100"));
+        } finally {
+            FdfSettings.DB_PROTOCOL = protocol;
+            FdfSettings.STATEMENT_CACHE_SIZE = cacheSize;
+        }
+    }
+
+    private static WhereClause clause(String name, Class<?> type, String value) {
+        WhereClause clause = new WhereClause();
+        clause.name = name;
+        clause.valueDataType = type;
+        clause.value = value;
+        return clause;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.codec;
+
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * BinaryCodec round trips and the classes codec fields are allowed to read back.
+ */
+public class BinaryCodecTest {
+
+    static class Sample {
+        String name;
+        int count;
+        List<Long> values = new ArrayList<>();
+        Map<String, Object> extra = new HashMap<>();
+
+        private Sample() {
+        }
+
+        Sample(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    static class Legacy implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String name = "legacy";
+    }
+
+    private final FieldCodec codec = new BinaryCodec();
+
+    @After
+    public void resetSettings() {
+        FdfSettings.ALLOW_JAVA_SERIALIZATION = false;
+        FdfSettings.CODEC_ALLOWED_CLASSES.clear();
+    }
+
+    @Test
+    public void roundTripsValuesOfTheDeclaredType() throws IOException {
+        Sample sample = new Sample("first", 3);
+        sample.values.addAll(Arrays.asList(1L, -2L, Long.MAX_VALUE));
+        sample.extra.put("amount", new BigDecimal("1.50"));
+        sample.extra.put("when", new Date(1000L));
+        sample.extra.put("codes", new int[] {1, 2});
+
+        Sample read = (Sample) roundTrip(sample, Sample.class);
+
+        assertEquals("first", read.name);
+        assertEquals(3, read.count);
+        assertEquals(Arrays.asList(1L, -2L, Long.MAX_VALUE), read.values);
+        assertEquals(new BigDecimal("1.50"), read.extra.get("amount"));
+        assertEquals(new Date(1000L), read.extra.get("when"));
+        assertArrayEquals(new int[] {1, 2}, (int[]) read.extra.get("codes"));
+    }
+
+    @Test
+    public void roundTripsJdkValuesAsObject() throws IOException {
+        assertEquals("text", roundTrip("text", Object.class));
+        assertEquals(Collections.singletonMap("k", 1L), roundTrip(Collections.singletonMap("k", 1L), Object.class));
+        assertArrayEquals(new String[] {"a", "b"}, (String[]) roundTrip(new String[] {"a", "b"}, Object.class));
+    }
+
+    @Test
+    public void refusesClassesThatAreNotAllowed() throws IOException {
+        byte[] stored = FieldCodecs.write(codec, false, new Sample("other", 1), Object.class);
+
+        try {
+            FieldCodecs.read(codec, stored, Object.class);
+            fail("class outside the allowed classes was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(Sample.class.getName()));
+        }
+
+        FdfSettings.CODEC_ALLOWED_CLASSES.add(Sample.class.getName());
+        assertEquals("other", ((Sample) FieldCodecs.read(codec, stored, Object.class)).name);
+    }
+
+    @Test
+    public void allowsPackagesOfTheAllowList() throws IOException {
+        byte[] stored = FieldCodecs.write(codec, false, new Sample("other", 1), Object.class);
+
+        FdfSettings.CODEC_ALLOWED_CLASSES.add("com.fdflib.persistence.codec.");
+        assertEquals("other", ((Sample) FieldCodecs.read(codec, stored, Object.class)).name);
+    }
+
+    @Test
+    public void javaSerializationIsOffByDefault() throws IOException {
+        try {
+            FieldCodecs.write(new JavaSerializationCodec(), false, new HashMap<>(), Map.class);
+            fail("value was java serialized");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("ALLOW_JAVA_SERIALIZATION"));
+        }
+
+        try {
+            FieldCodecs.read(codec, legacyBase64(new HashMap<>()), Map.class);
+            fail("legacy value was deserialized");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("ALLOW_JAVA_SERIALIZATION"));
+        }
+    }
+
+    @Test
+    public void readsLegacyValuesWhenAllowed() throws IOException {
+        HashMap<String, String> legacy = new HashMap<>();
+        legacy.put("k", "v");
+        FdfSettings.ALLOW_JAVA_SERIALIZATION = true;
+
+        assertEquals(legacy, FieldCodecs.read(codec, legacyBase64(legacy), Map.class));
+    }
+
+    @Test
+    public void legacyValuesOnlyResolveAllowedClasses() throws IOException {
+        FdfSettings.ALLOW_JAVA_SERIALIZATION = true;
+        byte[] stored = legacyBase64(new Legacy());
+
+        try {
+            FieldCodecs.read(codec, stored, Object.class);
+            fail("class outside the allowed classes was deserialized");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(Legacy.class.getName()));
+        }
+
+        assertEquals("legacy", ((Legacy) FieldCodecs.read(codec, stored, Legacy.class)).name);
+    }
+
+    private Object roundTrip(Object value, Type type) throws IOException {
+        return FieldCodecs.read(codec, FieldCodecs.write(codec, false, value, type), type);
+    }
+
+    private static byte[] legacyBase64(Object value) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(value);
+        }
+        return Base64.getEncoder().encodeToString(baos.toByteArray()).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.id;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.PartitionedPart;
+import com.fdflib.model.SplitPart;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ids handed out by the EntityIdAllocator implementations when saving new entities on HSQL, each test uses its own
+ * model class so that they do not share a sequence.
+ */
+public class EntityIdAllocatorTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class, SplitPart.class, PartitionedPart.class);
+    }
+
+    @After
+    public void resetAllocator() {
+        FdfSettings.ENTITY_ID_ALLOCATOR = new SequenceIdAllocator();
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void sequenceStartsAfterTheIdsOfMaxIdAllocator() {
+        FdfSettings.ENTITY_ID_ALLOCATOR = new MaxIdAllocator();
+        for (int p = 1; p <= 3; p++) {
+            assertEquals(p, FdfCommonServices.saveCurrent(Part.class, new Part("washer", p)).id);
+        }
+        assertEquals(4, FdfSettings.ENTITY_ID_ALLOCATOR.nextId(Part.class, 1));
+
+        FdfSettings.ENTITY_ID_ALLOCATOR = new SequenceIdAllocator();
+        long first = FdfCommonServices.saveCurrent(Part.class, new Part("washer", 4)).id;
+        assertTrue(first > 3);
+        assertEquals(first + 1, FdfCommonServices.saveCurrent(Part.class, new Part("washer", 5)).id);
+
+        List<Long> ids = FdfSettings.ENTITY_ID_ALLOCATOR.nextIds(Part.class, 1, 3);
+        assertEquals(3, ids.size());
+        assertEquals(3, new HashSet<>(ids).size());
+        assertTrue(ids.get(0) > first + 1);
+    }
+
+    @Test
+    public void hiLoHandsOutBlocksTakenFromTheSequence() {
+        FdfSettings.ENTITY_ID_ALLOCATOR = new HiLoIdAllocator(5);
+        Set<Long> ids = new HashSet<>();
+        for (int p = 0; p < 12; p++) {
+            ids.add(FdfCommonServices.saveCurrent(SplitPart.class, new SplitPart("nut", p)).id);
+        }
+        // a request bigger then a block is taken in one go
+        ids.addAll(FdfSettings.ENTITY_ID_ALLOCATOR.nextIds(SplitPart.class, 1, 7));
+        assertEquals(19, ids.size());
+
+        // a second allocator gets a block after the ones already taken
+        long next = new HiLoIdAllocator(5).nextId(SplitPart.class, 1);
+        for (long id : ids) {
+            assertTrue(next > id);
+        }
+        assertEquals(12, FdfCommonServices.getAll(SplitPart.class).size());
+    }
+
+    @Test
+    public void concurrentSavesGetDistinctIds() throws Exception {
+        for (EntityIdAllocator allocator : new EntityIdAllocator[] {new SequenceIdAllocator(), new HiLoIdAllocator(3)}) {
+            FdfSettings.ENTITY_ID_ALLOCATOR = allocator;
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Long>> saves = new ArrayList<>();
+                for (int p = 0; p < 40; p++) {
+                    saves.add(pool.submit(() ->
+                            FdfCommonServices.saveCurrent(PartitionedPart.class, new PartitionedPart("bolt")).id));
+                }
+                Set<Long> ids = new HashSet<>();
+                for (Future<Long> save : saves) {
+                    ids.add(save.get());
+                }
+                assertEquals(40, ids.size());
+                assertFalse(ids.contains(-1L));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        assertEquals(80, FdfCommonServices.getAll(PartitionedPart.class).size());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * The persisted fields ClassMapping finds on a model class and the FieldType of each.
+ */
+public class ClassMappingTest {
+
+    public enum Color { RED, GREEN }
+
+    public static class Sample extends CommonState {
+        private static final long serialVersionUID = 1L;
+
+        public String name;
+        public int count;
+        public long total;
+        public Double weight;
+        public BigDecimal price;
+        public boolean active;
+        public char grade;
+        public UUID key;
+        public Color color;
+        public Class<?> kind;
+        public List<Long> tags;
+        public Map<String, String> attributes;
+        @FdfIgnore
+        public String note;
+    }
+
+    private final ClassMapping<Sample> mapping = ClassMapping.forClass(Sample.class);
+
+    @Test
+    public void mapsPublicFieldsThatAreNotIgnored() {
+        List<String> names = new ArrayList<>();
+        for (FieldMapping field : mapping.getFields()) {
+            names.add(field.getName());
+        }
+
+        assertTrue(names.containsAll(Arrays.asList("rid", "id", "cf", "df", "arsd", "ared", "euid",
+                "esid", "tid", "name", "count", "tags", "attributes")));
+        assertFalse(names.contains("note"));
+        assertSame(mapping, ClassMapping.forClass(Sample.class));
+    }
+
+    @Test
+    public void insertFieldsLeaveOutRid() {
+        assertEquals(mapping.getFields().size() - 1, mapping.getInsertFields().size());
+        for (FieldMapping field : mapping.getInsertFields()) {
+            assertFalse(field.getName().equals("rid"));
+        }
+    }
+
+    @Test
+    public void findsFieldsByNameIgnoringCase() {
+        assertSame(mapping.getField("name"), mapping.getField("NAME"));
+        assertNull(mapping.getField("note"));
+    }
+
+    @Test
+    public void picksTheFieldTypeOfEachField() {
+        assertEquals(FieldType.STRING, mapping.getField("name").getType());
+        assertEquals(FieldType.INTEGER, mapping.getField("count").getType());
+        assertEquals(FieldType.LONG, mapping.getField("total").getType());
+        assertEquals(FieldType.DOUBLE, mapping.getField("weight").getType());
+        assertEquals(FieldType.BIG_DECIMAL, mapping.getField("price").getType());
+        assertEquals(FieldType.BOOLEAN, mapping.getField("active").getType());
+        assertEquals(FieldType.CHARACTER, mapping.getField("grade").getType());
+        assertEquals(FieldType.UUID, mapping.getField("key").getType());
+        assertEquals(FieldType.ENUM, mapping.getField("color").getType());
+        assertEquals(FieldType.CLASS, mapping.getField("kind").getType());
+        assertEquals(FieldType.DATE, mapping.getField("arsd").getType());
+        assertEquals(FieldType.LIST, mapping.getField("tags").getType());
+        assertEquals(Long.class, mapping.getField("tags").getElementType());
+        assertEquals(FieldType.OBJECT, mapping.getField("attributes").getType());
+    }
+
+    @Test
+    public void readsAndWritesFieldValues() {
+        Sample sample = mapping.newInstance();
+        mapping.getField("count").set(sample, 5);
+        mapping.getField("name").set(sample, "bolt");
+        mapping.getField("arsd").set(sample, new Date(1000L));
+
+        assertEquals(5, sample.count);
+        assertEquals("bolt", mapping.getField("name").get(sample));
+        assertTrue(mapping.getField("count").isPrimitive());
+
+        Sample copy = mapping.copy(sample);
+        assertEquals(5, copy.count);
+        assertEquals("bolt", copy.name);
+        assertEquals(sample.arsd, copy.arsd);
+        assertNotSame(sample.arsd, copy.arsd);
+    }
+}
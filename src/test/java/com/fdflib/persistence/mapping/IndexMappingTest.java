@@ -0,0 +1,114 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.SplitPart;
+import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.service.FdfServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Indexes ClassMapping builds for a model class and their creation by checkIndexes on HSQL.
+ */
+public class IndexMappingTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class, SplitPart.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void temporalAndAnnotatedFieldsAreIndexed() {
+        List<IndexMapping> indexes = ClassMapping.forClass(Part.class).getIndexes();
+
+        assertEquals(3, indexes.size());
+        assertEquals("part_current_idx", indexes.get(0).getName());
+        assertEquals("tid, id, cf", indexes.get(0).getColumnList());
+        assertTrue(indexes.get(0).isCurrentOnly());
+        assertEquals("tid, id, arsd, ared", indexes.get(1).getColumnList());
+        assertFalse(indexes.get(1).isCurrentOnly());
+        assertEquals("part_name_idx", indexes.get(2).getName());
+        assertEquals("part_history_name_idx", indexes.get(2).getHistoryName());
+        assertEquals("tid, name", indexes.get(2).getColumnList());
+    }
+
+    @Test
+    public void longNamesAreShortenedAndKeptUnique() {
+        ClassMapping<Part> mapping = ClassMapping.forClass(Part.class);
+        String suffix = "a_suffix_that_is_long_enough_to_push_the_index_name_past_the_limit";
+        IndexMapping first = IndexMapping.of(mapping, suffix + "_1", false, "tid", "name");
+        IndexMapping second = IndexMapping.of(mapping, suffix + "_2", false, "tid", "name");
+
+        assertEquals(63, first.getName().length());
+        assertTrue(first.getName().endsWith("_idx"));
+        assertFalse(first.getName().equals(second.getName()));
+        assertNull(IndexMapping.of(mapping, "missing", false, "tid", "nothere"));
+    }
+
+    @Test
+    public void checkIndexesFindsTheIndexesItCreated() throws SQLException {
+        // the indexes were created when the model was started, a second check finds them all
+        FdfPersistence.getInstance().checkIndexes();
+
+        List<String> part = indexNames("PART");
+        for (IndexMapping index : ClassMapping.forClass(Part.class).getIndexes()) {
+            assertTrue(index.getName(), part.contains(index.getName().toUpperCase()));
+        }
+
+        // current only indexes are left off the history table
+        List<String> history = indexNames("SPLITPART_HISTORY");
+        for (IndexMapping index : ClassMapping.forClass(SplitPart.class).getIndexes()) {
+            assertEquals(index.getHistoryName(), !index.isCurrentOnly(),
+                    history.contains(index.getHistoryName().toUpperCase()));
+        }
+    }
+
+    private static List<String> indexNames(String table) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Connection conn = FdfTestDatabase.hsqlConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT DISTINCT INDEX_NAME FROM "
+                     + "INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE TABLE_NAME = ?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.mapping;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rows of HSQL result sets read through a RowPlan.
+ */
+public class RowPlanTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void readsEverySelectedField() throws Exception {
+        Part part = new Part("bolt", 3);
+        part.weight = 1.5;
+        part.tags = Arrays.asList(1L, 2L);
+        long id = FdfCommonServices.save(Part.class, part).entityId;
+
+        Part read = readOne("select * from Part where id = ?", id, -1);
+        assertEquals(id, read.id);
+        assertEquals("bolt", read.name);
+        assertEquals(3, read.quantity);
+        assertEquals(1.5, read.weight, 0);
+        assertEquals(Arrays.asList(1L, 2L), read.tags);
+        assertTrue(read.cf);
+        assertNotNull(read.arsd);
+    }
+
+    @Test
+    public void skipsColumnsThatAreNotFieldsAndFieldsNotSelected() throws Exception {
+        Part part = new Part("nut", 4);
+        part.weight = 2.5;
+        long id = FdfCommonServices.save(Part.class, part).entityId;
+
+        Part read = readOne("select quantity, name, name as \"NAME\", 1 as other from Part where id = ?", id, 2);
+        assertEquals("nut", read.name);
+        assertEquals(4, read.quantity);
+        assertNull(read.weight);
+        assertEquals(-1, read.id);
+    }
+
+    private static Part readOne(String sql, long id, int expectedSize) throws Exception {
+        try (Connection conn = FdfTestDatabase.hsqlConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                RowPlan<Part> plan = ClassMapping.forClass(Part.class).planFor(rs.getMetaData());
+                if (expectedSize >= 0) {
+                    assertEquals(expectedSize, plan.size());
+                }
+                assertTrue(rs.next());
+                return plan.read(rs);
+            }
+        }
+    }
+}
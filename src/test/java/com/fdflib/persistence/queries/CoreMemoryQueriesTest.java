@@ -0,0 +1,217 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * SqlStatements evaluated by the MEMORY store against ten current parts: bolts with quantity 0 to 3, nuts 4 to 6 and
+ * washers 7 to 9, the odd quantities without a weight.
+ */
+public class CoreMemoryQueriesTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useMemory(Part.class);
+        for (int p = 0; p < 10; p++) {
+            Part part = new Part(p < 4 ? "bolt" : p < 7 ? "nut" : "washer", p);
+            part.weight = p % 2 == 0 ? p * 1.5 : null;
+            part.tags = Arrays.asList((long) p, p * 10L);
+            FdfCommonServices.saveCurrent(Part.class, part);
+        }
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void savesKeepTheHistoryOfAnEntity() {
+        Part spring = FdfCommonServices.saveCurrent(Part.class, new Part("spring", 100));
+        for (int change = 1; change <= 2; change++) {
+            spring.quantity = 100 + change;
+            spring = FdfCommonServices.saveCurrent(Part.class, spring);
+        }
+
+        FdfEntity<Part> entity = FdfCommonServices.getEntityById(Part.class, spring.id);
+        assertEquals(102, entity.current.quantity);
+        assertEquals(Arrays.asList(100, 101),
+                entity.history.stream().map(part -> part.quantity).sorted().collect(Collectors.toList()));
+        for (Part closed : entity.history) {
+            assertFalse(closed.cf);
+            assertNotNull(closed.ared);
+        }
+
+        FdfCommonServices.setDeleteFlag(Part.class, spring.id, 1, 1);
+        assertNull(FdfCommonServices.getEntityCurrentById(Part.class, spring.id));
+        assertTrue(FdfCommonServices.auditEntityCurrentById(Part.class, spring.id, 1).df);
+    }
+
+    @Test
+    public void comparisonsBetweenAndIn() {
+        WhereClause between = clause("quantity", WhereClause.Operators.BETWEEN, Integer.class, "2");
+        between.value2 = "4";
+        assertEquals(Arrays.asList(2, 3, 4), quantities(SqlStatement.build().where(between)
+                .where(clause("cf", WhereClause.Operators.EQUAL, Boolean.class, "true"))));
+        assertEquals(Arrays.asList(8, 9), quantities(SqlStatement.build()
+                .where(clause("quantity", WhereClause.Operators.GREATER_THAN, Integer.class, "7"))
+                .where(clause("quantity", WhereClause.Operators.LESS_THAN, Integer.class, "100"))));
+        assertEquals(Arrays.asList(1, 5), quantities(SqlStatement.build()
+                .where(clause("quantity", WhereClause.Operators.IN, Integer.class, "(5, 1, 55)"))));
+    }
+
+    @Test
+    public void groupingsOrAndNot() {
+        WhereClause bolt = clause("name", WhereClause.Operators.EQUAL, String.class, "bolt");
+        bolt.groupings.add(WhereClause.GROUPINGS.OPEN_PARENTHESIS);
+        WhereClause washer = clause("name", WhereClause.Operators.EQUAL, String.class, "washer");
+        washer.conditional = WhereClause.CONDITIONALS.OR;
+        washer.groupings.add(WhereClause.GROUPINGS.CLOSE_PARENTHESIS);
+        WhereClause odd = clause("weight", WhereClause.Operators.IS, null, WhereClause.NULL);
+        odd.conditional = WhereClause.CONDITIONALS.NOT;
+
+        // (bolt OR washer) AND NOT weight IS NULL
+        assertEquals(Arrays.asList(0, 2, 8), quantities(SqlStatement.build().where(bolt).where(washer).where(odd)));
+    }
+
+    @Test
+    public void likeAndNulls() {
+        assertEquals(Arrays.asList(7, 8, 9), quantities(SqlStatement.build()
+                .where(clause("name", WhereClause.Operators.LIKE, String.class, "wa%"))));
+        assertEquals(Arrays.asList(1, 3, 5, 7, 9), quantities(SqlStatement.build()
+                .where(clause("weight", WhereClause.Operators.IS, null, WhereClause.NULL))
+                .where(clause("quantity", WhereClause.Operators.LESS_THAN, Integer.class, "10"))));
+        // a null matches no comparison
+        assertEquals(Arrays.asList(6, 8), quantities(SqlStatement.build()
+                .where(clause("weight", WhereClause.Operators.GREATER_THAN, Double.class, "6"))));
+    }
+
+    @Test
+    public void orderLimitAndSelectLists() {
+        List<Part> page = SqlStatement.build().where(clause("quantity", WhereClause.Operators.LESS_THAN, Integer.class,
+                "10")).orderBy("quantity DESC").limit(3, 2).run(Part.class);
+        assertEquals(Arrays.asList(6, 5, 4), page.stream().map(part -> part.quantity).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(4L, 40L), page.get(2).tags);
+
+        Part max = SqlStatement.build().select("max(quantity) AS quantity")
+                .where(clause("name", WhereClause.Operators.EQUAL, String.class, "nut")).run(Part.class).get(0);
+        assertEquals(6, max.quantity);
+
+        List<Part> names = SqlStatement.build().select("DISTINCT name").orderBy("name")
+                .where(clause("quantity", WhereClause.Operators.LESS_THAN, Integer.class, "10")).run(Part.class);
+        assertEquals(Arrays.asList("bolt", "nut", "washer"),
+                names.stream().map(part -> part.name).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void streamsAndKeysetPages() {
+        SqlStatement nuts = SqlStatement.build().where(clause("name", WhereClause.Operators.EQUAL, String.class, "nut"));
+        try (Stream<Part> parts = nuts.stream(Part.class)) {
+            assertEquals(15, parts.mapToInt(part -> part.quantity).sum());
+        }
+
+        Part first = SqlStatement.build().after(null).limit(1, 1).run(Part.class).get(0);
+        List<Part> next = SqlStatement.build().after(SqlStatement.cursorOf(first)).limit(2, 1).run(Part.class);
+        assertEquals(Arrays.asList(first.id + 1, first.id + 2),
+                next.stream().map(part -> part.id).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void selectsDoNotSeeABatchUpdateHalfWay() throws Exception {
+        List<Part> gears = new ArrayList<>();
+        for (int g = 0; g < 50; g++) {
+            gears.add(FdfCommonServices.saveCurrent(Part.class, new Part("gear", 1000)));
+        }
+
+        // flips the quantity of every gear between 1000 and 1001 in one batch
+        AtomicBoolean done = new AtomicBoolean();
+        Thread updater = new Thread(() -> {
+            for (int round = 1; !done.get(); round++) {
+                for (Part gear : gears) {
+                    gear.quantity = 1000 + round % 2;
+                }
+                FdfPersistence.getInstance().updateBatch(Part.class, gears);
+            }
+        });
+        updater.start();
+        try {
+            SqlStatement even = SqlStatement.build()
+                    .where(clause("name", WhereClause.Operators.EQUAL, String.class, "gear"))
+                    .where(clause("quantity", WhereClause.Operators.EQUAL, Integer.class, "1000"));
+            for (int i = 0; i < 2000; i++) {
+                List<Part> parts = even.run(Part.class);
+                assertTrue(parts.isEmpty() || parts.size() == gears.size());
+                for (Part part : parts) {
+                    assertEquals(1000, part.quantity);
+                }
+            }
+        } finally {
+            done.set(true);
+            updater.join();
+        }
+    }
+
+    @Test
+    public void statementsThatCanNotBeEvaluatedReturnNoRows() {
+        SqlStatement unknown = SqlStatement.build()
+                .where(clause("nothere", WhereClause.Operators.EQUAL, String.class, "bolt"));
+        assertTrue(unknown.run(Part.class).isEmpty());
+        try (Stream<Part> parts = unknown.stream(Part.class)) {
+            assertEquals(0, parts.count());
+        }
+    }
+
+    private static List<Integer> quantities(SqlStatement statement) {
+        List<Integer> quantities = new ArrayList<>();
+        for (Part part : statement.run(Part.class)) {
+            quantities.add(part.quantity);
+        }
+        quantities.sort(null);
+        return quantities;
+    }
+
+    private static WhereClause clause(String name, WhereClause.Operators operator, Class<?> type, String value) {
+        WhereClause clause = new WhereClause();
+        clause.name = name;
+        clause.operator = operator;
+        clause.valueDataType = type;
+        clause.value = value;
+        return clause;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.PartitionedPart;
+import com.fdflib.model.SplitPart;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saves against a PostgreSQL server, only run when one is given (see FdfTestDatabase).
+ */
+public class CorePostgreSqlQueriesTest {
+
+    @BeforeClass
+    public static void start() throws Exception {
+        Assume.assumeTrue(FdfTestDatabase.hasPostgres());
+        FdfTestDatabase.usePostgres("fdftest_postgres", Part.class, SplitPart.class,
+                PartitionedPart.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        if(FdfTestDatabase.hasPostgres()) {
+            FdfServices.shutdownFdfDataModel();
+        }
+    }
+
+    @Test
+    public void saveReturnsRidAndClosesPreviousState() throws Exception {
+        FdfEntity<Part> first = FdfCommonServices.save(Part.class, new Part("bolt", 1));
+        assertNotNull(first.current);
+        assertTrue(first.current.rid > 0);
+
+        first.current.quantity = 2;
+        FdfEntity<Part> second = FdfCommonServices.save(Part.class, first.current);
+        assertNotNull(second.current);
+        assertTrue(second.current.rid > first.current.rid);
+        assertEquals(first.entityId, second.entityId);
+        assertEquals(2, second.current.quantity);
+
+        try (Connection conn = FdfTestDatabase.postgresConnection();
+             PreparedStatement ps = conn.prepareStatement("select rid, cf, ared from part where id = ? order by rid")) {
+            ps.setLong(1, first.entityId);
+            try (ResultSet rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(first.current.rid, rs.getLong("rid"));
+                assertFalse(rs.getBoolean("cf"));
+                assertEquals(second.current.arsd.getTime(), rs.getTimestamp("ared").getTime());
+                assertTrue(rs.next());
+                assertEquals(second.current.rid, rs.getLong("rid"));
+                assertTrue(rs.getBoolean("cf"));
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    @Test
+    public void saveCurrentReturnsTheSavedState() {
+        Part saved = FdfCommonServices.saveCurrent(Part.class, new Part("nut", 5));
+        assertNotNull(saved);
+        assertTrue(saved.rid > 0);
+
+        long firstRid = saved.rid;
+        saved.quantity = 6;
+        Part updated = FdfCommonServices.saveCurrent(Part.class, saved);
+        assertNotNull(updated);
+        assertTrue(updated.rid > firstRid);
+        assertEquals(1, FdfCommonServices.getEntityById(Part.class, saved.id).history.size());
+    }
+
+    @Test
+    public void concurrentSavesLeaveOneCurrentState() throws Exception {
+        long id = FdfCommonServices.saveCurrent(Part.class, new Part("washer", 0)).id;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Part>> saves = new ArrayList<>();
+            for (int i = 1; i <= 40; i++) {
+                Part next = new Part("washer", i);
+                next.id = id;
+                saves.add(executor.submit(() -> FdfCommonServices.saveCurrent(Part.class, next)));
+            }
+            for (Future<Part> save : saves) {
+                assertTrue(save.get().rid > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (Connection conn = FdfTestDatabase.postgresConnection();
+             PreparedStatement ps = conn.prepareStatement("select count(*), sum(case when cf then 1 else 0 end) "
+                     + "from part where id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                assertEquals(41, rs.getLong(1));
+                assertEquals(1, rs.getLong(2));
+            }
+        }
+    }
+
+    @Test
+    public void saveAllLeavesOneCurrentStatePerEntity() throws Exception {
+        List<Part> saved = FdfCommonServices.saveAll(Part.class, Arrays.asList(new Part("a", 1), new Part("b", 1)),
+                1, 1);
+        List<Part> changed = new ArrayList<>();
+        for (Part part : saved) {
+            assertTrue(part.rid > 0);
+            Part next = new Part(part.name, 2);
+            next.id = part.id;
+            changed.add(next);
+        }
+        List<Part> resaved = FdfCommonServices.saveAll(Part.class, changed, 1, 1);
+
+        try (Connection conn = FdfTestDatabase.postgresConnection();
+             PreparedStatement ps = conn.prepareStatement("select count(*), sum(case when cf then 1 else 0 end) "
+                     + "from part where id = ?")) {
+            for (Part part : resaved) {
+                assertTrue(part.rid > 0);
+                ps.setLong(1, part.id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    assertEquals(2, rs.getLong(1));
+                    assertEquals(1, rs.getLong(2));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void splitClassMovesClosedStatesToHistoryTable() throws Exception {
+        FdfEntity<SplitPart> first = FdfCommonServices.save(SplitPart.class, new SplitPart("washer", 1));
+        assertNotNull(first.current);
+
+        first.current.quantity = 2;
+        FdfEntity<SplitPart> second = FdfCommonServices.save(SplitPart.class, first.current);
+        assertNotNull(second.current);
+        assertEquals(1, rowCount("splitpart"));
+        assertEquals(1, rowCount("splitpart_history"));
+
+        second.current.quantity = 3;
+        FdfEntity<SplitPart> third = FdfCommonServices.save(SplitPart.class, second.current);
+        assertNotNull(third.current);
+        assertEquals(3, third.current.quantity);
+        assertEquals(2, third.history.size());
+        assertEquals(1, rowCount("splitpart"));
+        assertEquals(2, rowCount("splitpart_history"));
+    }
+
+    @Test
+    public void statesInDefaultPartitionMoveToNewPartition() throws Exception {
+        YearMonth now = YearMonth.now();
+        assertEquals(FdfSettings.PARTITIONS_AHEAD + 2, partitionCount("partitionedpart"));
+
+        // a state past the created partitions is written to the default partition
+        FdfEntity<PartitionedPart> entity = FdfCommonServices.save(PartitionedPart.class, new PartitionedPart("late"));
+        YearMonth later = now.plusMonths(FdfSettings.PARTITIONS_AHEAD + 2);
+        try (Connection conn = FdfTestDatabase.postgresConnection();
+             PreparedStatement ps = conn.prepareStatement("update partitionedpart set arsd = ? where rid = ?")) {
+            ps.setTimestamp(1, Timestamp.valueOf(later.atDay(2).atStartOfDay()));
+            ps.setLong(2, entity.current.rid);
+            ps.executeUpdate();
+        }
+        assertEquals(1, rowCount("partitionedpart_default"));
+
+        int ahead = FdfSettings.PARTITIONS_AHEAD;
+        try {
+            FdfSettings.PARTITIONS_AHEAD = ahead + 3;
+            CorePostgreSqlQueries.getInstance().checkPartitions();
+        } finally {
+            FdfSettings.PARTITIONS_AHEAD = ahead;
+        }
+
+        assertEquals(FdfSettings.PARTITIONS_AHEAD + 5, partitionCount("partitionedpart"));
+        assertEquals(0, rowCount("partitionedpart_default"));
+        assertEquals(1, rowCount("partitionedpart_p" + later.getYear() + "_"
+                + String.format("%02d", later.getMonthValue())));
+        assertEquals("late", FdfCommonServices.getEntityById(PartitionedPart.class, entity.entityId).current.name);
+    }
+
+    @Test
+    public void whereValuesMatchColumnsOfOtherTypes() {
+        Part saved = FdfCommonServices.saveCurrent(Part.class, new Part("rivet", 7));
+
+        // a String value and a value without data type against bigint and integer columns
+        WhereClause byId = new WhereClause();
+        byId.name = "id";
+        byId.valueDataType = String.class;
+        byId.value = Long.toString(saved.id);
+        WhereClause byQuantity = new WhereClause();
+        byQuantity.name = "quantity";
+        byQuantity.value = "7";
+        List<Part> found = SqlStatement.build().where(byId).where(byQuantity).run(Part.class);
+        assertEquals(1, found.size());
+        assertEquals("rivet", found.get(0).name);
+
+        // an arsd that does not parse as a date is written as a literal
+        WhereClause byArsd = new WhereClause();
+        byArsd.name = "arsd";
+        byArsd.operator = WhereClause.Operators.LESS_THAN;
+        byArsd.valueDataType = Date.class;
+        byArsd.value = "infinity";
+        assertEquals(1, SqlStatement.build().where(byId).where(byArsd).run(Part.class).size());
+    }
+
+    private static long rowCount(String table) throws SQLException {
+        try (Connection conn = FdfTestDatabase.postgresConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("select count(*) from \"" + table + "\"")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static long partitionCount(String table) throws SQLException {
+        try (Connection conn = FdfTestDatabase.postgresConnection();
+             PreparedStatement ps = conn.prepareStatement("select count(*) from pg_inherits "
+                     + "join pg_class parent on parent.oid = pg_inherits.inhparent where parent.relname = ?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.SplitPart;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saves and reads of a @FdfSplitHistory class on HSQL.
+ */
+public class HistoryTablesTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(SplitPart.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void saveMovesClosedStatesToHistoryTable() throws Exception {
+        FdfEntity<SplitPart> entity = FdfCommonServices.save(SplitPart.class, new SplitPart("washer", 1));
+        long before = rowCount("SplitPart");
+        long historyBefore = rowCount("SplitPart_history");
+
+        // dates are compared to the second
+        Thread.sleep(1100);
+        Date firstState = new Date();
+        Thread.sleep(1100);
+        entity.current.quantity = 2;
+        entity = FdfCommonServices.save(SplitPart.class, entity.current);
+        entity.current.quantity = 3;
+        entity = FdfCommonServices.save(SplitPart.class, entity.current);
+
+        assertEquals(3, entity.current.quantity);
+        assertEquals(2, entity.history.size());
+        assertEquals(before, rowCount("SplitPart"));
+        assertEquals(historyBefore + 2, rowCount("SplitPart_history"));
+
+        // reads that are not limited to current states see both tables
+        assertEquals(1, FdfCommonServices.getAtDateById(SplitPart.class, entity.entityId, firstState).quantity);
+        assertEquals(2, FdfCommonServices.getEntityHistoryById(SplitPart.class, entity.entityId).history.size());
+    }
+
+    @Test
+    public void saveAllMovesClosedStatesToHistoryTable() throws Exception {
+        List<SplitPart> saved = FdfCommonServices.saveAll(SplitPart.class,
+                Arrays.asList(new SplitPart("a", 1), new SplitPart("b", 1)), 1, 1);
+        long historyBefore = rowCount("SplitPart_history");
+
+        for (SplitPart part : saved) {
+            part.quantity++;
+        }
+        saved = FdfCommonServices.saveAll(SplitPart.class, saved, 1, 1);
+
+        assertTrue(saved.get(0).rid >= 0);
+        assertTrue(saved.get(1).rid >= 0);
+        assertEquals(historyBefore + 2, rowCount("SplitPart_history"));
+        assertEquals(2, FdfCommonServices.getEntityCurrentById(SplitPart.class, saved.get(1).id).quantity);
+    }
+
+    @Test
+    public void deletedEntityKeepsItsHistory() throws Exception {
+        FdfEntity<SplitPart> entity = FdfCommonServices.save(SplitPart.class, new SplitPart("nut", 1));
+        long historyBefore = rowCount("SplitPart_history");
+
+        FdfCommonServices.setDeleteFlag(SplitPart.class, entity.entityId, 1, 1);
+
+        assertNull(FdfCommonServices.getEntityCurrentById(SplitPart.class, entity.entityId));
+        assertEquals(historyBefore + 1, rowCount("SplitPart_history"));
+        assertEquals(1, FdfCommonServices.auditEntityById(SplitPart.class, entity.entityId).history.size());
+    }
+
+    private static long rowCount(String table) throws SQLException {
+        try (Connection conn = FdfTestDatabase.hsqlConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("select count(*) from " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * List fields in native Postgres array columns next to text columns created before FdfSettings.POSTGRES_NATIVE_ARRAYS
+ * was turned on, only run when a PostgreSQL server is given (see FdfTestDatabase).
+ */
+public class PostgresArrayColumnsTest {
+
+    @BeforeClass
+    public static void start() throws Exception {
+        Assume.assumeTrue(FdfTestDatabase.hasPostgres());
+        FdfSettings.POSTGRES_NATIVE_ARRAYS = true;
+        FdfTestDatabase.usePostgres("fdftest_arrays", Part.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        if(FdfTestDatabase.hasPostgres()) {
+            FdfServices.shutdownFdfDataModel();
+        }
+    }
+
+    @Test
+    public void textColumnsAreOnlyConvertedWhenAsked() throws Exception {
+        assertEquals("ARRAY", tagsDataType());
+
+        // the column of a table created with the text format, as before native arrays
+        try (Connection conn = FdfTestDatabase.postgresConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("alter table part alter column tags type text using '[' || array_to_string(tags, ', ')"
+                    + " || ']'");
+        }
+        CorePostgreSqlQueries.getInstance().checkFields();
+        assertEquals("text", tagsDataType());
+
+        Part before = new Part("washer", 1);
+        before.tags = Arrays.asList(1L, 2L);
+        long beforeId = FdfCommonServices.save(Part.class, before).entityId;
+        assertEquals(Arrays.asList(1L, 2L), FdfCommonServices.getEntityCurrentById(Part.class, beforeId).tags);
+        assertEquals("text", tagsDataType());
+
+        assertEquals(Collections.singletonList("part.tags"),
+                CorePostgreSqlQueries.getInstance().convertArrayColumns(Part.class));
+        assertEquals("ARRAY", tagsDataType());
+        assertEquals(Arrays.asList(1L, 2L), FdfCommonServices.getEntityCurrentById(Part.class, beforeId).tags);
+
+        Part after = new Part("spring", 1);
+        after.tags = Arrays.asList(3L, 4L);
+        long afterId = FdfCommonServices.save(Part.class, after).entityId;
+        assertEquals(Arrays.asList(3L, 4L), FdfCommonServices.getEntityCurrentById(Part.class, afterId).tags);
+
+        assertTrue(CorePostgreSqlQueries.getInstance().convertArrayColumns(Part.class).isEmpty());
+    }
+
+    private static String tagsDataType() throws SQLException {
+        try (Connection conn = FdfTestDatabase.postgresConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("select data_type from information_schema.columns "
+                     + "where table_name = 'part' and column_name = 'tags'")) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+}
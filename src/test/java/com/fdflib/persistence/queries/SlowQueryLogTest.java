@@ -0,0 +1,143 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Shapes and plans of the selects kept by the SlowQueryLog, on HSQL.
+ */
+public class SlowQueryLogTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class);
+        FdfCommonServices.saveCurrent(Part.class, new Part("latch", 1));
+        FdfCommonServices.saveCurrent(Part.class, new Part("hinge", 2));
+    }
+
+    @Before
+    public void clearLog() {
+        SlowQueryLog.getInstance().clear();
+    }
+
+    @After
+    public void resetSettings() {
+        FdfSettings.SLOW_QUERY_THRESHOLD_MS = 1000;
+        FdfSettings.SLOW_QUERY_EXPLAIN = false;
+        FdfSettings.SLOW_QUERY_TOP_N = 20;
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void literalsAndInListsAreLeftOutOfTheShape() {
+        assertEquals("SELECT * FROM Part WHERE name = ? AND id IN (?...) AND weight > ?",
+                SlowQueryLog.normalize("SELECT *  FROM Part\n WHERE name = 'o''neil' AND id IN (?, ?,?) "
+                        + "AND weight > -1.5"));
+        assertEquals("SELECT * FROM Part2 WHERE id IN (?...)",
+                SlowQueryLog.normalize("SELECT * FROM Part2 WHERE id IN (1, 2, 3)"));
+    }
+
+    @Test
+    public void selectsOverTheThresholdAreGroupedByShape() {
+        FdfSettings.SLOW_QUERY_THRESHOLD_MS = 0;
+        FdfSettings.SLOW_QUERY_EXPLAIN = true;
+        SqlStatement.build().where(name("latch")).run(Part.class);
+        SqlStatement.build().where(name("hinge")).run(Part.class);
+
+        List<SlowQueryLog.Shape> worst = SlowQueryLog.getInstance().getWorst();
+        assertEquals(1, worst.size());
+        SlowQueryLog.Shape shape = worst.get(0);
+        assertEquals("Part", shape.getModelClass());
+        assertEquals(2, shape.getCount());
+        assertEquals(1, shape.getRows());
+        assertEquals(1, shape.getBinds());
+        assertTrue(shape.getSql().contains("name = ?"));
+        assertTrue(shape.getMaxMillis() <= shape.getTotalMillis());
+        // HSQL plans the statement once, without its parameters
+        assertNotNull(shape.getPlan());
+        assertTrue(SlowQueryLog.getInstance().report().startsWith("Part: 2 slow, total "));
+    }
+
+    @Test
+    public void selectsUnderTheThresholdOrWithTheLogOffAreNotKept() {
+        SqlStatement.build().run(Part.class);
+        FdfSettings.SLOW_QUERY_THRESHOLD_MS = -1;
+        SqlStatement.build().run(Part.class);
+        FdfSettings.SLOW_QUERY_THRESHOLD_MS = null;
+        SqlStatement.build().run(Part.class);
+
+        assertTrue(SlowQueryLog.getInstance().getWorst().isEmpty());
+        assertEquals("", SlowQueryLog.getInstance().report());
+    }
+
+    @Test
+    public void worstShapesComeFirst() {
+        FdfSettings.SLOW_QUERY_THRESHOLD_MS = 5;
+        FdfSettings.SLOW_QUERY_TOP_N = 2;
+        record("SELECT * FROM Part WHERE quantity = 1", 1, 6, 0);
+        record("SELECT * FROM Part WHERE weight = 1", 3, 30, 10);
+        record("SELECT * FROM Part WHERE quantity = 2", 1, 7, 0);
+        record("SELECT * FROM Part WHERE name = 'x'", 1, 8, 0);
+        // under the threshold
+        record("SELECT * FROM Part WHERE id = 1", 1, 1, 0);
+
+        List<SlowQueryLog.Shape> worst = SlowQueryLog.getInstance().getWorst();
+        assertEquals(2, worst.size());
+        assertEquals("SELECT * FROM Part WHERE weight = ?", worst.get(0).getSql());
+        assertEquals(40.0, worst.get(0).getMaxMillis(), 0.001);
+        assertEquals(10.0, worst.get(0).getMaxHydrateMillis(), 0.001);
+        assertEquals("SELECT * FROM Part WHERE quantity = ?", worst.get(1).getSql());
+        assertEquals(13.0, worst.get(1).getTotalMillis(), 0.001);
+        assertEquals(7.0, worst.get(1).getMaxExecuteMillis(), 0.001);
+        assertNull(worst.get(1).getPlan());
+    }
+
+    private static void record(String sql, int rows, long executeMillis, long hydrateMillis) {
+        SlowQueryLog.getInstance().record(null, sql, SqlStatement.build(), Part.class, rows, executeMillis * 1000000,
+                hydrateMillis * 1000000, null);
+    }
+
+    private static WhereClause name(String value) {
+        WhereClause clause = new WhereClause();
+        clause.name = "name";
+        clause.valueDataType = String.class;
+        clause.value = value;
+        return clause;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.metrics.InMemoryMetrics;
+import com.fdflib.metrics.NoOpMetrics;
+import com.fdflib.model.Part;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.service.FdfServices;
+import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Selects read through SqlStatement.stream and forEach on HSQL, with a fetch size smaller then the result.
+ */
+public class StreamQueryTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfSettings.FETCH_SIZE = 2;
+        FdfTestDatabase.useHsql(Part.class);
+        for (int p = 0; p < 7; p++) {
+            FdfCommonServices.saveCurrent(Part.class, new Part("spoke", p));
+        }
+        FdfCommonServices.saveCurrent(Part.class, new Part("rim", 1));
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+        FdfSettings.FETCH_SIZE = 1000;
+        FdfSettings.METRICS = new NoOpMetrics();
+    }
+
+    @Test
+    public void streamsEveryMatchingRow() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        FdfSettings.METRICS = metrics;
+
+        long total;
+        try (Stream<Part> parts = spokes().stream(Part.class)) {
+            total = parts.mapToInt(part -> part.quantity).sum();
+        }
+        assertEquals(21, total);
+        assertEquals(7, metrics.getRowsHydrated(Part.class));
+        assertEquals(7, spokes().run(Part.class).size());
+    }
+
+    @Test
+    public void closingEarlyReleasesTheConnection() {
+        // more streams then pooled connections, each would hold one if closing did not hand it back
+        for (int s = 0; s < FdfSettings.HSQL_POOL_SIZE * 3; s++) {
+            try (Stream<Part> parts = spokes().stream(Part.class)) {
+                assertTrue(parts.findFirst().isPresent());
+            }
+        }
+        assertEquals(1, FdfCommonServices.getAll(Part.class).stream().filter(part -> "rim".equals(part.current.name))
+                .count());
+    }
+
+    @Test
+    public void forEachPassesEachRowAndReleasesTheConnection() {
+        for (int s = 0; s < FdfSettings.HSQL_POOL_SIZE * 3; s++) {
+            List<String> names = new ArrayList<>();
+            SqlStatement.build().forEach(Part.class, part -> names.add(part.name));
+            assertEquals(8, names.size());
+        }
+    }
+
+    @Test
+    public void consumerExceptionsReleaseTheConnection() {
+        for (int s = 0; s < FdfSettings.HSQL_POOL_SIZE * 3; s++) {
+            try {
+                spokes().forEach(Part.class, part -> {
+                    throw new IllegalStateException("stop");
+                });
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("stop", e.getMessage());
+            }
+        }
+        assertEquals(7, spokes().run(Part.class).size());
+    }
+
+    private static SqlStatement spokes() {
+        WhereClause name = new WhereClause();
+        name.name = "name";
+        name.valueDataType = String.class;
+        name.value = "spoke";
+        return SqlStatement.build().where(name);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.service;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.util.FdfSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * FdfAsyncServices calls on HSQL with a single threaded executor and a queue of one call.
+ */
+public class FdfAsyncServicesTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfSettings.ASYNC_POOL_SIZE = 1;
+        FdfSettings.ASYNC_QUEUE_SIZE = 1;
+        FdfTestDatabase.useHsql(Part.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+        FdfSettings.ASYNC_POOL_SIZE = null;
+        FdfSettings.ASYNC_QUEUE_SIZE = 1000;
+    }
+
+    @Test
+    public void callsRunOnTheExecutor() {
+        Part saved = FdfAsyncServices.saveCurrent(Part.class, new Part("axle", 2), 1, 1, 1).join();
+        assertTrue(saved.id > 0);
+
+        // one call at a time, a second call made while the first still waits in the queue would run on this thread
+        assertEquals("axle", FdfAsyncServices.getEntityCurrentById(Part.class, saved.id, 1).join().name);
+        assertEquals("4dflib-async-1", FdfAsyncServices.supply(() -> Thread.currentThread().getName()).join());
+    }
+
+    @Test
+    public void callsRunOnTheCallerWhenTheQueueIsFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> blocking = FdfAsyncServices.supply(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Thread.currentThread().getName();
+        });
+        running.await();
+
+        // the first call waits in the queue, the second has no room and runs right away on this thread
+        CompletableFuture<String> queued = FdfAsyncServices.supply(() -> Thread.currentThread().getName());
+        CompletableFuture<String> overflow = FdfAsyncServices.supply(() -> Thread.currentThread().getName());
+        assertEquals(Thread.currentThread().getName(), overflow.join());
+        assertFalse(queued.isDone());
+
+        release.countDown();
+        assertTrue(blocking.join().startsWith("4dflib-async-"));
+        assertTrue(queued.join().startsWith("4dflib-async-"));
+    }
+
+    @Test
+    public void failuresCompleteTheFutureExceptionally() {
+        try {
+            FdfAsyncServices.supply(() -> {
+                throw new IllegalStateException("broken");
+            }).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void executorOfTheSettingsIsUsedWhenSet() {
+        ExecutorService own = Executors.newFixedThreadPool(4, runnable -> new Thread(runnable, "own"));
+        FdfSettings.ASYNC_EXECUTOR = own;
+        try {
+            List<CompletableFuture<Part>> saves = new ArrayList<>();
+            for (int p = 0; p < 20; p++) {
+                saves.add(FdfAsyncServices.saveCurrent(Part.class, new Part("hub", p), 1, 1, 1));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (CompletableFuture<Part> save : saves) {
+                ids.add(save.join().id);
+            }
+            assertEquals(20, ids.size());
+            assertEquals("own", FdfAsyncServices.supply(() -> Thread.currentThread().getName()).join());
+        } finally {
+            FdfSettings.ASYNC_EXECUTOR = null;
+            own.shutdown();
+        }
+    }
+}
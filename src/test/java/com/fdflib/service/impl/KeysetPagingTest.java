@@ -0,0 +1,130 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.service.impl;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.util.FdfPage;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.service.FdfServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keyset paginated reads of FdfCommonServices (getAllCurrentPage, getAllHistoryPage) on HSQL.
+ */
+public class KeysetPagingTest {
+
+    private static final List<Long> ids = new ArrayList<>();
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class);
+
+        for (int p = 0; p < 11; p++) {
+            ids.add(FdfCommonServices.saveCurrent(Part.class, new Part("link" + p, p)).id);
+        }
+        // three closed states for each of the first three entities and six for the fourth
+        for (int p = 0; p < 4; p++) {
+            for (int change = 0; change < (p < 3 ? 3 : 6); change++) {
+                Part part = FdfCommonServices.getEntityCurrentById(Part.class, ids.get(p));
+                part.quantity++;
+                FdfCommonServices.saveCurrent(Part.class, part);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void currentPagesFollowEachOtherById() {
+        List<Long> read = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        FdfPage<Part> page = FdfCommonServices.getAllCurrentPage(Part.class, null, 4);
+        sizes.add(page.results.size());
+        page.results.forEach(part -> read.add(part.id));
+        while (page.hasNext()) {
+            page = FdfCommonServices.getAllCurrentPage(Part.class, page.nextCursor, 4);
+            sizes.add(page.results.size());
+            page.results.forEach(part -> read.add(part.id));
+        }
+
+        assertEquals(Arrays.asList(4, 4, 3), sizes);
+        assertEquals(ids, read);
+    }
+
+    @Test
+    public void aFullLastPageIsFollowedByAnEmptyOne() {
+        FdfPage<Part> page = FdfCommonServices.getAllCurrentPage(Part.class, null, 11);
+        assertEquals(11, page.results.size());
+        assertTrue(page.hasNext());
+
+        page = FdfCommonServices.getAllCurrentPage(Part.class, page.nextCursor, 11);
+        assertTrue(page.results.isEmpty());
+        assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void historyPagesKeepEntitiesWholeUnlessOneFillsAPage() {
+        List<Long> read = new ArrayList<>();
+        List<Integer> historySizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            FdfPage<FdfEntity<Part>> page = FdfCommonServices.getAllHistoryPage(Part.class, cursor, 5);
+            for (FdfEntity<Part> entity : page.results) {
+                read.add(entity.entityId);
+                historySizes.add(entity.history.size());
+                assertNull(entity.current);
+            }
+            cursor = page.nextCursor;
+        } while (cursor != null);
+
+        // the fourth entity has more closed states then fit on a page and continues on the next one
+        assertEquals(Arrays.asList(ids.get(0), ids.get(1), ids.get(2), ids.get(3), ids.get(3)), read);
+        assertEquals(Arrays.asList(3, 3, 3, 5, 1), historySizes);
+    }
+
+    @Test
+    public void cursorsAreTheIdAndRidOfTheLastRow() {
+        Part part = FdfCommonServices.getEntityCurrentById(Part.class, ids.get(5));
+        assertEquals(part.id + "." + part.rid, SqlStatement.cursorOf(part));
+        assertNull(SqlStatement.cursorOf(null));
+
+        List<Part> after = FdfCommonServices.getAllCurrentPage(Part.class, SqlStatement.cursorOf(part), 2).results;
+        assertEquals(Arrays.asList(ids.get(6), ids.get(7)), Arrays.asList(after.get(0).id, after.get(1).id));
+
+        try {
+            FdfCommonServices.getAllCurrentPage(Part.class, "page-2", 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("page-2"));
+        }
+    }
+}
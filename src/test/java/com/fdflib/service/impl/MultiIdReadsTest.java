@@ -0,0 +1,134 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+
+package com.fdflib.service.impl;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.metrics.FdfMetrics;
+import com.fdflib.metrics.InMemoryMetrics;
+import com.fdflib.metrics.NoOpMetrics;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.service.FdfServices;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * The multi id reads of FdfCommonServices on HSQL, with a batch size small enough to split the ids into several
+ * queries.
+ */
+public class MultiIdReadsTest {
+
+    private static final List<Long> ids = new ArrayList<>();
+    private static Date beforeChanges;
+
+    @BeforeClass
+    public static void start() throws InterruptedException {
+        FdfSettings.BATCH_SIZE = 4;
+        FdfTestDatabase.useHsql(Part.class);
+
+        for (int p = 0; p < 10; p++) {
+            ids.add(FdfCommonServices.saveCurrent(Part.class, new Part("pin" + p, p)).id);
+        }
+        Thread.sleep(1100);
+        beforeChanges = new Date();
+        Thread.sleep(1100);
+        for (int p = 0; p < 3; p++) {
+            Part changed = FdfCommonServices.getEntityCurrentById(Part.class, ids.get(p));
+            changed.quantity += 100;
+            FdfCommonServices.saveCurrent(Part.class, changed);
+        }
+        FdfCommonServices.setDeleteFlag(Part.class, ids.get(9), 1, 1);
+    }
+
+    @After
+    public void resetMetrics() {
+        FdfSettings.METRICS = new NoOpMetrics();
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+        FdfSettings.BATCH_SIZE = 1000;
+    }
+
+    @Test
+    public void currentStatesAreReturnedInTheOrderOfTheIds() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        FdfSettings.METRICS = metrics;
+
+        List<Long> wanted = Arrays.asList(ids.get(5), ids.get(0), 999999L, ids.get(8), null, ids.get(5), ids.get(2),
+                ids.get(7), ids.get(9));
+        Map<Long, Part> parts = FdfCommonServices.getEntitiesCurrentByIds(Part.class, wanted);
+
+        // duplicates, nulls and ids without a current state are left out
+        assertEquals(Arrays.asList(ids.get(5), ids.get(0), ids.get(8), ids.get(2), ids.get(7)),
+                new ArrayList<>(parts.keySet()));
+        assertEquals(100, parts.get(ids.get(0)).quantity);
+        assertEquals(5, parts.get(ids.get(5)).quantity);
+        // 7 distinct ids, one query per 4
+        assertEquals(2, metrics.getTimer(Part.class, FdfMetrics.Operation.SELECT).getCount());
+    }
+
+    @Test
+    public void entitiesIncludeTheirHistory() {
+        Map<Long, FdfEntity<Part>> entities = FdfCommonServices.getEntitiesByIds(Part.class, ids);
+
+        assertEquals(10, entities.size());
+        // the deleted entity keeps the state it had before the delete, as history
+        assertNull(entities.get(ids.get(9)).current);
+        assertEquals(1, entities.get(ids.get(9)).history.size());
+        for (int p = 0; p < 9; p++) {
+            FdfEntity<Part> entity = entities.get(ids.get(p));
+            assertEquals(p < 3 ? p + 100 : p, entity.current.quantity);
+            assertEquals(p < 3 ? 1 : 0, entity.history.size());
+        }
+    }
+
+    @Test
+    public void auditIncludesDeletedEntities() {
+        Map<Long, FdfEntity<Part>> entities = FdfCommonServices.auditEntitiesByIds(Part.class,
+                Arrays.asList(ids.get(9), ids.get(1)));
+
+        assertEquals(Arrays.asList(ids.get(9), ids.get(1)), new ArrayList<>(entities.keySet()));
+        assertTrue(entities.get(ids.get(9)).current.df);
+        assertEquals(101, entities.get(ids.get(1)).current.quantity);
+    }
+
+    @Test
+    public void statesAtADateAreThoseBeforeTheChanges() {
+        Map<Long, Part> parts = FdfCommonServices.getAtDateByIds(Part.class, ids.subList(0, 5), beforeChanges);
+
+        assertEquals(5, parts.size());
+        for (int p = 0; p < 5; p++) {
+            assertEquals(p, parts.get(ids.get(p)).quantity);
+        }
+        assertTrue(FdfCommonServices.getEntitiesCurrentByIds(Part.class, new ArrayList<>()).isEmpty());
+    }
+}
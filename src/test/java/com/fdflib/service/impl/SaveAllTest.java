@@ -0,0 +1,113 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+
+package com.fdflib.service.impl;
+
+import com.fdflib.FdfTestDatabase;
+import com.fdflib.model.Part;
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.service.FdfServices;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FdfCommonServices.saveAll on HSQL.
+ */
+public class SaveAllTest {
+
+    @BeforeClass
+    public static void start() {
+        FdfTestDatabase.useHsql(Part.class);
+    }
+
+    @AfterClass
+    public static void stop() {
+        FdfServices.shutdownFdfDataModel();
+    }
+
+    @Test
+    public void savesNewEntities() {
+        List<Part> saved = FdfCommonServices.saveAll(Part.class,
+                Arrays.asList(new Part("a", 1), new Part("b", 2), new Part("c", 3)), 1, 1);
+
+        assertEquals(3, saved.size());
+        for (Part part : saved) {
+            assertTrue(part.id > 0);
+            assertTrue(part.rid >= 0);
+            assertTrue(part.cf);
+            assertNotNull(part.arsd);
+        }
+        assertEquals("b", FdfCommonServices.getEntityCurrentById(Part.class, saved.get(1).id).name);
+    }
+
+    @Test
+    public void closesCurrentStatesOfExistingEntities() {
+        List<Part> saved = FdfCommonServices.saveAll(Part.class, Arrays.asList(new Part("d", 1), new Part("e", 1)),
+                1, 1);
+        List<Part> changed = new ArrayList<>();
+        for (Part part : saved) {
+            Part next = new Part(part.name, part.quantity + 1);
+            next.id = part.id;
+            changed.add(next);
+        }
+        // a new entity can be saved along with the existing ones
+        changed.add(new Part("f", 1));
+
+        List<Part> resaved = FdfCommonServices.saveAll(Part.class, changed, 1, 1);
+
+        for (int i = 0; i < saved.size(); i++) {
+            FdfEntity<Part> entity = FdfCommonServices.getEntityById(Part.class, saved.get(i).id);
+            assertEquals(2, entity.current.quantity);
+            assertEquals(resaved.get(i).rid, entity.current.rid);
+            assertEquals(1, entity.history.size());
+            assertEquals(saved.get(i).rid, entity.history.get(0).rid);
+            assertEquals(resaved.get(i).arsd, entity.history.get(0).ared);
+        }
+        assertTrue(resaved.get(2).id > 0);
+    }
+
+    @Test
+    public void rejectsAnEntityPassedTwice() {
+        Part saved = FdfCommonServices.saveAll(Part.class, Arrays.asList(new Part("g", 1)), 1, 1).get(0);
+        long rows = FdfCommonServices.getRowCount(Part.class);
+
+        Part first = new Part("g", 2);
+        first.id = saved.id;
+        Part second = new Part("g", 3);
+        second.id = saved.id;
+        List<Part> result = FdfCommonServices.saveAll(Part.class, Arrays.asList(first, new Part("h", 1), second), 1, 1);
+
+        for (Part part : result) {
+            assertEquals(-1, part.rid);
+        }
+        assertEquals(rows, FdfCommonServices.getRowCount(Part.class));
+        assertEquals(1, FdfCommonServices.getEntityCurrentById(Part.class, saved.id).quantity);
+
+        // the same new state twice is rejected as well
+        Part fresh = new Part("i", 1);
+        assertEquals(-1, FdfCommonServices.saveAll(Part.class, Arrays.asList(fresh, fresh), 1, 1).get(0).rid);
+        assertEquals(rows, FdfCommonServices.getRowCount(Part.class));
+    }
+
+}